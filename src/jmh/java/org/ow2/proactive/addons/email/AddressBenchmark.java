@@ -0,0 +1,85 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.ow2.proactive.addons.email.converters.AddressParser;
+
+
+/**
+ * Compares the parsing of the addresses of a message with the RFC 822 parser of javax.mail,
+ * as done on every send, to {@link AddressParser} with and without its cache.
+ *
+ * @author ActiveEon Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AddressBenchmark {
+
+    private static final String ADDRESSES = "john@company.com, \"Doe, Jane\" <jane@company.com>, ops@company.com";
+
+    private final AddressParser cachedParser = new AddressParser(AddressParser.DEFAULT_MAXIMUM_SIZE);
+
+    private final AddressParser uncachedParser = new AddressParser(0);
+
+    @Benchmark
+    public InternetAddress[] parseWithJavaMail() throws AddressException {
+        return InternetAddress.parse(ADDRESSES);
+    }
+
+    @Benchmark
+    public List<InternetAddress> parseUncached() {
+        return uncachedParser.parse(ADDRESSES);
+    }
+
+    @Benchmark
+    public List<InternetAddress> parseCached() {
+        return cachedParser.parse(ADDRESSES);
+    }
+
+    @Benchmark
+    public String[] splitWithRegex() {
+        return ADDRESSES.split(",\\s?");
+    }
+
+    @Benchmark
+    public List<String> split() {
+        return AddressParser.split(ADDRESSES);
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.ow2.proactive.addons.email.attachment.Attachment;
+import org.ow2.proactive.addons.email.attachment.AttachmentEncoder;
+import org.ow2.proactive.addons.email.attachment.StreamingFileBodyPart;
+
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Measures the encoding of attachments of several sizes.
+ *
+ * @author ActiveEon Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AttachmentEncodingBenchmark {
+
+    private static final int ATTACHMENT_COUNT = 4;
+
+    @Param({ "4096", "1048576", "33554432" })
+    public int size;
+
+    private Path file;
+
+    private List<Attachment> attachments;
+
+    private ForkJoinPool sequentialPool;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+
+        file = Files.createTempFile("benchmark", ".bin");
+        Files.write(file, content);
+
+        attachments = new ArrayList<>();
+        for (int i = 0; i < ATTACHMENT_COUNT; i++) {
+            attachments.add(Attachment.fromBytes("attachment-" + i + ".bin", content, null));
+        }
+
+        sequentialPool = new ForkJoinPool(1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sequentialPool.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void mimeBodyPart() throws IOException, MessagingException {
+        MimeBodyPart part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(new FileDataSource(file.toFile())));
+        part.setFileName("attachment.bin");
+        part.writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public void streamingFileBodyPart() throws IOException, MessagingException {
+        new StreamingFileBodyPart(file, "attachment.bin").writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public List<MimeBodyPart> preEncodeSequential() throws MessagingException {
+        return preEncode(sequentialPool);
+    }
+
+    @Benchmark
+    public List<MimeBodyPart> preEncodeParallel() throws MessagingException {
+        return preEncode(ForkJoinPool.commonPool());
+    }
+
+    private List<MimeBodyPart> preEncode(ForkJoinPool pool) throws MessagingException {
+        List<MimeBodyPart> parts = new AttachmentEncoder(pool).createBodyParts(attachments);
+        AttachmentEncoder.release(parts);
+        return parts;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.ow2.proactive.addons.email.config.SmtpPropertySchema;
+import org.ow2.proactive.addons.email.converters.IntegerConverter;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Compares conversions that report invalid values with an exception to conversions
+ * that report them with a {@code null} result, on valid and invalid values.
+ *
+ * @author ActiveEon Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConverterBenchmark {
+
+    private static final String UNDECLARED_PROPERTY = "mail.smtp.benchmark";
+
+    @Param({ "587", "smtp.company.com", "true" })
+    public String value;
+
+    @Benchmark
+    public Integer convertCatchingException() {
+        try {
+            return IntegerConverter.getInstance().convert(UNDECLARED_PROPERTY, value);
+        } catch (ConversionException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Integer tryConvert() {
+        return IntegerConverter.getInstance().tryConvert(value);
+    }
+
+    /**
+     * Guesses the type of a value as the SMTP configuration used to do on every send.
+     */
+    @Benchmark
+    public Object guessTypeCatchingException() {
+        if (value.equals(Boolean.TRUE.toString()) || value.equals(Boolean.FALSE.toString())) {
+            return Boolean.valueOf(value);
+        }
+
+        try {
+            return IntegerConverter.getInstance().convert(UNDECLARED_PROPERTY, value);
+        } catch (ConversionException e) {
+            return value;
+        }
+    }
+
+    @Benchmark
+    public Object guessTypeWithSchema() {
+        return SmtpPropertySchema.getInstance().convert(UNDECLARED_PROPERTY, value);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.ow2.proactive.addons.email.config.SmtpConfiguration;
+
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Measures the construction and the serialization of messages.
+ *
+ * @author ActiveEon Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageBenchmark {
+
+    private Map<String, Object> options;
+
+    private EmailSender emailSender;
+
+    private Session session;
+
+    private Path attachment;
+
+    private MimeMessage plainTextMessage;
+
+    private MimeMessage messageWithAttachment;
+
+    @Setup
+    public void setUp() throws IOException, MessagingException {
+        attachment = Files.createTempFile("benchmark", ".bin");
+        byte[] content = new byte[64 * 1024];
+        new Random(42).nextBytes(content);
+        Files.write(attachment, content);
+
+        options = new HashMap<>();
+        options.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, "localhost");
+        options.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, "25");
+        options.put(EmailSender.PROPERTY_MAIL_SMTP_AUTH, "true");
+        options.put(EmailSender.PROPERTY_MAIL_SMTP_USERNAME, "username");
+        options.put(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD, "password");
+        options.put(EmailSender.ARG_FROM, "from@company.com");
+        options.put(EmailSender.ARG_RECIPIENTS, "first@company.com, second@company.com, third@company.com");
+        options.put(EmailSender.ARG_CC, "cc@company.com");
+        options.put(EmailSender.ARG_SUBJECT, "Workflow finished");
+        options.put(EmailSender.ARG_BODY, "The job has finished, the results are attached.");
+        options.put(EmailSender.ARG_FILETOATTACH, attachment.toString());
+        options.put(EmailSender.ARG_FILENAME, "results.bin");
+
+        emailSender = new EmailSender.Builder(options).build();
+        session = Session.getInstance(emailSender.getSmtpConfiguration().toProperties());
+
+        plainTextMessage = emailSender.createMessage(session, false);
+        messageWithAttachment = emailSender.createMessage(session, true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(attachment);
+    }
+
+    // paid once per sender since the configuration is reused for every send
+    @Benchmark
+    public SmtpConfiguration createSmtpConfiguration() {
+        return SmtpConfiguration.of(emailSender.properties);
+    }
+
+    @Benchmark
+    public EmailSender.Builder builderFromMap() {
+        return new EmailSender.Builder(options);
+    }
+
+    @Benchmark
+    public MimeMessage configurePlainTextMessage() throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        emailSender.configurePlainTextMessage(message);
+        return message;
+    }
+
+    @Benchmark
+    public MimeMessage configurePlainTextMessageWithAttachment() throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        emailSender.configurePlainTextMessageWithAttachment(message);
+        return message;
+    }
+
+    @Benchmark
+    public void writePlainTextMessage() throws IOException, MessagingException {
+        plainTextMessage.writeTo(ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public void writeMessageWithAttachment() throws IOException, MessagingException {
+        messageWithAttachment.writeTo(ByteStreams.nullOutputStream());
+    }
+
+}
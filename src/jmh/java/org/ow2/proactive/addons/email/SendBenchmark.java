@@ -0,0 +1,107 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.ow2.proactive.addons.email.testing.FakeSmtpServer;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
+
+
+/**
+ * Measures complete sends against an in-process SMTP server.
+ *
+ * @author ActiveEon Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SendBenchmark {
+
+    /**
+     * {@code connection} opens a connection per message, {@code pooled} reuses pooled connections
+     * and {@code pipelined} also pipelines the commands of each transaction.
+     */
+    @Param({ "connection", "pooled", "pipelined" })
+    public String mode;
+
+    private FakeSmtpServer server;
+
+    private SmtpTransportPool pool;
+
+    private EmailSender emailSender;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeSmtpServer.Builder().setRetainMessages(false).build();
+        pool = new SmtpTransportPool(SmtpTransportPool.DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT,
+                                     SmtpTransportPool.DEFAULT_MAX_IDLE_TIME_MILLIS,
+                                     SmtpTransportPool.DEFAULT_MAX_AGE_MILLIS,
+                                     SmtpTransportPool.DEFAULT_VALIDATE_AFTER_IDLE_MILLIS,
+                                     SmtpTransportPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+
+        EmailSender.Builder builder = new EmailSender.Builder().setHost("localhost")
+                                                               .setPort(server.getPort())
+                                                               .setAuth(false)
+                                                               .setFrom("from@company.com")
+                                                               .addRecipient("first@company.com")
+                                                               .addRecipient("second@company.com")
+                                                               .addCc("cc@company.com")
+                                                               .setSubject("Workflow finished")
+                                                               .setBody("The job has finished.");
+
+        if (!"connection".equals(mode)) {
+            builder.setConnectionPool(pool);
+        }
+        if ("pipelined".equals(mode)) {
+            builder.setPipelining(true);
+        }
+
+        emailSender = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.close();
+        server.close();
+    }
+
+    @Benchmark
+    public void sendPlainTextEmail() {
+        emailSender.sendPlainTextEmail();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ow2.proactive.addons.email.template.MessageTemplate;
+
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Compares a per-recipient body rendered by repeated string replacements, as done by callers
+ * that build one {@link EmailSender} per recipient, to a body rendered from a compiled
+ * {@link MessageTemplate}, and measures the creation of the sender of a mail merge.
+ *
+ * @author ActiveEon Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemplateBenchmark {
+
+    private static final String SUBJECT = "Job ${job} ${status}";
+
+    private static final String BODY = "Dear ${name},\n\nThe job ${job} submitted on ${date} has ${status}.\n" +
+                                       "Its results are available from the scheduler portal.\n\nRegards";
+
+    private Map<String, Object> variables;
+
+    private MessageTemplate template;
+
+    private StringBuilder buffer;
+
+    private MailMerge mailMerge;
+
+    private MailMerge.Recipient recipient;
+
+    @Setup
+    public void setUp() {
+        variables = ImmutableMap.of("name", "Alice", "job", 4242, "date", "2017-05-04", "status", "finished");
+        template = MessageTemplate.compile(SUBJECT, BODY);
+        buffer = new StringBuilder();
+        mailMerge = new EmailSender.Builder().setHost("localhost")
+                                             .setPort(25)
+                                             .setFrom("from@company.com")
+                                             .buildMailMerge(template);
+        recipient = MailMerge.Recipient.of("alice@company.com", variables);
+    }
+
+    @Benchmark
+    public String renderWithReplace() {
+        String body = BODY;
+        for (Map.Entry<String, Object> variable : variables.entrySet()) {
+            body = body.replace("${" + variable.getKey() + "}", String.valueOf(variable.getValue()));
+        }
+        return body;
+    }
+
+    @Benchmark
+    public String renderCompiled() {
+        return template.renderBody(variables, buffer);
+    }
+
+    @Benchmark
+    public EmailSender renderMailMergeSender() {
+        return mailMerge.render(recipient);
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+
+/**
+ * Outcome of one message sent as part of a batch: either a {@link SendResult}
+ * or the error that prevented the message from being sent.
+ *
+ * @author ActiveEon Team
+ */
+public final class DeliveryOutcome {
+
+    private final EmailSender sender;
+
+    private final SendResult result;
+
+    private final EmailException error;
+
+    private DeliveryOutcome(EmailSender sender, SendResult result, EmailException error) {
+        this.sender = sender;
+        this.result = result;
+        this.error = error;
+    }
+
+    public static DeliveryOutcome success(EmailSender sender, SendResult result) {
+        return new DeliveryOutcome(sender, result, null);
+    }
+
+    public static DeliveryOutcome failure(EmailSender sender, EmailException error) {
+        return new DeliveryOutcome(sender, null, error);
+    }
+
+    /**
+     * Returns the sender of the message, or {@code null} if the message of a {@link MailMerge}
+     * could not be rendered.
+     *
+     * @return the sender of the message.
+     */
+    public EmailSender getSender() {
+        return sender;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the outcome of the send operation, or {@code null} if the message has not been sent.
+     *
+     * @return the outcome of the send operation.
+     */
+    public SendResult getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the reason why the message has not been sent, or {@code null} if it has been sent.
+     *
+     * @return the reason why the message has not been sent.
+     */
+    public EmailException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryOutcome{" + "success=" + isSuccess() + ", result=" + result + ", error=" + error + '}';
+    }
+
+}
@@ -0,0 +1,546 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Coalesces the notifications sent to the same recipients into digest messages.
+ * <p>
+ * Messages are grouped by sender, SMTP configuration, recipients and subject key. A group is sent
+ * as a single message once its window has elapsed since its first message, or as soon as it
+ * holds the maximum number of messages. A group holding a single message is sent unchanged,
+ * otherwise the body of the digest lists the subject and body of each message.
+ * <p>
+ * Digests are sent by a background thread. Messages with attachments are not merged and are sent
+ * by this thread as well. The number of messages held in memory, in a group or waiting for the
+ * background thread, is bounded: once it is reached, the oldest group is sent early and the thread
+ * adding a message sends it itself rather than queuing it. The pending groups are sent when the
+ * aggregator is closed and, if enabled, when the JVM shuts down.
+ *
+ * @author ActiveEon Team
+ */
+public class DigestAggregator implements AutoCloseable {
+
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    public static final int DEFAULT_MAX_MESSAGES_PER_DIGEST = 100;
+
+    public static final int DEFAULT_MAX_PENDING_MESSAGES = 10000;
+
+    private static final String SECTION_SEPARATOR = "--- ";
+
+    private final long windowMillis;
+
+    private final int maxMessagesPerDigest;
+
+    private final int maxPendingMessages;
+
+    private final Function<String, String> subjectKey;
+
+    private final Consumer<DeliveryOutcome> listener;
+
+    private final ScheduledThreadPoolExecutor timers;
+
+    private final ExecutorService flusher;
+
+    private final Thread shutdownHook;
+
+    // guarded by this, in creation order so that the oldest group is sent first when memory is short
+    private final Map<Key, Digest> digests = new LinkedHashMap<>();
+
+    private int pendingCount;
+
+    // guarded by this, the messages handed to the flusher and not sent yet
+    private int queuedCount;
+
+    private boolean closed;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+
+    private final AtomicLong sentCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private DigestAggregator(Builder builder) {
+        this.windowMillis = builder.windowMillis;
+        this.maxMessagesPerDigest = builder.maxMessagesPerDigest;
+        this.maxPendingMessages = builder.maxPendingMessages;
+        this.subjectKey = builder.subjectKey;
+        this.listener = builder.listener;
+
+        ThreadFactory timerThreadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                     .setNameFormat("email-digest-timer-%d")
+                                                                     .build();
+        this.timers = new ScheduledThreadPoolExecutor(1, timerThreadFactory);
+        // the timer of a group sent early is cancelled, the pending groups are sent by close()
+        timers.setRemoveOnCancelPolicy(true);
+        timers.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        // the groups handed to the flusher are still sent once it is shut down
+        ThreadFactory flusherThreadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                       .setNameFormat("email-digest-flusher-%d")
+                                                                       .build();
+        this.flusher = Executors.newSingleThreadExecutor(flusherThreadFactory);
+
+        if (builder.flushOnShutdown) {
+            shutdownHook = new Thread(this::close, "email-digest-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } else {
+            shutdownHook = null;
+        }
+    }
+
+    /**
+     * Adds the message described by the specified sender to its group.
+     *
+     * @param sender the message to send.
+     * @throws EmailException if the aggregator is closed.
+     */
+    public void add(EmailSender sender) {
+        if (sender == null) {
+            throw new MissingArgumentException("sender");
+        }
+
+        List<EmailSender> ready = null;
+        boolean inline;
+
+        synchronized (this) {
+            if (closed) {
+                throw new EmailException("The digest aggregator is closed");
+            }
+            receivedCount.incrementAndGet();
+
+            if (sender.fileToAttach != null || !sender.attachments.isEmpty()) {
+                // attachments cannot be merged into a digest
+                ready = Collections.singletonList(sender);
+            } else {
+                Key key = new Key(sender, subjectKey.apply(sender.subject));
+                Digest digest = digests.get(key);
+                if (digest == null) {
+                    Digest created = new Digest(key);
+                    created.timer = timers.schedule(() -> flush(created), windowMillis, TimeUnit.MILLISECONDS);
+                    digests.put(key, created);
+                    digest = created;
+                }
+
+                digest.senders.add(sender);
+                pendingCount++;
+
+                if (digest.senders.size() >= maxMessagesPerDigest) {
+                    ready = remove(digest);
+                } else if (pendingCount + queuedCount > maxPendingMessages) {
+                    ready = remove(digests.values().iterator().next());
+                }
+            }
+
+            if (ready == null) {
+                return;
+            }
+
+            // the flusher is behind, queuing more messages would not bound the memory
+            inline = pendingCount + queuedCount + ready.size() > maxPendingMessages;
+            if (!inline) {
+                queuedCount += ready.size();
+            }
+        }
+
+        if (inline) {
+            deliver(ready);
+        } else {
+            submit(ready);
+        }
+    }
+
+    /**
+     * Sends all the pending groups from the calling thread, without waiting for their window to elapse.
+     *
+     * @return the outcome of each message sent, digest or single message.
+     */
+    public List<DeliveryOutcome> flush() {
+        List<List<EmailSender>> groups = new ArrayList<>();
+        synchronized (this) {
+            for (Digest digest : new ArrayList<>(digests.values())) {
+                groups.add(remove(digest));
+            }
+        }
+
+        List<DeliveryOutcome> outcomes = new ArrayList<>(groups.size());
+        for (List<EmailSender> group : groups) {
+            outcomes.add(deliver(group));
+        }
+        return outcomes;
+    }
+
+    /**
+     * Returns the number of messages waiting for their group to be sent.
+     *
+     * @return the number of pending messages.
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the number of messages added to the aggregator.
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * @return the number of messages, digests or not, that have been sent.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return the number of messages, digests or not, that could not be sent.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Stops accepting messages, waits for the digests being sent and sends the pending groups.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        // a timer that fires meanwhile hands its group to the flusher, which is shut down last
+        timers.shutdown();
+        awaitTermination(timers);
+        flusher.shutdown();
+        awaitTermination(flusher);
+
+        flush();
+
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is already shutting down
+            }
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Merges the specified messages into a digest sent with the configuration and recipients
+     * of the first one.
+     */
+    static EmailSender merge(List<EmailSender> senders) {
+        EmailSender first = senders.get(0);
+
+        StringBuilder body = new StringBuilder();
+        body.append(senders.size()).append(" notifications have been grouped into this message.");
+        for (EmailSender sender : senders) {
+            body.append("\n\n").append(SECTION_SEPARATOR).append(sender.subject).append("\n\n").append(sender.body);
+        }
+
+        String subject = first.subject + " (+" + (senders.size() - 1) + " more)";
+        return new EmailSender(first, first.recipients, subject, body.toString());
+    }
+
+    private void flush(Digest digest) {
+        List<EmailSender> senders;
+        synchronized (this) {
+            // the group may have been sent early
+            if (digests.get(digest.key) != digest) {
+                return;
+            }
+            senders = remove(digest);
+            queuedCount += senders.size();
+        }
+
+        submit(senders);
+    }
+
+    private List<EmailSender> remove(Digest digest) {
+        digests.remove(digest.key);
+        pendingCount -= digest.senders.size();
+        if (digest.timer != null) {
+            digest.timer.cancel(false);
+        }
+        return digest.senders;
+    }
+
+    private void submit(List<EmailSender> senders) {
+        try {
+            flusher.execute(() -> {
+                try {
+                    deliver(senders);
+                } finally {
+                    dequeue(senders);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed meanwhile
+            dequeue(senders);
+            deliver(senders);
+        }
+    }
+
+    private synchronized void dequeue(List<EmailSender> senders) {
+        queuedCount -= senders.size();
+    }
+
+    /**
+     * Sends the specified group. Failures are reported to the listener rather than thrown, so that
+     * they do not prevent the other groups from being sent.
+     */
+    private DeliveryOutcome deliver(List<EmailSender> senders) {
+        EmailSender message = senders.size() == 1 ? senders.get(0) : merge(senders);
+
+        DeliveryOutcome outcome;
+        try {
+            outcome = DeliveryOutcome.success(message, message.send(message.fileToAttach != null));
+            sentCount.incrementAndGet();
+        } catch (EmailException e) {
+            outcome = DeliveryOutcome.failure(message, e);
+            failedCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            outcome = DeliveryOutcome.failure(message, new EmailException(e));
+            failedCount.incrementAndGet();
+        }
+
+        try {
+            listener.accept(outcome);
+        } catch (RuntimeException e) {
+            // a failing listener must not prevent the other groups from being sent
+        }
+        return outcome;
+    }
+
+    private static Set<String> normalize(List<String> addresses) {
+        if (addresses == null) {
+            return Collections.emptySet();
+        }
+
+        ImmutableSet.Builder<String> normalized = ImmutableSet.builder();
+        for (String address : addresses) {
+            normalized.add(address.trim().toLowerCase(Locale.ROOT));
+        }
+        return normalized.build();
+    }
+
+    /**
+     * Identifies the messages that can be merged: same configuration, sender, recipients in any
+     * order and subject key.
+     */
+    private static final class Key {
+
+        private final String configuration;
+
+        private final String from;
+
+        private final Set<String> recipients;
+
+        private final Set<String> cc;
+
+        private final Set<String> bcc;
+
+        private final String subjectKey;
+
+        private final int hashCode;
+
+        private Key(EmailSender sender, String subjectKey) {
+            this.configuration = sender.getSmtpConfiguration().getFingerprint();
+            this.from = sender.from;
+            this.recipients = normalize(sender.recipients);
+            this.cc = normalize(sender.cc);
+            this.bcc = normalize(sender.bcc);
+            this.subjectKey = subjectKey;
+            this.hashCode = Objects.hash(configuration, from, recipients, cc, bcc, subjectKey);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return configuration.equals(key.configuration) && Objects.equals(from, key.from) &&
+                   recipients.equals(key.recipients) && cc.equals(key.cc) && bcc.equals(key.bcc) &&
+                   Objects.equals(subjectKey, key.subjectKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+    }
+
+    private static final class Digest {
+
+        private final Key key;
+
+        private final List<EmailSender> senders = new ArrayList<>();
+
+        private ScheduledFuture<?> timer;
+
+        private Digest(Key key) {
+            this.key = key;
+        }
+
+    }
+
+    public static class Builder {
+
+        private long windowMillis = DEFAULT_WINDOW_MILLIS;
+
+        private int maxMessagesPerDigest = DEFAULT_MAX_MESSAGES_PER_DIGEST;
+
+        private int maxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+
+        private Function<String, String> subjectKey = Function.identity();
+
+        private Consumer<DeliveryOutcome> listener = outcome -> {
+        };
+
+        private boolean flushOnShutdown;
+
+        /**
+         * @param window the time messages are held after the first message of their group. Defaults to 5min.
+         * @return the builder instance.
+         */
+        public Builder setWindow(Duration window) {
+            this.windowMillis = window.toMillis();
+            return this;
+        }
+
+        /**
+         * @param maxMessagesPerDigest the number of messages from which a group is sent without
+         * waiting for its window to elapse. Defaults to 100.
+         * @return the builder instance.
+         */
+        public Builder setMaxMessagesPerDigest(int maxMessagesPerDigest) {
+            this.maxMessagesPerDigest = maxMessagesPerDigest;
+            return this;
+        }
+
+        /**
+         * @param maxPendingMessages the number of messages held in memory, grouped or waiting for
+         * the background thread, from which the oldest group is sent early. Defaults to 10000.
+         * @return the builder instance.
+         */
+        public Builder setMaxPendingMessages(int maxPendingMessages) {
+            this.maxPendingMessages = maxPendingMessages;
+            return this;
+        }
+
+        /**
+         * Define the part of the subject messages are grouped by, so that notifications whose
+         * subject differs only by a task name or a date end up in the same digest.
+         *
+         * @param subjectKey computes the key of a subject. Defaults to the subject itself.
+         * @return the builder instance.
+         */
+        public Builder setSubjectKey(Function<String, String> subjectKey) {
+            this.subjectKey = subjectKey;
+            return this;
+        }
+
+        /**
+         * @param listener notified of the outcome of each message sent by the aggregator.
+         * @return the builder instance.
+         */
+        public Builder setListener(Consumer<DeliveryOutcome> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param flushOnShutdown if true, the pending groups are sent when the JVM shuts down. Defaults to false.
+         * @return the builder instance.
+         */
+        public Builder setFlushOnShutdown(boolean flushOnShutdown) {
+            this.flushOnShutdown = flushOnShutdown;
+            return this;
+        }
+
+        public DigestAggregator build() {
+            if (subjectKey == null) {
+                throw new MissingArgumentException("subjectKey");
+            }
+            if (listener == null) {
+                throw new MissingArgumentException("listener");
+            }
+            if (windowMillis <= 0 || maxMessagesPerDigest <= 0 || maxPendingMessages <= 0) {
+                throw new InvalidArgumentException("window, maxMessagesPerDigest and maxPendingMessages must be " +
+                                                   "positive");
+            }
+
+            return new DigestAggregator(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.ow2.proactive.addons.email.config.SmtpConfiguration;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.mx.MxRecord;
+import org.ow2.proactive.addons.email.mx.MxResolver;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.retry.SmtpErrorClassifier;
+import org.ow2.proactive.addons.email.transport.PartialDeliveryException;
+import org.ow2.proactive.addons.email.transport.RecipientChunker;
+import org.ow2.proactive.addons.email.transport.RecipientReport;
+import org.ow2.proactive.addons.email.transport.SendDeadline;
+import org.ow2.proactive.addons.email.transport.SessionCache;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+
+/**
+ * Delivers a message directly to the mail exchangers of its recipients rather than through
+ * {@code mail.smtp.host}. Recipients are grouped by domain and each domain is served concurrently,
+ * over connections pooled per mail exchanger. The mail exchangers of a domain are tried in order
+ * of preference until one of them accepts the transaction. The recipients of a domain that fails
+ * with a transient error are not reported as rejected: the send fails with a
+ * {@link PartialDeliveryException}, so that only this domain is tried again.
+ * <p>
+ * The content of the message is encoded once and shared by all the transactions. The rate limits
+ * apply to each mail exchanger rather than to {@code mail.smtp.host}.
+ *
+ * @author ActiveEon Team
+ */
+final class DirectDelivery {
+
+    /**
+     * The configurations derived for each mail exchanger, keyed by the fingerprint of the sender
+     * configuration and the endpoint of the exchanger, so that they are not parsed on every send.
+     */
+    private static final Cache<String, SmtpConfiguration> CONFIGURATIONS = CacheBuilder.newBuilder()
+                                                                                       .maximumSize(256)
+                                                                                       .build();
+
+    private final EmailSender sender;
+
+    private final MxResolver resolver;
+
+    private final SmtpTransportPool transportPool;
+
+    private final Executor executor;
+
+    DirectDelivery(EmailSender sender, MxResolver resolver, SmtpTransportPool transportPool, Executor executor) {
+        this.sender = sender;
+        this.resolver = resolver;
+        this.transportPool = transportPool;
+        this.executor = executor;
+    }
+
+    /**
+     * Sends the message to each domain of the specified recipients.
+     *
+     * @param message the message to send.
+     * @param recipients the envelope recipients.
+     * @return the outcome of the message, whose report lists the recipients of the domains that
+     * rejected the message for good.
+     * @throws PartialDeliveryException if some domains have accepted the message and others failed
+     * with a transient error, their recipients being the ones to send the message again to.
+     * @throws EmailException if the message has not been accepted for any recipient.
+     */
+    SendResult deliver(MimeMessage message, Address[] recipients, Instant startTime, long start)
+            throws MessagingException {
+        Map<String, List<Address>> domains = groupByDomain(recipients);
+
+        try (SerializedBody body = SerializedBody.of(message)) {
+            MimeMessage shared = PreparedMimeMessage.copyOf(sender.getSession(sender.getSmtpConfiguration()),
+                                                            message,
+                                                            body);
+
+            // the domains served by other threads share the deadline of the send
+            SendDeadline deadline = SendDeadline.current();
+            Map<String, CompletableFuture<RecipientReport>> reports = new LinkedHashMap<>();
+            int remaining = domains.size();
+            for (Map.Entry<String, List<Address>> domain : domains.entrySet()) {
+                Supplier<RecipientReport> task = () -> {
+                    SendDeadline.Binding binding = SendDeadline.bind(deadline);
+                    try {
+                        return deliverToDomain(domain.getKey(), domain.getValue(), shared);
+                    } finally {
+                        binding.close();
+                    }
+                };
+                // the calling thread serves the last domain rather than waiting idle
+                reports.put(domain.getKey(), --remaining > 0 ? CompletableFuture.supplyAsync(task, executor)
+                                                             : runInline(task));
+            }
+
+            List<String> accepted = new ArrayList<>();
+            Map<String, String> rejected = new LinkedHashMap<>();
+            List<Address> unsent = new ArrayList<>();
+            Throwable firstFailure = null;
+            Exception firstTransientFailure = null;
+
+            for (Map.Entry<String, CompletableFuture<RecipientReport>> report : reports.entrySet()) {
+                try {
+                    RecipientReport domainReport = report.getValue().join();
+                    accepted.addAll(domainReport.getAcceptedRecipients());
+                    rejected.putAll(domainReport.getRejectedRecipients());
+                } catch (CompletionException e) {
+                    Throwable failure = e.getCause();
+                    if (firstFailure == null) {
+                        firstFailure = failure;
+                    }
+
+                    List<Address> notReached = domains.get(report.getKey());
+                    PartialDeliveryException partial = PartialDeliveryException.find(failure);
+                    if (partial != null) {
+                        // the domain has accepted the message for some of its recipients
+                        accepted.addAll(partial.getReport().getAcceptedRecipients());
+                        rejected.putAll(partial.getReport().getRejectedRecipients());
+                        notReached = Arrays.asList(partial.getUnsentAddresses());
+                    }
+
+                    if (failure instanceof Exception && SmtpErrorClassifier.getInstance().isTransient(failure)) {
+                        if (firstTransientFailure == null) {
+                            firstTransientFailure = (Exception) failure;
+                        }
+                        unsent.addAll(notReached);
+                    } else {
+                        String reason = getReason(failure);
+                        for (Address address : notReached) {
+                            rejected.put(address.toString(), reason);
+                        }
+                    }
+                }
+            }
+
+            if (accepted.isEmpty() && firstFailure != null) {
+                throw firstFailure instanceof EmailException ? (EmailException) firstFailure
+                                                             : new EmailException(firstFailure);
+            }
+
+            RecipientReport recipientReport = new RecipientReport(accepted, rejected);
+            if (firstTransientFailure != null) {
+                // the domains that may accept the message later must not be reported as delivered
+                throw new PartialDeliveryException(recipientReport,
+                                                   unsent.toArray(new Address[unsent.size()]),
+                                                   firstTransientFailure);
+            }
+
+            return SendResult.of(message, null, startTime, start, recipientReport);
+        }
+    }
+
+    private RecipientReport deliverToDomain(String domain, List<Address> recipients, MimeMessage message) {
+        Address[] envelope = recipients.toArray(new Address[recipients.size()]);
+
+        try {
+            List<MxRecord> exchangers = resolver.resolve(domain);
+            if (exchangers.isEmpty()) {
+                throw new MessagingException("Domain " + domain + " does not accept mail");
+            }
+
+            MessagingException lastFailure = null;
+            for (MxRecord exchanger : exchangers) {
+                SmtpConfiguration configuration = getConfiguration(exchanger);
+                Session session = SessionCache.getInstance().getSession(configuration, () -> null);
+                int maxRecipients = RecipientChunker.getMaxRecipients(configuration.getProperties());
+
+                try {
+                    SmtpRateLimiter.getInstance().acquire(configuration.getProperties(), sender.from);
+                    return transportPool.execute(configuration.getEndpoint(),
+                                                 () -> session.getTransport("smtp"),
+                                                 SendDeadline.guard(transport -> RecipientChunker.send(transport,
+                                                                                                       message,
+                                                                                                       envelope,
+                                                                                                       maxRecipients)),
+                                                 sender.metrics::recordConnect);
+                } catch (SendFailedException e) {
+                    // the domain answered, trying a less preferred exchanger would not change the answer
+                    throw e;
+                } catch (MessagingException e) {
+                    lastFailure = e;
+                }
+            }
+            throw lastFailure;
+        } catch (MessagingException e) {
+            throw SendDeadline.failure(e);
+        }
+    }
+
+    /**
+     * Returns the configuration of the sender with the host and port of the specified exchanger.
+     * The credentials of the relay are not sent to the exchangers.
+     */
+    private SmtpConfiguration getConfiguration(MxRecord exchanger) {
+        SmtpConfiguration base = sender.getSmtpConfiguration();
+        String key = base.getFingerprint() + '|' + exchanger.getHost().toLowerCase(Locale.ROOT) + ':' +
+                     exchanger.getPort();
+        try {
+            return CONFIGURATIONS.get(key, () -> newConfiguration(base, exchanger));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new EmailException("Unable to configure the connection to " + exchanger.getHost(), e.getCause());
+        }
+    }
+
+    private static SmtpConfiguration newConfiguration(SmtpConfiguration base, MxRecord exchanger) {
+        Properties properties = base.toProperties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, exchanger.getHost());
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, String.valueOf(exchanger.getPort()));
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_AUTH, "false");
+        properties.remove(EmailSender.PROPERTY_MAIL_SMTP_USERNAME);
+        properties.remove(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD);
+        return SmtpConfiguration.of(properties);
+    }
+
+    private static Map<String, List<Address>> groupByDomain(Address[] recipients) throws MessagingException {
+        Map<String, List<Address>> domains = new LinkedHashMap<>();
+        if (recipients == null) {
+            return domains;
+        }
+
+        for (Address recipient : recipients) {
+            String address = ((InternetAddress) recipient).getAddress();
+            int at = address.lastIndexOf('@');
+            if (at < 0 || at == address.length() - 1) {
+                throw new SendFailedException("No domain in recipient address " + address);
+            }
+            domains.computeIfAbsent(address.substring(at + 1).toLowerCase(Locale.ROOT), domain -> new ArrayList<>())
+                   .add(recipient);
+        }
+        return domains;
+    }
+
+    private static CompletableFuture<RecipientReport> runInline(Supplier<RecipientReport> task) {
+        CompletableFuture<RecipientReport> report = new CompletableFuture<>();
+        try {
+            report.complete(task.get());
+        } catch (RuntimeException e) {
+            report.completeExceptionally(new CompletionException(e));
+        }
+        return report;
+    }
+
+    private static String getReason(Throwable failure) {
+        Throwable reason = failure instanceof EmailException && failure.getCause() != null ? failure.getCause()
+                                                                                            : failure;
+        // the reply of the server is carried by the exceptions chained to a rejected transaction
+        if (reason instanceof SendFailedException && ((SendFailedException) reason).getNextException() != null) {
+            reason = ((SendFailedException) reason).getNextException();
+        }
+        return String.valueOf(reason.getMessage()).trim();
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.ow2.proactive.addons.email.circuit.CircuitBreakerRegistry;
+import org.ow2.proactive.addons.email.config.SmtpConfiguration;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.transport.PartialDeliveryException;
+import org.ow2.proactive.addons.email.transport.RecipientChunker;
+import org.ow2.proactive.addons.email.transport.RecipientReport;
+import org.ow2.proactive.addons.email.transport.SmtpEndpoint;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+
+/**
+ * Sends many messages while opening as few SMTP connections as possible.
+ * <p>
+ * Messages are grouped by {@link SmtpEndpoint} and each group is sent over a single connection.
+ * Between two messages, the SMTP session is reset with RSET, which also detects connections
+ * that have been dropped by the server. Connections are reopened transparently when the server
+ * closes them, and after a configurable number of messages since many servers limit the number
+ * of transactions per session.
+ * <p>
+ * The batch connects to {@code mail.smtp.host} itself and sends each message once: the retry
+ * policy, send timeout and duplicate suppression of the senders do not apply, and messages are
+ * always relayed. Senders that spread their messages over relays, write them to an outbox or send
+ * them through a circuit breaker cannot be sent with a batch, use {@link EmailSender#sendAll(Collection)}
+ * instead.
+ *
+ * @author ActiveEon Team
+ */
+public class EmailBatch {
+
+    public static final int DEFAULT_MAX_MESSAGES_PER_CONNECTION = 100;
+
+    private final int maxMessagesPerConnection;
+
+    public EmailBatch() {
+        this(DEFAULT_MAX_MESSAGES_PER_CONNECTION);
+    }
+
+    /**
+     * @param maxMessagesPerConnection the number of messages after which the connection is reopened.
+     */
+    public EmailBatch(int maxMessagesPerConnection) {
+        if (maxMessagesPerConnection <= 0) {
+            throw new InvalidArgumentException("maxMessagesPerConnection must be positive: " +
+                                               maxMessagesPerConnection);
+        }
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+    }
+
+    /**
+     * Sends the messages described by the specified senders. A message that cannot be sent
+     * does not prevent the next ones from being sent. Each message is created right before it is sent
+     * and released right after, so that only one message is held in memory at a time.
+     *
+     * @param senders the messages to send. Messages with an attachment path are sent with their attachment.
+     * @return the outcome of each message, in iteration order of the collection.
+     * @throws InvalidArgumentException if a sender uses relays, an outbox or a circuit breaker,
+     * in which case no message is sent.
+     */
+    public List<DeliveryOutcome> sendAll(Collection<? extends EmailSender> senders) {
+        for (EmailSender sender : senders) {
+            checkSupported(sender);
+        }
+
+        DeliveryOutcome[] outcomes = new DeliveryOutcome[senders.size()];
+        Map<SmtpEndpoint, List<PendingMessage>> groups = new LinkedHashMap<>();
+
+        int index = 0;
+        for (EmailSender sender : senders) {
+            try {
+                SmtpConfiguration configuration = sender.getSmtpConfiguration();
+                Session session = sender.getSession(configuration);
+
+                groups.computeIfAbsent(configuration.getEndpoint(), endpoint -> new ArrayList<>())
+                      .add(new PendingMessage(index, sender, configuration.getProperties(), session));
+            } catch (EmailException e) {
+                outcomes[index] = DeliveryOutcome.failure(sender, e);
+            }
+            index++;
+        }
+
+        for (List<PendingMessage> group : groups.values()) {
+            sendGroup(group, outcomes);
+        }
+
+        return Arrays.asList(outcomes);
+    }
+
+    private static void checkSupported(EmailSender sender) {
+        if (sender.getRelayGroup() != null) {
+            throw new InvalidArgumentException("Messages sent through relays cannot be sent with a batch");
+        }
+        if (sender.outbox != null || sender.fallbackOutbox != null) {
+            throw new InvalidArgumentException("Messages written to an outbox cannot be sent with a batch");
+        }
+        if (CircuitBreakerRegistry.getInstance().get(sender.getSmtpConfiguration()) != null) {
+            throw new InvalidArgumentException("Messages sent through a circuit breaker cannot be sent with a batch");
+        }
+    }
+
+    private void sendGroup(List<PendingMessage> group, DeliveryOutcome[] outcomes) {
+        Transport transport = null;
+        int sentOnConnection = 0;
+
+        try {
+            for (PendingMessage pending : group) {
+                try {
+                    SmtpRateLimiter.getInstance().acquire(pending.properties, pending.sender.from);
+                } catch (EmailException e) {
+                    outcomes[pending.index] = DeliveryOutcome.failure(pending.sender, e);
+                    continue;
+                }
+
+                try {
+                    pending.message = pending.sender.createMessage(pending.session,
+                                                                   pending.sender.fileToAttach != null);
+                } catch (MessagingException e) {
+                    outcomes[pending.index] = DeliveryOutcome.failure(pending.sender, new EmailException(e));
+                    continue;
+                } catch (EmailException e) {
+                    outcomes[pending.index] = DeliveryOutcome.failure(pending.sender, e);
+                    continue;
+                }
+
+                try {
+                    try {
+                        if (transport == null || sentOnConnection >= maxMessagesPerConnection || !reset(transport)) {
+                            closeQuietly(transport);
+                            transport = null;
+                            transport = connect(pending);
+                            sentOnConnection = 0;
+                        }
+                    } catch (MessagingException e) {
+                        outcomes[pending.index] = DeliveryOutcome.failure(pending.sender, new EmailException(e));
+                        continue;
+                    }
+
+                    try {
+                        outcomes[pending.index] = send(pending, transport);
+                        sentOnConnection++;
+                    } catch (SendFailedException e) {
+                        // the message has been rejected but the connection is still usable
+                        outcomes[pending.index] = DeliveryOutcome.failure(pending.sender, new EmailException(e));
+                        sentOnConnection++;
+                    } catch (MessagingException e) {
+                        // the server has probably closed the connection, retry once with a new one
+                        closeQuietly(transport);
+                        transport = null;
+
+                        try {
+                            transport = connect(pending);
+                            sentOnConnection = 0;
+                            if (e instanceof PartialDeliveryException) {
+                                // only the recipients the message has not been delivered to are sent it again
+                                PartialDeliveryException partial = (PartialDeliveryException) e;
+                                outcomes[pending.index] = send(pending,
+                                                               transport,
+                                                               partial.getUnsentAddresses(),
+                                                               partial.getReport());
+                            } else {
+                                outcomes[pending.index] = send(pending, transport);
+                            }
+                            sentOnConnection++;
+                        } catch (MessagingException retryFailure) {
+                            outcomes[pending.index] = DeliveryOutcome.failure(pending.sender,
+                                                                              new EmailException(retryFailure));
+                            if (!(retryFailure instanceof SendFailedException)) {
+                                closeQuietly(transport);
+                                transport = null;
+                            }
+                        }
+                    }
+                } finally {
+                    EmailSender.release(pending.message);
+                    pending.message = null;
+                }
+            }
+        } finally {
+            closeQuietly(transport);
+        }
+    }
+
+    /**
+     * Creates the transport used to send the messages of a group. The transport is connected by the caller.
+     */
+    protected Transport newTransport(Session session) throws MessagingException {
+        return session.getTransport("smtp");
+    }
+
+    private Transport connect(PendingMessage pending) throws MessagingException {
+        Transport transport = newTransport(pending.session);
+        try {
+            long connectStart = System.nanoTime();
+            transport.connect();
+            pending.sender.metrics.recordConnect(System.nanoTime() - connectStart);
+        } catch (MessagingException | RuntimeException e) {
+            closeQuietly(transport);
+            throw e;
+        }
+        return transport;
+    }
+
+    private DeliveryOutcome send(PendingMessage pending, Transport transport) throws MessagingException {
+        return send(pending, transport, pending.message.getAllRecipients(), null);
+    }
+
+    /**
+     * Sends the message to the specified recipients.
+     *
+     * @param delivered the recipients reached by a previous attempt, or {@code null}.
+     */
+    private DeliveryOutcome send(PendingMessage pending, Transport transport, Address[] recipients,
+            RecipientReport delivered) throws MessagingException {
+        Instant startTime = Instant.now();
+        long start = System.nanoTime();
+
+        RecipientReport report = RecipientChunker.send(transport,
+                                                       pending.message,
+                                                       recipients,
+                                                       RecipientChunker.getMaxRecipients(pending.properties));
+        if (delivered != null) {
+            report = delivered.merge(report);
+        }
+        return DeliveryOutcome.success(pending.sender,
+                                       SendResult.of(pending.message, transport, startTime, start, report));
+    }
+
+    private static boolean reset(Transport transport) {
+        if (transport instanceof SMTPTransport) {
+            try {
+                ((SMTPTransport) transport).issueCommand("RSET", 250);
+                return true;
+            } catch (MessagingException e) {
+                return false;
+            }
+        }
+
+        return transport.isConnected();
+    }
+
+    private static void closeQuietly(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                // the connection is discarded anyway
+            }
+        }
+    }
+
+    private static final class PendingMessage {
+
+        private final int index;
+
+        private final EmailSender sender;
+
+        private final Properties properties;
+
+        private final Session session;
+
+        private MimeMessage message;
+
+        private PendingMessage(int index, EmailSender sender, Properties properties, Session session) {
+            this.index = index;
+            this.sender = sender;
+            this.properties = properties;
+            this.session = session;
+        }
+
+    }
+
+}
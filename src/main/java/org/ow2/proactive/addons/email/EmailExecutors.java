@@ -0,0 +1,141 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Executors used by default to run asynchronous send operations.
+ *
+ * @author ActiveEon Team
+ */
+public final class EmailExecutors {
+
+    static final int DIRECT_DELIVERY_THREADS = 16;
+
+    private static final class DefaultHolder {
+
+        private static final ExecutorService INSTANCE = newDaemonCachedThreadPool();
+
+    }
+
+    private static final class VirtualThreadHolder {
+
+        private static final ExecutorService INSTANCE = newVirtualThreadPerTaskExecutor();
+
+    }
+
+    private static final class DirectDeliveryHolder {
+
+        private static final ExecutorService INSTANCE = newDirectDeliveryThreadPool();
+
+    }
+
+    private EmailExecutors() {
+    }
+
+    /**
+     * Returns the shared executor backed by daemon platform threads.
+     *
+     * @return the shared executor backed by daemon platform threads.
+     */
+    public static Executor defaultExecutor() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Returns a shared executor that starts a virtual thread per task when running on JDK 21 or later,
+     * or the {@link #defaultExecutor()} otherwise.
+     *
+     * @return an executor that runs each task in its own virtual thread if supported.
+     */
+    public static Executor virtualThreadExecutor() {
+        ExecutorService executor = VirtualThreadHolder.INSTANCE;
+        return executor == null ? defaultExecutor() : executor;
+    }
+
+    /**
+     * Returns whether the running JVM supports virtual threads.
+     *
+     * @return true if virtual threads are supported, false otherwise.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreadHolder.INSTANCE != null;
+    }
+
+    /**
+     * Returns the shared executor that serves the domains of a message delivered directly to the
+     * mail exchangers of its recipients. It is distinct from the executor of asynchronous sends,
+     * which may be bounded: a send waiting for its domains must not hold a thread its domains need.
+     * Its tasks never wait for other tasks, so it is bounded without risk of deadlock.
+     *
+     * @return the shared executor of direct deliveries.
+     */
+    static Executor directDeliveryExecutor() {
+        return DirectDeliveryHolder.INSTANCE;
+    }
+
+    private static ExecutorService newDaemonCachedThreadPool() {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                .setNameFormat("email-sender-%d")
+                                                                .build();
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    private static ExecutorService newDirectDeliveryThreadPool() {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                .setNameFormat("email-direct-delivery-%d")
+                                                                .build();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DIRECT_DELIVERY_THREADS,
+                                                             DIRECT_DELIVERY_THREADS,
+                                                             60,
+                                                             TimeUnit.SECONDS,
+                                                             new LinkedBlockingQueue<>(),
+                                                             threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        // the project is compiled for Java 8, the factory method is looked up at runtime
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+}
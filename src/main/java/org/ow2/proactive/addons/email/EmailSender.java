@@ -25,25 +25,61 @@
  */
 package org.ow2.proactive.addons.email;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
-import javax.activation.DataHandler;
-import javax.activation.DataSource;
-import javax.activation.FileDataSource;
 import javax.mail.*;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 
-import org.ow2.proactive.addons.email.converters.IntegerConverter;
-import org.ow2.proactive.addons.email.exception.ConversionException;
+import org.ow2.proactive.addons.email.attachment.Attachment;
+import org.ow2.proactive.addons.email.attachment.AttachmentEncoder;
+import org.ow2.proactive.addons.email.attachment.StreamingFileBodyPart;
+import org.ow2.proactive.addons.email.circuit.CircuitBreaker;
+import org.ow2.proactive.addons.email.circuit.CircuitBreakerRegistry;
+import org.ow2.proactive.addons.email.config.SmtpConfiguration;
+import org.ow2.proactive.addons.email.converters.AddressParser;
+import org.ow2.proactive.addons.email.dedup.DuplicateFilter;
+import org.ow2.proactive.addons.email.exception.CircuitOpenException;
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
 import org.ow2.proactive.addons.email.exception.EmailException;
 import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
 import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+import org.ow2.proactive.addons.email.metrics.EmailMetrics;
+import org.ow2.proactive.addons.email.mx.CachingMxResolver;
+import org.ow2.proactive.addons.email.mx.MxResolver;
+import org.ow2.proactive.addons.email.outbox.Outbox;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.relay.Relay;
+import org.ow2.proactive.addons.email.relay.RelayGroup;
+import org.ow2.proactive.addons.email.relay.RelaySelection;
+import org.ow2.proactive.addons.email.retry.RetryPolicy;
+import org.ow2.proactive.addons.email.retry.SmtpErrorClassifier;
+import org.ow2.proactive.addons.email.transport.ChunkingTransport;
+import org.ow2.proactive.addons.email.transport.PartialDeliveryException;
+import org.ow2.proactive.addons.email.transport.PasswordAuthenticator;
+import org.ow2.proactive.addons.email.transport.PipeliningSmtpTransport;
+import org.ow2.proactive.addons.email.transport.RecipientChunker;
+import org.ow2.proactive.addons.email.transport.RecipientReport;
+import org.ow2.proactive.addons.email.transport.SendDeadline;
+import org.ow2.proactive.addons.email.transport.SessionCache;
+import org.ow2.proactive.addons.email.transport.SmtpEndpoint;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
+import org.ow2.proactive.addons.email.template.MessageTemplate;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 
 /**
@@ -53,10 +89,6 @@ import com.google.common.collect.ImmutableList;
  */
 public class EmailSender {
 
-    private static final String REGEX_LIST_SEPARATOR = ",\\s?";
-
-    private static final String SMTP_PROPERTY_PREFIX = "mail.";
-
     /*
      * Define name of arguments that can be passed to the Java task
      */
@@ -97,6 +129,36 @@ public class EmailSender {
 
     public static final String PROPERTY_MAIL_SMTP_SSL_TRUST = "mail.smtp.ssl.trust";
 
+    public static final String PROPERTY_MAIL_SMTP_CLASS = "mail.smtp.class";
+
+    public static final String PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT = "mail.smtp.connectiontimeout";
+
+    public static final String PROPERTY_MAIL_SMTP_TIMEOUT = "mail.smtp.timeout";
+
+    public static final String PROPERTY_MAIL_SMTP_WRITE_TIMEOUT = "mail.smtp.writetimeout";
+
+    /*
+     * Define properties that are specific to this addon and ignored by javax.mail
+     */
+
+    public static final String PROPERTY_MAIL_SMTP_POOL_ENABLE = "mail.smtp.pool.enable";
+
+    public static final String PROPERTY_MAIL_SMTP_RETRY_MAX_ATTEMPTS = "mail.smtp.retry.maxattempts";
+
+    public static final String PROPERTY_MAIL_SMTP_DIRECT_ENABLE = "mail.smtp.direct.enable";
+
+    public static final String PROPERTY_MAIL_SMTP_RELAYS = "mail.smtp.relays";
+
+    public static final String PROPERTY_MAIL_SMTP_RELAYS_SELECTION = "mail.smtp.relays.selection";
+
+    public static final String PROPERTY_MAIL_SMTP_SEND_TIMEOUT = "mail.smtp.sendtimeout";
+
+    public static final String PROPERTY_MAIL_SMTP_DEDUP_TTL = "mail.smtp.dedup.ttl";
+
+    public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 30000;
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 60000;
+
     protected List<String> cc;
 
     protected List<String> bcc;
@@ -115,6 +177,49 @@ public class EmailSender {
 
     protected Properties properties;
 
+    protected SmtpTransportPool transportPool;
+
+    protected Executor executor;
+
+    protected Outbox outbox;
+
+    protected RetryPolicy retryPolicy;
+
+    protected List<Attachment> attachments = Collections.emptyList();
+
+    protected ForkJoinPool encodingPool;
+
+    protected EmailMetrics metrics = EmailMetrics.noop();
+
+    protected MxResolver mxResolver;
+
+    protected RelayGroup relayGroup;
+
+    protected Outbox fallbackOutbox;
+
+    protected DuplicateFilter duplicateFilter;
+
+    // identifies the message for duplicate suppression instead of its content, not shared with copies
+    protected String idempotencyKey;
+
+    protected final SmtpConfiguration smtpConfiguration;
+
+    // the settings read from the configuration once, when the sender is created
+    private final Duration sendTimeout;
+
+    private final Duration duplicateSuppressionTtl;
+
+    private final RetryPolicy configuredRetryPolicy;
+
+    private final RelayGroup configuredRelayGroup;
+
+    private final boolean configuredDirectDelivery;
+
+    private final boolean configuredPooling;
+
+    // the content shared by the copies sent to each recipient, null for regular messages
+    private SerializedBody serializedBody;
+
     protected EmailSender(Properties properties, List<String> cc, List<String> bcc, List<String> recipients,
             String body, String from, String subject, String fileToAttach, String fileName) {
         this.properties = properties;
@@ -128,237 +233,977 @@ public class EmailSender {
         this.fileName = fileName;
 
         checkInstanceFieldsConsistency();
+        this.smtpConfiguration = SmtpConfiguration.of(properties);
+        this.sendTimeout = resolveSendTimeout(smtpConfiguration);
+        this.duplicateSuppressionTtl = resolveDuplicateSuppressionTtl(smtpConfiguration);
+        this.configuredRetryPolicy = resolveRetryPolicy(smtpConfiguration);
+        this.configuredRelayGroup = resolveRelayGroup(smtpConfiguration);
+        this.configuredDirectDelivery = isEnabled(smtpConfiguration, PROPERTY_MAIL_SMTP_DIRECT_ENABLE);
+        this.configuredPooling = isEnabled(smtpConfiguration, PROPERTY_MAIL_SMTP_POOL_ENABLE);
     }
 
-    public void sendPlainTextEmailWithAttachment() {
-        Properties props = buildSmtpConfiguration();
-        Session session = Session.getDefaultInstance(props, buildAuthenticator());
-        MimeMessage message = new MimeMessage(session);
-        Transport transport = null;
+    /**
+     * Creates the prototype of a {@link MailMerge}: the recipients, subject and body are
+     * provided later for each message.
+     */
+    private EmailSender(Properties properties, List<String> cc, List<String> bcc, String from, String fileToAttach,
+            String fileName) {
+        this.properties = properties;
+        this.bcc = bcc;
+        this.cc = cc;
+        this.from = from;
+        this.recipients = Collections.emptyList();
+        this.fileToAttach = fileToAttach;
+        this.fileName = fileName;
 
-        try {
-            configurePlainTextMessageWithAttachment(message);
-            transport = session.getTransport("smtp");
-            connectAndSendMessage(message, transport);
-        } catch (MessagingException e) {
-            throw new EmailException(e);
-        } finally {
-            if (transport != null) {
-                try {
-                    transport.close();
-                } catch (MessagingException e) {
-                    throw new EmailException(e);
-                }
-            }
+        if (from == null) {
+            throw new MissingArgumentException("from");
+        }
+        checkAddresses();
+        this.smtpConfiguration = SmtpConfiguration.of(properties);
+        this.sendTimeout = resolveSendTimeout(smtpConfiguration);
+        this.duplicateSuppressionTtl = resolveDuplicateSuppressionTtl(smtpConfiguration);
+        this.configuredRetryPolicy = resolveRetryPolicy(smtpConfiguration);
+        this.configuredRelayGroup = resolveRelayGroup(smtpConfiguration);
+        this.configuredDirectDelivery = isEnabled(smtpConfiguration, PROPERTY_MAIL_SMTP_DIRECT_ENABLE);
+        this.configuredPooling = isEnabled(smtpConfiguration, PROPERTY_MAIL_SMTP_POOL_ENABLE);
+    }
+
+    /**
+     * Creates a sender that shares the configuration, connections and attachments of the
+     * specified one but sends another message. The configuration is not computed again.
+     */
+    EmailSender(EmailSender prototype, List<String> recipients, String subject, String body) {
+        this.properties = prototype.properties;
+        this.bcc = prototype.bcc;
+        this.cc = prototype.cc;
+        this.from = prototype.from;
+        this.fileToAttach = prototype.fileToAttach;
+        this.fileName = prototype.fileName;
+        this.transportPool = prototype.transportPool;
+        this.executor = prototype.executor;
+        this.outbox = prototype.outbox;
+        this.retryPolicy = prototype.retryPolicy;
+        this.attachments = prototype.attachments;
+        this.encodingPool = prototype.encodingPool;
+        this.metrics = prototype.metrics;
+        this.mxResolver = prototype.mxResolver;
+        this.relayGroup = prototype.relayGroup;
+        this.fallbackOutbox = prototype.fallbackOutbox;
+        this.duplicateFilter = prototype.duplicateFilter;
+        this.recipients = recipients;
+        this.subject = subject;
+        this.body = body;
+
+        checkInstanceFieldsConsistency();
+        this.smtpConfiguration = prototype.smtpConfiguration;
+        this.sendTimeout = prototype.sendTimeout;
+        this.duplicateSuppressionTtl = prototype.duplicateSuppressionTtl;
+        this.configuredRetryPolicy = prototype.configuredRetryPolicy;
+        this.configuredRelayGroup = prototype.configuredRelayGroup;
+        this.configuredDirectDelivery = prototype.configuredDirectDelivery;
+        this.configuredPooling = prototype.configuredPooling;
+    }
+
+    private static Duration resolveSendTimeout(SmtpConfiguration configuration) {
+        Integer millis = (Integer) configuration.get(PROPERTY_MAIL_SMTP_SEND_TIMEOUT);
+        return millis != null && millis > 0 ? Duration.ofMillis(millis) : null;
+    }
+
+    private static Duration resolveDuplicateSuppressionTtl(SmtpConfiguration configuration) {
+        Integer millis = (Integer) configuration.get(PROPERTY_MAIL_SMTP_DEDUP_TTL);
+        return millis == null ? null : Duration.ofMillis(millis);
+    }
+
+    private static RetryPolicy resolveRetryPolicy(SmtpConfiguration configuration) {
+        Integer maxAttempts = (Integer) configuration.get(PROPERTY_MAIL_SMTP_RETRY_MAX_ATTEMPTS);
+        return maxAttempts == null ? RetryPolicy.none()
+                                   : new RetryPolicy.Builder().setMaxAttempts(maxAttempts).build();
+    }
+
+    private static boolean isEnabled(SmtpConfiguration configuration, String property) {
+        return Boolean.TRUE.equals(configuration.get(property));
+    }
+
+    private static RelayGroup resolveRelayGroup(SmtpConfiguration configuration) {
+        String relays = (String) configuration.get(PROPERTY_MAIL_SMTP_RELAYS);
+        if (relays == null || relays.trim().isEmpty()) {
+            return null;
         }
+
+        String selection = (String) configuration.get(PROPERTY_MAIL_SMTP_RELAYS_SELECTION);
+        return RelayGroup.shared(Relay.parseList(relays),
+                                 selection == null ? RelaySelection.LEAST_OUTSTANDING
+                                                   : RelaySelection.parse(selection));
+    }
+
+    public void sendPlainTextEmailWithAttachment() {
+        send(true);
     }
 
     public void sendPlainTextEmail() {
-        Properties props = buildSmtpConfiguration();
+        send(false);
+    }
 
-        Session session = Session.getInstance(props, buildAuthenticator());
-        MimeMessage message = new MimeMessage(session);
-        Transport transport = null;
+    /**
+     * Sends the message with its attachment without blocking the caller.
+     *
+     * @return a future completed with the outcome of the send operation, or exceptionally
+     * with an {@link EmailException} if the message cannot be sent.
+     */
+    public CompletableFuture<SendResult> sendPlainTextEmailWithAttachmentAsync() {
+        return CompletableFuture.supplyAsync(() -> send(true), getExecutor());
+    }
+
+    /**
+     * Sends the message without blocking the caller.
+     *
+     * @return a future completed with the outcome of the send operation, or exceptionally
+     * with an {@link EmailException} if the message cannot be sent.
+     */
+    public CompletableFuture<SendResult> sendPlainTextEmailAsync() {
+        return CompletableFuture.supplyAsync(() -> send(false), getExecutor());
+    }
 
+    /**
+     * Sends a separate copy of the message with its attachment to each TO, CC and BCC recipient,
+     * so that recipients do not see each other's address.
+     *
+     * @return the outcome of each copy, in the order of the recipients.
+     * @see #sendPlainTextEmailToEachRecipient()
+     */
+    public List<DeliveryOutcome> sendPlainTextEmailWithAttachmentToEachRecipient() {
+        return sendToEachRecipient(true);
+    }
+
+    /**
+     * Sends a separate copy of the message to each TO, CC and BCC recipient, so that recipients
+     * do not see each other's address. The content of the message and its attachments is encoded
+     * once, in memory or in a temporary file depending on its size, and only the headers are
+     * written again for each copy. Each copy is sent like a single message, through the relays,
+     * outbox, retry policy and circuit breaker of this sender, and the copies share a connection.
+     *
+     * @return the outcome of each copy, in the order of the recipients.
+     * @throws EmailException if the content of the message cannot be created.
+     */
+    public List<DeliveryOutcome> sendPlainTextEmailToEachRecipient() {
+        return sendToEachRecipient(false);
+    }
+
+    private List<DeliveryOutcome> sendToEachRecipient(boolean withAttachment) {
+        SerializedBody content;
+        MimeMessage message = null;
         try {
-            configurePlainTextMessage(message);
-            transport = session.getTransport("smtp");
-            connectAndSendMessage(message, transport);
+            message = createMessage(getSession(getSmtpConfiguration()), withAttachment);
+            content = SerializedBody.of(message);
         } catch (MessagingException e) {
             throw new EmailException(e);
         } finally {
-            if (transport != null) {
-                try {
-                    transport.close();
-                } catch (MessagingException e) {
-                    throw new EmailException(e);
-                }
-            }
+            release(message);
         }
-    }
 
-    protected void configurePlainTextMessage(MimeMessage message) throws MessagingException {
-        if (bcc != null) {
-            for (String email : bcc) {
-                message.addRecipients(Message.RecipientType.BCC, email);
+        try (SerializedBody sharedContent = content) {
+            Set<String> addresses = new LinkedHashSet<>(recipients);
+            if (cc != null) {
+                addresses.addAll(cc);
+            }
+            if (bcc != null) {
+                addresses.addAll(bcc);
             }
-        }
 
-        if (cc != null) {
-            for (String email : cc) {
-                message.addRecipients(Message.RecipientType.CC, email);
+            List<EmailSender> copies = new ArrayList<>(addresses.size());
+            for (String address : addresses) {
+                EmailSender copy = new EmailSender(this, Collections.singletonList(address), subject, body);
+                copy.cc = Collections.emptyList();
+                copy.bcc = Collections.emptyList();
+                if (!withAttachment) {
+                    copy.fileToAttach = null;
+                }
+                copy.serializedBody = sharedContent;
+                copies.add(copy);
             }
-        }
 
-        if (from != null) {
-            message.addFrom(new Address[] { new InternetAddress(from) });
+            return sendEach(copies);
         }
+    }
 
-        for (String recipient : recipients) {
-            message.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+    /**
+     * Sends each message through the delivery path of its sender. Senders that have no transport
+     * pool share one that is closed once all the messages are sent, so that messages targeting
+     * the same server are sent over a single connection.
+     *
+     * @param senders the messages to send. Messages with an attachment path are sent with their attachment.
+     * @return the outcome of each message, in the order of the senders.
+     */
+    static List<DeliveryOutcome> sendEach(List<? extends EmailSender> senders) {
+        List<DeliveryOutcome> outcomes = new ArrayList<>(senders.size());
+
+        try (SmtpTransportPool sharedPool = new SmtpTransportPool(1,
+                                                                  0,
+                                                                  SmtpTransportPool.DEFAULT_MAX_AGE_MILLIS,
+                                                                  SmtpTransportPool.DEFAULT_VALIDATE_AFTER_IDLE_MILLIS,
+                                                                  SmtpTransportPool.DEFAULT_BORROW_TIMEOUT_MILLIS)) {
+            for (EmailSender sender : senders) {
+                try {
+                    outcomes.add(DeliveryOutcome.success(sender,
+                                                         sender.send(sender.fileToAttach != null, sharedPool)));
+                } catch (EmailException e) {
+                    outcomes.add(DeliveryOutcome.failure(sender, e));
+                }
+            }
         }
 
-        message.setSubject(subject);
-        message.setText(body);
+        return outcomes;
     }
 
-    protected void configurePlainTextMessageWithAttachment(MimeMessage message) throws MessagingException {
-        configurePlainTextMessage(message);
-
-        Multipart multipart = new MimeMultipart();
+    SendResult send(boolean withAttachment) {
+        return send(withAttachment, null);
+    }
 
-        String file = fileToAttach;
-        if (file == null) {
-            throw new MissingArgumentException("attached_file_path");
+    /**
+     * Sends the message, over connections borrowed from the specified pool if the sender has none.
+     *
+     * @param defaultPool the pool used when the sender does not pool its connections, or null.
+     */
+    SendResult send(boolean withAttachment, SmtpTransportPool defaultPool) {
+        DuplicateFilter filter = getDuplicateFilter();
+        if (filter == null) {
+            return doSend(withAttachment, defaultPool);
         }
 
-        String name = fileName;
-        if (name == null) {
-            throw new MissingArgumentException("attached_file_name");
+        String key = getMessageKey(withAttachment);
+        if (key == null) {
+            return doSend(withAttachment, defaultPool);
+        }
+        if (!filter.tryAcquire(key, getDuplicateSuppressionTtl())) {
+            return SendResult.duplicate(Instant.now());
         }
 
-        MimeBodyPart messageBodyPart = new MimeBodyPart();
-        messageBodyPart.setText(body);
-        multipart.addBodyPart(messageBodyPart);
+        try {
+            return doSend(withAttachment, defaultPool);
+        } catch (RuntimeException | Error e) {
+            // the message can be sent again since it has not been sent
+            filter.release(key);
+            throw e;
+        }
+    }
 
-        MimeBodyPart messageAttachmentPart = new MimeBodyPart();
+    private SendResult doSend(boolean withAttachment, SmtpTransportPool defaultPool) {
+        SmtpConfiguration configuration = getSmtpConfiguration();
+        SmtpTransportPool configuredPool = getTransportPool();
+        SmtpTransportPool pool = configuredPool != null ? configuredPool : defaultPool;
+        Session session = getSession(configuration);
 
-        DataSource source = new FileDataSource(file);
-        messageAttachmentPart.setDataHandler(new DataHandler(source));
-        messageAttachmentPart.setFileName(name);
-        multipart.addBodyPart(messageAttachmentPart);
+        MimeMessage message;
+        PendingRecipients pending;
+        try {
+            message = createMessage(session, withAttachment);
+            pending = new PendingRecipients(message.getAllRecipients());
+        } catch (MessagingException e) {
+            throw new EmailException(e);
+        }
 
-        message.setContent(multipart);
+        // the deadline covers every attempt, including the time spent waiting between them and for the rate limits
+        SendDeadline deadline = startDeadline();
+        try {
+            return pending.complete(getRetryPolicy().execute(() -> sendMessage(session, message, pending, pool)));
+        } finally {
+            if (deadline != null) {
+                deadline.close();
+            }
+            release(message);
+        }
     }
 
-    protected void connectAndSendMessage(MimeMessage message, Transport transport) throws MessagingException {
-        transport.connect();
-        transport.sendMessage(message, message.getAllRecipients());
+    private SendDeadline startDeadline() {
+        Duration sendTimeout = getSendTimeout();
+        return sendTimeout == null ? null : SendDeadline.start(sendTimeout);
     }
 
-    private void checkInstanceFieldsConsistency() {
-        if (from == null) {
-            throw new MissingArgumentException("from");
-        }
-
-        if (recipients == null || recipients.size() == 0) {
-            throw new MissingArgumentException("recipient");
+    /**
+     * Returns the filter used to suppress the messages sent again within their time-to-live.
+     *
+     * @return the filter, or null if duplicates are sent.
+     */
+    DuplicateFilter getDuplicateFilter() {
+        if (duplicateFilter != null) {
+            return duplicateFilter;
         }
+        return duplicateSuppressionTtl != null ? DuplicateFilter.getInstance() : null;
+    }
 
-        if (subject == null) {
-            throw new MissingArgumentException("subject");
-        }
+    Duration getDuplicateSuppressionTtl() {
+        return duplicateSuppressionTtl != null ? duplicateSuppressionTtl
+                                               : Duration.ofMillis(DuplicateFilter.DEFAULT_TTL_MILLIS);
+    }
 
-        if (body == null) {
-            throw new MissingArgumentException("body");
+    /**
+     * Returns the key identifying the message for duplicate suppression: a digest of the
+     * idempotency key if one is set, of the sender, recipients, subject, body and attachments otherwise.
+     *
+     * @return the key, or null if the message has no idempotency key and an attachment created
+     * from a stream, whose content cannot be part of the digest.
+     */
+    String getMessageKey(boolean withAttachment) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        if (idempotencyKey != null) {
+            putField(hasher, "key");
+            putField(hasher, idempotencyKey);
+            return hasher.hash().toString();
         }
 
-        // cf. RFC 2228: http://www.faqs.org/rfcs/rfc2822.html
-        if (subject.length() > 78) {
-            throw new InvalidArgumentException("The specified subject is too long: " + subject.length() +
-                                               " characters specified but 78 allowed");
+        putField(hasher, from);
+        for (List<String> addresses : Arrays.asList(recipients, cc, bcc)) {
+            putField(hasher, addresses == null ? "" : String.join(",", addresses));
         }
-    }
-
-    @VisibleForTesting
-    protected Properties buildSmtpConfiguration() {
-        Properties props = new Properties();
-        for (Map.Entry prop : properties.entrySet()) {
-            if (prop.getKey().toString().startsWith(SMTP_PROPERTY_PREFIX)) {
-                String strValue = String.valueOf(prop.getValue());
-                String strKey = String.valueOf(prop.getKey());
-
-                if (strValue.equals(Boolean.TRUE.toString()) || strValue.equals(Boolean.FALSE.toString())) {
-                    props.put(prop.getKey(), Boolean.valueOf(strValue));
-                    continue;
-                }
+        putField(hasher, subject);
+        putField(hasher, body);
 
-                try {
-                    int intValue = IntegerConverter.getInstance().convert(strKey, strValue);
-                    props.put(strKey, intValue);
-                    continue;
-                } catch (ConversionException e) {
-                    // It is not an Integer, continue loop
+        try {
+            if (withAttachment && fileToAttach != null) {
+                putField(hasher, fileName);
+                putField(hasher, Attachment.fromFile(Paths.get(fileToAttach), fileName).digest());
+            }
+            for (Attachment attachment : attachments) {
+                String digest = attachment.digest();
+                if (digest == null) {
+                    // messages that differ only by the content of a stream would be suppressed
+                    return null;
                 }
-
-                // If it's neither a boolean nor an int, then it's a String
-                props.put(strKey, strValue);
+                putField(hasher, digest);
             }
+        } catch (IOException e) {
+            throw new EmailException("Unable to read the attachments of the message", e);
         }
-        return props;
+        return hasher.hash().toString();
     }
 
-    private Authenticator buildAuthenticator() {
-        return new javax.mail.Authenticator() {
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(properties.getProperty(PROPERTY_MAIL_SMTP_USERNAME),
-                                                  properties.getProperty(PROPERTY_MAIL_SMTP_PASSWORD));
-            }
-        };
+    private static void putField(Hasher hasher, String value) {
+        hasher.putString(String.valueOf(value), StandardCharsets.UTF_8).putByte((byte) 0);
     }
 
     /**
-     * Utility class for creating an instance of {@link EmailSender}.
+     * Returns the time a send is allowed to take, across all its attempts and relays.
+     *
+     * @return the timeout, or null if sends are not bounded.
      */
-    public static class Builder {
+    Duration getSendTimeout() {
+        return sendTimeout;
+    }
 
-        private List<String> bcc;
+    /**
+     * Deletes the temporary files used by the attachments of a message created by this class.
+     */
+    static void release(MimeMessage message) {
+        // the content of a prepared message is shared and released once all copies are sent
+        if (!(message instanceof PreparedMimeMessage)) {
+            AttachmentEncoder.release(message);
+        }
+    }
 
-        private List<String> cc;
+    Session getSession(SmtpConfiguration configuration) {
+        // the cached session must not retain this sender
+        String username = properties.getProperty(PROPERTY_MAIL_SMTP_USERNAME);
+        String password = properties.getProperty(PROPERTY_MAIL_SMTP_PASSWORD);
+        return SessionCache.getInstance().getSession(configuration,
+                                                     () -> new PasswordAuthenticator(username, password));
+    }
 
-        private List<String> recipients;
+    MimeMessage createMessage(Session session, boolean withAttachment) throws MessagingException {
+        if (serializedBody != null) {
+            return createPreparedMessage(session);
+        }
 
-        private String body = "";
+        // the size of the message is only known once it has been written to the server
+        MimeMessage message = metrics.isEnabled() ? new SizeRecordingMimeMessage(session) : new MimeMessage(session);
 
-        private String from;
+        if (withAttachment) {
+            configurePlainTextMessageWithAttachment(message);
+        } else if (!attachments.isEmpty()) {
+            configurePlainTextMessageWithAttachments(message);
+        } else {
+            configurePlainTextMessage(message);
+        }
 
-        private String subject;
+        // assigns the Message-ID header before the message is handed to the transport
+        message.saveChanges();
+        return message;
+    }
 
-        private String fileToAttach;
+    private MimeMessage createPreparedMessage(Session session) throws MessagingException {
+        AddressParser addressParser = AddressParser.getInstance();
 
-        private String fileName = "attachment.txt";
+        MimeMessage message = new PreparedMimeMessage(session, serializedBody);
+        message.addFrom(addressParser.parseAll(Collections.singletonList(from)));
+        message.addRecipients(Message.RecipientType.TO, addressParser.parseAll(recipients));
+        message.setSubject(subject);
 
-        private Properties properties;
+        message.saveChanges();
+        return message;
+    }
 
-        public Builder() {
-            bcc = new ArrayList<>();
-            cc = new ArrayList<>();
-            recipients = new ArrayList<>();
-            properties = new Properties();
-            loadJavaMailPropertiesOrSetDefault(Collections.emptyMap());
+    private SendResult sendMessage(Session session, MimeMessage message, PendingRecipients pending,
+            SmtpTransportPool pool) {
+        Instant startTime = Instant.now();
+        long start = System.nanoTime();
+
+        if (outbox != null) {
+            outbox.enqueue(message);
+            try {
+                return SendResult.of(message, null, startTime, start);
+            } catch (MessagingException e) {
+                throw new EmailException(e);
+            }
         }
 
-        public Builder(Map<?, ?> options) {
-            this();
-            Map<?, ?> opts = new HashMap<>(options);
-            checkIfPropertyIsProvidedElseThrow(PROPERTY_MAIL_SMTP_HOST, opts);
-            loadArguments(opts);
-            loadJavaMailPropertiesOrSetDefault(opts);
-            withProperties(opts);
+        try {
+            SendResult result;
+            try {
+                result = deliver(session, message, pending, pool, startTime, start);
+            } catch (CircuitOpenException e) {
+                // the outbox would send the message again to the recipients a previous attempt has reached
+                if (fallbackOutbox == null || pending.isPartial()) {
+                    throw e;
+                }
+                // the message is delivered by the outbox once the server is back
+                fallbackOutbox.enqueue(message);
+                return SendResult.of(message, null, startTime, start);
+            }
+            if (metrics.isEnabled()) {
+                RecipientReport report = result.getRecipientReport();
+                metrics.recordSuccess(getWrittenSize(message),
+                                      report != null ? report.getAcceptedRecipients().size()
+                                                     : message.getAllRecipients().length,
+                                      result.getServerReturnCode());
+            }
+            return result;
+        } catch (MessagingException e) {
+            metrics.recordFailure(SmtpErrorClassifier.getInstance().getReplyCode(e));
+            throw new EmailException(e);
+        } catch (EmailException e) {
+            metrics.recordFailure(SmtpErrorClassifier.getInstance().getReplyCode(e));
+            throw e;
         }
+    }
 
-        private void loadJavaMailPropertiesOrSetDefault(Map<?, ?> options) {
-
-            String debug = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_DEBUG)).orElse("false");
-            properties.put(PROPERTY_MAIL_DEBUG, debug);
-            options.remove(PROPERTY_MAIL_DEBUG);
+    private static long getWrittenSize(MimeMessage message) {
+        return message instanceof SizeRecordingMimeMessage ? ((SizeRecordingMimeMessage) message).getWrittenSize()
+                                                           : -1;
+    }
 
-            String port = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_PORT)).orElse("587");
-            properties.put(PROPERTY_MAIL_SMTP_PORT, port);
-            options.remove(PROPERTY_MAIL_SMTP_PORT);
+    private SendResult deliver(Session session, MimeMessage message, PendingRecipients pending,
+            SmtpTransportPool pool, Instant startTime, long start) {
+        MxResolver resolver = getMxResolver();
+        if (resolver != null) {
+            // the rate limits apply to each mail exchanger contacted
+            try {
+                return new DirectDelivery(this,
+                                          resolver,
+                                          pool != null ? pool : SmtpTransportPool.getInstance(),
+                                          EmailExecutors.directDeliveryExecutor()).deliver(message,
+                                                                 pending.getAddresses(),
+                                                                 startTime,
+                                                                 start);
+            } catch (MessagingException e) {
+                pending.onFailure(e);
+                throw new EmailException(e);
+            }
+        }
 
-            String auth = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_AUTH)).orElse("true");
-            properties.put(PROPERTY_MAIL_SMTP_AUTH, auth);
-            options.remove(PROPERTY_MAIL_SMTP_AUTH);
+        RelayGroup relays = getRelayGroup();
+        if (relays != null) {
+            return deliverThroughRelays(relays, message, pending, pool, startTime, start);
+        }
 
-            String enableStartTls = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_STARTTLS_ENABLE))
-                                            .orElse("false");
-            properties.put(PROPERTY_MAIL_SMTP_STARTTLS_ENABLE, enableStartTls);
-            options.remove(PROPERTY_MAIL_SMTP_STARTTLS_ENABLE);
+        return deliver(getSmtpConfiguration(), session, message, pending, pool, startTime, start);
+    }
+
+    /**
+     * Sends the message through the relays of the group, trying the next relay when the selected
+     * one cannot be reached or fails with a transient error.
+     */
+    private SendResult deliverThroughRelays(RelayGroup relays, MimeMessage message, PendingRecipients pending,
+            SmtpTransportPool pool, Instant startTime, long start) {
+        SmtpConfiguration configuration = getSmtpConfiguration();
+        Set<Relay> tried = new HashSet<>();
+        EmailException lastFailure = null;
+
+        Relay relay;
+        while ((relay = relays.acquire(tried)) != null) {
+            tried.add(relay);
+            SmtpConfiguration relayConfiguration = configuration.withHost(relay.getHost(), relay.getPort());
+
+            long relayStart = System.nanoTime();
+            try {
+                SendResult result = deliver(relayConfiguration,
+                                            getSession(relayConfiguration),
+                                            message,
+                                            pending,
+                                            pool,
+                                            startTime,
+                                            start);
+                relays.release(relay, System.nanoTime() - relayStart, false);
+                return result;
+            } catch (EmailException e) {
+                relays.release(relay, System.nanoTime() - relayStart, isServerFailure(e));
+                // a permanent rejection would be the same on every relay, an open breaker is specific to this one
+                if (!(e instanceof CircuitOpenException) && !SmtpErrorClassifier.getInstance().isTransient(e)) {
+                    throw e;
+                }
+                lastFailure = e;
+            } catch (RuntimeException | Error e) {
+                relays.release(relay, System.nanoTime() - relayStart, true);
+                throw e;
+            }
+        }
+
+        throw lastFailure;
+    }
+
+    /**
+     * Sends the message to the server described by the configuration, unless its circuit breaker is open.
+     * The rate limits apply to that server, which is only known once a relay has been selected.
+     */
+    private SendResult deliver(SmtpConfiguration configuration, Session session, MimeMessage message,
+            PendingRecipients pending, SmtpTransportPool pool, Instant startTime, long start) {
+        SendDeadline deadline = SendDeadline.current();
+        if (deadline != null) {
+            deadline.check();
+        }
+
+        SmtpRateLimiter.getInstance().acquire(configuration.getProperties(), from);
+
+        CircuitBreaker breaker = CircuitBreakerRegistry.getInstance().get(configuration);
+        if (breaker == null) {
+            return transfer(configuration, session, message, pending, pool, startTime, start);
+        }
+
+        breaker.acquirePermission();
+        try {
+            SendResult result = transfer(configuration, session, message, pending, pool, startTime, start);
+            breaker.onSuccess();
+            return result;
+        } catch (EmailException e) {
+            // a permanent rejection means that the server is up
+            if (isServerFailure(e)) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            breaker.onFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the failure of a send means that the server is down or too slow.
+     */
+    private static boolean isServerFailure(EmailException e) {
+        return e instanceof DeadlineExceededException || e instanceof CircuitOpenException ||
+               SmtpErrorClassifier.getInstance().isTransient(e);
+    }
+
+    /**
+     * Sends the message over a connection borrowed from the specified pool, or over a new
+     * connection if the pool is null.
+     */
+    private SendResult transfer(SmtpConfiguration configuration, Session session, MimeMessage message,
+            PendingRecipients pending, SmtpTransportPool pool, Instant startTime, long start) {
+        int maxRecipients = RecipientChunker.getMaxRecipients(configuration.getProperties());
+
+        if (pool != null) {
+            SmtpEndpoint endpoint = configuration.getEndpoint();
+            try {
+                return pool.execute(endpoint, () -> session.getTransport("smtp"), SendDeadline.guard(transport -> {
+                    long transactionStart = System.nanoTime();
+                    RecipientReport report = RecipientChunker.send(transport,
+                                                                   message,
+                                                                   pending.getAddresses(),
+                                                                   maxRecipients);
+                    metrics.recordTransaction(System.nanoTime() - transactionStart);
+                    return SendResult.of(message, transport, startTime, start, report);
+                }), metrics::recordConnect);
+            } catch (MessagingException e) {
+                pending.onFailure(e);
+                throw SendDeadline.failure(e);
+            }
+        }
+
+        Transport transport = null;
+
+        try {
+            transport = session.getTransport("smtp");
+            // splits the recipients into transactions the server accepts
+            ChunkingTransport chunkingTransport = new ChunkingTransport(session,
+                                                                        transport,
+                                                                        maxRecipients,
+                                                                        pending.getAddresses());
+            connectAndSendMessage(message, chunkingTransport);
+            return SendResult.of(message, transport, startTime, start, chunkingTransport.getLastReport());
+        } catch (MessagingException e) {
+            pending.onFailure(e);
+            throw SendDeadline.failure(e);
+        } finally {
+            if (transport != null) {
+                try {
+                    transport.close();
+                } catch (MessagingException e) {
+                    throw new EmailException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the policy used to retry sends that fail with a transient error.
+     */
+    protected RetryPolicy getRetryPolicy() {
+        return retryPolicy != null ? retryPolicy : configuredRetryPolicy;
+    }
+
+    /**
+     * Returns the executor used to run asynchronous send operations.
+     */
+    protected Executor getExecutor() {
+        return executor != null ? executor : EmailExecutors.defaultExecutor();
+    }
+
+    /**
+     * Sends the messages described by the specified senders, sharing one SMTP connection
+     * between messages that target the same server. Each message is sent like a single message,
+     * through the relays, outbox, retry policy and circuit breaker of its sender.
+     *
+     * @param senders the messages to send. Messages with an attachment path are sent with their attachment.
+     * @return the outcome of each message, in iteration order of the collection.
+     * @see EmailBatch
+     */
+    public static List<DeliveryOutcome> sendAll(Collection<? extends EmailSender> senders) {
+        return sendEach(new ArrayList<>(senders));
+    }
+
+    /**
+     * Returns the resolver used to deliver messages directly to the mail exchangers of their
+     * recipients, or {@code null} if messages are relayed through {@code mail.smtp.host}.
+     */
+    protected MxResolver getMxResolver() {
+        if (mxResolver != null) {
+            return mxResolver;
+        }
+
+        if (configuredDirectDelivery) {
+            return CachingMxResolver.getInstance();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the relays messages are spread over, or {@code null} if messages are sent to
+     * {@code mail.smtp.host} only.
+     */
+    protected RelayGroup getRelayGroup() {
+        return relayGroup != null ? relayGroup : configuredRelayGroup;
+    }
+
+    /**
+     * Returns the pool used to reuse SMTP connections between sends, or {@code null}
+     * if a new connection must be opened for each message.
+     */
+    protected SmtpTransportPool getTransportPool() {
+        if (transportPool != null) {
+            return transportPool;
+        }
+
+        if (configuredPooling) {
+            return SmtpTransportPool.getInstance();
+        }
+
+        return null;
+    }
+
+    protected void configurePlainTextMessage(MimeMessage message) throws MessagingException {
+        // the addresses have been parsed when the sender was built, they come from the cache
+        AddressParser addressParser = AddressParser.getInstance();
+
+        InternetAddress[] bccAddresses = addressParser.parseAll(bcc);
+        if (bccAddresses.length > 0) {
+            message.addRecipients(Message.RecipientType.BCC, bccAddresses);
+        }
+
+        InternetAddress[] ccAddresses = addressParser.parseAll(cc);
+        if (ccAddresses.length > 0) {
+            message.addRecipients(Message.RecipientType.CC, ccAddresses);
+        }
+
+        if (from != null) {
+            message.addFrom(addressParser.parseAll(Collections.singletonList(from)));
+        }
+
+        message.addRecipients(Message.RecipientType.TO, addressParser.parseAll(recipients));
+
+        message.setSubject(subject);
+        message.setText(body);
+    }
+
+    protected void configurePlainTextMessageWithAttachment(MimeMessage message) throws MessagingException {
+        configurePlainTextMessage(message);
+
+        Multipart multipart = new MimeMultipart();
+
+        String file = fileToAttach;
+        if (file == null) {
+            throw new MissingArgumentException("attached_file_path");
+        }
+
+        String name = fileName;
+        if (name == null) {
+            throw new MissingArgumentException("attached_file_name");
+        }
+
+        MimeBodyPart messageBodyPart = new MimeBodyPart();
+        messageBodyPart.setText(body);
+        multipart.addBodyPart(messageBodyPart);
+
+        // streams the file when the message is written instead of buffering its encoded content
+        multipart.addBodyPart(new StreamingFileBodyPart(Paths.get(file), name));
+        addAttachments(multipart);
+
+        message.setContent(multipart);
+    }
+
+    protected void configurePlainTextMessageWithAttachments(MimeMessage message) throws MessagingException {
+        configurePlainTextMessage(message);
+
+        Multipart multipart = new MimeMultipart();
+
+        MimeBodyPart messageBodyPart = new MimeBodyPart();
+        messageBodyPart.setText(body);
+        multipart.addBodyPart(messageBodyPart);
+        addAttachments(multipart);
+
+        message.setContent(multipart);
+    }
+
+    private void addAttachments(Multipart multipart) throws MessagingException {
+        for (MimeBodyPart part : new AttachmentEncoder(encodingPool).createBodyParts(attachments)) {
+            multipart.addBodyPart(part);
+        }
+    }
+
+    protected void connectAndSendMessage(MimeMessage message, Transport transport) throws MessagingException {
+        long connectStart = System.nanoTime();
+        transport.connect();
+        long transactionStart = System.nanoTime();
+        metrics.recordConnect(transactionStart - connectStart);
+
+        transport.sendMessage(message, message.getAllRecipients());
+        metrics.recordTransaction(System.nanoTime() - transactionStart);
+    }
+
+    private void checkInstanceFieldsConsistency() {
+        if (from == null) {
+            throw new MissingArgumentException("from");
+        }
+
+        if (recipients == null || recipients.size() == 0) {
+            throw new MissingArgumentException("recipient");
+        }
+
+        if (subject == null) {
+            throw new MissingArgumentException("subject");
+        }
+
+        if (body == null) {
+            throw new MissingArgumentException("body");
+        }
+
+        // cf. RFC 2228: http://www.faqs.org/rfcs/rfc2822.html
+        if (subject.length() > 78) {
+            throw new InvalidArgumentException("The specified subject is too long: " + subject.length() +
+                                               " characters specified but 78 allowed");
+        }
+
+        checkAddresses();
+    }
+
+    /**
+     * Reports malformed addresses when the sender is built rather than when the message is sent.
+     */
+    private void checkAddresses() {
+        AddressParser addressParser = AddressParser.getInstance();
+        addressParser.parse(from);
+        addressParser.parseAll(recipients);
+        addressParser.parseAll(cc);
+        addressParser.parseAll(bcc);
+    }
+
+    /**
+     * Returns the typed {@code mail.*} configuration computed when the sender was created.
+     */
+    protected SmtpConfiguration getSmtpConfiguration() {
+        return smtpConfiguration;
+    }
+
+    @VisibleForTesting
+    protected Properties buildSmtpConfiguration() {
+        return smtpConfiguration.toProperties();
+    }
+
+    /**
+     * The recipients a message has not been delivered to yet. They are narrowed when an attempt
+     * is interrupted after some recipients have accepted the message, so that the next attempts
+     * do not send it twice to them.
+     */
+    private static final class PendingRecipients {
+
+        private Address[] addresses;
+
+        private RecipientReport delivered;
+
+        private PendingRecipients(Address[] addresses) {
+            this.addresses = addresses;
+        }
+
+        private Address[] getAddresses() {
+            return addresses;
+        }
+
+        private boolean isPartial() {
+            return delivered != null;
+        }
+
+        private void onFailure(MessagingException failure) {
+            if (failure instanceof PartialDeliveryException) {
+                PartialDeliveryException partial = (PartialDeliveryException) failure;
+                addresses = partial.getUnsentAddresses();
+                delivered = delivered == null ? partial.getReport() : delivered.merge(partial.getReport());
+            }
+        }
+
+        /**
+         * Returns the outcome of the last attempt with the recipients reached by the previous ones.
+         */
+        private SendResult complete(SendResult result) {
+            if (delivered == null) {
+                return result;
+            }
+
+            RecipientReport report = result.getRecipientReport();
+            return result.withRecipientReport(report == null ? delivered : delivered.merge(report));
+        }
+
+    }
+
+    /**
+     * Utility class for creating an instance of {@link EmailSender}.
+     */
+    public static class Builder {
+
+        private List<String> bcc;
+
+        private List<String> cc;
+
+        private List<String> recipients;
+
+        private String body = "";
+
+        private String from;
+
+        private String subject;
+
+        private String fileToAttach;
+
+        private String fileName = "attachment.txt";
+
+        private Properties properties;
+
+        private SmtpTransportPool transportPool;
+
+        private Executor executor;
+
+        private boolean useVirtualThreads;
+
+        private Outbox outbox;
+
+        private RetryPolicy retryPolicy;
+
+        private List<Attachment> attachments = new ArrayList<>();
+
+        private boolean parallelEncoding;
+
+        private ForkJoinPool encodingPool;
+
+        private EmailMetrics metrics;
+
+        private MxResolver mxResolver;
+
+        private RelayGroup relayGroup;
+
+        private Outbox fallbackOutbox;
+
+        private DuplicateFilter duplicateFilter;
+
+        private String idempotencyKey;
+
+        public Builder() {
+            bcc = new ArrayList<>();
+            cc = new ArrayList<>();
+            recipients = new ArrayList<>();
+            properties = new Properties();
+            loadJavaMailPropertiesOrSetDefault(Collections.emptyMap());
+        }
+
+        public Builder(Map<?, ?> options) {
+            this();
+            Map<?, ?> opts = new HashMap<>(options);
+            if (!opts.containsKey(PROPERTY_MAIL_SMTP_RELAYS)) {
+                checkIfPropertyIsProvidedElseThrow(PROPERTY_MAIL_SMTP_HOST, opts);
+            }
+            loadArguments(opts);
+            loadJavaMailPropertiesOrSetDefault(opts);
+            withProperties(opts);
+        }
+
+        private void loadJavaMailPropertiesOrSetDefault(Map<?, ?> options) {
+
+            String debug = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_DEBUG)).orElse("false");
+            properties.put(PROPERTY_MAIL_DEBUG, debug);
+            options.remove(PROPERTY_MAIL_DEBUG);
+
+            String port = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_PORT)).orElse("587");
+            properties.put(PROPERTY_MAIL_SMTP_PORT, port);
+            options.remove(PROPERTY_MAIL_SMTP_PORT);
+
+            String auth = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_AUTH)).orElse("true");
+            properties.put(PROPERTY_MAIL_SMTP_AUTH, auth);
+            options.remove(PROPERTY_MAIL_SMTP_AUTH);
+
+            String enableStartTls = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_STARTTLS_ENABLE))
+                                            .orElse("false");
+            properties.put(PROPERTY_MAIL_SMTP_STARTTLS_ENABLE, enableStartTls);
+            options.remove(PROPERTY_MAIL_SMTP_STARTTLS_ENABLE);
 
             String trustSsl = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_SSL_TRUST)).orElse("*");
             properties.put(PROPERTY_MAIL_SMTP_SSL_TRUST, trustSsl);
             options.remove(PROPERTY_MAIL_SMTP_SSL_TRUST);
+
+            // without timeouts, a server that stops answering blocks the send forever
+            String connectionTimeout = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT))
+                                               .orElse(String.valueOf(DEFAULT_CONNECTION_TIMEOUT_MILLIS));
+            properties.put(PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT, connectionTimeout);
+            options.remove(PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT);
+
+            String timeout = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_TIMEOUT))
+                                     .orElse(String.valueOf(DEFAULT_TIMEOUT_MILLIS));
+            properties.put(PROPERTY_MAIL_SMTP_TIMEOUT, timeout);
+            options.remove(PROPERTY_MAIL_SMTP_TIMEOUT);
+
+            String writeTimeout = Optional.ofNullable(getAsString(options, PROPERTY_MAIL_SMTP_WRITE_TIMEOUT))
+                                          .orElse(String.valueOf(DEFAULT_TIMEOUT_MILLIS));
+            properties.put(PROPERTY_MAIL_SMTP_WRITE_TIMEOUT, writeTimeout);
+            options.remove(PROPERTY_MAIL_SMTP_WRITE_TIMEOUT);
         }
 
         private void loadArguments(Map<?, ?> args) {
@@ -383,222 +1228,651 @@ public class EmailSender {
                 args.remove(ARG_BODY);
             }
 
-            if (args.containsKey(ARG_FILETOATTACH)) {
-                fileToAttach = getAsString(args, ARG_FILETOATTACH);
-                args.remove(ARG_FILETOATTACH);
+            if (args.containsKey(ARG_FILETOATTACH)) {
+                fileToAttach = getAsString(args, ARG_FILETOATTACH);
+                args.remove(ARG_FILETOATTACH);
+            }
+
+            if (args.containsKey(ARG_FILENAME)) {
+                fileName = getAsString(args, ARG_FILENAME);
+                args.remove(ARG_FILENAME);
+            }
+
+            if (args.containsKey(ARG_CC)) {
+                cc.addAll(emailAddressesAsList(args, ARG_CC));
+                args.remove(ARG_CC);
+            }
+
+            if (args.containsKey(ARG_BCC)) {
+                bcc.addAll(emailAddressesAsList(args, ARG_BCC));
+                args.remove(ARG_BCC);
+            }
+        }
+
+        private void checkIfPropertyIsProvidedElseThrow(String property, Map<?, ?> options) {
+            if (options.containsKey(property)) {
+                properties.put(property, getAsString(options, property));
+                options.remove(property);
+            } else {
+                throw new MissingArgumentException(property);
+            }
+        }
+
+        private ImmutableList<String> emailAddressesAsList(Map<?, ?> args, String argRecipients) {
+            return ImmutableList.copyOf(AddressParser.split(getAsString(args, argRecipients)));
+        }
+
+        private String getAsString(Map<?, ?> map, String argFrom) {
+            return (String) map.get(argFrom);
+        }
+
+        public Builder setAuth(boolean auth) {
+            this.properties.put(PROPERTY_MAIL_SMTP_AUTH, auth);
+            return this;
+        }
+
+        /**
+         * Set the author of the message.
+         *
+         * @param from the author of the message.
+         * @return the builder instance.
+         */
+        public Builder setFrom(String from) {
+            this.from = from;
+            return this;
+        }
+
+        /**
+         * Add an address for the primary recipient(s) of the message.
+         *
+         * @param recipient the email to add.
+         * @return the builder instance.
+         */
+        public Builder addRecipient(String recipient) {
+            if (this.recipients == null) {
+                this.recipients = new ArrayList<>();
+            }
+
+            this.recipients.add(recipient);
+            return this;
+        }
+
+        public Builder setRecipients(List<String> recipients) {
+            this.recipients = recipients;
+            return this;
+        }
+
+        /**
+         * The addresse of another who is to receive the message,
+         * though the content of the message may not be directed at him/her.
+         *
+         * @param cc the email to add as carbon copy.
+         * @return the builder instance.
+         */
+        public Builder addCc(String cc) {
+            if (this.cc == null) {
+                this.cc = new ArrayList<>();
+            }
+
+            this.cc.add(cc);
+            return this;
+        }
+
+        public Builder setCc(List<String> cc) {
+            this.cc = cc;
+            return this;
+        }
+
+        /**
+         * The address of the recipient of the message whose addresse is not to be revealed
+         * to other recipients of the message.
+         *
+         * @param bcc the email to add as blind carbon copy.
+         * @return the builder instance.
+         */
+        public Builder addBcc(String bcc) {
+            if (this.bcc == null) {
+                this.bcc = new ArrayList<>();
+            }
+
+            this.bcc.add(bcc);
+            return this;
+        }
+
+        public Builder setBcc(List<String> bcc) {
+            this.bcc = bcc;
+            return this;
+        }
+
+        /**
+         * Specify if debugging mode of the underlying library that is
+         * used to send emails should be enabled or not.
+         *
+         * @param value
+         * @return the builder instance.
+         */
+        public Builder setDebug(boolean value) {
+            properties.put(PROPERTY_MAIL_DEBUG, value);
+            return this;
+        }
+
+        /**
+         * The subject of the message that is sent.
+         *
+         * @param subject the subject value. Must not exceed 78 characters.
+         * @return the builder instance.
+         */
+        public Builder setSubject(String subject) {
+            this.subject = subject;
+            return this;
+        }
+
+        /**
+         * The body (content) of the message that is sent.
+         * @param body the content of the message.
+         * @return the builder instance.
+         */
+        public Builder setBody(String body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * The username to use for connecting to the specified host.
+         *
+         * @param username the user name
+         * @return the builder instance.
+         */
+        public Builder setUsername(String username) {
+            properties.put(PROPERTY_MAIL_SMTP_USERNAME, username);
+            return this;
+        }
+
+        /**
+         * The password to use for connecting to the specified host.
+         *
+         * @param password the password.
+         * @return the builder instance.
+         */
+        public Builder setPassword(String password) {
+            properties.put(PROPERTY_MAIL_SMTP_PASSWORD, password);
+            return this;
+        }
+
+        /**
+         * The SMTP server to connect to.
+         *
+         * @param host the SMTP server to connect to.
+         * @return the builder instance.
+         */
+        public Builder setHost(String host) {
+            properties.put(PROPERTY_MAIL_SMTP_HOST, host);
+            return this;
+        }
+
+        /**
+         * The SMTP server port to connect to.
+         *
+         * @param port the SMTP server port to connect to. Defaults to 587.
+         * @return the builder instance.
+         */
+        public Builder setPort(int port) {
+            properties.put(PROPERTY_MAIL_SMTP_PORT, port);
+            return this;
+        }
+
+        /**
+         * Define whether STARTTLS command is used or not.
+         *
+         * @param enableStartTls if true, enables the use of the STARTTLS command (if supported by the server)
+         * to switch the connection to a TLS-protected connection before issuing any login commands.
+         * Defaults to false.
+         * @return the builder instance.
+         */
+        public Builder setEnableStartTls(boolean enableStartTls) {
+            properties.put(PROPERTY_MAIL_SMTP_STARTTLS_ENABLE, enableStartTls);
+            return this;
+        }
+
+        /**
+         * Define SSL hosts to trust.
+         *
+         * @param trustSsl if set to "*", all hosts are trusted. If set to a whitespace separated list of
+         *                 hosts, those hosts are trusted. Otherwise, trust depends on the certificate the
+         *                 server presents.
+         * @return the builder instance.
+         */
+        public Builder setTrustSsl(String trustSsl) {
+            properties.put(PROPERTY_MAIL_SMTP_SSL_TRUST, trustSsl);
+            return this;
+        }
+
+        /**
+         * Define the time to wait for the connection to the server to be established.
+         *
+         * @param timeout the connect timeout, zero meaning none. Defaults to 30 seconds.
+         * @return the builder instance.
+         */
+        public Builder setConnectionTimeout(Duration timeout) {
+            properties.put(PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT, toTimeoutMillis(timeout));
+            return this;
+        }
+
+        /**
+         * Define the time to wait for each reply of the server.
+         *
+         * @param timeout the read timeout, zero meaning none. Defaults to 60 seconds.
+         * @return the builder instance.
+         */
+        public Builder setReadTimeout(Duration timeout) {
+            properties.put(PROPERTY_MAIL_SMTP_TIMEOUT, toTimeoutMillis(timeout));
+            return this;
+        }
+
+        /**
+         * Define the time to wait for each write to the server to complete. This timeout is honoured
+         * by javax.mail 1.5.2 and later, use {@link #setSendTimeout(Duration)} to bound the writes
+         * with older versions.
+         *
+         * @param timeout the write timeout, zero meaning none. Defaults to 60 seconds.
+         * @return the builder instance.
+         */
+        public Builder setWriteTimeout(Duration timeout) {
+            properties.put(PROPERTY_MAIL_SMTP_WRITE_TIMEOUT, toTimeoutMillis(timeout));
+            return this;
+        }
+
+        /**
+         * Define the time a send is allowed to take as a whole, including the connection, the
+         * authentication, the transfer of the message, retries and relay failovers. Once it has
+         * elapsed, the connection in use is closed, pooled or not, and a
+         * {@link DeadlineExceededException} is raised.
+         *
+         * @param timeout the send timeout, zero meaning none. Defaults to none.
+         * @return the builder instance.
+         * @see SendDeadline
+         */
+        public Builder setSendTimeout(Duration timeout) {
+            properties.put(PROPERTY_MAIL_SMTP_SEND_TIMEOUT, toTimeoutMillis(timeout));
+            return this;
+        }
+
+        private static int toTimeoutMillis(Duration timeout) {
+            if (timeout.isNegative() || timeout.toMillis() > Integer.MAX_VALUE) {
+                throw new InvalidArgumentException("Invalid timeout: " + timeout);
             }
+            return (int) timeout.toMillis();
+        }
 
-            if (args.containsKey(ARG_FILENAME)) {
-                fileName = getAsString(args, ARG_FILENAME);
-                args.remove(ARG_FILENAME);
-            }
+        /**
+         * Suppress a message when the same message has already been sent within the specified time,
+         * for instance by a task that is re-executed. Messages are identified by a digest of their
+         * sender, recipients, subject, body and attachments, or by the key set with
+         * {@link #setIdempotencyKey(String)}. The keys are remembered by the JVM-wide
+         * {@link DuplicateFilter} unless a filter is set with {@link #setDuplicateFilter(DuplicateFilter)}.
+         * A suppressed message is reported with {@link SendResult#isDuplicate()}.
+         * <p>
+         * A message with an attachment created from a stream is only suppressed when it has an
+         * idempotency key. The messages sent to each recipient separately, with
+         * {@link EmailSender#sendAll(Collection)} or by a {@link DigestAggregator} are suppressed
+         * one by one, a copy sent to a single recipient being identified by its content. Messages
+         * sent with an {@link EmailBatch} are never suppressed.
+         *
+         * @param ttl the time during which a message sent again is suppressed.
+         * @return the builder instance.
+         */
+        public Builder setDuplicateSuppression(Duration ttl) {
+            properties.put(PROPERTY_MAIL_SMTP_DEDUP_TTL, toTimeoutMillis(ttl));
+            return this;
+        }
 
-            if (args.containsKey(ARG_CC)) {
-                cc.addAll(emailAddressesAsList(args, ARG_CC));
-                args.remove(ARG_CC);
-            }
+        /**
+         * Suppress the duplicate messages with the specified filter, for instance one opened on a
+         * file with {@link DuplicateFilter#open(java.nio.file.Path, int)} so that the keys survive
+         * a restart.
+         *
+         * @param duplicateFilter the filter to use.
+         * @return the builder instance.
+         * @see #setDuplicateSuppression(Duration)
+         */
+        public Builder setDuplicateFilter(DuplicateFilter duplicateFilter) {
+            this.duplicateFilter = duplicateFilter;
+            return this;
+        }
 
-            if (args.containsKey(ARG_BCC)) {
-                bcc.addAll(emailAddressesAsList(args, ARG_BCC));
-                args.remove(ARG_BCC);
-            }
+        /**
+         * Identify the message with the specified key rather than its content when suppressing
+         * duplicates, for instance the identifier of the job and task that sends it.
+         *
+         * @param idempotencyKey the key of the message.
+         * @return the builder instance.
+         * @see #setDuplicateSuppression(Duration)
+         */
+        public Builder setIdempotencyKey(String idempotencyKey) {
+            this.idempotencyKey = idempotencyKey;
+            return this;
         }
 
-        private void checkIfPropertyIsProvidedElseThrow(String property, Map<?, ?> options) {
-            if (options.containsKey(property)) {
-                properties.put(property, getAsString(options, property));
-                options.remove(property);
-            } else {
-                throw new MissingArgumentException(property);
-            }
+        /**
+         * Define whether SMTP connections are kept open and reused between sends. When enabled,
+         * the JVM-wide {@link SmtpTransportPool} is used unless a pool is set with
+         * {@link #setConnectionPool(SmtpTransportPool)}.
+         *
+         * @param enable if true, connections are pooled. Defaults to false.
+         * @return the builder instance.
+         */
+        public Builder setConnectionPooling(boolean enable) {
+            properties.put(PROPERTY_MAIL_SMTP_POOL_ENABLE, enable);
+            return this;
         }
 
-        private ImmutableList<String> emailAddressesAsList(Map<?, ?> args, String argRecipients) {
-            return ImmutableList.copyOf((getAsString(args, argRecipients)).split(REGEX_LIST_SEPARATOR));
+        /**
+         * Reuse connections from the specified pool instead of opening a new connection for each message.
+         *
+         * @param transportPool the pool to use.
+         * @return the builder instance.
+         */
+        public Builder setConnectionPool(SmtpTransportPool transportPool) {
+            this.transportPool = transportPool;
+            return this;
         }
 
-        private String getAsString(Map<?, ?> map, String argFrom) {
-            return (String) map.get(argFrom);
+        /**
+         * Define whether messages are delivered directly to the mail exchangers of their recipients
+         * instead of being relayed through the configured host. Recipients are grouped by domain,
+         * the MX records of each domain are looked up in the DNS and cached by the JVM-wide
+         * {@link CachingMxResolver}, and the domains are served concurrently over pooled connections.
+         * Messages sent with {@link EmailBatch} are always relayed.
+         *
+         * @param enable if true, messages are delivered directly. Defaults to false.
+         * @return the builder instance.
+         */
+        public Builder setDirectDelivery(boolean enable) {
+            properties.put(PROPERTY_MAIL_SMTP_DIRECT_ENABLE, enable);
+            return this;
         }
 
-        public Builder setAuth(boolean auth) {
-            this.properties.put(PROPERTY_MAIL_SMTP_AUTH, auth);
+        /**
+         * Deliver messages directly to the mail exchangers returned by the specified resolver.
+         *
+         * @param mxResolver the resolver to use, for instance a
+         * {@link org.ow2.proactive.addons.email.mx.StaticMxResolver}.
+         * @return the builder instance.
+         * @see #setDirectDelivery(boolean)
+         */
+        public Builder setMxResolver(MxResolver mxResolver) {
+            this.mxResolver = mxResolver;
             return this;
         }
 
         /**
-         * Set the author of the message.
+         * Adds a relay messages can be sent through. When relays are defined, each message is sent
+         * through one of them chosen according to {@link #setRelaySelection(RelaySelection)}, and the
+         * next one is tried if it cannot be reached. Relays failing repeatedly are ejected for a while.
+         * The health of the relays is shared by all the senders using the same relays.
          *
-         * @param from the author of the message.
+         * @param host the host of the relay.
+         * @param port the port of the relay.
+         * @param weight the share of the messages sent through the relay, relative to the other relays.
          * @return the builder instance.
+         * @see RelayGroup
          */
-        public Builder setFrom(String from) {
-            this.from = from;
+        public Builder addRelay(String host, int port, int weight) {
+            Relay relay = new Relay(host, port, weight);
+            Object relays = properties.get(PROPERTY_MAIL_SMTP_RELAYS);
+            properties.put(PROPERTY_MAIL_SMTP_RELAYS, relays == null ? relay.toString() : relays + "," + relay);
             return this;
         }
 
         /**
-         * Add an address for the primary recipient(s) of the message.
+         * Define how the relay of each message is chosen.
          *
-         * @param recipient the email to add.
+         * @param selection the selection. Defaults to {@link RelaySelection#LEAST_OUTSTANDING}.
          * @return the builder instance.
          */
-        public Builder addRecipient(String recipient) {
-            if (this.recipients == null) {
-                this.recipients = new ArrayList<>();
-            }
+        public Builder setRelaySelection(RelaySelection selection) {
+            properties.put(PROPERTY_MAIL_SMTP_RELAYS_SELECTION, selection.toString());
+            return this;
+        }
 
-            this.recipients.add(recipient);
+        /**
+         * Send messages through the relays of the specified group instead of the relays defined
+         * with {@link #addRelay(String, int, int)}.
+         *
+         * @param relayGroup the group to use.
+         * @return the builder instance.
+         */
+        public Builder setRelayGroup(RelayGroup relayGroup) {
+            this.relayGroup = relayGroup;
             return this;
         }
 
-        public Builder setRecipients(List<String> recipients) {
-            this.recipients = recipients;
+        /**
+         * Define whether sends to a server that keeps failing are refused for a while rather than
+         * each waiting for the connection timeout. A {@link CircuitOpenException} is raised without
+         * contacting the server while its breaker is open. When relays are defined, the next relay
+         * is tried instead.
+         *
+         * @param enable if true, a circuit breaker is used for each server. Defaults to false.
+         * @return the builder instance.
+         * @see CircuitBreakerRegistry
+         */
+        public Builder setCircuitBreaker(boolean enable) {
+            properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE, enable);
             return this;
         }
 
         /**
-         * The addresse of another who is to receive the message,
-         * though the content of the message may not be directed at him/her.
+         * Enable circuit breakers with the specified settings.
          *
-         * @param cc the email to add as carbon copy.
+         * @param failureRatePercent the percentage of failed sends from which the breaker opens.
+         * @param windowSize the number of last sends the failure rate is computed over.
+         * @param openDuration the time sends are refused once the breaker has opened.
          * @return the builder instance.
+         * @see #setCircuitBreaker(boolean)
          */
-        public Builder addCc(String cc) {
-            if (this.cc == null) {
-                this.cc = new ArrayList<>();
-            }
+        public Builder setCircuitBreaker(int failureRatePercent, int windowSize, Duration openDuration) {
+            properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_FAILURE_RATE,
+                           failureRatePercent);
+            properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_WINDOW, windowSize);
+            properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_OPEN_TIME,
+                           openDuration.toMillis());
+            return setCircuitBreaker(true);
+        }
 
-            this.cc.add(cc);
+        /**
+         * Write messages to the specified outbox when they cannot be sent because the circuit
+         * breaker of the server is open, instead of failing.
+         *
+         * @param fallbackOutbox the outbox that delivers the messages once the server is back.
+         * @return the builder instance.
+         */
+        public Builder setFallbackOutbox(Outbox fallbackOutbox) {
+            this.fallbackOutbox = fallbackOutbox;
             return this;
         }
 
-        public Builder setCc(List<String> cc) {
-            this.cc = cc;
+        /**
+         * Define whether SMTP commands are pipelined when the server supports it. When enabled,
+         * the envelope of a message is sent in a single round trip whatever the number of recipients,
+         * and the content is streamed with BDAT commands if the server supports CHUNKING.
+         *
+         * @param enable if true, uses {@link PipeliningSmtpTransport}. Defaults to false.
+         * @return the builder instance.
+         */
+        public Builder setPipelining(boolean enable) {
+            if (enable) {
+                properties.put(PROPERTY_MAIL_SMTP_CLASS, PipeliningSmtpTransport.class.getName());
+            } else {
+                properties.remove(PROPERTY_MAIL_SMTP_CLASS);
+            }
             return this;
         }
 
         /**
-         * The address of the recipient of the message whose addresse is not to be revealed
-         * to other recipients of the message.
+         * Define whether the content of messages is sent with BDAT commands when pipelining is enabled
+         * and the server supports CHUNKING.
          *
-         * @param bcc the email to add as blind carbon copy.
+         * @param enable if true, BDAT is used when supported. Defaults to true.
          * @return the builder instance.
          */
-        public Builder addBcc(String bcc) {
-            if (this.bcc == null) {
-                this.bcc = new ArrayList<>();
-            }
+        public Builder setChunking(boolean enable) {
+            properties.put(PipeliningSmtpTransport.PROPERTY_MAIL_SMTP_CHUNKING_ENABLE, enable);
+            return this;
+        }
 
-            this.bcc.add(bcc);
+        /**
+         * Limit the number of recipients of each SMTP transaction. Messages with more recipients
+         * are sent in several transactions over the same connection.
+         *
+         * @param maxRecipients the number of RCPT commands accepted by the server per transaction.
+         * Defaults to {@value RecipientChunker#DEFAULT_MAX_RECIPIENTS}.
+         * @return the builder instance.
+         */
+        public Builder setMaxRecipientsPerTransaction(int maxRecipients) {
+            properties.put(RecipientChunker.PROPERTY_MAIL_SMTP_MAX_RECIPIENTS, maxRecipients);
             return this;
         }
 
-        public Builder setBcc(List<String> bcc) {
-            this.bcc = bcc;
+        /**
+         * Limit the number of messages sent to the SMTP host by all the senders of the JVM.
+         * Sends wait for their turn instead of hitting the throttling of the server.
+         *
+         * @param messagesPerMinute the number of messages per minute allowed for the host.
+         * @return the builder instance.
+         */
+        public Builder setHostRateLimit(int messagesPerMinute) {
+            properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_HOST, messagesPerMinute);
             return this;
         }
 
         /**
-         * Specify if debugging mode of the underlying library that is
-         * used to send emails should be enabled or not.
+         * Limit the number of messages sent to the SMTP host with the author of this message.
          *
-         * @param value
+         * @param messagesPerMinute the number of messages per minute allowed for the sender.
          * @return the builder instance.
          */
-        public Builder setDebug(boolean value) {
-            properties.put(PROPERTY_MAIL_DEBUG, value);
+        public Builder setSenderRateLimit(int messagesPerMinute) {
+            properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_SENDER, messagesPerMinute);
             return this;
         }
 
         /**
-         * The subject of the message that is sent.
+         * The number of messages that may be sent at once before rate limits are enforced.
          *
-         * @param subject the subject value. Must not exceed 78 characters.
+         * @param burst the burst size. Defaults to 1.
          * @return the builder instance.
          */
-        public Builder setSubject(String subject) {
-            this.subject = subject;
+        public Builder setRateLimitBurst(int burst) {
+            properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_BURST, burst);
             return this;
         }
 
         /**
-         * The body (content) of the message that is sent.
-         * @param body the content of the message.
+         * The executor used to run asynchronous send operations.
+         *
+         * @param executor the executor to use. Defaults to a shared pool of daemon threads.
          * @return the builder instance.
          */
-        public Builder setBody(String body) {
-            this.body = body;
+        public Builder setExecutor(Executor executor) {
+            this.executor = executor;
             return this;
         }
 
         /**
-         * The username to use for connecting to the specified host.
+         * Define whether asynchronous send operations run in virtual threads when no executor is set.
+         * Virtual threads are used only if the JVM supports them (JDK 21 or later).
          *
-         * @param username the user name
+         * @param useVirtualThreads if true, each asynchronous send runs in its own virtual thread.
+         * Defaults to false.
          * @return the builder instance.
          */
-        public Builder setUsername(String username) {
-            properties.put(PROPERTY_MAIL_SMTP_USERNAME, username);
+        public Builder setUseVirtualThreads(boolean useVirtualThreads) {
+            this.useVirtualThreads = useVirtualThreads;
             return this;
         }
 
         /**
-         * The password to use for connecting to the specified host.
+         * Write messages to the specified outbox instead of sending them immediately. Send methods
+         * return as soon as the message is spooled, the outbox delivers it in the background.
          *
-         * @param password the password.
+         * @param outbox the outbox to use.
          * @return the builder instance.
          */
-        public Builder setPassword(String password) {
-            properties.put(PROPERTY_MAIL_SMTP_PASSWORD, password);
+        public Builder setOutbox(Outbox outbox) {
+            this.outbox = outbox;
             return this;
         }
 
         /**
-         * The SMTP server to connect to.
+         * Define how sends that fail with a transient error, such as a 4xx reply or a connection reset,
+         * are retried.
          *
-         * @param host the SMTP server to connect to.
+         * @param retryPolicy the policy to use. Defaults to {@link RetryPolicy#none()} unless
+         * {@value #PROPERTY_MAIL_SMTP_RETRY_MAX_ATTEMPTS} is set.
          * @return the builder instance.
          */
-        public Builder setHost(String host) {
-            properties.put(PROPERTY_MAIL_SMTP_HOST, host);
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
             return this;
         }
 
         /**
-         * The SMTP server port to connect to.
+         * Add a file, byte array or stream to attach to the message, in addition to the file
+         * set with {@link #setAttachmentPath(String)}.
          *
-         * @param port the SMTP server port to connect to. Defaults to 587.
+         * @param attachment the attachment to add.
          * @return the builder instance.
          */
-        public Builder setPort(int port) {
-            properties.put(PROPERTY_MAIL_SMTP_PORT, port);
+        public Builder addAttachment(Attachment attachment) {
+            if (this.attachments == null) {
+                this.attachments = new ArrayList<>();
+            }
+
+            this.attachments.add(attachment);
+            return this;
+        }
+
+        public Builder setAttachments(List<Attachment> attachments) {
+            this.attachments = attachments;
             return this;
         }
 
         /**
-         * Define whether STARTTLS command is used or not.
+         * Define whether attachments are encoded in parallel before the connection to the SMTP server
+         * is opened, instead of being encoded while the message is transferred. Encoded attachments are
+         * spooled to temporary files when they are large.
          *
-         * @param enableStartTls if true, enables the use of the STARTTLS command (if supported by the server)
-         * to switch the connection to a TLS-protected connection before issuing any login commands.
-         * Defaults to false.
+         * @param parallelEncoding if true, attachments are encoded in the common fork-join pool
+         * unless a pool is set with {@link #setEncodingPool(ForkJoinPool)}. Defaults to false.
          * @return the builder instance.
          */
-        public Builder setEnableStartTls(boolean enableStartTls) {
-            properties.put(PROPERTY_MAIL_SMTP_STARTTLS_ENABLE, enableStartTls);
+        public Builder setParallelEncoding(boolean parallelEncoding) {
+            this.parallelEncoding = parallelEncoding;
             return this;
         }
 
         /**
-         * Define SSL hosts to trust.
+         * Encode attachments in advance in the specified pool.
          *
-         * @param trustSsl if set to "*", all hosts are trusted. If set to a whitespace separated list of
-         *                 hosts, those hosts are trusted. Otherwise, trust depends on the certificate the
-         *                 server presents.
+         * @param encodingPool the pool to use.
          * @return the builder instance.
          */
-        public Builder setTrustSsl(String trustSsl) {
-            properties.put(PROPERTY_MAIL_SMTP_SSL_TRUST, trustSsl);
+        public Builder setEncodingPool(ForkJoinPool encodingPool) {
+            this.encodingPool = encodingPool;
+            return this;
+        }
+
+        /**
+         * Record latencies, sizes and outcomes of the messages sent.
+         *
+         * @param metrics the recorder to use, for instance a
+         * {@link org.ow2.proactive.addons.email.metrics.SmtpMetrics} instance shared by several senders.
+         * Defaults to none.
+         * @return the builder instance.
+         */
+        public Builder setMetrics(EmailMetrics metrics) {
+            this.metrics = metrics;
             return this;
         }
 
@@ -680,12 +1954,187 @@ public class EmailSender {
             return fileName;
         }
 
+        public Duration getConnectionTimeout() {
+            return getTimeout(PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT);
+        }
+
+        public Duration getReadTimeout() {
+            return getTimeout(PROPERTY_MAIL_SMTP_TIMEOUT);
+        }
+
+        public Duration getWriteTimeout() {
+            return getTimeout(PROPERTY_MAIL_SMTP_WRITE_TIMEOUT);
+        }
+
+        public Duration getSendTimeout() {
+            return getTimeout(PROPERTY_MAIL_SMTP_SEND_TIMEOUT);
+        }
+
+        private Duration getTimeout(String property) {
+            return Duration.ofMillis(getIntProperty(property));
+        }
+
+        public boolean isDuplicateSuppressionEnabled() {
+            return duplicateFilter != null || properties.get(PROPERTY_MAIL_SMTP_DEDUP_TTL) != null;
+        }
+
+        public DuplicateFilter getDuplicateFilter() {
+            return duplicateFilter;
+        }
+
+        public String getIdempotencyKey() {
+            return idempotencyKey;
+        }
+
+        public boolean isConnectionPoolingEnabled() {
+            return transportPool != null ||
+                   Boolean.parseBoolean(String.valueOf(properties.get(PROPERTY_MAIL_SMTP_POOL_ENABLE)));
+        }
+
+        public SmtpTransportPool getConnectionPool() {
+            return transportPool;
+        }
+
+        public boolean isDirectDeliveryEnabled() {
+            return mxResolver != null ||
+                   Boolean.parseBoolean(String.valueOf(properties.get(PROPERTY_MAIL_SMTP_DIRECT_ENABLE)));
+        }
+
+        public MxResolver getMxResolver() {
+            return mxResolver;
+        }
+
+        public List<Relay> getRelays() {
+            if (relayGroup != null) {
+                return relayGroup.getRelays();
+            }
+
+            Object relays = properties.get(PROPERTY_MAIL_SMTP_RELAYS);
+            return relays == null ? Collections.emptyList() : Relay.parseList(String.valueOf(relays));
+        }
+
+        public RelayGroup getRelayGroup() {
+            return relayGroup;
+        }
+
+        public boolean isCircuitBreakerEnabled() {
+            Object enable = properties.get(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE);
+            return Boolean.parseBoolean(String.valueOf(enable));
+        }
+
+        public Outbox getFallbackOutbox() {
+            return fallbackOutbox;
+        }
+
+        public boolean isPipeliningEnabled() {
+            return PipeliningSmtpTransport.class.getName().equals(properties.get(PROPERTY_MAIL_SMTP_CLASS));
+        }
+
+        public int getMaxRecipientsPerTransaction() {
+            return RecipientChunker.getMaxRecipients(properties);
+        }
+
+        public int getHostRateLimit() {
+            return getIntProperty(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_HOST);
+        }
+
+        public int getSenderRateLimit() {
+            return getIntProperty(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_SENDER);
+        }
+
+        private int getIntProperty(String property) {
+            Object value = properties.get(property);
+            return value == null ? 0 : Integer.parseInt(String.valueOf(value));
+        }
+
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        public boolean isUseVirtualThreads() {
+            return useVirtualThreads;
+        }
+
+        public Outbox getOutbox() {
+            return outbox;
+        }
+
+        public RetryPolicy getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        public List<Attachment> getAttachments() {
+            return attachments;
+        }
+
+        public boolean isParallelEncodingEnabled() {
+            return parallelEncoding || encodingPool != null;
+        }
+
+        public ForkJoinPool getEncodingPool() {
+            return encodingPool;
+        }
+
+        public EmailMetrics getMetrics() {
+            return metrics;
+        }
+
         public Properties getProperties() {
             return properties;
         }
 
         public EmailSender build() {
-            return new EmailSender(properties, cc, bcc, recipients, body, from, subject, fileToAttach, fileName);
+            return configure(new EmailSender(properties,
+                                             cc,
+                                             bcc,
+                                             recipients,
+                                             body,
+                                             from,
+                                             subject,
+                                             fileToAttach,
+                                             fileName));
+        }
+
+        /**
+         * Builds a mail merge that sends the specified template to many recipients, using every
+         * setting of this builder except the recipients, subject and body.
+         *
+         * @param template the subject and body merged with the variables of each recipient.
+         * @return the mail merge.
+         */
+        public MailMerge buildMailMerge(MessageTemplate template) {
+            if (template == null) {
+                throw new MissingArgumentException("template");
+            }
+
+            return new MailMerge(configure(new EmailSender(properties, cc, bcc, from, fileToAttach, fileName)),
+                                 template);
+        }
+
+        private EmailSender configure(EmailSender emailSender) {
+            emailSender.transportPool = transportPool;
+            emailSender.executor = executor;
+            emailSender.outbox = outbox;
+            emailSender.retryPolicy = retryPolicy;
+            emailSender.mxResolver = mxResolver;
+            emailSender.relayGroup = relayGroup;
+            emailSender.fallbackOutbox = fallbackOutbox;
+            emailSender.duplicateFilter = duplicateFilter;
+            emailSender.idempotencyKey = idempotencyKey;
+            if (attachments != null) {
+                emailSender.attachments = ImmutableList.copyOf(attachments);
+            }
+            emailSender.encodingPool = encodingPool;
+            if (encodingPool == null && parallelEncoding) {
+                emailSender.encodingPool = ForkJoinPool.commonPool();
+            }
+            if (metrics != null) {
+                emailSender.metrics = metrics;
+            }
+            if (executor == null && useVirtualThreads) {
+                emailSender.executor = EmailExecutors.virtualThreadExecutor();
+            }
+            return emailSender;
         }
 
         @Override
@@ -0,0 +1,188 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+import org.ow2.proactive.addons.email.template.MessageTemplate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Sends a {@link MessageTemplate} to many recipients, each message being rendered with the
+ * variables of its recipient.
+ * <p>
+ * The messages share the configuration, session and attachments of the prototype built by
+ * {@link EmailSender.Builder#buildMailMerge(MessageTemplate)}, so that only the recipients, subject
+ * and body are computed per message. Each message is sent through the delivery path of the prototype,
+ * that is its relays, outbox, retry policy and circuit breaker, and the messages share a connection.
+ *
+ * @author ActiveEon Team
+ */
+public class MailMerge {
+
+    private final EmailSender prototype;
+
+    private final MessageTemplate template;
+
+    MailMerge(EmailSender prototype, MessageTemplate template) {
+        this.prototype = prototype;
+        this.template = template;
+    }
+
+    /**
+     * Renders and sends one message per recipient. A message that cannot be rendered or sent
+     * does not prevent the next ones from being sent. The outcome of a message that cannot be
+     * rendered has no sender.
+     *
+     * @param recipients the recipients and their variables.
+     * @return the outcome of each message, in the order of the recipients.
+     */
+    public List<DeliveryOutcome> send(List<Recipient> recipients) {
+        return send(recipients, EmailSender::sendEach);
+    }
+
+    /**
+     * Renders the messages and sends them with the specified batch, which connects to
+     * {@code mail.smtp.host} directly.
+     *
+     * @param recipients the recipients and their variables.
+     * @param batch the batch used to send the messages.
+     * @return the outcome of each message, in the order of the recipients.
+     * @throws InvalidArgumentException if the messages are sent through relays, an outbox or a circuit breaker.
+     * @see #send(List)
+     */
+    public List<DeliveryOutcome> send(List<Recipient> recipients, EmailBatch batch) {
+        return send(recipients, batch::sendAll);
+    }
+
+    private List<DeliveryOutcome> send(List<Recipient> recipients,
+            Function<List<EmailSender>, List<DeliveryOutcome>> sendAll) {
+        DeliveryOutcome[] outcomes = new DeliveryOutcome[recipients.size()];
+        List<EmailSender> senders = new ArrayList<>(recipients.size());
+        int[] indexes = new int[recipients.size()];
+
+        // one buffer is reused for all the messages since they are rendered sequentially
+        StringBuilder buffer = new StringBuilder();
+        int index = 0;
+        for (Recipient recipient : recipients) {
+            try {
+                indexes[senders.size()] = index;
+                senders.add(render(recipient, buffer));
+            } catch (EmailException e) {
+                outcomes[index] = DeliveryOutcome.failure(null, e);
+            }
+            index++;
+        }
+
+        List<DeliveryOutcome> sent = sendAll.apply(senders);
+        for (int i = 0; i < sent.size(); i++) {
+            outcomes[indexes[i]] = sent.get(i);
+        }
+
+        return Arrays.asList(outcomes);
+    }
+
+    /**
+     * Renders the message of the specified recipient.
+     *
+     * @param recipient the recipient and its variables.
+     * @return a sender for the rendered message.
+     * @throws EmailException if a variable is missing or if the rendered message is invalid.
+     */
+    public EmailSender render(Recipient recipient) {
+        return render(recipient, new StringBuilder());
+    }
+
+    private EmailSender render(Recipient recipient, StringBuilder buffer) {
+        Map<String, ?> variables = recipient.getVariables();
+        return new EmailSender(prototype,
+                               recipient.getAddresses(),
+                               template.renderSubject(variables, buffer),
+                               template.renderBody(variables, buffer));
+    }
+
+    public MessageTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * The addresses a message is sent to and the variables used to render it.
+     */
+    public static final class Recipient {
+
+        private final List<String> addresses;
+
+        private final Map<String, ?> variables;
+
+        private Recipient(List<String> addresses, Map<String, ?> variables) {
+            this.addresses = addresses;
+            this.variables = variables;
+        }
+
+        public static Recipient of(String address, Map<String, ?> variables) {
+            if (address == null) {
+                throw new MissingArgumentException("recipient");
+            }
+
+            return of(Collections.singletonList(address), variables);
+        }
+
+        public static Recipient of(List<String> addresses, Map<String, ?> variables) {
+            if (addresses == null || addresses.isEmpty()) {
+                throw new MissingArgumentException("recipient");
+            }
+
+            return new Recipient(ImmutableList.copyOf(addresses),
+                                 variables == null ? ImmutableMap.of() : variables);
+        }
+
+        public List<String> getAddresses() {
+            return addresses;
+        }
+
+        public Map<String, ?> getVariables() {
+            return variables;
+        }
+
+        @Override
+        public String toString() {
+            return "Recipient{" + "addresses=" + addresses + ", variables=" + variables + '}';
+        }
+
+    }
+
+}
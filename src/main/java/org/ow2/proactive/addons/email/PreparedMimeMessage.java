@@ -0,0 +1,145 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Enumeration;
+
+import javax.mail.Header;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+
+/**
+ * A message whose content is copied from a {@link SerializedBody} shared with other messages,
+ * so that only its headers are written for each delivery.
+ *
+ * @author ActiveEon Team
+ */
+final class PreparedMimeMessage extends MimeMessage {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final String[] CONTENT_HEADERS = { "MIME-Version", "Content-Type", "Content-Transfer-Encoding" };
+
+    private final SerializedBody body;
+
+    PreparedMimeMessage(Session session, SerializedBody body) {
+        super(session);
+        this.body = body;
+    }
+
+    /**
+     * Creates a message with the headers of the specified one, including its Message-ID,
+     * and the shared content.
+     *
+     * @param session the session of the copy.
+     * @param message a message whose changes have been saved.
+     * @param body the serialized content of the message.
+     * @return the copy of the message.
+     */
+    static PreparedMimeMessage copyOf(Session session, MimeMessage message, SerializedBody body)
+            throws MessagingException {
+        PreparedMimeMessage copy = new PreparedMimeMessage(session, body);
+
+        Enumeration<?> headers = message.getNonMatchingHeaders(CONTENT_HEADERS);
+        while (headers.hasMoreElements()) {
+            Header header = (Header) headers.nextElement();
+            copy.addHeader(header.getName(), header.getValue());
+        }
+
+        copy.saveChanges();
+        return copy;
+    }
+
+    @Override
+    protected void updateHeaders() throws MessagingException {
+        // the content headers are the ones of the serialized content, which is never parsed again
+        setHeader("MIME-Version", "1.0");
+        setHeader("Content-Type", body.getContentType());
+        if (body.getEncoding() != null) {
+            setHeader("Content-Transfer-Encoding", body.getEncoding());
+        } else {
+            removeHeader("Content-Transfer-Encoding");
+        }
+        if (getHeader("Date") == null) {
+            setSentDate(new Date());
+        }
+        updateMessageID();
+    }
+
+    @Override
+    protected void updateMessageID() throws MessagingException {
+        // a copy of another message keeps its identifier
+        if (getHeader("Message-ID") == null) {
+            super.updateMessageID();
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+        if (!saved) {
+            saveChanges();
+        }
+
+        Enumeration<?> headerLines = getNonMatchingHeaderLines(ignoreList);
+        while (headerLines.hasMoreElements()) {
+            os.write(((String) headerLines.nextElement()).getBytes(StandardCharsets.ISO_8859_1));
+            os.write(CRLF);
+        }
+        os.write(CRLF);
+
+        body.writeTo(os);
+        os.flush();
+    }
+
+    /**
+     * Gives readers of the message access to the shared content.
+     */
+    @Override
+    protected InputStream getContentStream() throws MessagingException {
+        try {
+            return body.openStream();
+        } catch (IOException e) {
+            throw new MessagingException("Unable to read the content of the message", e);
+        }
+    }
+
+    @Override
+    public int getSize() throws MessagingException {
+        try {
+            return (int) Math.min(body.size(), Integer.MAX_VALUE);
+        } catch (IOException e) {
+            throw new MessagingException("Unable to read the content of the message", e);
+        }
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.ow2.proactive.addons.email.transport.RecipientReport;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+
+/**
+ * Outcome of a message that has been accepted by the SMTP server, or written to an outbox
+ * for later delivery.
+ *
+ * @author ActiveEon Team
+ */
+public final class SendResult {
+
+    private final String messageId;
+
+    private final Instant startTime;
+
+    private final Duration duration;
+
+    private final int serverReturnCode;
+
+    private final String serverResponse;
+
+    private final RecipientReport recipientReport;
+
+    private final boolean duplicate;
+
+    public SendResult(String messageId, Instant startTime, Duration duration, int serverReturnCode,
+            String serverResponse) {
+        this(messageId, startTime, duration, serverReturnCode, serverResponse, null);
+    }
+
+    public SendResult(String messageId, Instant startTime, Duration duration, int serverReturnCode,
+            String serverResponse, RecipientReport recipientReport) {
+        this(messageId, startTime, duration, serverReturnCode, serverResponse, recipientReport, false);
+    }
+
+    private SendResult(String messageId, Instant startTime, Duration duration, int serverReturnCode,
+            String serverResponse, RecipientReport recipientReport, boolean duplicate) {
+        this.messageId = messageId;
+        this.startTime = startTime;
+        this.duration = duration;
+        this.serverReturnCode = serverReturnCode;
+        this.serverResponse = serverResponse;
+        this.recipientReport = recipientReport;
+        this.duplicate = duplicate;
+    }
+
+    /**
+     * Returns the outcome of a message that has not been sent because the same message has been sent recently.
+     */
+    static SendResult duplicate(Instant startTime) {
+        return new SendResult(null, startTime, Duration.ZERO, -1, null, null, true);
+    }
+
+    /**
+     * Returns a copy of this outcome with the specified recipients.
+     */
+    SendResult withRecipientReport(RecipientReport report) {
+        return new SendResult(messageId, startTime, duration, serverReturnCode, serverResponse, report, duplicate);
+    }
+
+    static SendResult of(MimeMessage message, Transport transport, Instant startTime, long startNanos)
+            throws MessagingException {
+        return of(message, transport, startTime, startNanos, null);
+    }
+
+    static SendResult of(MimeMessage message, Transport transport, Instant startTime, long startNanos,
+            RecipientReport recipientReport) throws MessagingException {
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+
+        if (transport instanceof SMTPTransport) {
+            SMTPTransport smtpTransport = (SMTPTransport) transport;
+            return new SendResult(message.getMessageID(),
+                                  startTime,
+                                  duration,
+                                  smtpTransport.getLastReturnCode(),
+                                  smtpTransport.getLastServerResponse(),
+                                  recipientReport);
+        }
+
+        return new SendResult(message.getMessageID(), startTime, duration, -1, null, recipientReport);
+    }
+
+    /**
+     * Returns the value of the Message-ID header of the message that has been sent.
+     *
+     * @return the message identifier.
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns when the send operation started.
+     *
+     * @return the start time of the send operation.
+     */
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the time spent connecting to the server and transferring the message,
+     * or writing it to the outbox.
+     *
+     * @return the duration of the send operation.
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the reply code of the last command issued to the server, or -1 if unknown.
+     *
+     * @return the last reply code sent by the server.
+     */
+    public int getServerReturnCode() {
+        return serverReturnCode;
+    }
+
+    /**
+     * Returns the last response sent by the server, or {@code null} if unknown.
+     *
+     * @return the last response sent by the server.
+     */
+    public String getServerResponse() {
+        return serverResponse;
+    }
+
+    /**
+     * Returns the recipients accepted and rejected by the server, or {@code null} if unknown,
+     * for instance when the message has been written to an outbox.
+     *
+     * @return the outcome of each recipient.
+     */
+    public RecipientReport getRecipientReport() {
+        return recipientReport;
+    }
+
+    /**
+     * Returns whether the message has been suppressed because the same message has been sent
+     * recently. The other properties of a suppressed message are not known.
+     *
+     * @return true if the message has not been sent.
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    @Override
+    public String toString() {
+        return "SendResult{" + "messageId='" + messageId + '\'' + ", startTime=" + startTime + ", duration=" +
+               duration + ", serverReturnCode=" + serverReturnCode + ", serverResponse='" + serverResponse + '\'' +
+               ", recipientReport=" + recipientReport + ", duplicate=" + duplicate + '}';
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+
+import org.ow2.proactive.addons.email.attachment.AttachmentEncoder;
+
+import com.google.common.io.FileBackedOutputStream;
+
+
+/**
+ * The content of a message, with its attachments, encoded once so that it can be copied as is
+ * into several messages. The encoded content is kept in memory or spooled to a temporary file
+ * depending on its size.
+ *
+ * @author ActiveEon Team
+ */
+final class SerializedBody implements Closeable {
+
+    private final String contentType;
+
+    private final String encoding;
+
+    private final FileBackedOutputStream content;
+
+    private SerializedBody(String contentType, String encoding, FileBackedOutputStream content) {
+        this.contentType = contentType;
+        this.encoding = encoding;
+        this.content = content;
+    }
+
+    /**
+     * Encodes the content of the specified message, whose headers must have been updated.
+     */
+    static SerializedBody of(MimeMessage message) throws MessagingException {
+        FileBackedOutputStream content = new FileBackedOutputStream(AttachmentEncoder.DEFAULT_SPOOL_THRESHOLD, true);
+
+        try {
+            // same as MimeMessage#writeTo, without the headers
+            OutputStream encoder = MimeUtility.encode(content, message.getEncoding());
+            message.getDataHandler().writeTo(encoder);
+            encoder.flush();
+            content.close();
+        } catch (IOException e) {
+            reset(content);
+            throw new MessagingException("Unable to serialize the content of the message", e);
+        }
+
+        return new SerializedBody(message.getHeader("Content-Type", null), message.getEncoding(), content);
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the Content-Transfer-Encoding of the content, or {@code null} if none.
+     */
+    String getEncoding() {
+        return encoding;
+    }
+
+    long size() throws IOException {
+        return content.asByteSource().size();
+    }
+
+    InputStream openStream() throws IOException {
+        return content.asByteSource().openStream();
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        content.asByteSource().copyTo(os);
+    }
+
+    /**
+     * Deletes the temporary file that holds the content, if any.
+     */
+    @Override
+    public void close() {
+        reset(content);
+    }
+
+    private static void reset(FileBackedOutputStream content) {
+        try {
+            content.reset();
+        } catch (IOException e) {
+            // the temporary file is deleted when the stream is garbage collected
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.io.CountingOutputStream;
+
+
+/**
+ * A message that remembers how many bytes it wrote the last time it was sent,
+ * which is only known once the content has been encoded.
+ *
+ * @author ActiveEon Team
+ */
+final class SizeRecordingMimeMessage extends MimeMessage {
+
+    private volatile long writtenSize = -1;
+
+    SizeRecordingMimeMessage(Session session) {
+        super(session);
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream, String[] ignoreList) throws IOException, MessagingException {
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        super.writeTo(countingStream, ignoreList);
+        writtenSize = countingStream.getCount();
+    }
+
+    /**
+     * @return the number of bytes written by the last call to {@code writeTo}, or -1 if the message
+     * has not been written yet.
+     */
+    long getWrittenSize() {
+        return writtenSize;
+    }
+
+}
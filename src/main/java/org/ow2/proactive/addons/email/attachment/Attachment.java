@@ -0,0 +1,162 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.attachment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.activation.FileTypeMap;
+
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * A file, byte array or stream to attach to a message.
+ * <p>
+ * Attachments created from a stream are read once, when the first message that contains them is created.
+ *
+ * @author ActiveEon Team
+ */
+public final class Attachment {
+
+    private final String name;
+
+    private final String contentType;
+
+    private final Path file;
+
+    private final byte[] bytes;
+
+    private final InputStream stream;
+
+    private Attachment(String name, String contentType, Path file, byte[] bytes, InputStream stream) {
+        if (name == null) {
+            throw new MissingArgumentException("attachment name");
+        }
+        this.name = name;
+        this.contentType = contentType != null ? contentType : FileTypeMap.getDefaultFileTypeMap().getContentType(name);
+        this.file = file;
+        this.bytes = bytes;
+        this.stream = stream;
+    }
+
+    public static Attachment fromFile(Path file) {
+        return fromFile(file, file.getFileName().toString());
+    }
+
+    public static Attachment fromFile(Path file, String name) {
+        return new Attachment(name, null, file, null, null);
+    }
+
+    /**
+     * @param name the name of the attachment.
+     * @param content the content of the attachment.
+     * @param contentType the MIME type, or {@code null} to derive it from the name.
+     */
+    public static Attachment fromBytes(String name, byte[] content, String contentType) {
+        return new Attachment(name, contentType, null, content, null);
+    }
+
+    /**
+     * @param name the name of the attachment.
+     * @param content the content of the attachment, closed once read.
+     * @param contentType the MIME type, or {@code null} to derive it from the name.
+     */
+    public static Attachment fromStream(String name, InputStream content, String contentType) {
+        return new Attachment(name, contentType, null, null, content);
+    }
+
+    InputStream openStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return stream;
+    }
+
+    boolean isFile() {
+        return file != null;
+    }
+
+    boolean isText() {
+        return contentType.toLowerCase().startsWith("text/");
+    }
+
+    /**
+     * Returns a SHA-256 digest of the name, type and content of the attachment. An attachment
+     * created from a stream has no digest, since its content can only be read once, by the message.
+     *
+     * @return the digest, as an hexadecimal string, or {@code null} if the attachment was created from a stream.
+     * @throws IOException if the file of the attachment cannot be read.
+     */
+    public String digest() throws IOException {
+        if (stream != null) {
+            return null;
+        }
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(contentType, StandardCharsets.UTF_8).putByte((byte) 0);
+
+        if (file != null) {
+            try (InputStream in = Files.newInputStream(file)) {
+                ByteStreams.copy(in, Funnels.asOutputStream(hasher));
+            }
+        } else {
+            hasher.putBytes(bytes);
+        }
+        return hasher.hash().toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "Attachment{" + "name='" + name + '\'' + ", contentType='" + contentType + '\'' + '}';
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.mail.BodyPart;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeUtility;
+import javax.mail.util.ByteArrayDataSource;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.FileBackedOutputStream;
+
+
+/**
+ * Creates the body parts of a list of attachments.
+ * <p>
+ * Attachments are encoded when the message is written, unless an encoding pool is provided: the
+ * attachments are then base64 or quoted-printable encoded in parallel when the message is created,
+ * before any connection is opened, into buffers that are spooled to temporary files above
+ * a size threshold. The SMTP connection is then not held open while the content is encoded.
+ * The temporary files are deleted by {@link #release(Message)}.
+ *
+ * @author ActiveEon Team
+ */
+public class AttachmentEncoder {
+
+    public static final int DEFAULT_SPOOL_THRESHOLD = 1024 * 1024;
+
+    private static final String ENCODING_BASE64 = "base64";
+
+    private static final String ENCODING_QUOTED_PRINTABLE = "quoted-printable";
+
+    private final ForkJoinPool encodingPool;
+
+    private final int spoolThreshold;
+
+    public AttachmentEncoder() {
+        this(null);
+    }
+
+    /**
+     * @param encodingPool the pool used to encode attachments in advance, or {@code null}
+     * to encode them when the message is written.
+     */
+    public AttachmentEncoder(ForkJoinPool encodingPool) {
+        this(encodingPool, DEFAULT_SPOOL_THRESHOLD);
+    }
+
+    /**
+     * @param encodingPool the pool used to encode attachments in advance, or {@code null}
+     * to encode them when the message is written.
+     * @param spoolThreshold the size above which encoded content is written to a temporary file.
+     */
+    public AttachmentEncoder(ForkJoinPool encodingPool, int spoolThreshold) {
+        this.encodingPool = encodingPool;
+        this.spoolThreshold = spoolThreshold;
+    }
+
+    /**
+     * @param attachments the attachments to convert.
+     * @return the body parts, in the order of the attachments.
+     * @throws MessagingException if an attachment cannot be read or encoded.
+     */
+    public List<MimeBodyPart> createBodyParts(List<Attachment> attachments) throws MessagingException {
+        List<MimeBodyPart> parts = new ArrayList<>(attachments.size());
+
+        if (encodingPool == null) {
+            for (Attachment attachment : attachments) {
+                parts.add(createBodyPart(attachment));
+            }
+            return parts;
+        }
+
+        List<ForkJoinTask<MimeBodyPart>> tasks = new ArrayList<>(attachments.size());
+        for (Attachment attachment : attachments) {
+            tasks.add(encodingPool.submit(() -> encode(attachment)));
+        }
+
+        MessagingException failure = null;
+        for (ForkJoinTask<MimeBodyPart> task : tasks) {
+            try {
+                parts.add(task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new MessagingException("Interrupted while encoding attachments", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = toMessagingException(e.getCause());
+                }
+            }
+        }
+
+        if (failure != null) {
+            release(parts);
+            throw failure;
+        }
+
+        return parts;
+    }
+
+    private static MessagingException toMessagingException(Throwable error) {
+        if (error instanceof MessagingException) {
+            return (MessagingException) error;
+        }
+        return new MessagingException("Unable to encode attachment",
+                                      error instanceof Exception ? (Exception) error : new Exception(error));
+    }
+
+    private MimeBodyPart createBodyPart(Attachment attachment) throws MessagingException {
+        if (attachment.isFile()) {
+            return new StreamingFileBodyPart(attachment.getFile(), attachment.getName());
+        }
+
+        // streams can be read only once, their content is encoded right away
+        return encode(attachment);
+    }
+
+    private MimeBodyPart encode(Attachment attachment) throws MessagingException {
+        String encoding = attachment.isText() ? ENCODING_QUOTED_PRINTABLE : ENCODING_BASE64;
+        FileBackedOutputStream encoded = new FileBackedOutputStream(spoolThreshold, true);
+
+        try (InputStream in = attachment.openStream()) {
+            if (ENCODING_BASE64.equals(encoding)) {
+                StreamingFileBodyPart.encodeBase64(Channels.newChannel(in),
+                                                   encoded,
+                                                   StreamingFileBodyPart.DEFAULT_CHUNK_SIZE);
+            } else {
+                OutputStream encoder = MimeUtility.encode(encoded, encoding);
+                ByteStreams.copy(in, encoder);
+                encoder.flush();
+            }
+            encoded.close();
+        } catch (IOException e) {
+            try {
+                encoded.reset();
+            } catch (IOException ignored) {
+                // the temporary file is deleted when the stream is garbage collected
+            }
+            throw new MessagingException("Unable to encode attachment " + attachment.getName(), e);
+        }
+
+        return new EncodedBodyPart(attachment, encoding, encoded);
+    }
+
+    /**
+     * Deletes the temporary files used by the attachments of the specified message.
+     *
+     * @param message the message, may be {@code null}.
+     */
+    public static void release(Message message) {
+        if (message == null) {
+            return;
+        }
+
+        try {
+            Object content = message.getContent();
+            if (content instanceof Multipart) {
+                Multipart multipart = (Multipart) content;
+                List<BodyPart> parts = new ArrayList<>();
+                for (int i = 0; i < multipart.getCount(); i++) {
+                    parts.add(multipart.getBodyPart(i));
+                }
+                release(parts);
+            }
+        } catch (MessagingException | IOException e) {
+            throw new EmailException(e);
+        }
+    }
+
+    /**
+     * Deletes the temporary files used by the specified body parts.
+     *
+     * @param parts the parts created by {@link #createBodyParts(List)}.
+     */
+    public static void release(List<? extends BodyPart> parts) {
+        for (BodyPart part : parts) {
+            if (part instanceof EncodedBodyPart) {
+                try {
+                    ((EncodedBodyPart) part).release();
+                } catch (IOException e) {
+                    // the temporary file is deleted when the stream is garbage collected
+                }
+            }
+        }
+    }
+
+}
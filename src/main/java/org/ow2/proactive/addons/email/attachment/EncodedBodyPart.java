@@ -0,0 +1,123 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeUtility;
+
+import com.google.common.io.FileBackedOutputStream;
+
+
+/**
+ * A body part whose content has been encoded before the message is sent. The encoded content is
+ * kept in memory or spooled to a temporary file depending on its size, and copied as is when the
+ * message is written.
+ *
+ * @author ActiveEon Team
+ */
+class EncodedBodyPart extends MimeBodyPart {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final FileBackedOutputStream encoded;
+
+    EncodedBodyPart(Attachment attachment, String encoding, FileBackedOutputStream encoded)
+            throws MessagingException {
+        this.encoded = encoded;
+
+        // decodes the spooled content for readers of the message
+        setDataHandler(new DataHandler(new DecodingDataSource(attachment, encoding)));
+        setFileName(attachment.getName());
+        setHeader("Content-Transfer-Encoding", encoding);
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException, MessagingException {
+        Enumeration<?> headerLines = getAllHeaderLines();
+        while (headerLines.hasMoreElements()) {
+            os.write(((String) headerLines.nextElement()).getBytes(StandardCharsets.ISO_8859_1));
+            os.write(CRLF);
+        }
+        os.write(CRLF);
+
+        encoded.asByteSource().copyTo(os);
+        os.flush();
+    }
+
+    /**
+     * Deletes the temporary file that holds the encoded content, if any.
+     */
+    void release() throws IOException {
+        encoded.reset();
+    }
+
+    private final class DecodingDataSource implements DataSource {
+
+        private final Attachment attachment;
+
+        private final String encoding;
+
+        private DecodingDataSource(Attachment attachment, String encoding) {
+            this.attachment = attachment;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            try {
+                return MimeUtility.decode(encoded.asByteSource().openStream(), encoding);
+            } catch (MessagingException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("The attachment " + attachment.getName() + " is read-only");
+        }
+
+        @Override
+        public String getContentType() {
+            return attachment.getContentType();
+        }
+
+        @Override
+        public String getName() {
+            return attachment.getName();
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.attachment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Enumeration;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+
+
+/**
+ * A body part that attaches a file without loading it in memory.
+ * <p>
+ * The default {@link MimeBodyPart} encodes attachments through a chain of generic streams, which
+ * allocates buffers proportional to the traffic. This part reads the file through a
+ * {@link FileChannel} into a fixed size buffer and base64-encodes each chunk into another fixed
+ * size buffer that is written directly to the transport stream, so that sending an attachment
+ * uses the same amount of memory whatever its size.
+ *
+ * @author ActiveEon Team
+ */
+public class StreamingFileBodyPart extends MimeBodyPart {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    // a base64 line holds 76 characters, that is 57 bytes of input
+    private static final int LINE_INPUT_LENGTH = 57;
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final String ENCODING_BASE64 = "base64";
+
+    private final Path file;
+
+    private final int chunkSize;
+
+    public StreamingFileBodyPart(Path file, String fileName) throws MessagingException {
+        this(file, fileName, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param file the file to attach.
+     * @param fileName the name of the attachment.
+     * @param chunkSize the number of bytes read from the file at once.
+     */
+    public StreamingFileBodyPart(Path file, String fileName, int chunkSize) throws MessagingException {
+        this.file = file;
+        // full lines only, so that a chunk never ends in the middle of a base64 line
+        this.chunkSize = Math.max(1, chunkSize / LINE_INPUT_LENGTH) * LINE_INPUT_LENGTH;
+
+        // the data handler is used by readers of the message, not when it is written
+        setDataHandler(new DataHandler(new FileDataSource(file.toFile())));
+        setFileName(fileName);
+        // set before updateHeaders() so that the content is not scanned to choose an encoding
+        setHeader("Content-Transfer-Encoding", ENCODING_BASE64);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException, MessagingException {
+        Enumeration<?> headerLines = getAllHeaderLines();
+        while (headerLines.hasMoreElements()) {
+            os.write(((String) headerLines.nextElement()).getBytes(StandardCharsets.ISO_8859_1));
+            os.write(CRLF);
+        }
+        os.write(CRLF);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            encodeBase64(channel, os, chunkSize);
+        }
+        os.flush();
+    }
+
+    /**
+     * Writes the content of the channel as base64 lines terminated by CRLF.
+     *
+     * @param channel the channel to read.
+     * @param os the stream to write the encoded content to.
+     * @param chunkSize the number of bytes read at once, must be a multiple of 57.
+     * @throws IOException if the channel cannot be read or the stream cannot be written.
+     */
+    static void encodeBase64(ReadableByteChannel channel, OutputStream os, int chunkSize) throws IOException {
+        Base64.Encoder encoder = Base64.getMimeEncoder();
+        byte[] input = new byte[chunkSize];
+        // 4 characters per 3 bytes and a CRLF per line
+        byte[] output = new byte[chunkSize / 3 * 4 + chunkSize / LINE_INPUT_LENGTH * 2 + 4];
+        ByteBuffer buffer = ByteBuffer.wrap(input);
+
+        while (true) {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+
+            int length = buffer.position();
+            if (length == 0) {
+                return;
+            }
+
+            int encoded = encoder.encode(length == input.length ? input : Arrays.copyOf(input, length), output);
+            os.write(output, 0, encoded);
+            os.write(CRLF);
+
+            if (length < input.length) {
+                return;
+            }
+        }
+    }
+
+}
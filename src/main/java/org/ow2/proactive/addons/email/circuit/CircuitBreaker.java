@@ -0,0 +1,350 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.circuit;
+
+import java.time.Duration;
+
+import org.ow2.proactive.addons.email.exception.CircuitOpenException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+
+/**
+ * Stops sending to an SMTP server that keeps failing, so that callers fail fast instead of each
+ * waiting for the connection timeout.
+ * <p>
+ * The breaker is {@link State#CLOSED closed} while the failure rate of the last calls, measured
+ * over a sliding window of a fixed number of calls, stays below the threshold. Once the threshold is
+ * reached, the breaker is {@link State#OPEN open}: calls are refused for the open duration. It then
+ * becomes {@link State#HALF_OPEN half-open} and lets a few trial calls through: the breaker closes
+ * again if they all succeed and opens again as soon as one of them fails.
+ * <p>
+ * Callers {@link #acquirePermission() acquire a permission} before each call and report its outcome
+ * with {@link #onSuccess()} or {@link #onFailure()}.
+ *
+ * @author ActiveEon Team
+ */
+public final class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+
+    private final int failureRateThreshold;
+
+    private final int minimumCalls;
+
+    private final long openDurationNanos;
+
+    private final int halfOpenCalls;
+
+    private final Ticker ticker;
+
+    // outcomes of the last calls in closed state, true for failures
+    private final boolean[] window;
+
+    private int windowIndex;
+
+    private int recordedCalls;
+
+    private int failedCalls;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int halfOpenPermits;
+
+    private int halfOpenSuccesses;
+
+    private long openedCount;
+
+    private long notPermittedCount;
+
+    private CircuitBreaker(Builder builder) {
+        this.name = builder.name;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+        this.openDurationNanos = builder.openDuration.toNanos();
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.ticker = builder.ticker;
+        this.window = new boolean[builder.windowSize];
+    }
+
+    /**
+     * Checks whether a call may be made.
+     *
+     * @throws CircuitOpenException if the breaker is open, or half-open with all its trial calls in flight.
+     */
+    public synchronized void acquirePermission() {
+        long now = ticker.read();
+
+        if (state == State.OPEN) {
+            long remaining = openedAt + openDurationNanos - now;
+            if (remaining > 0) {
+                notPermittedCount++;
+                throw new CircuitOpenException(name, Duration.ofNanos(remaining));
+            }
+            state = State.HALF_OPEN;
+            halfOpenPermits = 0;
+            halfOpenSuccesses = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits >= halfOpenCalls) {
+                notPermittedCount++;
+                throw new CircuitOpenException(name, Duration.ZERO);
+            }
+            halfOpenPermits++;
+        }
+    }
+
+    /**
+     * Records a call that succeeded, or that has been rejected by a server that is up.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            halfOpenSuccesses++;
+            if (halfOpenSuccesses >= halfOpenCalls) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a call that failed because the server is unreachable or unavailable.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recordedCalls >= minimumCalls && failedCalls * 100 >= failureRateThreshold * recordedCalls) {
+                open();
+            }
+        }
+        // calls started before the breaker opened do not count
+    }
+
+    private void record(boolean failed) {
+        if (recordedCalls == window.length) {
+            if (window[windowIndex]) {
+                failedCalls--;
+            }
+        } else {
+            recordedCalls++;
+        }
+
+        window[windowIndex] = failed;
+        if (failed) {
+            failedCalls++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = ticker.read();
+        openedCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowIndex = 0;
+        recordedCalls = 0;
+        failedCalls = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the current state, an open breaker whose open duration has elapsed being reported as half-open.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && ticker.read() - openedAt >= openDurationNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * @return the percentage of failed calls in the sliding window, or -1 if fewer calls than the
+     * minimum have been recorded since the breaker was last closed.
+     */
+    public synchronized float getFailureRate() {
+        return recordedCalls < minimumCalls ? -1 : failedCalls * 100f / recordedCalls;
+    }
+
+    /**
+     * @return the number of times the breaker has opened.
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+
+    /**
+     * @return the number of calls refused while the breaker was open.
+     */
+    public synchronized long getNotPermittedCount() {
+        return notPermittedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" + "name='" + name + '\'' + ", state=" + getState() + ", failureRate=" +
+               getFailureRate() + '}';
+    }
+
+    /**
+     * Utility class for creating an instance of {@link CircuitBreaker}.
+     */
+    public static class Builder {
+
+        private final String name;
+
+        private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+        private int windowSize = DEFAULT_WINDOW_SIZE;
+
+        private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+
+        private Duration openDuration = DEFAULT_OPEN_DURATION;
+
+        private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+        private Ticker ticker = Ticker.systemTicker();
+
+        /**
+         * @param name the name of the breaker, such as the host and port of the server it protects.
+         */
+        public Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * The percentage of failed calls in the window from which the breaker opens.
+         *
+         * @param failureRateThreshold the threshold, between 1 and 100. Defaults to 50.
+         * @return the builder instance.
+         */
+        public Builder setFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * The number of last calls the failure rate is computed over, and the number of calls
+         * recorded before the failure rate is taken into account.
+         *
+         * @param windowSize the size of the sliding window. Defaults to 20.
+         * @param minimumCalls the minimum number of calls. Defaults to 10.
+         * @return the builder instance.
+         */
+        public Builder setWindow(int windowSize, int minimumCalls) {
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * The time calls are refused once the breaker has opened.
+         *
+         * @param openDuration the open duration. Defaults to 30 seconds.
+         * @return the builder instance.
+         */
+        public Builder setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * The number of trial calls that must succeed for a half-open breaker to close.
+         *
+         * @param halfOpenCalls the number of trial calls. Defaults to 3.
+         * @return the builder instance.
+         */
+        public Builder setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            if (name == null) {
+                throw new MissingArgumentException("name");
+            }
+
+            if (failureRateThreshold <= 0 || failureRateThreshold > 100) {
+                throw new InvalidArgumentException("The failure rate threshold must be between 1 and 100: " +
+                                                   failureRateThreshold);
+            }
+
+            if (windowSize <= 0 || minimumCalls <= 0) {
+                throw new InvalidArgumentException("Invalid window: " + minimumCalls + " calls out of " +
+                                                   windowSize);
+            }
+
+            if (openDuration == null || openDuration.isNegative()) {
+                throw new InvalidArgumentException("Invalid open duration: " + openDuration);
+            }
+
+            if (halfOpenCalls <= 0) {
+                throw new InvalidArgumentException("The number of half-open calls must be positive: " +
+                                                   halfOpenCalls);
+            }
+
+            return new CircuitBreaker(this);
+        }
+
+    }
+
+}
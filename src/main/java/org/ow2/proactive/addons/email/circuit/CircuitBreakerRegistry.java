@@ -0,0 +1,161 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.circuit;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ow2.proactive.addons.email.config.SmtpConfiguration;
+import org.ow2.proactive.addons.email.converters.IntegerConverter;
+import org.ow2.proactive.addons.email.converters.LongConverter;
+import org.ow2.proactive.addons.email.transport.SmtpEndpoint;
+
+
+/**
+ * Holds the JVM-wide circuit breaker of each SMTP server, so that all the senders using a server
+ * share its state.
+ * <p>
+ * Breakers are enabled and configured with the {@code mail.smtp.circuitbreaker.*} properties.
+ * The breaker of a server is created with the settings of the first sender using it.
+ *
+ * @author ActiveEon Team
+ */
+public final class CircuitBreakerRegistry {
+
+    public static final String PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE = "mail.smtp.circuitbreaker.enable";
+
+    /**
+     * Percentage of failed sends from which the breaker opens. Defaults to 50.
+     */
+    public static final String PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_FAILURE_RATE = "mail.smtp.circuitbreaker.failurerate";
+
+    /**
+     * Number of last sends the failure rate is computed over. Defaults to 20.
+     */
+    public static final String PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_WINDOW = "mail.smtp.circuitbreaker.window";
+
+    /**
+     * Time in milliseconds sends are refused once the breaker has opened. Defaults to 30 seconds.
+     */
+    public static final String PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_OPEN_TIME = "mail.smtp.circuitbreaker.opentime";
+
+    private static final class LazyHolder {
+
+        private static final CircuitBreakerRegistry INSTANCE = new CircuitBreakerRegistry();
+
+    }
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private CircuitBreakerRegistry() {
+    }
+
+    public static CircuitBreakerRegistry getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    /**
+     * Returns the breaker of the server described by the specified configuration.
+     *
+     * @param configuration the SMTP configuration of a sender.
+     * @return the breaker of the server, or {@code null} if breakers are not enabled by the configuration.
+     */
+    public CircuitBreaker get(SmtpConfiguration configuration) {
+        Properties properties = configuration.getProperties();
+        if (!Boolean.parseBoolean(String.valueOf(properties.get(PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE)))) {
+            return null;
+        }
+
+        SmtpEndpoint endpoint = configuration.getEndpoint();
+        String name = String.valueOf(endpoint.getHost()).toLowerCase(Locale.ROOT) + ':' + endpoint.getPort();
+        CircuitBreaker breaker = breakers.get(name);
+        if (breaker != null) {
+            return breaker;
+        }
+
+        return breakers.computeIfAbsent(name, key -> create(key, properties));
+    }
+
+    private static CircuitBreaker create(String name, Properties properties) {
+        CircuitBreaker.Builder builder = new CircuitBreaker.Builder(name);
+
+        Integer failureRate = getInteger(properties, PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_FAILURE_RATE);
+        if (failureRate != null) {
+            builder.setFailureRateThreshold(failureRate);
+        }
+
+        Integer window = getInteger(properties, PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_WINDOW);
+        if (window != null) {
+            builder.setWindow(window, Math.max(window / 2, 1));
+        }
+
+        Object openTimeValue = properties.get(PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_OPEN_TIME);
+        if (openTimeValue != null) {
+            long openTime = LongConverter.getInstance().convert(PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_OPEN_TIME,
+                                                                String.valueOf(openTimeValue));
+            builder.setOpenDuration(Duration.ofMillis(openTime));
+        }
+
+        return builder.build();
+    }
+
+    private static Integer getInteger(Properties properties, String property) {
+        Object value = properties.get(property);
+        return value == null ? null : IntegerConverter.getInstance().convert(property, String.valueOf(value));
+    }
+
+    /**
+     * @return the state of the breaker of each server, sorted by name.
+     */
+    public Map<String, CircuitBreaker.State> getStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<>();
+        for (CircuitBreaker breaker : breakers.values()) {
+            states.put(breaker.getName(), breaker.getState());
+        }
+        return Collections.unmodifiableMap(states);
+    }
+
+    /**
+     * @return the breakers created so far, by name.
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(breakers);
+    }
+
+    /**
+     * Forgets all breakers, which start closed when they are needed again.
+     */
+    public void clear() {
+        breakers.clear();
+    }
+
+}
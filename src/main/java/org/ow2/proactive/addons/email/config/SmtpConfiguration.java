@@ -0,0 +1,149 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+import org.ow2.proactive.addons.email.transport.SessionCache;
+import org.ow2.proactive.addons.email.transport.SmtpEndpoint;
+
+
+/**
+ * The typed and immutable {@code mail.*} configuration of a sender, computed once when the
+ * sender is built and reused for every message it sends, together with the values derived
+ * from it: the endpoint used to pool connections and the fingerprint used to cache sessions.
+ *
+ * @author ActiveEon Team
+ */
+public final class SmtpConfiguration {
+
+    private static final String SMTP_PROPERTY_PREFIX = "mail.";
+
+    private final Properties properties;
+
+    private final SmtpEndpoint endpoint;
+
+    private final String fingerprint;
+
+    // the configurations derived for the other hosts the messages may be sent to
+    private final ConcurrentMap<String, SmtpConfiguration> hostConfigurations = new ConcurrentHashMap<>();
+
+    private SmtpConfiguration(Properties properties) {
+        this.properties = properties;
+        this.endpoint = SmtpEndpoint.from(properties);
+        this.fingerprint = SessionCache.fingerprint(properties);
+    }
+
+    /**
+     * Extracts the {@code mail.*} entries of the specified properties and converts their values
+     * according to {@link SmtpPropertySchema}.
+     *
+     * @param source the properties of the sender, may be {@code null}.
+     * @return the typed configuration.
+     * @throws ConversionException if the value of a known property does not have the expected type.
+     */
+    public static SmtpConfiguration of(Properties source) throws ConversionException {
+        SmtpPropertySchema schema = SmtpPropertySchema.getInstance();
+
+        Map<Object, Object> entries = new LinkedHashMap<>();
+        if (source != null) {
+            for (Map.Entry<Object, Object> entry : source.entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                if (key.startsWith(SMTP_PROPERTY_PREFIX)) {
+                    entries.put(key, schema.convert(key, entry.getValue()));
+                }
+            }
+        }
+
+        return new SmtpConfiguration(new UnmodifiableProperties(entries));
+    }
+
+    /**
+     * Returns the configuration as properties that can be handed to javax.mail.
+     * The returned instance is shared and throws {@link UnsupportedOperationException}
+     * when modified.
+     *
+     * @return the typed {@code mail.*} properties.
+     */
+    public Properties getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns a modifiable copy of the configuration.
+     *
+     * @return a copy of the typed {@code mail.*} properties.
+     */
+    public Properties toProperties() {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+    /**
+     * Returns the same configuration for another SMTP server. Derived configurations are computed
+     * once and kept with this one.
+     *
+     * @param host the host of the server.
+     * @param port the port of the server.
+     * @return the configuration with the specified host and port.
+     */
+    public SmtpConfiguration withHost(String host, int port) {
+        return hostConfigurations.computeIfAbsent(host + ':' + port, key -> {
+            Properties copy = toProperties();
+            copy.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, host);
+            copy.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, port);
+            return new SmtpConfiguration(new UnmodifiableProperties(copy));
+        });
+    }
+
+    public Object get(String propertyName) {
+        return properties.get(propertyName);
+    }
+
+    public SmtpEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return the digest of the configuration, as computed by {@link SessionCache}.
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public String toString() {
+        return "SmtpConfiguration{" + "endpoint=" + endpoint + '}';
+    }
+
+}
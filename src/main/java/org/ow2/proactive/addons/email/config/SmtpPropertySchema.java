@@ -0,0 +1,182 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.circuit.CircuitBreakerRegistry;
+import org.ow2.proactive.addons.email.converters.BooleanConverter;
+import org.ow2.proactive.addons.email.converters.Converter;
+import org.ow2.proactive.addons.email.converters.IntegerConverter;
+import org.ow2.proactive.addons.email.converters.LongConverter;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.transport.PipeliningSmtpTransport;
+import org.ow2.proactive.addons.email.transport.RecipientChunker;
+
+
+/**
+ * Declares the type of the known {@code mail.*} properties, so that their values are converted
+ * once with the matching {@link Converter} instead of being guessed on each send.
+ * <p>
+ * Properties that are not declared keep the historical behavior: {@code true} and {@code false}
+ * become booleans, integers become integers and anything else is kept as a string.
+ *
+ * @author ActiveEon Team
+ */
+public final class SmtpPropertySchema {
+
+    private static final class LazyHolder {
+
+        private static final SmtpPropertySchema INSTANCE = new SmtpPropertySchema();
+
+    }
+
+    private final Map<String, Converter<?>> converters = new HashMap<>();
+
+    private SmtpPropertySchema() {
+        declare(BooleanConverter.getInstance(),
+                EmailSender.PROPERTY_MAIL_DEBUG,
+                EmailSender.PROPERTY_MAIL_SMTP_AUTH,
+                EmailSender.PROPERTY_MAIL_SMTP_STARTTLS_ENABLE,
+                EmailSender.PROPERTY_MAIL_SMTP_POOL_ENABLE,
+                EmailSender.PROPERTY_MAIL_SMTP_DIRECT_ENABLE,
+                CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE,
+                PipeliningSmtpTransport.PROPERTY_MAIL_SMTP_PIPELINING_ENABLE,
+                PipeliningSmtpTransport.PROPERTY_MAIL_SMTP_CHUNKING_ENABLE,
+                "mail.smtp.starttls.required",
+                "mail.smtp.ssl.enable",
+                "mail.smtp.ssl.checkserveridentity",
+                "mail.smtp.ehlo",
+                "mail.smtp.sendpartial",
+                "mail.smtp.quitwait",
+                "mail.smtp.reportsuccess",
+                "mail.smtp.allow8bitmime",
+                "mail.smtp.userset",
+                "mail.smtp.noop.strict",
+                "mail.smtp.sasl.enable",
+                "mail.smtp.socketFactory.fallback");
+
+        declare(IntegerConverter.getInstance(),
+                EmailSender.PROPERTY_MAIL_SMTP_PORT,
+                EmailSender.PROPERTY_MAIL_SMTP_RETRY_MAX_ATTEMPTS,
+                PipeliningSmtpTransport.PROPERTY_MAIL_SMTP_CHUNKING_SIZE,
+                RecipientChunker.PROPERTY_MAIL_SMTP_MAX_RECIPIENTS,
+                CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_FAILURE_RATE,
+                CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_WINDOW,
+                SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_HOST,
+                SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_SENDER,
+                SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_BURST,
+                SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT,
+                EmailSender.PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT,
+                EmailSender.PROPERTY_MAIL_SMTP_TIMEOUT,
+                EmailSender.PROPERTY_MAIL_SMTP_WRITE_TIMEOUT,
+                EmailSender.PROPERTY_MAIL_SMTP_SEND_TIMEOUT,
+                EmailSender.PROPERTY_MAIL_SMTP_DEDUP_TTL,
+                "mail.smtp.localport",
+                "mail.smtp.socketFactory.port",
+                "mail.smtp.ssl.socketFactory.port");
+
+        declare(LongConverter.getInstance(), CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_OPEN_TIME);
+
+        declare(StringConverter.INSTANCE,
+                EmailSender.PROPERTY_MAIL_SMTP_HOST,
+                EmailSender.PROPERTY_MAIL_SMTP_USERNAME,
+                EmailSender.PROPERTY_MAIL_SMTP_PASSWORD,
+                EmailSender.PROPERTY_MAIL_SMTP_SSL_TRUST,
+                EmailSender.PROPERTY_MAIL_SMTP_CLASS,
+                EmailSender.PROPERTY_MAIL_SMTP_RELAYS,
+                EmailSender.PROPERTY_MAIL_SMTP_RELAYS_SELECTION,
+                "mail.smtp.user",
+                "mail.smtp.from",
+                "mail.smtp.localhost",
+                "mail.smtp.localaddress",
+                "mail.smtp.ssl.protocols",
+                "mail.smtp.ssl.ciphersuites",
+                "mail.smtp.auth.mechanisms",
+                "mail.smtp.dsn.notify",
+                "mail.smtp.dsn.ret",
+                "mail.smtp.submitter",
+                "mail.smtp.mailextension");
+    }
+
+    private void declare(Converter<?> converter, String... propertyNames) {
+        for (String propertyName : propertyNames) {
+            converters.put(propertyName, converter);
+        }
+    }
+
+    public static SmtpPropertySchema getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    /**
+     * @param propertyName the name of the property.
+     * @return true if the type of the property is declared by the schema.
+     */
+    public boolean isDeclared(String propertyName) {
+        return converters.containsKey(propertyName);
+    }
+
+    /**
+     * Converts the value of a property to the declared type of the property, or to the type
+     * guessed from the value for undeclared properties.
+     *
+     * @param propertyName the name of the property.
+     * @param value the value to convert, either a string or an already typed value.
+     * @return the typed value.
+     * @throws ConversionException if the value does not match the declared type of the property.
+     */
+    public Object convert(String propertyName, Object value) throws ConversionException {
+        String strValue = String.valueOf(value);
+
+        Converter<?> converter = converters.get(propertyName);
+        if (converter != null) {
+            return converter.convert(propertyName, strValue);
+        }
+
+        if (strValue.equals(Boolean.TRUE.toString()) || strValue.equals(Boolean.FALSE.toString())) {
+            return Boolean.valueOf(strValue);
+        }
+
+        Integer intValue = IntegerConverter.getInstance().tryConvert(strValue);
+        return intValue != null ? intValue : strValue;
+    }
+
+    private enum StringConverter implements Converter<String> {
+
+        INSTANCE;
+
+        @Override
+        public String convert(String parameterName, String parameterValue) {
+            return parameterValue;
+        }
+
+    }
+
+}
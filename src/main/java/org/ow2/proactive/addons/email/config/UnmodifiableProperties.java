@@ -0,0 +1,142 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.config;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+
+/**
+ * Properties that cannot be modified once created, so that they can be shared between sends.
+ *
+ * @author ActiveEon Team
+ */
+final class UnmodifiableProperties extends Properties {
+
+    private static final long serialVersionUID = 1L;
+
+    UnmodifiableProperties(Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            super.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized Object put(Object key, Object value) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object setProperty(String key, String value) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized void putAll(Map<?, ?> entries) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized void clear() {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object putIfAbsent(Object key, Object value) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object replace(Object key, Object value) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object computeIfPresent(Object key,
+            BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized Object merge(Object key, Object value,
+            BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized void load(Reader reader) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized void load(InputStream inStream) {
+        throw unsupported();
+    }
+
+    @Override
+    public synchronized void loadFromXML(InputStream in) {
+        throw unsupported();
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("The SMTP configuration cannot be modified");
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**
+ * Parses the address entries of a message, such as {@code john@company.com} or
+ * {@code "Doe, Jane" <jane@company.com>, john@company.com}, in a single pass.
+ * <p>
+ * Common addresses are recognized by a lightweight syntax check and built without going through
+ * the RFC 822 parser of javax.mail, which is only used as a fallback for the other forms it
+ * accepts. Parsed entries are kept in a bounded cache since the same recipients come back from
+ * one notification to the next. The returned addresses are shared and must not be modified.
+ *
+ * @author ActiveEon Team
+ */
+public class AddressParser {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    private static final class LazyHolder {
+
+        private static final AddressParser INSTANCE = new AddressParser(DEFAULT_MAXIMUM_SIZE);
+
+    }
+
+    private final Cache<String, List<InternetAddress>> addresses;
+
+    public AddressParser(int maximumSize) {
+        this.addresses = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Returns the JVM-wide parser.
+     *
+     * @return the JVM-wide parser.
+     */
+    public static AddressParser getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    /**
+     * Parses an entry made of one or more comma-separated addresses.
+     *
+     * @param entry the entry to parse.
+     * @return the addresses of the entry.
+     * @throws InvalidArgumentException if the entry is empty or contains a malformed address.
+     */
+    public List<InternetAddress> parse(String entry) {
+        // the cache does not accept null keys
+        if (entry == null) {
+            throw new InvalidArgumentException("Missing email address");
+        }
+
+        List<InternetAddress> parsed = addresses.getIfPresent(entry);
+        if (parsed == null) {
+            parsed = parseEntry(entry);
+            addresses.put(entry, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses the specified entries.
+     *
+     * @param entries the entries to parse, may be {@code null}.
+     * @return the addresses of all the entries.
+     * @throws InvalidArgumentException if an entry is empty or contains a malformed address.
+     * @see #parse(String)
+     */
+    public InternetAddress[] parseAll(List<String> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return new InternetAddress[0];
+        }
+
+        if (entries.size() == 1) {
+            List<InternetAddress> parsed = parse(entries.get(0));
+            return parsed.toArray(new InternetAddress[parsed.size()]);
+        }
+
+        List<InternetAddress> all = new ArrayList<>(entries.size());
+        for (String entry : entries) {
+            all.addAll(parse(entry));
+        }
+        return all.toArray(new InternetAddress[all.size()]);
+    }
+
+    private static List<InternetAddress> parseEntry(String entry) {
+        List<String> tokens = split(entry);
+        if (tokens.isEmpty()) {
+            throw new InvalidArgumentException("No email address in '" + entry + "'");
+        }
+
+        List<InternetAddress> parsed = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            InternetAddress address = tryParseAddress(token);
+            if (address == null) {
+                try {
+                    // the forms that javax.mail accepted when the entry was parsed at send time
+                    address = new InternetAddress(token);
+                } catch (AddressException e) {
+                    throw new InvalidArgumentException("Invalid email address '" + token + "' in '" + entry + "': " +
+                                                       e.getMessage());
+                }
+            }
+            parsed.add(address);
+        }
+
+        return Collections.unmodifiableList(parsed);
+    }
+
+    /**
+     * Splits a comma-separated list of addresses, ignoring commas between double quotes.
+     *
+     * @param value the list to split.
+     * @return the trimmed non-empty entries of the list.
+     * @throws InvalidArgumentException if a double quote is not closed.
+     */
+    public static List<String> split(String value) {
+        List<String> tokens = trySplit(value);
+        if (tokens == null) {
+            throw new InvalidArgumentException("Unclosed double quote in email addresses '" + value + "'");
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the trimmed non-empty entries of the list, or {@code null} if a double quote is not closed.
+     */
+    static List<String> trySplit(String value) {
+        List<String> tokens = new ArrayList<>();
+
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : ',';
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                String token = value.substring(start, i).trim();
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+                start = i + 1;
+            }
+        }
+
+        return quoted ? null : tokens;
+    }
+
+    /**
+     * Builds the address of a {@code local@domain} or {@code personal <local@domain>} token
+     * without the RFC 822 parser.
+     *
+     * @return the address, or {@code null} if the token does not pass the lightweight syntax check.
+     */
+    static InternetAddress tryParseAddress(String token) {
+        int open = token.lastIndexOf('<');
+        if (open < 0) {
+            if (!isValidAddress(token)) {
+                return null;
+            }
+            InternetAddress address = new InternetAddress();
+            address.setAddress(token);
+            return address;
+        }
+
+        if (token.charAt(token.length() - 1) != '>') {
+            return null;
+        }
+
+        String email = token.substring(open + 1, token.length() - 1).trim();
+        String personal = token.substring(0, open).trim();
+        if (personal.length() >= 2 && personal.startsWith("\"") && personal.endsWith("\"")) {
+            personal = personal.substring(1, personal.length() - 1);
+        }
+
+        if (!isValidAddress(email)) {
+            return null;
+        }
+
+        try {
+            return new InternetAddress(email, personal.isEmpty() ? null : personal);
+        } catch (UnsupportedEncodingException e) {
+            // the default charset is always supported
+            return null;
+        }
+    }
+
+    private static boolean isValidAddress(String email) {
+        int at = email.lastIndexOf('@');
+        if (at <= 0 || at == email.length() - 1) {
+            return false;
+        }
+
+        for (int i = 0; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c <= ' ' || c == 127 || c == '<' || c == '>' || c == ',' || (c == '@' && i != at)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long size() {
+        return addresses.size();
+    }
+
+    public void invalidateAll() {
+        addresses.invalidateAll();
+    }
+
+}
@@ -41,11 +41,23 @@ public final class BooleanConverter implements Converter<Boolean> {
 
     @Override
     public Boolean convert(String propertyName, String propertyValue) throws ConversionException {
-        if (!propertyValue.equalsIgnoreCase("true") && !propertyValue.equalsIgnoreCase("false")) {
+        Boolean value = tryConvert(propertyValue);
+        if (value == null) {
             throw new ConversionException(propertyName, propertyValue, Boolean.class);
         }
 
-        return Boolean.parseBoolean(propertyValue);
+        return value;
+    }
+
+    @Override
+    public Boolean tryConvert(String propertyValue) {
+        if ("true".equalsIgnoreCase(propertyValue)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(propertyValue)) {
+            return Boolean.FALSE;
+        }
+        return null;
     }
 
     public static BooleanConverter getInstance() {
@@ -35,4 +35,19 @@ public interface Converter<T> {
 
     T convert(String parameterName, String parameterValue) throws ConversionException;
 
+    /**
+     * Converts the specified value, reporting invalid values with a {@code null} result instead
+     * of an exception. This is the method to use when probing values of unknown type.
+     *
+     * @param parameterValue the value to convert.
+     * @return the converted value, or {@code null} if the value is invalid.
+     */
+    default T tryConvert(String parameterValue) {
+        try {
+            return convert(null, parameterValue);
+        } catch (ConversionException e) {
+            return null;
+        }
+    }
+
 }
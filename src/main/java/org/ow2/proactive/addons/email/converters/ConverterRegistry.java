@@ -0,0 +1,136 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.mail.internet.InternetAddress;
+
+import org.ow2.proactive.addons.email.exception.ConversionException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.reflect.TypeToken;
+
+
+/**
+ * Gives access to the {@link Converter} of a type. Converters for {@link Integer}, {@link Long},
+ * {@link Boolean}, {@link Duration}, {@link InetSocketAddress} and lists of {@link InternetAddress}
+ * are registered by default. Generic types are identified with a {@link TypeToken}, such as
+ * {@link #ADDRESS_LIST}.
+ *
+ * @author ActiveEon Team
+ */
+public final class ConverterRegistry {
+
+    public static final TypeToken<List<InternetAddress>> ADDRESS_LIST = new TypeToken<List<InternetAddress>>() {
+
+        private static final long serialVersionUID = 1L;
+
+    };
+
+    private static final class LazyHolder {
+
+        private static final ConverterRegistry INSTANCE = new ConverterRegistry();
+
+    }
+
+    private final ConcurrentMap<TypeToken<?>, Converter<?>> converters = new ConcurrentHashMap<>();
+
+    public ConverterRegistry() {
+        register(Integer.class, IntegerConverter.getInstance());
+        register(Long.class, LongConverter.getInstance());
+        register(Boolean.class, BooleanConverter.getInstance());
+        register(Duration.class, DurationConverter.getInstance());
+        register(InetSocketAddress.class, InetSocketAddressConverter.getInstance());
+        register(ADDRESS_LIST, InternetAddressListConverter.getInstance());
+    }
+
+    public static ConverterRegistry getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    public <T> void register(Class<T> type, Converter<T> converter) {
+        register(TypeToken.of(type), converter);
+    }
+
+    /**
+     * Registers the converter of a type, replacing any converter previously registered for it.
+     *
+     * @param type the type produced by the converter.
+     * @param converter the converter to use.
+     */
+    public <T> void register(TypeToken<T> type, Converter<T> converter) {
+        converters.put(type, converter);
+    }
+
+    public <T> Converter<T> getConverter(Class<T> type) {
+        return getConverter(TypeToken.of(type));
+    }
+
+    /**
+     * Returns the converter registered for the specified type.
+     *
+     * @param type the type to convert to.
+     * @return the converter of the type.
+     * @throws InvalidArgumentException if no converter is registered for the type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Converter<T> getConverter(TypeToken<T> type) {
+        Converter<T> converter = (Converter<T>) converters.get(type);
+        if (converter == null) {
+            throw new InvalidArgumentException("No converter registered for " + type);
+        }
+        return converter;
+    }
+
+    public <T> T convert(Class<T> type, String parameterName, String parameterValue) throws ConversionException {
+        return getConverter(type).convert(parameterName, parameterValue);
+    }
+
+    public <T> T convert(TypeToken<T> type, String parameterName, String parameterValue)
+            throws ConversionException {
+        return getConverter(type).convert(parameterName, parameterValue);
+    }
+
+    /**
+     * Converts a value without throwing an exception when it is invalid.
+     *
+     * @return the converted value, or {@code null} if the value is invalid.
+     * @see Converter#tryConvert(String)
+     */
+    public <T> T tryConvert(Class<T> type, String parameterValue) {
+        return getConverter(type).tryConvert(parameterValue);
+    }
+
+    public <T> T tryConvert(TypeToken<T> type, String parameterValue) {
+        return getConverter(type).tryConvert(parameterValue);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Converts durations expressed as a number of milliseconds ({@code 30000}), as a number
+ * followed by a unit among {@code ms}, {@code s}, {@code m}, {@code h} and {@code d}
+ * ({@code 30s}), or in the ISO-8601 format ({@code PT30S}).
+ *
+ * @author ActiveEon Team
+ */
+public final class DurationConverter implements Converter<Duration> {
+
+    private static final class LazyHolder {
+
+        private static final DurationConverter INSTANCE = new DurationConverter();
+
+    }
+
+    @Override
+    public Duration convert(String propertyName, String propertyValue) throws ConversionException {
+        Duration value = tryConvert(propertyValue);
+        if (value == null) {
+            throw new ConversionException(propertyName, propertyValue, Duration.class);
+        }
+        return value;
+    }
+
+    @Override
+    public Duration tryConvert(String propertyValue) {
+        if (propertyValue == null) {
+            return null;
+        }
+
+        String value = propertyValue.trim();
+        if (isIsoFormat(value)) {
+            try {
+                return Duration.parse(value);
+            } catch (DateTimeParseException e) {
+                // only values that look like ISO-8601 durations can get there
+                return null;
+            }
+        }
+
+        int end = value.length();
+        while (end > 0 && Character.isLetter(value.charAt(end - 1))) {
+            end--;
+        }
+
+        ChronoUnit unit = unitOf(value.substring(end));
+        if (unit == null || !Numbers.isInteger(value, 0, end, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            return null;
+        }
+
+        long amount = Numbers.parseLong(value, 0, end);
+        try {
+            return Duration.of(amount, unit);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private static boolean isIsoFormat(String value) {
+        int index = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+        return value.length() > index && (value.charAt(index) == 'P' || value.charAt(index) == 'p');
+    }
+
+    private static ChronoUnit unitOf(String suffix) {
+        switch (suffix) {
+            case "":
+            case "ms":
+                return ChronoUnit.MILLIS;
+            case "s":
+                return ChronoUnit.SECONDS;
+            case "m":
+                return ChronoUnit.MINUTES;
+            case "h":
+                return ChronoUnit.HOURS;
+            case "d":
+                return ChronoUnit.DAYS;
+            default:
+                return null;
+        }
+    }
+
+    public static DurationConverter getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+}
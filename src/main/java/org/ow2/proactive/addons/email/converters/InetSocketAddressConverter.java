@@ -0,0 +1,92 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import java.net.InetSocketAddress;
+
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Converts {@code host:port} and {@code [IPv6 address]:port} values to unresolved socket
+ * addresses. No name resolution is performed.
+ *
+ * @author ActiveEon Team
+ */
+public final class InetSocketAddressConverter implements Converter<InetSocketAddress> {
+
+    private static final class LazyHolder {
+
+        private static final InetSocketAddressConverter INSTANCE = new InetSocketAddressConverter();
+
+    }
+
+    @Override
+    public InetSocketAddress convert(String propertyName, String propertyValue) throws ConversionException {
+        InetSocketAddress value = tryConvert(propertyValue);
+        if (value == null) {
+            throw new ConversionException(propertyName, propertyValue, InetSocketAddress.class);
+        }
+        return value;
+    }
+
+    @Override
+    public InetSocketAddress tryConvert(String propertyValue) {
+        if (propertyValue == null) {
+            return null;
+        }
+
+        String value = propertyValue.trim();
+        int separator = value.lastIndexOf(':');
+        if (separator <= 0) {
+            return null;
+        }
+
+        String host = value.substring(0, separator);
+        if (host.startsWith("[")) {
+            if (!host.endsWith("]") || host.length() == 2) {
+                return null;
+            }
+            host = host.substring(1, host.length() - 1);
+        } else if (host.indexOf(':') >= 0) {
+            // IPv6 addresses must be enclosed in brackets to tell the port apart
+            return null;
+        }
+
+        if (!Numbers.isInteger(value, separator + 1, value.length(), 0, 65535) ||
+            value.charAt(separator + 1) == '-' || value.charAt(separator + 1) == '+') {
+            return null;
+        }
+
+        int port = (int) Numbers.parseLong(value, separator + 1, value.length());
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    public static InetSocketAddressConverter getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+}
@@ -40,11 +40,19 @@ public final class IntegerConverter implements Converter<Integer> {
     }
 
     public Integer convert(String propertyName, String propertyValue) throws ConversionException {
-        try {
-            return Integer.parseInt(propertyValue);
-        } catch (NumberFormatException e) {
+        Integer value = tryConvert(propertyValue);
+        if (value == null) {
             throw new ConversionException(propertyName, propertyValue, Integer.class);
         }
+        return value;
+    }
+
+    @Override
+    public Integer tryConvert(String propertyValue) {
+        if (!Numbers.isInteger(propertyValue, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            return null;
+        }
+        return Integer.parseInt(propertyValue);
     }
 
     public static IntegerConverter getInstance() {
@@ -0,0 +1,94 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.mail.internet.InternetAddress;
+
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Converts comma-separated lists of addresses such as
+ * {@code john@company.com, "Doe, Jane" <jane@company.com>}.
+ * <p>
+ * Addresses are checked with a lightweight syntax check instead of the strict RFC 822 parser of
+ * javax.mail, which reports errors with exceptions: they must have a non-empty local part and
+ * domain, separated by {@code @}, without whitespace nor control characters.
+ *
+ * @author ActiveEon Team
+ */
+public final class InternetAddressListConverter implements Converter<List<InternetAddress>> {
+
+    private static final class LazyHolder {
+
+        private static final InternetAddressListConverter INSTANCE = new InternetAddressListConverter();
+
+    }
+
+    @Override
+    public List<InternetAddress> convert(String propertyName, String propertyValue) throws ConversionException {
+        List<InternetAddress> value = tryConvert(propertyValue);
+        if (value == null) {
+            throw new ConversionException(propertyName, propertyValue, List.class);
+        }
+        return value;
+    }
+
+    /**
+     * @return the addresses, or {@code null} if an address is invalid or if there is no address.
+     */
+    @Override
+    public List<InternetAddress> tryConvert(String propertyValue) {
+        if (propertyValue == null) {
+            return null;
+        }
+
+        List<String> tokens = AddressParser.trySplit(propertyValue);
+        if (tokens == null || tokens.isEmpty()) {
+            return null;
+        }
+
+        List<InternetAddress> addresses = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            InternetAddress address = AddressParser.tryParseAddress(token);
+            if (address == null) {
+                return null;
+            }
+            addresses.add(address);
+        }
+
+        return Collections.unmodifiableList(addresses);
+    }
+
+    public static InternetAddressListConverter getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+}
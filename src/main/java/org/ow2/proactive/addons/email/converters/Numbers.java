@@ -0,0 +1,100 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+/**
+ * Validates numbers before they are parsed, so that invalid values are detected
+ * without the cost of a {@link NumberFormatException}.
+ *
+ * @author ActiveEon Team
+ */
+final class Numbers {
+
+    private Numbers() {
+    }
+
+    /**
+     * Checks that the specified string is a decimal integer, optionally signed, that lies
+     * between the specified bounds. The bounds must satisfy {@code min <= 0 <= max}.
+     */
+    static boolean isInteger(CharSequence value, long min, long max) {
+        return isInteger(value, 0, value == null ? 0 : value.length(), min, max);
+    }
+
+    static boolean isInteger(CharSequence value, int start, int end, long min, long max) {
+        if (value == null || start >= end) {
+            return false;
+        }
+
+        int index = start;
+        boolean negative = false;
+        char first = value.charAt(index);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            index++;
+            if (index == end) {
+                return false;
+            }
+        }
+
+        // accumulates negatively, as Long.parseLong does, so that the minimum value is not an overflow
+        long limit = negative ? min : -max;
+        long multiplicationLimit = limit / 10;
+        long result = 0;
+        for (; index < end; index++) {
+            int digit = value.charAt(index) - '0';
+            if (digit < 0 || digit > 9 || result < multiplicationLimit) {
+                return false;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a number validated with {@link #isInteger(CharSequence, int, int, long, long)}.
+     */
+    static long parseLong(CharSequence value, int start, int end) {
+        int index = start;
+        boolean negative = false;
+        char first = value.charAt(index);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            index++;
+        }
+
+        long result = 0;
+        for (; index < end; index++) {
+            result = result * 10 - (value.charAt(index) - '0');
+        }
+        return negative ? result : -result;
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.dedup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**
+ * Remembers the keys of the messages sent recently, so that a message sent again within its
+ * time-to-live, for instance by a task that is re-executed, is suppressed.
+ * <p>
+ * The keys are held in a bounded cache: when it is full, the least recently used key is
+ * forgotten. When opened on a file, the keys are also written to a {@link FileDedupStore}
+ * and survive a restart.
+ *
+ * @author ActiveEon Team
+ */
+public class DuplicateFilter implements AutoCloseable {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // the file is rewritten once it holds this many records per live key
+    private static final int COMPACTION_RATIO = 2;
+
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private static final class LazyHolder {
+
+        private static final DuplicateFilter INSTANCE = new DuplicateFilter(DEFAULT_MAXIMUM_SIZE);
+
+    }
+
+    private final Cache<String, Long> entries;
+
+    private final FileDedupStore store;
+
+    private final LongSupplier clock;
+
+    public DuplicateFilter(int maximumSize) {
+        this(maximumSize, null, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    DuplicateFilter(int maximumSize, FileDedupStore store, LongSupplier clock) {
+        this.entries = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        this.store = store;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the JVM-wide in-memory filter.
+     *
+     * @return the JVM-wide filter.
+     */
+    public static DuplicateFilter getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    /**
+     * Opens a filter whose keys are persisted to the specified file, and loads the keys that have
+     * not expired yet.
+     *
+     * @param file the file holding the keys, created if it does not exist.
+     * @param maximumSize the maximum number of keys remembered.
+     * @return the filter, to close once no longer used.
+     * @throws EmailException if the file cannot be read.
+     */
+    public static DuplicateFilter open(Path file, int maximumSize) {
+        return open(new FileDedupStore(file), maximumSize, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    static DuplicateFilter open(FileDedupStore store, int maximumSize, LongSupplier clock) {
+        DuplicateFilter filter = new DuplicateFilter(maximumSize, store, clock);
+        try {
+            filter.entries.putAll(store.load(clock.getAsLong()));
+        } catch (IOException e) {
+            throw new EmailException("Unable to load the sent message keys from " + store.getFile(), e);
+        }
+        return filter;
+    }
+
+    /**
+     * Records the specified key unless it has been recorded within its time-to-live.
+     *
+     * @param key the key of the message, without whitespace.
+     * @param ttl the time during which the same key is considered a duplicate.
+     * @return true if the message can be sent, false if it is a duplicate.
+     * @throws EmailException if the key cannot be persisted.
+     */
+    public synchronized boolean tryAcquire(String key, Duration ttl) {
+        checkKey(key);
+
+        long now = clock.getAsLong();
+        Long expiresAt = entries.getIfPresent(key);
+        if (expiresAt != null && expiresAt > now) {
+            return false;
+        }
+
+        long newExpiresAt = now + ttl.toMillis();
+        entries.put(key, newExpiresAt);
+        if (store != null) {
+            try {
+                store.put(key, newExpiresAt);
+                compactIfNeeded(now);
+            } catch (IOException e) {
+                entries.invalidate(key);
+                throw new EmailException("Unable to persist the key of the message to " + store.getFile(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the specified key, typically because the message could not be sent.
+     *
+     * @param key the key of the message.
+     * @throws EmailException if the removal cannot be persisted.
+     */
+    public synchronized void release(String key) {
+        entries.invalidate(key);
+        if (store != null) {
+            try {
+                store.remove(key);
+            } catch (IOException e) {
+                throw new EmailException("Unable to persist the removal of the message key to " + store.getFile(),
+                                         e);
+            }
+        }
+    }
+
+    /**
+     * @param key the key of a message.
+     * @return true if a message with the specified key has been sent within its time-to-live.
+     */
+    public boolean contains(String key) {
+        Long expiresAt = entries.getIfPresent(key);
+        return expiresAt != null && expiresAt > clock.getAsLong();
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    @Override
+    public void close() {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                throw new EmailException("Unable to close " + store.getFile(), e);
+            }
+        }
+    }
+
+    private void compactIfNeeded(long now) throws IOException {
+        long liveCount = entries.size();
+        if (store.getRecordCount() < Math.max(MIN_COMPACTION_RECORDS, COMPACTION_RATIO * liveCount)) {
+            return;
+        }
+
+        Map<String, Long> live = new HashMap<>();
+        for (Map.Entry<String, Long> entry : entries.asMap().entrySet()) {
+            if (entry.getValue() > now) {
+                live.put(entry.getKey(), entry.getValue());
+            }
+        }
+        store.rewrite(live);
+    }
+
+    private static void checkKey(String key) {
+        if (key == null || key.isEmpty() || key.chars().anyMatch(Character::isWhitespace)) {
+            throw new InvalidArgumentException("Invalid message key: '" + key + "'");
+        }
+    }
+
+}
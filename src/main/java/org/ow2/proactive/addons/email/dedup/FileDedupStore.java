@@ -0,0 +1,193 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.dedup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * An append-only file recording the keys of the messages sent recently, so that duplicates are
+ * still suppressed after a restart.
+ * <p>
+ * Each line either records a key with its expiration time or removes a key. Expired and removed
+ * keys are dropped when the file is loaded, and when the file is rewritten with the live keys
+ * once it has grown too large. A line truncated by a crash is ignored.
+ *
+ * @author ActiveEon Team
+ */
+public class FileDedupStore implements Closeable {
+
+    private static final char PUT = '+';
+
+    private static final char REMOVE = '-';
+
+    private final Path file;
+
+    private Writer writer;
+
+    private int recordCount;
+
+    /**
+     * @param file the file holding the keys, created if it does not exist.
+     */
+    public FileDedupStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads the keys that have not expired yet and compacts the file.
+     *
+     * @param nowMillis the current time, in milliseconds since the epoch.
+     * @return the expiration time of each live key, in milliseconds since the epoch.
+     * @throws IOException if the file cannot be read or rewritten.
+     */
+    public synchronized Map<String, Long> load(long nowMillis) throws IOException {
+        Map<String, Long> entries = new HashMap<>();
+
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    apply(line, entries);
+                }
+            }
+        }
+
+        entries.values().removeIf(expiresAt -> expiresAt <= nowMillis);
+        rewrite(entries);
+        return entries;
+    }
+
+    /**
+     * Records the specified key.
+     *
+     * @param key the key, without whitespace.
+     * @param expiresAtMillis the time after which the key is forgotten.
+     * @throws IOException if the record cannot be written.
+     */
+    public synchronized void put(String key, long expiresAtMillis) throws IOException {
+        append(PUT + key + ' ' + expiresAtMillis);
+    }
+
+    /**
+     * Forgets the specified key.
+     *
+     * @param key the key, without whitespace.
+     * @throws IOException if the record cannot be written.
+     */
+    public synchronized void remove(String key) throws IOException {
+        append(REMOVE + key);
+    }
+
+    /**
+     * Replaces the content of the file with the specified keys.
+     *
+     * @param entries the expiration time of each key.
+     * @throws IOException if the file cannot be rewritten.
+     */
+    public synchronized void rewrite(Map<String, Long> entries) throws IOException {
+        closeWriter();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                out.write(PUT + entry.getKey() + ' ' + entry.getValue());
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordCount = entries.size();
+    }
+
+    /**
+     * @return the number of records in the file, including the records of expired and removed keys.
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeWriter();
+    }
+
+    private void append(String record) throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(file,
+                                             StandardCharsets.UTF_8,
+                                             StandardOpenOption.CREATE,
+                                             StandardOpenOption.APPEND);
+        }
+        writer.write(record);
+        writer.write('\n');
+        // the record must survive a crash of the JVM right after the message has been sent
+        writer.flush();
+        recordCount++;
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private static void apply(String line, Map<String, Long> entries) {
+        if (line.isEmpty()) {
+            return;
+        }
+
+        if (line.charAt(0) == REMOVE) {
+            entries.remove(line.substring(1));
+        } else if (line.charAt(0) == PUT) {
+            int separator = line.indexOf(' ');
+            if (separator < 0) {
+                return;
+            }
+            try {
+                entries.put(line.substring(1, separator), Long.parseLong(line.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                // truncated record
+            }
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.exception;
+
+import java.time.Duration;
+
+
+/**
+ * Raised without contacting an SMTP server whose circuit breaker is open.
+ *
+ * @author ActiveEon Team
+ */
+public class CircuitOpenException extends EmailException {
+
+    private final String name;
+
+    private final Duration remainingOpenTime;
+
+    public CircuitOpenException(String name, Duration remainingOpenTime) {
+        super("The circuit breaker of " + name + " is open, no message is sent to it for " + remainingOpenTime);
+        this.name = name;
+        this.remainingOpenTime = remainingOpenTime;
+    }
+
+    /**
+     * @return the name of the circuit breaker, the host and port of the server.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time after which the server is tried again.
+     */
+    public Duration getRemainingOpenTime() {
+        return remainingOpenTime;
+    }
+
+}
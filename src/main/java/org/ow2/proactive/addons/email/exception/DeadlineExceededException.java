@@ -0,0 +1,57 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.exception;
+
+import java.time.Duration;
+
+
+/**
+ * Raised when a message could not be sent before the deadline of the send.
+ *
+ * @author ActiveEon Team
+ */
+public class DeadlineExceededException extends EmailException {
+
+    private final Duration timeout;
+
+    public DeadlineExceededException(Duration timeout) {
+        super("The message could not be sent within " + timeout);
+        this.timeout = timeout;
+    }
+
+    public DeadlineExceededException(Duration timeout, Throwable cause) {
+        super("The message could not be sent within " + timeout, cause);
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the time the send was allowed to take.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+}
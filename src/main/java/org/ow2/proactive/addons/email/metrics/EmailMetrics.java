@@ -0,0 +1,91 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.metrics;
+
+/**
+ * Receives measurements taken while messages are sent. Implementations must be thread-safe
+ * and should return quickly, since they are called on the sending thread.
+ * <p>
+ * {@link SmtpMetrics} keeps the measurements in memory and exposes them through JMX. Other
+ * monitoring systems can be fed either by implementing this interface, for instance with one
+ * Micrometer timer per phase, or by periodically exporting an {@link SmtpMetrics} instance
+ * with a {@link MetricsExporter}.
+ *
+ * @author ActiveEon Team
+ */
+public interface EmailMetrics {
+
+    /**
+     * Returns an implementation that ignores all measurements. Senders skip the measurements
+     * that have a cost, such as the size of messages, when it is used.
+     *
+     * @return the no-op implementation.
+     */
+    static EmailMetrics noop() {
+        return NoopEmailMetrics.INSTANCE;
+    }
+
+    /**
+     * @return false if measurements are ignored and need not be taken.
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Records the time spent opening a connection, which includes the greeting, EHLO,
+     * STARTTLS and authentication.
+     *
+     * @param durationNanos the duration in nanoseconds.
+     */
+    void recordConnect(long durationNanos);
+
+    /**
+     * Records the time spent transferring a message on an open connection, from MAIL FROM
+     * to the reply to the end of data.
+     *
+     * @param durationNanos the duration in nanoseconds.
+     */
+    void recordTransaction(long durationNanos);
+
+    /**
+     * Records a message accepted by the server.
+     *
+     * @param sizeBytes the size of the message as written to the server, or -1 if unknown.
+     * @param recipientCount the number of recipients, including CC and BCC.
+     * @param replyCode the reply code sent by the server, or -1 if unknown.
+     */
+    void recordSuccess(long sizeBytes, int recipientCount, int replyCode);
+
+    /**
+     * Records a message that could not be sent.
+     *
+     * @param replyCode the reply code of the failure, or -1 if the failure does not carry one,
+     * for instance when the connection cannot be established.
+     */
+    void recordFailure(int replyCode);
+
+}
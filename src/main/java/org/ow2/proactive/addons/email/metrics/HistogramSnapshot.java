@@ -0,0 +1,121 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.metrics;
+
+/**
+ * An immutable view of the values recorded by a {@link Histogram}.
+ *
+ * @author ActiveEon Team
+ */
+public final class HistogramSnapshot {
+
+    static final HistogramSnapshot EMPTY = new HistogramSnapshot(new long[0], 0, 0, 0, 0);
+
+    private final long[] buckets;
+
+    private final long count;
+
+    private final long sum;
+
+    private final long min;
+
+    private final long max;
+
+    HistogramSnapshot(long[] buckets, long count, long sum, long min, long max) {
+        this.buckets = buckets;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long getMedian() {
+        return getValueAtPercentile(50);
+    }
+
+    public long getPercentile90() {
+        return getValueAtPercentile(90);
+    }
+
+    public long getPercentile99() {
+        return getValueAtPercentile(99);
+    }
+
+    public long getPercentile999() {
+        return getValueAtPercentile(99.9);
+    }
+
+    /**
+     * Returns the value below which the specified percentage of the recorded values fall.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the value at the percentile, or 0 if no value has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        double clamped = Math.min(100, Math.max(0, percentile));
+        long rank = Math.max(1, (long) Math.ceil(clamped / 100 * count));
+
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, Histogram.highestValue(i)));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "HistogramSnapshot{" + "count=" + count + ", min=" + min + ", max=" + max + ", mean=" + getMean() +
+               ", p50=" + getMedian() + ", p99=" + getPercentile99() + '}';
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.metrics;
+
+import java.util.Map;
+
+
+/**
+ * Publishes the measurements of an {@link SmtpMetrics} instance to a monitoring system.
+ * <p>
+ * Names are dot-separated and tags are passed separately, following the Micrometer conventions:
+ * an exporter backed by a Micrometer registry can map counters to {@code FunctionCounter},
+ * gauges to {@code Gauge} and histograms to {@code DistributionSummary} without renaming.
+ *
+ * @author ActiveEon Team
+ * @see SmtpMetrics#exportTo(MetricsExporter)
+ */
+public interface MetricsExporter {
+
+    /**
+     * Publishes a monotonically increasing count.
+     */
+    void counter(String name, Map<String, String> tags, long count);
+
+    /**
+     * Publishes a value that can go up and down.
+     */
+    void gauge(String name, Map<String, String> tags, double value);
+
+    /**
+     * Publishes the distribution of recorded values. Durations are in nanoseconds.
+     */
+    void histogram(String name, Map<String, String> tags, HistogramSnapshot snapshot);
+
+}
@@ -0,0 +1,260 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
+
+
+/**
+ * Keeps send measurements in memory: latency, size and recipient histograms, counts by reply
+ * code and, when a pool is monitored, the statistics of the pool.
+ * <p>
+ * Recording is lock-free and does not allocate once each reply code has been seen.
+ * Measurements can be read through JMX after {@link #register(String)}, or pushed
+ * to a monitoring system with {@link #exportTo(MetricsExporter)}.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpMetrics implements EmailMetrics, SmtpMetricsMXBean {
+
+    public static final String JMX_DOMAIN = "org.ow2.proactive.addons.email";
+
+    private static final Integer UNKNOWN_REPLY_CODE = -1;
+
+    private final SmtpTransportPool transportPool;
+
+    private final Histogram connectTime = new Histogram();
+
+    private final Histogram transactionTime = new Histogram();
+
+    private final Histogram messageSize = new Histogram();
+
+    private final Histogram recipientCount = new Histogram();
+
+    private final LongAdder successCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
+
+    private final ConcurrentMap<Integer, LongAdder> replyCodeCounts = new ConcurrentHashMap<>();
+
+    private volatile ObjectName objectName;
+
+    public SmtpMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param transportPool the pool whose statistics are reported, or {@code null}.
+     */
+    public SmtpMetrics(SmtpTransportPool transportPool) {
+        this.transportPool = transportPool;
+    }
+
+    @Override
+    public void recordConnect(long durationNanos) {
+        connectTime.record(durationNanos);
+    }
+
+    @Override
+    public void recordTransaction(long durationNanos) {
+        transactionTime.record(durationNanos);
+    }
+
+    @Override
+    public void recordSuccess(long sizeBytes, int recipientCount, int replyCode) {
+        successCount.increment();
+        if (sizeBytes >= 0) {
+            messageSize.record(sizeBytes);
+        }
+        this.recipientCount.record(recipientCount);
+        countReplyCode(replyCode);
+    }
+
+    @Override
+    public void recordFailure(int replyCode) {
+        failureCount.increment();
+        countReplyCode(replyCode);
+    }
+
+    private void countReplyCode(int replyCode) {
+        Integer key = replyCode > 0 ? replyCode : UNKNOWN_REPLY_CODE;
+
+        LongAdder counter = replyCodeCounts.get(key);
+        if (counter == null) {
+            counter = replyCodeCounts.computeIfAbsent(key, code -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @Override
+    public long getSuccessCount() {
+        return successCount.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    @Override
+    public Map<Integer, Long> getReplyCodeCounts() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        replyCodeCounts.forEach((code, counter) -> counts.put(code, counter.sum()));
+        return counts;
+    }
+
+    @Override
+    public HistogramSnapshot getConnectTime() {
+        return connectTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getTransactionTime() {
+        return transactionTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getMessageSize() {
+        return messageSize.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getRecipientCount() {
+        return recipientCount.snapshot();
+    }
+
+    @Override
+    public int getPoolIdleCount() {
+        return transportPool == null ? 0 : transportPool.getIdleCount();
+    }
+
+    @Override
+    public int getPoolActiveCount() {
+        return transportPool == null ? 0 : transportPool.getActiveCount();
+    }
+
+    @Override
+    public long getPoolCreatedCount() {
+        return transportPool == null ? 0 : transportPool.getCreatedCount();
+    }
+
+    @Override
+    public long getPoolReusedCount() {
+        return transportPool == null ? 0 : transportPool.getReusedCount();
+    }
+
+    @Override
+    public void reset() {
+        connectTime.reset();
+        transactionTime.reset();
+        messageSize.reset();
+        recipientCount.reset();
+        successCount.reset();
+        failureCount.reset();
+        replyCodeCounts.clear();
+    }
+
+    /**
+     * Publishes the current measurements to the specified exporter.
+     *
+     * @param exporter the exporter to publish to.
+     */
+    public void exportTo(MetricsExporter exporter) {
+        Map<String, String> noTags = Collections.emptyMap();
+
+        exporter.counter("email.send.success", noTags, getSuccessCount());
+        exporter.counter("email.send.failure", noTags, getFailureCount());
+        getReplyCodeCounts().forEach((code, count) -> exporter.counter("email.send.replies",
+                                                                       Collections.singletonMap("code",
+                                                                                                String.valueOf(code)),
+                                                                       count));
+
+        exporter.histogram("email.send.connect", noTags, getConnectTime());
+        exporter.histogram("email.send.transaction", noTags, getTransactionTime());
+        exporter.histogram("email.message.size", noTags, getMessageSize());
+        exporter.histogram("email.message.recipients", noTags, getRecipientCount());
+
+        if (transportPool != null) {
+            exporter.gauge("email.pool.idle", noTags, getPoolIdleCount());
+            exporter.gauge("email.pool.active", noTags, getPoolActiveCount());
+            exporter.counter("email.pool.created", noTags, getPoolCreatedCount());
+            exporter.counter("email.pool.reused", noTags, getPoolReusedCount());
+        }
+    }
+
+    /**
+     * Registers this instance in the platform MBean server.
+     *
+     * @param name the value of the {@code name} key of the object name, which must be unique in the JVM.
+     * @return the object name of the registered MBean.
+     * @throws EmailException if the MBean cannot be registered.
+     */
+    public synchronized ObjectName register(String name) {
+        try {
+            ObjectName newName = new ObjectName(JMX_DOMAIN + ":type=SmtpMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+            objectName = newName;
+            return newName;
+        } catch (JMException e) {
+            throw new EmailException("Unable to register SMTP metrics MBean " + name, e);
+        }
+    }
+
+    /**
+     * Removes this instance from the platform MBean server, if it has been registered.
+     */
+    public synchronized void unregister() {
+        ObjectName name = objectName;
+        if (name == null) {
+            return;
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new EmailException("Unable to unregister SMTP metrics MBean " + name, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.mx;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+
+/**
+ * Keeps the mail exchangers returned by another resolver for a fixed time to live, so that
+ * the DNS is queried once per domain and period rather than once per message. Concurrent
+ * lookups of the same domain wait for a single query. Failed lookups are not cached.
+ *
+ * @author ActiveEon Team
+ */
+public class CachingMxResolver implements MxResolver {
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1_000;
+
+    private static final class LazyHolder {
+
+        private static final CachingMxResolver INSTANCE = new CachingMxResolver(new DnsMxResolver(),
+                                                                                DEFAULT_TTL_MILLIS,
+                                                                                DEFAULT_MAXIMUM_SIZE);
+
+    }
+
+    private final MxResolver delegate;
+
+    private final Cache<String, List<MxRecord>> records;
+
+    public CachingMxResolver(MxResolver delegate, long ttlMillis, int maximumSize) {
+        this(delegate, ttlMillis, maximumSize, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CachingMxResolver(MxResolver delegate, long ttlMillis, int maximumSize, Ticker ticker) {
+        this.delegate = delegate;
+        this.records = CacheBuilder.newBuilder()
+                                   .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                                   .maximumSize(maximumSize)
+                                   .ticker(ticker)
+                                   .build();
+    }
+
+    /**
+     * Returns the JVM-wide resolver, which caches the answers of the DNS for
+     * {@link #DEFAULT_TTL_MILLIS}.
+     *
+     * @return the JVM-wide resolver.
+     */
+    public static CachingMxResolver getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    @Override
+    public List<MxRecord> resolve(String domain) {
+        try {
+            return records.get(domain, () -> delegate.resolve(domain));
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            if (e.getCause() instanceof EmailException) {
+                throw (EmailException) e.getCause();
+            }
+            throw new EmailException("Unable to resolve the mail exchangers of " + domain, e.getCause());
+        }
+    }
+
+    /**
+     * Discards the cached mail exchangers of all domains.
+     */
+    public void invalidateAll() {
+        records.invalidateAll();
+    }
+
+    /**
+     * @return the number of domains whose mail exchangers are cached.
+     */
+    public long size() {
+        return records.size();
+    }
+
+}
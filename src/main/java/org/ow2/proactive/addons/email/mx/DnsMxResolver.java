@@ -0,0 +1,148 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.mx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.annotations.VisibleForTesting;
+
+
+/**
+ * Resolves mail exchangers with the DNS provider of the JDK.
+ * <p>
+ * As specified by RFC 5321, a domain without MX record is its own mail exchanger and mail
+ * exchangers with the same preference are returned in random order to spread the load.
+ * A domain publishing a null MX record (RFC 7505) does not accept mail.
+ *
+ * @author ActiveEon Team
+ */
+public class DnsMxResolver implements MxResolver {
+
+    private static final String[] MX_ATTRIBUTE = { "MX" };
+
+    private final Hashtable<String, String> environment = new Hashtable<>();
+
+    public DnsMxResolver() {
+        this(null);
+    }
+
+    /**
+     * @param dnsServerUrl the DNS server to query, such as {@code dns://10.0.0.1}, or {@code null}
+     * to use the servers configured on the host.
+     */
+    public DnsMxResolver(String dnsServerUrl) {
+        environment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+        if (dnsServerUrl != null) {
+            environment.put(Context.PROVIDER_URL, dnsServerUrl);
+        }
+    }
+
+    @Override
+    public List<MxRecord> resolve(String domain) {
+        List<String> values = new ArrayList<>();
+
+        DirContext context = null;
+        try {
+            context = new InitialDirContext(environment);
+            Attributes attributes = context.getAttributes(domain, MX_ATTRIBUTE);
+            Attribute mx = attributes.get("MX");
+            if (mx != null) {
+                NamingEnumeration<?> records = mx.getAll();
+                while (records.hasMore()) {
+                    values.add(String.valueOf(records.next()));
+                }
+            }
+        } catch (NameNotFoundException e) {
+            throw new EmailException("Unknown domain: " + domain, e);
+        } catch (NamingException e) {
+            throw new EmailException("Unable to resolve the mail exchangers of " + domain, e);
+        } finally {
+            if (context != null) {
+                try {
+                    context.close();
+                } catch (NamingException e) {
+                    // nothing to release
+                }
+            }
+        }
+
+        if (values.isEmpty()) {
+            return Collections.singletonList(new MxRecord(domain, 0));
+        }
+
+        return parseRecords(values);
+    }
+
+    /**
+     * Parses MX record values such as {@code 10 mx1.company.com.}, leaving out null MX records.
+     */
+    @VisibleForTesting
+    static List<MxRecord> parseRecords(List<String> values) {
+        List<MxRecord> records = new ArrayList<>(values.size());
+        for (String value : values) {
+            String[] fields = value.trim().split("\\s+");
+            if (fields.length != 2) {
+                throw new EmailException("Malformed MX record: " + value);
+            }
+
+            String host = fields[1];
+            if (host.endsWith(".")) {
+                host = host.substring(0, host.length() - 1);
+            }
+            if (host.isEmpty()) {
+                continue;
+            }
+
+            try {
+                records.add(new MxRecord(host, Integer.parseInt(fields[0])));
+            } catch (NumberFormatException e) {
+                throw new EmailException("Malformed MX record: " + value, e);
+            }
+        }
+
+        // shuffles first so that the stable sort keeps records with equal preference in random order
+        Collections.shuffle(records, ThreadLocalRandom.current());
+        records.sort(Comparator.comparingInt(MxRecord::getPreference));
+        return records;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.mx;
+
+import java.util.Objects;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * A mail exchanger of a domain: the host and port of an SMTP server accepting mail for the domain,
+ * and its preference. Servers with a lower preference are tried first.
+ *
+ * @author ActiveEon Team
+ */
+public final class MxRecord {
+
+    public static final int DEFAULT_PORT = 25;
+
+    private final String host;
+
+    private final int port;
+
+    private final int preference;
+
+    public MxRecord(String host, int preference) {
+        this(host, DEFAULT_PORT, preference);
+    }
+
+    public MxRecord(String host, int port, int preference) {
+        if (host == null || host.isEmpty()) {
+            throw new InvalidArgumentException("The host of a mail exchanger must not be empty");
+        }
+        if (port <= 0 || port > 65535) {
+            throw new InvalidArgumentException("Invalid port for mail exchanger " + host + ": " + port);
+        }
+        this.host = host;
+        this.port = port;
+        this.preference = preference;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getPreference() {
+        return preference;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MxRecord that = (MxRecord) o;
+        return port == that.port && preference == that.preference && host.equalsIgnoreCase(that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host.toLowerCase(), port, preference);
+    }
+
+    @Override
+    public String toString() {
+        return "MxRecord{" + "host='" + host + '\'' + ", port=" + port + ", preference=" + preference + '}';
+    }
+
+}
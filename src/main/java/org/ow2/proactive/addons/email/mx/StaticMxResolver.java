@@ -0,0 +1,86 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.mx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+
+/**
+ * Resolves mail exchangers from a fixed table, for tests and for networks where the mail
+ * servers of internal domains are known in advance.
+ *
+ * @author ActiveEon Team
+ */
+public class StaticMxResolver implements MxResolver {
+
+    private final ConcurrentMap<String, List<MxRecord>> table = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a mail exchanger to the specified domain.
+     *
+     * @param domain the domain, case insensitive.
+     * @param record the mail exchanger.
+     * @return this resolver.
+     */
+    public StaticMxResolver add(String domain, MxRecord record) {
+        table.compute(domain.toLowerCase(Locale.ROOT), (key, records) -> {
+            List<MxRecord> updated = records == null ? new ArrayList<>() : new ArrayList<>(records);
+            updated.add(record);
+            updated.sort(Comparator.comparingInt(MxRecord::getPreference));
+            return Collections.unmodifiableList(updated);
+        });
+        return this;
+    }
+
+    /**
+     * Declares that the specified domain does not accept mail.
+     *
+     * @param domain the domain, case insensitive.
+     * @return this resolver.
+     */
+    public StaticMxResolver addNullMx(String domain) {
+        table.put(domain.toLowerCase(Locale.ROOT), Collections.emptyList());
+        return this;
+    }
+
+    @Override
+    public List<MxRecord> resolve(String domain) {
+        List<MxRecord> records = table.get(domain.toLowerCase(Locale.ROOT));
+        if (records == null) {
+            throw new EmailException("Unknown domain: " + domain);
+        }
+        return records;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.outbox;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.ow2.proactive.addons.email.transport.PartialDeliveryException;
+
+
+/**
+ * Delivers a message that has been read back from the outbox.
+ *
+ * @author ActiveEon Team
+ */
+@FunctionalInterface
+public interface MessageDeliverer {
+
+    void deliver(MimeMessage message) throws MessagingException;
+
+    /**
+     * Delivers a message to some of its recipients only, the ones a previous attempt has not reached.
+     * The default implementation delivers the message to all its recipients: deliverers that raise a
+     * {@link PartialDeliveryException} must override it.
+     *
+     * @param message the message to deliver.
+     * @param recipients the recipients to deliver the message to.
+     * @throws MessagingException if the message cannot be delivered.
+     */
+    default void deliver(MimeMessage message, Address[] recipients) throws MessagingException {
+        deliver(message);
+    }
+
+}
@@ -0,0 +1,514 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.outbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+import org.ow2.proactive.addons.email.outbox.OutboxSpool.SpoolRecord;
+import org.ow2.proactive.addons.email.retry.SmtpErrorClassifier;
+import org.ow2.proactive.addons.email.transport.PartialDeliveryException;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * A durable queue of messages waiting to be delivered.
+ * <p>
+ * Enqueuing a message only writes it to a spool directory, so that callers do not depend on the
+ * availability of the SMTP server. A pool of worker threads delivers the spooled messages in the
+ * background and retries failed deliveries with an exponential backoff. Messages that cannot be
+ * delivered after the maximum number of attempts, or that are permanently rejected by the server,
+ * are moved to a {@code dead} sub-directory, and messages that cannot be read back stay in the spool.
+ * A message delivered to some of its recipients only is spooled again with the list of the others,
+ * the only ones the next attempts send it to.
+ * Messages that have not been delivered when the outbox is closed, or when the JVM crashes, are
+ * delivered once an outbox is opened again on the same directory.
+ *
+ * @author ActiveEon Team
+ */
+public class Outbox implements AutoCloseable {
+
+    private static final String DEAD_LETTER_DIRECTORY = "dead";
+
+    // lists the recipients a partially delivered message has still to be sent to, never sent to the server
+    static final String ENVELOPE_HEADER = "X-Outbox-Recipients";
+
+    private static final Session PARSING_SESSION = Session.getInstance(new Properties());
+
+    private final OutboxSpool spool;
+
+    private final MessageDeliverer deliverer;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final Path deadLetterDirectory;
+
+    private final DelayQueue<PendingDelivery> queue = new DelayQueue<>();
+
+    private final ExecutorService workers;
+
+    private final ScheduledExecutorService synchronizer;
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    private final AtomicLong deadLetterCount = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private Outbox(Builder builder) throws IOException {
+        this.deliverer = builder.deliverer;
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.deadLetterDirectory = builder.directory.resolve(DEAD_LETTER_DIRECTORY);
+        this.spool = new OutboxSpool(builder.directory, builder.segmentSize, builder.maxSpoolBytes);
+
+        for (SpoolRecord record : spool.recover()) {
+            queue.add(new PendingDelivery(record, 0, 0));
+        }
+
+        ThreadFactory workerFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                .setNameFormat("email-outbox-worker-%d")
+                                                                .build();
+        this.workers = Executors.newFixedThreadPool(builder.workers, workerFactory);
+        for (int i = 0; i < builder.workers; i++) {
+            workers.execute(this::deliverLoop);
+        }
+
+        ThreadFactory synchronizerFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                      .setNameFormat("email-outbox-sync-%d")
+                                                                      .build();
+        this.synchronizer = Executors.newSingleThreadScheduledExecutor(synchronizerFactory);
+        synchronizer.scheduleWithFixedDelay(this::sync,
+                                            builder.syncIntervalMillis,
+                                            builder.syncIntervalMillis,
+                                            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the message to the spool. The message is delivered later by a worker thread.
+     *
+     * @param message the message to deliver.
+     * @return the identifier of the message in the outbox.
+     * @throws EmailException if the outbox is closed or full, or if the message cannot be written.
+     */
+    public long enqueue(MimeMessage message) {
+        if (closed) {
+            throw new EmailException("The outbox is closed");
+        }
+
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            message.writeTo(content);
+
+            SpoolRecord record = spool.append(content.toByteArray());
+            queue.add(new PendingDelivery(record, 0, 0));
+            return record.getId();
+        } catch (IOException | MessagingException e) {
+            throw new EmailException("Unable to write message to the outbox", e);
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting to be delivered.
+     *
+     * @return the number of messages waiting to be delivered.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    /**
+     * Returns the number of bytes used by the spool on disk.
+     *
+     * @return the number of bytes used by the spool.
+     */
+    public long getSpoolSize() {
+        return spool.getSize();
+    }
+
+    /**
+     * Stops the delivery workers and flushes the spool. Messages that have not been delivered
+     * yet stay in the spool.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // workers are not interrupted: an interrupt would close the spool channels they write to
+        workers.shutdown();
+        synchronizer.shutdown();
+
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+            synchronizer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            spool.close();
+        } catch (IOException e) {
+            throw new EmailException("Unable to close the outbox", e);
+        }
+    }
+
+    private void deliverLoop() {
+        while (!closed) {
+            PendingDelivery delivery;
+            try {
+                delivery = queue.poll(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (delivery != null) {
+                deliver(delivery);
+            }
+        }
+    }
+
+    private void deliver(PendingDelivery delivery) {
+        byte[] content;
+        try {
+            content = spool.read(delivery.record);
+        } catch (IOException e) {
+            retryOrGiveUp(delivery, null);
+            return;
+        }
+
+        MimeMessage message = null;
+        try {
+            message = new MimeMessage(PARSING_SESSION, new ByteArrayInputStream(content));
+            String envelope = message.getHeader(ENVELOPE_HEADER, ",");
+            if (envelope == null) {
+                deliverer.deliver(message);
+            } else {
+                message.removeHeader(ENVELOPE_HEADER);
+                deliverer.deliver(message, InternetAddress.parseHeader(envelope, false));
+            }
+            spool.acknowledge(delivery.record);
+            deliveredCount.incrementAndGet();
+        } catch (PartialDeliveryException e) {
+            deliverRemaining(delivery, content, message, e);
+        } catch (SendFailedException e) {
+            if (SmtpErrorClassifier.getInstance().isTransient(e)) {
+                // the server deferred the message with a 4xx reply
+                retryOrGiveUp(delivery, content);
+            } else {
+                // the server rejected the message, retrying would not help
+                moveToDeadLetters(delivery, content);
+            }
+        } catch (MessagingException | RuntimeException e) {
+            if (closed) {
+                // the worker has been interrupted, the message stays in the spool
+                return;
+            }
+            retryOrGiveUp(delivery, content);
+        } catch (IOException e) {
+            retryOrGiveUp(delivery, content);
+        }
+    }
+
+    /**
+     * Replaces the spooled message with one whose envelope only lists the recipients that have not
+     * been reached, so that the next attempts do not send the message again to the others.
+     */
+    private void deliverRemaining(PendingDelivery delivery, byte[] content, MimeMessage message,
+            PartialDeliveryException failure) {
+        byte[] remaining;
+        try {
+            StringBuilder envelope = new StringBuilder();
+            for (Address address : failure.getUnsentAddresses()) {
+                if (envelope.length() > 0) {
+                    envelope.append(", ");
+                }
+                envelope.append(address instanceof InternetAddress ? ((InternetAddress) address).getAddress()
+                                                                   : address.toString());
+            }
+            message.setHeader(ENVELOPE_HEADER, envelope.toString());
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            message.writeTo(output);
+            remaining = output.toByteArray();
+        } catch (IOException | MessagingException e) {
+            // sending the whole message again would duplicate it for the recipients already reached
+            moveToDeadLetters(delivery, content);
+            return;
+        }
+
+        PendingDelivery next;
+        try {
+            SpoolRecord record = spool.append(remaining);
+            spool.acknowledge(delivery.record);
+            next = new PendingDelivery(record, delivery.attempts, 0);
+        } catch (IOException | EmailException e) {
+            // the spool is full or cannot be written, the remaining recipients are left to an operator
+            moveToDeadLetters(delivery, remaining);
+            return;
+        }
+
+        // the remaining recipients are retried unless the server rejected them, as for a whole message
+        Exception cause = failure.getNextException();
+        if (cause instanceof SendFailedException && !SmtpErrorClassifier.getInstance().isTransient(cause)) {
+            moveToDeadLetters(next, remaining);
+        } else {
+            retryOrGiveUp(next, remaining);
+        }
+    }
+
+    private void retryOrGiveUp(PendingDelivery delivery, byte[] content) {
+        int attempts = delivery.attempts + 1;
+        if (attempts >= maxAttempts) {
+            if (content != null) {
+                moveToDeadLetters(delivery, content);
+            }
+            // otherwise the message could not be read: it stays in the spool and is considered again on recovery
+            return;
+        }
+
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts - 1, 30));
+        // a delay drawn between half the backoff and the backoff spreads the retries of messages that failed together
+        long delay = backoff <= 0 ? 0 : ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+        queue.add(new PendingDelivery(delivery.record, attempts, delay));
+    }
+
+    private void moveToDeadLetters(PendingDelivery delivery, byte[] content) {
+        try {
+            // the message is only removed from the spool once it has been written to the dead letters
+            Files.createDirectories(deadLetterDirectory);
+            Files.write(deadLetterDirectory.resolve(delivery.record.getId() + ".eml"), content);
+            spool.acknowledge(delivery.record);
+            deadLetterCount.incrementAndGet();
+        } catch (IOException e) {
+            // keep the message in the spool, it will be considered again on recovery
+        }
+    }
+
+    private void sync() {
+        try {
+            spool.sync();
+        } catch (IOException e) {
+            // retried at the next period
+        }
+    }
+
+    private static final class PendingDelivery implements Delayed {
+
+        private final SpoolRecord record;
+
+        private final int attempts;
+
+        private final long dueTimeNanos;
+
+        private PendingDelivery(SpoolRecord record, int attempts, long delayMillis) {
+            this.record = record;
+            this.attempts = attempts;
+            this.dueTimeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueTimeNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+    }
+
+    /**
+     * Utility class for creating an instance of {@link Outbox}.
+     */
+    public static class Builder {
+
+        private final Path directory;
+
+        private MessageDeliverer deliverer;
+
+        private int workers = 2;
+
+        private int maxAttempts = 10;
+
+        private long initialBackoffMillis = TimeUnit.SECONDS.toMillis(1);
+
+        private long maxBackoffMillis = TimeUnit.MINUTES.toMillis(5);
+
+        private long syncIntervalMillis = 100;
+
+        private long segmentSize = 16L * 1024 * 1024;
+
+        private long maxSpoolBytes = 256L * 1024 * 1024;
+
+        /**
+         * @param directory the directory that holds the spooled messages.
+         */
+        public Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Deliver the spooled messages with the specified deliverer.
+         *
+         * @param deliverer the deliverer to use.
+         * @return the builder instance.
+         */
+        public Builder setDeliverer(MessageDeliverer deliverer) {
+            this.deliverer = deliverer;
+            return this;
+        }
+
+        /**
+         * Deliver the spooled messages to the SMTP server described by the specified properties.
+         *
+         * @param properties the SMTP configuration, including credentials.
+         * @return the builder instance.
+         */
+        public Builder setSmtpProperties(Properties properties) {
+            this.deliverer = new SmtpMessageDeliverer(properties);
+            return this;
+        }
+
+        /**
+         * @param workers the number of threads delivering messages. Defaults to 2.
+         * @return the builder instance.
+         */
+        public Builder setWorkers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * @param maxAttempts the number of delivery attempts after which a message is moved
+         * to the dead letters. Defaults to 10.
+         * @return the builder instance.
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param initialBackoffMillis the delay before the first retry, doubled at each attempt. Defaults to 1s.
+         * @param maxBackoffMillis the maximum delay between two attempts. Defaults to 5min.
+         * @return the builder instance.
+         */
+        public Builder setBackoff(long initialBackoffMillis, long maxBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param syncIntervalMillis the period at which spooled messages are forced to disk. Messages
+         * enqueued during the last period may be lost if the machine crashes. Defaults to 100ms.
+         * @return the builder instance.
+         */
+        public Builder setSyncInterval(long syncIntervalMillis) {
+            this.syncIntervalMillis = syncIntervalMillis;
+            return this;
+        }
+
+        /**
+         * @param segmentSize the size after which a new spool file is started. Defaults to 16MiB.
+         * @return the builder instance.
+         */
+        public Builder setSegmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param maxSpoolBytes the maximum disk space used by the spool. Messages are refused once
+         * it is reached. Defaults to 256MiB.
+         * @return the builder instance.
+         */
+        public Builder setMaxSpoolBytes(long maxSpoolBytes) {
+            this.maxSpoolBytes = maxSpoolBytes;
+            return this;
+        }
+
+        /**
+         * Opens the outbox, recovers the messages left in the spool and starts the delivery workers.
+         *
+         * @return the outbox.
+         * @throws EmailException if the spool cannot be opened.
+         */
+        public Outbox build() {
+            if (deliverer == null) {
+                throw new MissingArgumentException("deliverer");
+            }
+            if (workers <= 0 || maxAttempts <= 0 || syncIntervalMillis <= 0) {
+                throw new InvalidArgumentException("workers, maxAttempts and syncInterval must be positive");
+            }
+
+            try {
+                return new Outbox(this);
+            } catch (IOException e) {
+                throw new EmailException("Unable to open the outbox in " + directory, e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,481 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+
+/**
+ * Append-only storage of the messages held by an {@link Outbox}.
+ * <p>
+ * Messages are appended as records to segment files. Each record is made of a header (magic number,
+ * message identifier, length and CRC32 of the content) followed by the content. Delivered messages
+ * are acknowledged by appending their identifier to an acknowledgment log. A segment is deleted once
+ * all its records have been acknowledged, but the acknowledgment log keeps the last acknowledged
+ * identifier so that identifiers are never reused. Neither file is rewritten in place, so a crash can at most
+ * leave a torn record at the end of a file, which is detected and discarded on recovery. The acknowledgment
+ * log is replaced by a compacted copy on recovery, and when deleting segments has left it with more
+ * acknowledgments of deleted records than of live ones.
+ * <p>
+ * Writes are not forced to disk individually: {@link #sync()} is expected to be called periodically
+ * to force all the writes performed since the previous call at once.
+ *
+ * @author ActiveEon Team
+ */
+final class OutboxSpool implements Closeable {
+
+    private static final int RECORD_MAGIC = 0x4F42584D;
+
+    private static final int HEADER_SIZE = 4 + 8 + 4 + 4;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String ACK_FILE_NAME = "acks.log";
+
+    private final Path directory;
+
+    private final long segmentSize;
+
+    private final long maxBytes;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private Segment activeSegment;
+
+    private FileChannel ackChannel;
+
+    private long nextId;
+
+    private long lastAcknowledged = -1;
+
+    // the number of acknowledgments in the log, including those of deleted segments
+    private long ackCount;
+
+    private long totalBytes;
+
+    private boolean dirty;
+
+    /**
+     * Opens the spool stored in the specified directory, creating it if needed.
+     *
+     * @param directory the directory that contains the spool files.
+     * @param segmentSize the size after which a new segment file is started.
+     * @param maxBytes the maximum size of the segment files on disk.
+     */
+    OutboxSpool(Path directory, long segmentSize, long maxBytes) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Loads the existing segments and returns the records that have not been acknowledged yet,
+     * in the order they have been appended.
+     *
+     * @return the records that are still to be delivered.
+     * @throws IOException if the spool cannot be read.
+     */
+    synchronized List<SpoolRecord> recover() throws IOException {
+        Files.createDirectories(directory);
+
+        Set<Long> acknowledged = readAcknowledgments();
+        for (long id : acknowledged) {
+            lastAcknowledged = Math.max(lastAcknowledged, id);
+        }
+        nextId = lastAcknowledged + 1;
+
+        List<SpoolRecord> pending = new ArrayList<>();
+
+        for (Path path : listSegmentFiles()) {
+            Segment segment = new Segment(parseSegmentNumber(path), path);
+            List<SpoolRecord> records = segment.scan();
+
+            for (SpoolRecord record : records) {
+                nextId = Math.max(nextId, record.id + 1);
+                if (acknowledged.contains(record.id)) {
+                    segment.acknowledged.add(record.id);
+                } else {
+                    pending.add(record);
+                    segment.live++;
+                }
+            }
+
+            if (segment.live == 0) {
+                segment.delete();
+            } else {
+                segments.put(segment.number, segment);
+                totalBytes += segment.size;
+            }
+        }
+
+        rewriteAcknowledgments();
+
+        long nextSegmentNumber = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        activeSegment = newSegment(nextSegmentNumber);
+        return pending;
+    }
+
+    /**
+     * Appends a message to the spool.
+     *
+     * @param content the serialized message.
+     * @return the record that describes the message in the spool.
+     * @throws EmailException if the spool is full.
+     * @throws IOException if the message cannot be written.
+     */
+    synchronized SpoolRecord append(byte[] content) throws IOException {
+        long recordSize = HEADER_SIZE + content.length;
+        if (totalBytes + recordSize > maxBytes) {
+            throw new EmailException("The outbox is full: " + totalBytes + " bytes used, " + maxBytes + " allowed");
+        }
+
+        if (activeSegment.size > 0 && activeSegment.size + recordSize > segmentSize) {
+            activeSegment.channel.force(false);
+            activeSegment = newSegment(activeSegment.number + 1);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) recordSize);
+        long id = nextId++;
+        buffer.putInt(RECORD_MAGIC).putLong(id).putInt(content.length).putInt((int) crc.getValue()).put(content);
+        buffer.flip();
+
+        long position = activeSegment.size;
+        writeFully(activeSegment.channel, buffer, position);
+
+        activeSegment.size += recordSize;
+        activeSegment.live++;
+        totalBytes += recordSize;
+        dirty = true;
+
+        return new SpoolRecord(id, activeSegment, position + HEADER_SIZE, content.length);
+    }
+
+    /**
+     * Reads the content of a record.
+     *
+     * @param record the record to read.
+     * @return the serialized message.
+     * @throws IOException if the record cannot be read.
+     */
+    byte[] read(SpoolRecord record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(record.length);
+        long position = record.offset;
+        while (buffer.hasRemaining()) {
+            int read = record.segment.channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment " + record.segment.path);
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Marks a record as delivered. The segment that contains the record is deleted
+     * if all its records have been acknowledged, a new segment is started if it was the active one.
+     *
+     * @param record the record to acknowledge.
+     * @throws IOException if the acknowledgment cannot be written.
+     */
+    synchronized void acknowledge(SpoolRecord record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8).putLong(record.id);
+        buffer.flip();
+        writeFully(ackChannel, buffer, ackChannel.size());
+        ackCount++;
+        lastAcknowledged = Math.max(lastAcknowledged, record.id);
+        dirty = true;
+
+        Segment segment = record.segment;
+        segment.live--;
+        if (segment.live == 0) {
+            if (segment == activeSegment) {
+                // every record of the active segment has been delivered: reclaim its space
+                activeSegment = newSegment(segment.number + 1);
+            }
+            segments.remove(segment.number);
+            totalBytes -= segment.size;
+            segment.delete();
+
+            // the acknowledgments of the deleted records are no longer needed
+            if (ackCount > 2 * (countLiveAcknowledgments() + 1)) {
+                rewriteAcknowledgments();
+            }
+        } else {
+            segment.acknowledged.add(record.id);
+        }
+    }
+
+    /**
+     * Forces the writes performed since the previous call to disk.
+     *
+     * @throws IOException if the files cannot be synchronized.
+     */
+    synchronized void sync() throws IOException {
+        if (dirty && activeSegment != null) {
+            activeSegment.channel.force(false);
+            ackChannel.force(false);
+            dirty = false;
+        }
+    }
+
+    synchronized long getSize() {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+        segments.clear();
+        if (ackChannel != null) {
+            ackChannel.close();
+        }
+    }
+
+    private Segment newSegment(long number) throws IOException {
+        Segment segment = new Segment(number, directory.resolve(String.format("%s%020d%s",
+                                                                             SEGMENT_PREFIX,
+                                                                             number,
+                                                                             SEGMENT_SUFFIX)));
+        segment.open();
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private List<Path> listSegmentFiles() throws IOException {
+        Map<Long, Path> sorted = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                                                                     SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                sorted.put(parseSegmentNumber(path), path);
+            }
+        }
+        return new ArrayList<>(sorted.values());
+    }
+
+    private static long parseSegmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private Set<Long> readAcknowledgments() throws IOException {
+        Set<Long> acknowledged = new HashSet<>();
+        Path path = directory.resolve(ACK_FILE_NAME);
+        if (!Files.exists(path)) {
+            return acknowledged;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        // a torn trailing entry is ignored
+        while (buffer.remaining() >= 8) {
+            acknowledged.add(buffer.getLong());
+        }
+        return acknowledged;
+    }
+
+    private int countLiveAcknowledgments() {
+        int count = 0;
+        for (Segment segment : segments.values()) {
+            count += segment.acknowledged.size();
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the acknowledgment log with the acknowledgments of the records whose segment still
+     * exists, and the last one so that identifiers, which name the dead letters, are not reused once
+     * every segment has been deleted.
+     */
+    private void rewriteAcknowledgments() throws IOException {
+        Set<Long> acknowledged = new HashSet<>();
+        for (Segment segment : segments.values()) {
+            acknowledged.addAll(segment.acknowledged);
+        }
+        if (lastAcknowledged >= 0) {
+            acknowledged.add(lastAcknowledged);
+        }
+
+        Path path = directory.resolve(ACK_FILE_NAME);
+        Path temporary = directory.resolve(ACK_FILE_NAME + ".tmp");
+
+        ByteBuffer buffer = ByteBuffer.allocate(acknowledged.size() * 8);
+        acknowledged.forEach(buffer::putLong);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(temporary,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            writeFully(channel, buffer, 0);
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (ackChannel != null) {
+            ackChannel.close();
+        }
+        ackChannel = FileChannel.open(path, StandardOpenOption.WRITE);
+        ackCount = acknowledged.size();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Location of a message in the spool.
+     */
+    static final class SpoolRecord {
+
+        private final long id;
+
+        private final Segment segment;
+
+        private final long offset;
+
+        private final int length;
+
+        private SpoolRecord(long id, Segment segment, long offset, int length) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        long getId() {
+            return id;
+        }
+
+    }
+
+    private static final class Segment {
+
+        private final long number;
+
+        private final Path path;
+
+        private FileChannel channel;
+
+        private long size;
+
+        private int live;
+
+        // the acknowledged records of the segment, kept in the log as long as the segment exists
+        private final Set<Long> acknowledged = new HashSet<>();
+
+        private Segment(long number, Path path) {
+            this.number = number;
+            this.path = path;
+        }
+
+        private void open() throws IOException {
+            channel = FileChannel.open(path,
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            size = channel.size();
+        }
+
+        /*
+         * Reads the records of an existing segment and truncates the segment after the last valid record.
+         */
+        private List<SpoolRecord> scan() throws IOException {
+            open();
+
+            List<SpoolRecord> records = new ArrayList<>();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long position = 0;
+
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+
+                int magic = header.getInt();
+                long id = header.getLong();
+                int length = header.getInt();
+                int checksum = header.getInt();
+
+                if (magic != RECORD_MAGIC || length < 0 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+
+                ByteBuffer content = ByteBuffer.allocate(length);
+                channel.read(content, position + HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                crc.update(content.array(), 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                records.add(new SpoolRecord(id, this, position + HEADER_SIZE, length));
+                position += HEADER_SIZE + length;
+            }
+
+            if (position < size) {
+                channel.truncate(position);
+                size = position;
+            }
+
+            return records;
+        }
+
+        private void delete() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+            Files.deleteIfExists(path);
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.outbox;
+
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Authenticator;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.transport.PasswordAuthenticator;
+import org.ow2.proactive.addons.email.transport.RecipientChunker;
+import org.ow2.proactive.addons.email.transport.SessionCache;
+import org.ow2.proactive.addons.email.transport.SmtpEndpoint;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
+
+
+/**
+ * Delivers messages to the SMTP server described by a set of {@code mail.*} properties,
+ * such as the ones returned by {@link EmailSender.Builder#getProperties()}.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpMessageDeliverer implements MessageDeliverer {
+
+    private final Properties properties;
+
+    private final SmtpTransportPool transportPool;
+
+    public SmtpMessageDeliverer(Properties properties) {
+        this(properties, null);
+    }
+
+    /**
+     * @param properties the SMTP configuration, including credentials.
+     * @param transportPool the pool to take connections from, or {@code null} to open a connection per message.
+     */
+    public SmtpMessageDeliverer(Properties properties, SmtpTransportPool transportPool) {
+        this.properties = new Properties();
+        this.properties.putAll(properties);
+        this.transportPool = transportPool;
+    }
+
+    @Override
+    public void deliver(MimeMessage message) throws MessagingException {
+        deliver(message, message.getAllRecipients());
+    }
+
+    @Override
+    public void deliver(MimeMessage message, Address[] recipients) throws MessagingException {
+        Address[] from = message.getFrom();
+        SmtpRateLimiter.getInstance().acquire(properties, from == null || from.length == 0 ? null : from[0].toString());
+
+        Session session = SessionCache.getInstance().getSession(properties, this::newAuthenticator);
+        int maxRecipients = RecipientChunker.getMaxRecipients(properties);
+
+        if (transportPool != null) {
+            transportPool.execute(SmtpEndpoint.from(properties),
+                                  () -> session.getTransport("smtp"),
+                                  transport -> RecipientChunker.send(transport, message, recipients, maxRecipients));
+            return;
+        }
+
+        Transport transport = session.getTransport("smtp");
+        try {
+            transport.connect();
+            RecipientChunker.send(transport, message, recipients, maxRecipients);
+        } finally {
+            transport.close();
+        }
+    }
+
+    private Authenticator newAuthenticator() {
+        // the cached session must not retain this deliverer
+        return new PasswordAuthenticator(properties.getProperty(EmailSender.PROPERTY_MAIL_SMTP_USERNAME),
+                                         properties.getProperty(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD));
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.ratelimit;
+
+import java.time.Duration;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * The number of messages allowed per period of time, and how many of them may be sent
+ * in a burst before the rate is enforced.
+ *
+ * @author ActiveEon Team
+ */
+public final class RateLimit {
+
+    private final int permits;
+
+    private final Duration period;
+
+    private final int burst;
+
+    public RateLimit(int permits, Duration period, int burst) {
+        if (permits <= 0) {
+            throw new InvalidArgumentException("The number of permits must be positive: " + permits);
+        }
+        if (period == null || period.isNegative() || period.isZero()) {
+            throw new InvalidArgumentException("The rate limit period must be positive: " + period);
+        }
+        if (burst <= 0) {
+            throw new InvalidArgumentException("The burst size must be positive: " + burst);
+        }
+        this.permits = permits;
+        this.period = period;
+        this.burst = burst;
+    }
+
+    public static RateLimit perMinute(int permits) {
+        return new RateLimit(permits, Duration.ofMinutes(1), 1);
+    }
+
+    public RateLimit withBurst(int burst) {
+        return new RateLimit(permits, period, burst);
+    }
+
+    /**
+     * Returns the time between two messages when the rate is enforced.
+     */
+    long getIntervalNanos() {
+        return Math.max(1, period.toNanos() / permits);
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public Duration getPeriod() {
+        return period;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        return permits + " per " + period + " (burst " + burst + ")";
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.ratelimit;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.converters.IntegerConverter;
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.transport.SendDeadline;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+
+/**
+ * JVM-wide rate limiter that spreads the messages sent to an SMTP relay over time, so that
+ * concurrent senders do not trigger the throttling of the relay.
+ * <p>
+ * Each key is a token bucket implemented with the generic cell rate algorithm: the only state
+ * is the theoretical arrival time of the next message, updated with compare-and-set, so that
+ * acquiring a permit never takes a lock. Callers reserve their slot first and then wait until it
+ * comes, which serves them in reservation order.
+ * <p>
+ * Limits are read from the {@code mail.smtp.ratelimit.*} properties: one bucket is shared by all
+ * the messages sent to a host, and one by the messages sent to a host by a given sender.
+ * <p>
+ * A message never waits beyond the {@link SendDeadline} bound to the calling thread.
+ *
+ * @author ActiveEon Team
+ */
+public final class SmtpRateLimiter {
+
+    /**
+     * Messages per minute allowed for each SMTP host.
+     */
+    public static final String PROPERTY_MAIL_SMTP_RATE_LIMIT_HOST = "mail.smtp.ratelimit.host";
+
+    /**
+     * Messages per minute allowed for each sender address on a given SMTP host.
+     */
+    public static final String PROPERTY_MAIL_SMTP_RATE_LIMIT_SENDER = "mail.smtp.ratelimit.sender";
+
+    /**
+     * Number of messages that may be sent in a burst before the rate is enforced. Defaults to 1.
+     */
+    public static final String PROPERTY_MAIL_SMTP_RATE_LIMIT_BURST = "mail.smtp.ratelimit.burst";
+
+    /**
+     * Maximum time in milliseconds a message waits for its slot before the send fails. Defaults to 5 minutes.
+     */
+    public static final String PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT = "mail.smtp.ratelimit.maxwait";
+
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofMinutes(5);
+
+    private static final long REJECTED = -1;
+
+    // buckets idle for long enough are full again and can be forgotten
+    private static final int PURGE_THRESHOLD = 1024;
+
+    private static final class LazyHolder {
+
+        private static final SmtpRateLimiter INSTANCE = new SmtpRateLimiter(Ticker.systemTicker());
+
+    }
+
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    private final Ticker ticker;
+
+    @VisibleForTesting
+    SmtpRateLimiter(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * Waits until a message from the specified sender may be sent according to the limits defined
+     * in the specified properties. Returns immediately if no limit is defined.
+     *
+     * @param properties the SMTP configuration.
+     * @param from the sender address, may be {@code null}.
+     * @throws EmailException if the message would have to wait longer than the maximum wait time.
+     * @throws DeadlineExceededException if the message would have to wait beyond the deadline of the send.
+     */
+    public void acquire(Properties properties, String from) {
+        RateLimit hostLimit = getLimit(properties, PROPERTY_MAIL_SMTP_RATE_LIMIT_HOST);
+        RateLimit senderLimit = from == null ? null : getLimit(properties, PROPERTY_MAIL_SMTP_RATE_LIMIT_SENDER);
+        if (hostLimit == null && senderLimit == null) {
+            return;
+        }
+
+        SendDeadline deadline = SendDeadline.current();
+        long maxWaitNanos = getMaxWait(properties).toNanos();
+        String host = String.valueOf(properties.get(EmailSender.PROPERTY_MAIL_SMTP_HOST)).toLowerCase(Locale.ROOT);
+
+        long hostWait = 0;
+        if (hostLimit != null) {
+            hostWait = reserve(host, hostLimit, getMaxWaitNanos(maxWaitNanos, deadline));
+            if (hostWait == REJECTED) {
+                throw rateLimitExceeded(host, hostLimit, maxWaitNanos, deadline);
+            }
+        }
+
+        long senderWait = 0;
+        if (senderLimit != null) {
+            String senderKey = host + '|' + from.toLowerCase(Locale.ROOT);
+            senderWait = reserve(senderKey, senderLimit, getMaxWaitNanos(maxWaitNanos, deadline));
+            if (senderWait == REJECTED) {
+                if (hostLimit != null) {
+                    cancel(host, hostLimit);
+                }
+                throw rateLimitExceeded(senderKey, senderLimit, maxWaitNanos, deadline);
+            }
+        }
+
+        sleep(Math.max(hostWait, senderWait));
+    }
+
+    /**
+     * Waits until a message may be sent according to the specified limit.
+     *
+     * @param key the bucket to take the permit from.
+     * @param limit the rate limit of the bucket.
+     * @param maxWait the maximum time to wait.
+     * @throws EmailException if the message would have to wait longer than the maximum wait time.
+     * @throws DeadlineExceededException if the message would have to wait beyond the deadline of the send.
+     */
+    public void acquire(String key, RateLimit limit, Duration maxWait) {
+        SendDeadline deadline = SendDeadline.current();
+        long wait = reserve(key, limit, getMaxWaitNanos(maxWait.toNanos(), deadline));
+        if (wait == REJECTED) {
+            throw rateLimitExceeded(key, limit, maxWait.toNanos(), deadline);
+        }
+        sleep(wait);
+    }
+
+    /**
+     * Reserves the next slot of a bucket.
+     *
+     * @return the time to wait in nanoseconds before the slot comes, or {@link #REJECTED}
+     * if it would exceed the maximum wait time, in which case nothing is reserved.
+     */
+    @VisibleForTesting
+    long reserve(String key, RateLimit limit, long maxWaitNanos) {
+        long interval = limit.getIntervalNanos();
+        long tolerance = interval * (limit.getBurst() - 1);
+        AtomicLong bucket = getBucket(key);
+
+        while (true) {
+            long now = ticker.read();
+            long current = bucket.get();
+            long arrival = Math.max(current, now);
+            long wait = Math.max(0, arrival - tolerance - now);
+
+            if (wait > maxWaitNanos) {
+                return REJECTED;
+            }
+
+            if (bucket.compareAndSet(current, arrival + interval)) {
+                return wait;
+            }
+        }
+    }
+
+    private void cancel(String key, RateLimit limit) {
+        getBucket(key).addAndGet(-limit.getIntervalNanos());
+    }
+
+    private AtomicLong getBucket(String key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        if (buckets.size() >= PURGE_THRESHOLD) {
+            long now = ticker.read();
+            buckets.values().removeIf(idle -> idle.get() <= now);
+        }
+
+        return buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+    }
+
+    private static RateLimit getLimit(Properties properties, String property) {
+        Object permits = properties.get(property);
+        if (permits == null) {
+            return null;
+        }
+
+        RateLimit limit = RateLimit.perMinute(toInt(property, permits));
+
+        Object burst = properties.get(PROPERTY_MAIL_SMTP_RATE_LIMIT_BURST);
+        if (burst != null) {
+            limit = limit.withBurst(toInt(PROPERTY_MAIL_SMTP_RATE_LIMIT_BURST, burst));
+        }
+
+        return limit;
+    }
+
+    private static Duration getMaxWait(Properties properties) {
+        Object maxWait = properties.get(PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT);
+        if (maxWait == null) {
+            return DEFAULT_MAX_WAIT;
+        }
+        return Duration.ofMillis(toInt(PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT, maxWait));
+    }
+
+    private static long getMaxWaitNanos(long maxWaitNanos, SendDeadline deadline) {
+        return deadline == null ? maxWaitNanos : Math.min(maxWaitNanos, getRemainingNanos(deadline));
+    }
+
+    private static long getRemainingNanos(SendDeadline deadline) {
+        return TimeUnit.MILLISECONDS.toNanos(deadline.getRemainingMillis());
+    }
+
+    private static int toInt(String property, Object value) {
+        return IntegerConverter.getInstance().convert(property, String.valueOf(value));
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailException("Interrupted while waiting for the rate limit", e);
+        }
+    }
+
+    private static EmailException rateLimitExceeded(String key, RateLimit limit, long maxWaitNanos,
+            SendDeadline deadline) {
+        EmailException exceeded = new EmailException("Rate limit of " + limit + " exceeded for " + key);
+        if (deadline != null && getRemainingNanos(deadline) < maxWaitNanos) {
+            // the slot is within the maximum wait time but after the deadline of the send
+            return new DeadlineExceededException(deadline.getTimeout(), exceeded);
+        }
+        return exceeded;
+    }
+
+    public static SmtpRateLimiter getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.relay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * An SMTP relay messages can be sent through, with its share of the traffic relative to the
+ * other relays of a {@link RelayGroup}.
+ * <p>
+ * A relay is written {@code host[:port][/weight]}, for instance {@code smtp1.company.com:587/3}.
+ *
+ * @author ActiveEon Team
+ */
+public final class Relay {
+
+    public static final int DEFAULT_PORT = 587;
+
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private final String host;
+
+    private final int port;
+
+    private final int weight;
+
+    public Relay(String host, int port, int weight) {
+        if (host == null || host.trim().isEmpty()) {
+            throw new InvalidArgumentException("The host of a relay must not be empty");
+        }
+        if (port <= 0 || port > 65535) {
+            throw new InvalidArgumentException("Invalid port for relay " + host + ": " + port);
+        }
+        if (weight <= 0) {
+            throw new InvalidArgumentException("The weight of relay " + host + " must be positive: " + weight);
+        }
+        this.host = host.trim();
+        this.port = port;
+        this.weight = weight;
+    }
+
+    /**
+     * Parses a relay written {@code host[:port][/weight]}.
+     *
+     * @param value the relay to parse.
+     * @return the relay.
+     * @throws InvalidArgumentException if the value is malformed.
+     */
+    public static Relay parse(String value) {
+        String remaining = value.trim();
+        int weight = DEFAULT_WEIGHT;
+        int port = DEFAULT_PORT;
+
+        try {
+            int slash = remaining.lastIndexOf('/');
+            if (slash >= 0) {
+                weight = Integer.parseInt(remaining.substring(slash + 1).trim());
+                remaining = remaining.substring(0, slash);
+            }
+
+            int colon = remaining.lastIndexOf(':');
+            if (colon >= 0) {
+                port = Integer.parseInt(remaining.substring(colon + 1).trim());
+                remaining = remaining.substring(0, colon);
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidArgumentException("Invalid relay '" + value + "', expected host[:port][/weight]");
+        }
+
+        return new Relay(remaining, port, weight);
+    }
+
+    /**
+     * Parses a comma-separated list of relays.
+     *
+     * @param value the relays to parse.
+     * @return the relays, in order.
+     * @throws InvalidArgumentException if a relay is malformed.
+     * @see #parse(String)
+     */
+    public static List<Relay> parseList(String value) {
+        List<Relay> relays = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (!entry.trim().isEmpty()) {
+                relays.add(parse(entry));
+            }
+        }
+        return relays;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Relay relay = (Relay) o;
+        return port == relay.port && weight == relay.weight && host.equalsIgnoreCase(relay.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host.toLowerCase(), port, weight);
+    }
+
+    /**
+     * @return the relay written {@code host:port/weight}.
+     */
+    @Override
+    public String toString() {
+        return host + ':' + port + '/' + weight;
+    }
+
+}
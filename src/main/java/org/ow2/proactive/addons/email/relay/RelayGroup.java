@@ -0,0 +1,318 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.relay;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+
+/**
+ * Spreads messages over several SMTP relays and keeps track of their health.
+ * <p>
+ * Each message is sent through the available relay with the best score according to the
+ * {@link RelaySelection}. Relays with the same score, such as idle relays when messages are sent
+ * one at a time, take turns following a smooth weighted round-robin, so that each receives a share
+ * of the messages proportional to its weight. A relay failing {@code ejectionThreshold} times in a row is ejected:
+ * it is not selected for the ejection time, which doubles each time the relay is ejected again,
+ * up to a maximum. Once the ejection time has elapsed, the next message probes the relay: the
+ * relay is back in rotation if that message succeeds, and ejected again otherwise. When every relay
+ * is ejected, the one whose ejection ends first is tried rather than failing without trying.
+ * <p>
+ * Callers {@link #acquire(Collection) acquire} a relay before sending and {@link #release release}
+ * it with the outcome of the send.
+ *
+ * @author ActiveEon Team
+ */
+public class RelayGroup {
+
+    public static final int DEFAULT_EJECTION_THRESHOLD = 3;
+
+    public static final long DEFAULT_EJECTION_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    public static final long DEFAULT_MAX_EJECTION_TIME_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // weight of the last send in the average latency
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    private static final ConcurrentMap<String, RelayGroup> SHARED_GROUPS = new ConcurrentHashMap<>();
+
+    private final List<RelayState> states;
+
+    private final RelaySelection selection;
+
+    private final int ejectionThreshold;
+
+    private final long ejectionTimeNanos;
+
+    private final long maxEjectionTimeNanos;
+
+    private final Ticker ticker;
+
+    public RelayGroup(List<Relay> relays, RelaySelection selection) {
+        this(relays, selection, DEFAULT_EJECTION_THRESHOLD, DEFAULT_EJECTION_TIME_MILLIS,
+             DEFAULT_MAX_EJECTION_TIME_MILLIS);
+    }
+
+    public RelayGroup(List<Relay> relays, RelaySelection selection, int ejectionThreshold, long ejectionTimeMillis,
+            long maxEjectionTimeMillis) {
+        this(relays, selection, ejectionThreshold, ejectionTimeMillis, maxEjectionTimeMillis, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    RelayGroup(List<Relay> relays, RelaySelection selection, int ejectionThreshold, long ejectionTimeMillis,
+            long maxEjectionTimeMillis, Ticker ticker) {
+        if (relays == null || relays.isEmpty()) {
+            throw new InvalidArgumentException("A relay group needs at least one relay");
+        }
+        if (ejectionThreshold <= 0) {
+            throw new InvalidArgumentException("The ejection threshold must be positive: " + ejectionThreshold);
+        }
+
+        List<RelayState> relayStates = new ArrayList<>(relays.size());
+        for (Relay relay : relays) {
+            relayStates.add(new RelayState(relay));
+        }
+        this.states = Collections.unmodifiableList(relayStates);
+        this.selection = selection;
+        this.ejectionThreshold = ejectionThreshold;
+        this.ejectionTimeNanos = TimeUnit.MILLISECONDS.toNanos(ejectionTimeMillis);
+        this.maxEjectionTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionTimeMillis);
+        this.ticker = ticker;
+    }
+
+    /**
+     * Returns the JVM-wide group of the specified relays, so that every sender using the same relays
+     * shares their health and load.
+     *
+     * @param relays the relays of the group.
+     * @param selection the selection used by the group.
+     * @return the shared group.
+     */
+    public static RelayGroup shared(List<Relay> relays, RelaySelection selection) {
+        return SHARED_GROUPS.computeIfAbsent(relays + "|" + selection, key -> new RelayGroup(relays, selection));
+    }
+
+    /**
+     * Selects the relay of the next send and counts it as outstanding until it is released.
+     *
+     * @param excluded the relays that must not be selected, such as those already tried for the message.
+     * @return the selected relay, or {@code null} if every relay is excluded.
+     */
+    public synchronized Relay acquire(Collection<Relay> excluded) {
+        long now = ticker.read();
+
+        List<RelayState> best = new ArrayList<>(states.size());
+        double bestScore = Double.MAX_VALUE;
+        RelayState firstBack = null;
+        for (RelayState state : states) {
+            if (excluded.contains(state.relay)) {
+                continue;
+            }
+
+            if (state.isAvailable(now)) {
+                double score = state.score(selection);
+                if (score < bestScore) {
+                    best.clear();
+                    bestScore = score;
+                }
+                if (score == bestScore) {
+                    best.add(state);
+                }
+            } else if (firstBack == null || state.ejectedUntil < firstBack.ejectedUntil) {
+                firstBack = state;
+            }
+        }
+
+        RelayState selected = best.isEmpty() ? firstBack : nextInTurn(best);
+        if (selected == null) {
+            return null;
+        }
+
+        selected.begin(now);
+        return selected.relay;
+    }
+
+    /**
+     * Selects one of the relays with the same score by smooth weighted round-robin: each relay earns
+     * its weight and the selected one pays back the total, which interleaves the relays, e.g. a relay
+     * of weight 2 is selected every other time rather than twice in a row.
+     */
+    private static RelayState nextInTurn(List<RelayState> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+
+        RelayState selected = null;
+        int totalWeight = 0;
+        for (RelayState state : candidates) {
+            state.turnCredit += state.relay.getWeight();
+            totalWeight += state.relay.getWeight();
+            if (selected == null || state.turnCredit > selected.turnCredit) {
+                selected = state;
+            }
+        }
+        selected.turnCredit -= totalWeight;
+        return selected;
+    }
+
+    /**
+     * Records the outcome of a send through a relay returned by {@link #acquire(Collection)}.
+     *
+     * @param relay the relay.
+     * @param latencyNanos the time spent sending through the relay.
+     * @param failed true if the relay failed, e.g. it could not be reached or answered with a
+     * transient error, false if it accepted or permanently rejected the message.
+     */
+    public void release(Relay relay, long latencyNanos, boolean failed) {
+        RelayState state = getState(relay);
+        long now = ticker.read();
+
+        synchronized (state) {
+            state.outstanding--;
+            state.latencyNanos = state.latencyNanos == 0 ? latencyNanos
+                                                         : LATENCY_SMOOTHING * latencyNanos +
+                                                           (1 - LATENCY_SMOOTHING) * state.latencyNanos;
+
+            if (failed) {
+                state.consecutiveFailures++;
+                if (state.probing || state.consecutiveFailures >= ejectionThreshold) {
+                    long ejectionTime = ejectionTimeNanos << Math.min(state.ejections, 30);
+                    state.ejectedUntil = now + Math.max(Math.min(ejectionTime, maxEjectionTimeNanos), 1);
+                    state.ejections++;
+                }
+            } else {
+                state.consecutiveFailures = 0;
+                state.ejections = 0;
+                state.ejectedUntil = 0;
+            }
+            state.probing = false;
+        }
+    }
+
+    /**
+     * @return the relays of the group, in the order they have been declared.
+     */
+    public List<Relay> getRelays() {
+        List<Relay> relays = new ArrayList<>(states.size());
+        for (RelayState state : states) {
+            relays.add(state.relay);
+        }
+        return relays;
+    }
+
+    public RelaySelection getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return the state of each relay, in the order they have been declared.
+     */
+    public List<RelayStatus> getStatus() {
+        long now = ticker.read();
+
+        List<RelayStatus> status = new ArrayList<>(states.size());
+        for (RelayState state : states) {
+            synchronized (state) {
+                status.add(new RelayStatus(state.relay,
+                                           state.outstanding,
+                                           Duration.ofNanos((long) state.latencyNanos),
+                                           state.consecutiveFailures,
+                                           state.ejectedUntil != 0 && now - state.ejectedUntil < 0));
+            }
+        }
+        return status;
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    private RelayState getState(Relay relay) {
+        for (RelayState state : states) {
+            if (state.relay.equals(relay)) {
+                return state;
+            }
+        }
+        throw new InvalidArgumentException("Unknown relay: " + relay);
+    }
+
+    private static final class RelayState {
+
+        private final Relay relay;
+
+        private int outstanding;
+
+        private double latencyNanos;
+
+        private int consecutiveFailures;
+
+        private int ejections;
+
+        // ticker value at which the relay may be probed again, zero if the relay is in rotation
+        private long ejectedUntil;
+
+        private boolean probing;
+
+        // smooth weighted round-robin credit, guarded by the group
+        private int turnCredit;
+
+        private RelayState(Relay relay) {
+            this.relay = relay;
+        }
+
+        private synchronized boolean isAvailable(long now) {
+            return ejectedUntil == 0 || (now - ejectedUntil >= 0 && !probing);
+        }
+
+        private synchronized double score(RelaySelection selection) {
+            if (selection == RelaySelection.LATENCY) {
+                return (latencyNanos + 1) * (outstanding + 1.0) / relay.getWeight();
+            }
+            // idle relays tie whatever their weight, their share comes from the round-robin
+            return (double) outstanding / relay.getWeight();
+        }
+
+        private synchronized void begin(long now) {
+            if (ejectedUntil != 0 && now - ejectedUntil >= 0) {
+                probing = true;
+            }
+            outstanding++;
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.relay;
+
+import java.util.Locale;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * How a {@link RelayGroup} chooses the relay of the next message among the available ones.
+ *
+ * @author ActiveEon Team
+ */
+public enum RelaySelection {
+
+    /**
+     * The relay with the fewest messages in flight relative to its weight.
+     */
+    LEAST_OUTSTANDING,
+
+    /**
+     * The relay with the lowest average latency multiplied by its messages in flight, relative to
+     * its weight, so that a relay slowing down receives less traffic before it starts failing.
+     */
+    LATENCY;
+
+    /**
+     * Parses a selection written in lower case with dashes, such as {@code least-outstanding}.
+     *
+     * @param value the selection to parse.
+     * @return the selection.
+     * @throws InvalidArgumentException if the value is not a known selection.
+     */
+    public static RelaySelection parse(String value) {
+        try {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidArgumentException("Unknown relay selection '" + value +
+                                               "', expected least-outstanding or latency");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.relay;
+
+import java.time.Duration;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * A snapshot of the state of a relay in a {@link RelayGroup}, for monitoring.
+ *
+ * @author ActiveEon Team
+ */
+public final class RelayStatus {
+
+    private final Relay relay;
+
+    private final int outstandingRequests;
+
+    private final Duration averageLatency;
+
+    private final int consecutiveFailures;
+
+    private final boolean ejected;
+
+    public RelayStatus(Relay relay, int outstandingRequests, Duration averageLatency, int consecutiveFailures,
+            boolean ejected) {
+        if (relay == null) {
+            throw new InvalidArgumentException("relay");
+        }
+        this.relay = relay;
+        this.outstandingRequests = outstandingRequests;
+        this.averageLatency = averageLatency;
+        this.consecutiveFailures = consecutiveFailures;
+        this.ejected = ejected;
+    }
+
+    public Relay getRelay() {
+        return relay;
+    }
+
+    /**
+     * @return the number of messages being sent through the relay.
+     */
+    public int getOutstandingRequests() {
+        return outstandingRequests;
+    }
+
+    /**
+     * @return the exponentially weighted average time of the last sends, zero if none has completed yet.
+     */
+    public Duration getAverageLatency() {
+        return averageLatency;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return true if the relay has been ejected after repeated failures and is not selected
+     * until its ejection time has elapsed.
+     */
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    @Override
+    public String toString() {
+        return "RelayStatus{" + "relay=" + relay + ", outstandingRequests=" + outstandingRequests +
+               ", averageLatency=" + averageLatency + ", consecutiveFailures=" + consecutiveFailures + ", ejected=" +
+               ejected + '}';
+    }
+
+}
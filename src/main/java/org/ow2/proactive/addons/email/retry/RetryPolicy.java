@@ -0,0 +1,310 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.retry;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+import org.ow2.proactive.addons.email.transport.SendDeadline;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+
+/**
+ * Defines how a failed send operation is retried. Failures that the {@link ErrorClassifier}
+ * considers transient are retried with a jittered exponential backoff until the operation succeeds,
+ * the maximum number of attempts is reached or the next attempt would start after the deadline.
+ * Other failures are rethrown immediately. The {@link SendDeadline} bound to the calling thread
+ * also bounds the delay between two attempts.
+ *
+ * @author ActiveEon Team
+ */
+public final class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(500);
+
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(30);
+
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+
+    public static final Duration DEFAULT_MAX_DURATION = Duration.ofMinutes(2);
+
+    private static final RetryPolicy NONE = new Builder().setMaxAttempts(1).build();
+
+    private final int maxAttempts;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final double multiplier;
+
+    private final Duration maxDuration;
+
+    private final ErrorClassifier classifier;
+
+    private final Ticker ticker;
+
+    private final Sleeper sleeper;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.multiplier = builder.multiplier;
+        this.maxDuration = builder.maxDuration;
+        this.classifier = builder.classifier;
+        this.ticker = builder.ticker;
+        this.sleeper = builder.sleeper;
+    }
+
+    /**
+     * Returns a policy that never retries.
+     */
+    public static RetryPolicy none() {
+        return NONE;
+    }
+
+    /**
+     * Runs the specified operation, retrying it while it fails with a transient error.
+     *
+     * @param operation the operation to run.
+     * @param <T> the type of the result of the operation.
+     * @return the result of the first successful attempt.
+     * @throws RuntimeException the error raised by the last attempt.
+     * @throws DeadlineExceededException if the next attempt would start after the deadline of the send.
+     */
+    public <T> T execute(Supplier<T> operation) {
+        long deadline = ticker.read() + maxDuration.toNanos();
+
+        for (int attempt = 1;; attempt++) {
+            try {
+                return operation.get();
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !classifier.isTransient(e)) {
+                    throw e;
+                }
+
+                long delayMillis = getBackoffMillis(attempt);
+                if (ticker.read() + TimeUnit.MILLISECONDS.toNanos(delayMillis) > deadline) {
+                    throw e;
+                }
+
+                SendDeadline sendDeadline = SendDeadline.current();
+                if (sendDeadline != null && delayMillis >= sendDeadline.getRemainingMillis()) {
+                    throw new DeadlineExceededException(sendDeadline.getTimeout(), e);
+                }
+
+                try {
+                    sleeper.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the delay to wait after the specified failed attempt. The delay grows exponentially
+     * up to the maximum backoff and is randomized between half and all of this value, so that
+     * operations that failed together do not retry in lockstep.
+     *
+     * @param attempt the number of the attempt that failed, starting at 1.
+     * @return the delay in milliseconds.
+     */
+    public long getBackoffMillis(int attempt) {
+        double backoff = initialBackoff.toMillis() * Math.pow(multiplier, attempt - 1);
+        long cappedBackoff = (long) Math.min(maxBackoff.toMillis(), backoff);
+        if (cappedBackoff <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(cappedBackoff / 2, cappedBackoff + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public Duration getMaxDuration() {
+        return maxDuration;
+    }
+
+    public ErrorClassifier getClassifier() {
+        return classifier;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" + "maxAttempts=" + maxAttempts + ", initialBackoff=" + initialBackoff +
+               ", maxBackoff=" + maxBackoff + ", multiplier=" + multiplier + ", maxDuration=" + maxDuration + '}';
+    }
+
+    @VisibleForTesting
+    interface Sleeper {
+
+        void sleep(long millis) throws InterruptedException;
+
+    }
+
+    /**
+     * Utility class for creating an instance of {@link RetryPolicy}.
+     */
+    public static class Builder {
+
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+        private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+
+        private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+
+        private double multiplier = DEFAULT_MULTIPLIER;
+
+        private Duration maxDuration = DEFAULT_MAX_DURATION;
+
+        private ErrorClassifier classifier = SmtpErrorClassifier.getInstance();
+
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Sleeper sleeper = Thread::sleep;
+
+        /**
+         * The maximum number of attempts, including the first one.
+         *
+         * @param maxAttempts the maximum number of attempts. Defaults to 5.
+         * @return the builder instance.
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * The delay before the first retry and the maximum delay between two attempts.
+         *
+         * @param initialBackoff the delay before the first retry. Defaults to 500 milliseconds.
+         * @param maxBackoff the maximum delay between two attempts. Defaults to 30 seconds.
+         * @return the builder instance.
+         */
+        public Builder setBackoff(Duration initialBackoff, Duration maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * The factor applied to the delay after each failed attempt.
+         *
+         * @param multiplier the backoff multiplier. Defaults to 2.
+         * @return the builder instance.
+         */
+        public Builder setMultiplier(double multiplier) {
+            this.multiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * The total time after which no new attempt is started.
+         *
+         * @param maxDuration the deadline, measured from the first attempt. Defaults to 2 minutes.
+         * @return the builder instance.
+         */
+        public Builder setMaxDuration(Duration maxDuration) {
+            this.maxDuration = maxDuration;
+            return this;
+        }
+
+        /**
+         * Decides which failures are retried.
+         *
+         * @param classifier the classifier to use. Defaults to {@link SmtpErrorClassifier}.
+         * @return the builder instance.
+         */
+        public Builder setClassifier(ErrorClassifier classifier) {
+            this.classifier = classifier;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder setClock(Ticker ticker, Sleeper sleeper) {
+            this.ticker = ticker;
+            this.sleeper = sleeper;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxAttempts <= 0) {
+                throw new InvalidArgumentException("The maximum number of attempts must be positive: " +
+                                                   maxAttempts);
+            }
+
+            if (initialBackoff == null || maxBackoff == null) {
+                throw new MissingArgumentException("backoff");
+            }
+
+            if (initialBackoff.isNegative() || maxBackoff.compareTo(initialBackoff) < 0) {
+                throw new InvalidArgumentException("Invalid backoff: " + initialBackoff + " to " + maxBackoff);
+            }
+
+            if (multiplier < 1) {
+                throw new InvalidArgumentException("The backoff multiplier must not be lower than 1: " +
+                                                   multiplier);
+            }
+
+            if (maxDuration == null) {
+                throw new MissingArgumentException("maxDuration");
+            }
+
+            if (classifier == null) {
+                throw new MissingArgumentException("classifier");
+            }
+
+            return new RetryPolicy(this);
+        }
+
+    }
+
+}
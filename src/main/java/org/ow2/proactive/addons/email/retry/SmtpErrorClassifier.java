@@ -0,0 +1,194 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.retry;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+
+import org.ow2.proactive.addons.email.exception.CircuitOpenException;
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+
+/**
+ * Classifies SMTP failures following RFC 5321: 4xx replies are transient, 5xx replies
+ * are permanent. Connection resets, timeouts, connections closed by the server and other I/O
+ * errors are transient, authentication failures and errors that do not carry a reply code are permanent.
+ *
+ * @author ActiveEon Team
+ */
+public final class SmtpErrorClassifier implements ErrorClassifier {
+
+    // javax.mail reports connection failures as "Got bad greeting from SMTP host: ..., response: 421 ..."
+    private static final Pattern REPLY_CODE = Pattern.compile("(?:^|response: )([2-5]\\d\\d)(?:[ -]|$)");
+
+    private static final int UNKNOWN = -1;
+
+    private static final class LazyHolder {
+
+        private static final SmtpErrorClassifier INSTANCE = new SmtpErrorClassifier();
+
+    }
+
+    private SmtpErrorClassifier() {
+    }
+
+    @Override
+    public boolean isTransient(Throwable error) {
+        for (Throwable current = error; current != null; current = next(current)) {
+            if (current instanceof DeadlineExceededException) {
+                // no time is left for another attempt
+                return false;
+            }
+
+            if (current instanceof CircuitOpenException) {
+                // failing fast is the purpose of the breaker, the fallback outbox or another relay takes over
+                return false;
+            }
+
+            if (current instanceof AuthenticationFailedException) {
+                return false;
+            }
+
+            if (current instanceof SendFailedException) {
+                return isTransient((SendFailedException) current);
+            }
+
+            if (current instanceof IOException) {
+                // timeouts, refused and reset connections
+                return true;
+            }
+
+            if (current instanceof MessagingException) {
+                int replyCode = replyCode(current.getMessage());
+                if (replyCode != UNKNOWN) {
+                    return replyCode / 100 == 4;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isTransient(SendFailedException error) {
+        boolean transientReply = false;
+
+        for (Exception current = error; current != null; current = nextException(current)) {
+            int replyClass = replyClass(current);
+            if (replyClass == 5) {
+                return false;
+            }
+            if (replyClass == 4 || isConnectionLost(current)) {
+                transientReply = true;
+            }
+        }
+
+        // a send failure without reply code is raised for invalid addresses
+        return transientReply;
+    }
+
+    private static boolean isConnectionLost(Exception error) {
+        // javax.mail reports a command the server closed the connection on with the reply code -1 and "[EOF]"
+        return error instanceof SMTPSendFailedException && ((SMTPSendFailedException) error).getReturnCode() <= 0;
+    }
+
+    /**
+     * Returns the first SMTP reply code found in the chain of causes of the specified error.
+     *
+     * @param error the error to inspect.
+     * @return the reply code, or -1 if the error does not carry one.
+     */
+    public int getReplyCode(Throwable error) {
+        for (Throwable current = error; current != null; current = next(current)) {
+            if (current instanceof Exception) {
+                int code = replyCode((Exception) current);
+                if (code != UNKNOWN) {
+                    return code;
+                }
+            }
+        }
+
+        return UNKNOWN;
+    }
+
+    private static int replyClass(Exception error) {
+        int code = replyCode(error);
+        return code == UNKNOWN ? UNKNOWN : code / 100;
+    }
+
+    private static int replyCode(Exception error) {
+        int code = UNKNOWN;
+
+        if (error instanceof SMTPSendFailedException) {
+            code = ((SMTPSendFailedException) error).getReturnCode();
+        } else if (error instanceof SMTPAddressFailedException) {
+            code = ((SMTPAddressFailedException) error).getReturnCode();
+        } else if (error instanceof SMTPSenderFailedException) {
+            code = ((SMTPSenderFailedException) error).getReturnCode();
+        }
+
+        if (code > 0) {
+            return code;
+        }
+
+        return error instanceof SendFailedException ? UNKNOWN : replyCode(error.getMessage());
+    }
+
+    private static int replyCode(String message) {
+        if (message == null) {
+            return UNKNOWN;
+        }
+
+        Matcher matcher = REPLY_CODE.matcher(message);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : UNKNOWN;
+    }
+
+    private static Throwable next(Throwable error) {
+        if (error instanceof MessagingException && ((MessagingException) error).getNextException() != null) {
+            return ((MessagingException) error).getNextException();
+        }
+
+        Throwable cause = error.getCause();
+        return cause == error ? null : cause;
+    }
+
+    private static Exception nextException(Exception error) {
+        return error instanceof MessagingException ? ((MessagingException) error).getNextException() : null;
+    }
+
+    public static SmtpErrorClassifier getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+}
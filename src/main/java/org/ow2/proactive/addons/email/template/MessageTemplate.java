@@ -0,0 +1,143 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.template;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+
+
+/**
+ * The subject and body of a message whose placeholders are parsed once and merged with the
+ * variables of each recipient.
+ * <p>
+ * Values merged into the subject must not contain line breaks, since they would allow
+ * a recipient-specific value to inject headers.
+ *
+ * @author ActiveEon Team
+ */
+public final class MessageTemplate {
+
+    private final TextTemplate subject;
+
+    private final TextTemplate body;
+
+    private MessageTemplate(TextTemplate subject, TextTemplate body) {
+        this.subject = subject;
+        this.body = body;
+    }
+
+    /**
+     * @param subject the subject, with {@code ${name}} placeholders.
+     * @param body the body, with {@code ${name}} placeholders.
+     * @return the compiled template.
+     * @throws InvalidArgumentException if one of the texts contains an invalid placeholder.
+     * @see TextTemplate#compile(String)
+     */
+    public static MessageTemplate compile(String subject, String body) {
+        if (subject == null) {
+            throw new MissingArgumentException("subject");
+        }
+
+        if (body == null) {
+            throw new MissingArgumentException("body");
+        }
+
+        return new MessageTemplate(TextTemplate.compile(subject), TextTemplate.compile(body));
+    }
+
+    /**
+     * Renders the subject, reusing the specified buffer.
+     *
+     * @param values the value of each variable.
+     * @param buffer a buffer that is cleared before use.
+     * @return the rendered subject.
+     * @throws MissingArgumentException if a variable has no value.
+     * @throws InvalidArgumentException if the rendered subject contains a line break.
+     */
+    public String renderSubject(Map<String, ?> values, StringBuilder buffer) {
+        buffer.setLength(0);
+        subject.renderTo(values, buffer);
+
+        for (int i = 0; i < buffer.length(); i++) {
+            char c = buffer.charAt(i);
+            if (c == '\r' || c == '\n') {
+                throw new InvalidArgumentException("The rendered subject contains a line break: " +
+                                                   subject.getSource());
+            }
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Renders the body, reusing the specified buffer.
+     *
+     * @param values the value of each variable.
+     * @param buffer a buffer that is cleared before use.
+     * @return the rendered body.
+     * @throws MissingArgumentException if a variable has no value.
+     */
+    public String renderBody(Map<String, ?> values, StringBuilder buffer) {
+        buffer.setLength(0);
+        body.renderTo(values, buffer);
+        return buffer.toString();
+    }
+
+    public String renderSubject(Map<String, ?> values) {
+        return renderSubject(values, new StringBuilder(subject.getLiteralLength() + 16));
+    }
+
+    public String renderBody(Map<String, ?> values) {
+        return body.render(values);
+    }
+
+    /**
+     * @return the distinct names of the variables used by the subject and the body.
+     */
+    public Set<String> getVariableNames() {
+        Set<String> names = new LinkedHashSet<>(subject.getVariableNames());
+        names.addAll(body.getVariableNames());
+        return names;
+    }
+
+    public TextTemplate getSubject() {
+        return subject;
+    }
+
+    public TextTemplate getBody() {
+        return body;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageTemplate{" + "subject=" + subject + ", body=" + body + '}';
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.template;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+
+
+/**
+ * A text containing {@code ${name}} placeholders, parsed once into an alternation of literal
+ * segments and variable names so that rendering it only appends to a buffer.
+ * <p>
+ * A literal {@code ${} is written {@code $${}. A {@code $} that is not followed by an opening
+ * brace is kept as is.
+ *
+ * @author ActiveEon Team
+ */
+public final class TextTemplate {
+
+    private static final String PLACEHOLDER_START = "${";
+
+    private static final String ESCAPED_PLACEHOLDER_START = "$${";
+
+    private static final char PLACEHOLDER_END = '}';
+
+    private final String source;
+
+    // literals[i] is rendered before variables[i], the last literal after all of them
+    private final String[] literals;
+
+    private final String[] variables;
+
+    private final int literalLength;
+
+    private TextTemplate(String source, String[] literals, String[] variables) {
+        this.source = source;
+        this.literals = literals;
+        this.variables = variables;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses the specified text.
+     *
+     * @param source the text to parse.
+     * @return the compiled template.
+     * @throws InvalidArgumentException if a placeholder is not closed or has an empty name.
+     */
+    public static TextTemplate compile(String source) {
+        if (source == null) {
+            throw new MissingArgumentException("template");
+        }
+
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        int position = 0;
+        while (position < source.length()) {
+            if (source.startsWith(ESCAPED_PLACEHOLDER_START, position)) {
+                literal.append(PLACEHOLDER_START);
+                position += ESCAPED_PLACEHOLDER_START.length();
+            } else if (source.startsWith(PLACEHOLDER_START, position)) {
+                int nameStart = position + PLACEHOLDER_START.length();
+                int nameEnd = source.indexOf(PLACEHOLDER_END, nameStart);
+                if (nameEnd < 0) {
+                    throw new InvalidArgumentException("Unclosed placeholder at index " + position + " in template: " +
+                                                       source);
+                }
+
+                String name = source.substring(nameStart, nameEnd).trim();
+                if (name.isEmpty()) {
+                    throw new InvalidArgumentException("Empty placeholder at index " + position + " in template: " +
+                                                       source);
+                }
+
+                literals.add(literal.toString());
+                variables.add(name);
+                literal.setLength(0);
+                position = nameEnd + 1;
+            } else {
+                literal.append(source.charAt(position));
+                position++;
+            }
+        }
+        literals.add(literal.toString());
+
+        return new TextTemplate(source,
+                                literals.toArray(new String[literals.size()]),
+                                variables.toArray(new String[variables.size()]));
+    }
+
+    /**
+     * Appends the text to the specified buffer, replacing each placeholder by the string
+     * representation of its value.
+     *
+     * @param values the value of each variable.
+     * @param out the buffer to append to.
+     * @throws MissingArgumentException if a variable has no value.
+     */
+    public void renderTo(Map<String, ?> values, StringBuilder out) {
+        out.ensureCapacity(out.length() + literalLength);
+        out.append(literals[0]);
+
+        for (int i = 0; i < variables.length; i++) {
+            Object value = values.get(variables[i]);
+            if (value == null) {
+                throw new MissingArgumentException(variables[i]);
+            }
+
+            if (value instanceof CharSequence) {
+                out.append((CharSequence) value);
+            } else {
+                out.append(value);
+            }
+            out.append(literals[i + 1]);
+        }
+    }
+
+    /**
+     * Renders the text into a new string.
+     *
+     * @see #renderTo(Map, StringBuilder)
+     */
+    public String render(Map<String, ?> values) {
+        if (variables.length == 0) {
+            return literals[0];
+        }
+
+        StringBuilder out = new StringBuilder(literalLength + 16 * variables.length);
+        renderTo(values, out);
+        return out.toString();
+    }
+
+    /**
+     * @return the distinct names of the variables, in order of first appearance.
+     */
+    public Set<String> getVariableNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(variables)));
+    }
+
+    /**
+     * @return the total length of the literal segments, a lower bound of the rendered length.
+     */
+    public int getLiteralLength() {
+        return literalLength;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return "TextTemplate{" + "source='" + source + '\'' + '}';
+    }
+
+}
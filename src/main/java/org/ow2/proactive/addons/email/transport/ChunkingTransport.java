@@ -0,0 +1,106 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+
+/**
+ * A transport that sends messages through another one with {@link RecipientChunker}, and keeps
+ * the {@link RecipientReport} of the last message sent.
+ *
+ * @author ActiveEon Team
+ */
+public final class ChunkingTransport extends Transport {
+
+    private final Transport delegate;
+
+    private final int maxRecipients;
+
+    private final Address[] envelope;
+
+    private volatile RecipientReport lastReport;
+
+    /**
+     * @param session the session of the delegate.
+     * @param delegate the transport that sends the messages.
+     * @param maxRecipients the maximum number of recipients per transaction.
+     */
+    public ChunkingTransport(Session session, Transport delegate, int maxRecipients) {
+        this(session, delegate, maxRecipients, null);
+    }
+
+    /**
+     * @param session the session of the delegate.
+     * @param delegate the transport that sends the messages.
+     * @param maxRecipients the maximum number of recipients per transaction.
+     * @param envelope the recipients to send the messages to instead of the ones given by the caller,
+     * for instance the ones a previous attempt has not reached, or {@code null}.
+     */
+    public ChunkingTransport(Session session, Transport delegate, int maxRecipients, Address[] envelope) {
+        super(session, delegate.getURLName());
+        this.delegate = delegate;
+        this.maxRecipients = maxRecipients;
+        this.envelope = envelope;
+    }
+
+    @Override
+    public synchronized void connect(String host, int port, String user, String password) throws MessagingException {
+        // the other connect methods end up here
+        delegate.connect(host, port, user, password);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public synchronized void close() throws MessagingException {
+        delegate.close();
+    }
+
+    @Override
+    public void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        lastReport = RecipientChunker.send(delegate, message, envelope != null ? envelope : addresses, maxRecipients);
+    }
+
+    /**
+     * @return the outcome of the last message sent, or {@code null} if none has been sent.
+     */
+    public RecipientReport getLastReport() {
+        return lastReport;
+    }
+
+    public Transport getDelegate() {
+        return delegate;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+
+import javax.net.SocketFactory;
+
+
+/**
+ * Creates the plain sockets of the sessions, so that they honour the {@link SendDeadline} of the
+ * thread connecting them: the connect timeout is capped by the time left and the socket is closed
+ * when the deadline expires.
+ *
+ * @author ActiveEon Team
+ */
+final class DeadlineSocketFactory extends SocketFactory {
+
+    private static final DeadlineSocketFactory INSTANCE = new DeadlineSocketFactory();
+
+    private DeadlineSocketFactory() {
+    }
+
+    static DeadlineSocketFactory getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public Socket createSocket() {
+        return new DeadlineSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localHost, localPort));
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        Socket socket = createSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        Socket socket = createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(new InetSocketAddress(address, port));
+        return socket;
+    }
+
+    private static final class DeadlineSocket extends Socket {
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            SendDeadline deadline = SendDeadline.current();
+            if (deadline == null) {
+                super.connect(endpoint, timeout);
+                return;
+            }
+
+            if (deadline.isExpired()) {
+                close();
+                throw new SocketTimeoutException("Deadline of " + deadline.getTimeout() + " exceeded");
+            }
+
+            deadline.attach(this);
+            super.connect(endpoint, deadline.getConnectTimeout(timeout));
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+
+
+/**
+ * Raised when a message has been delivered to some of its recipients before the transaction
+ * of the others failed, for instance because the server closed the connection. The message
+ * must only be sent again to the {@link #getUnsentAddresses() unsent recipients}, the others
+ * would receive it twice.
+ * <p>
+ * The failure that interrupted the delivery is available with {@link #getNextException()}.
+ *
+ * @author ActiveEon Team
+ */
+public class PartialDeliveryException extends MessagingException {
+
+    private final RecipientReport report;
+
+    private final Address[] unsentAddresses;
+
+    /**
+     * @param report the recipients that have been accepted and the ones that have been rejected for good.
+     * @param unsentAddresses the recipients the message has not been sent to yet.
+     * @param cause the failure that interrupted the delivery.
+     */
+    public PartialDeliveryException(RecipientReport report, Address[] unsentAddresses, Exception cause) {
+        super("The message has been delivered to " + report.getAcceptedRecipients().size() +
+              " recipients but not to " + unsentAddresses.length + " others", cause);
+        this.report = report;
+        this.unsentAddresses = unsentAddresses.clone();
+    }
+
+    /**
+     * Returns the first partial delivery found in the chain of causes of the specified error.
+     *
+     * @param error the error to inspect.
+     * @return the partial delivery, or {@code null} if the message has not been delivered to any recipient.
+     */
+    public static PartialDeliveryException find(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof PartialDeliveryException) {
+                return (PartialDeliveryException) current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the recipients that have been accepted and the ones that have been rejected for good.
+     */
+    public RecipientReport getReport() {
+        return report;
+    }
+
+    /**
+     * @return the recipients the message has not been sent to yet, which may be sent again.
+     */
+    public Address[] getUnsentAddresses() {
+        return unsentAddresses.clone();
+    }
+
+}
@@ -0,0 +1,401 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.URLName;
+import javax.mail.internet.InternetAddress;
+
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+import com.sun.mail.util.CRLFOutputStream;
+import com.sun.mail.util.PropUtil;
+
+
+/**
+ * An SMTP transport that reduces the number of round trips needed to send a message.
+ * <p>
+ * When the server announces the PIPELINING extension (RFC 2920), the MAIL FROM command and all
+ * the RCPT TO commands are written at once and their replies are read afterwards, instead of
+ * waiting for each reply before sending the next command. When the server announces the CHUNKING
+ * extension (RFC 3030), the message is transferred with BDAT commands, which removes the need for
+ * dot-stuffing and lets chunks be streamed without waiting for intermediate replies. Each feature
+ * falls back to the classic behavior of {@link SMTPTransport} when it is not supported.
+ * <p>
+ * The transport is selected by setting the {@code mail.smtp.class} property to the name of this class,
+ * in a session where it has been registered with {@link #registerProvider(Session)}.
+ *
+ * @author ActiveEon Team
+ */
+public class PipeliningSmtpTransport extends SMTPTransport {
+
+    public static final String PROPERTY_MAIL_SMTP_PIPELINING_ENABLE = "mail.smtp.pipelining.enable";
+
+    public static final String PROPERTY_MAIL_SMTP_CHUNKING_ENABLE = "mail.smtp.chunking.enable";
+
+    public static final String PROPERTY_MAIL_SMTP_CHUNKING_SIZE = "mail.smtp.chunking.size";
+
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+
+    private static final String PROTOCOL = "smtp";
+
+    private static final Provider PROVIDER = new Provider(Provider.Type.TRANSPORT,
+                                                          PROTOCOL,
+                                                          PipeliningSmtpTransport.class.getName(),
+                                                          "ActiveEon",
+                                                          null);
+
+    private static final Field SERVER_OUTPUT_FIELD = findServerOutputField();
+
+    // commands already written to the server whose replies have not been read yet
+    private final Deque<String> pipelinedCommands = new ArrayDeque<>();
+
+    private Message currentMessage;
+
+    private Address[] currentAddresses;
+
+    private boolean pipelineEnvelope;
+
+    private BdatOutputStream bdatStream;
+
+    public PipeliningSmtpTransport(Session session, URLName urlname) {
+        super(session, urlname);
+    }
+
+    /**
+     * Makes the transport available to the specified session. The default SMTP transport
+     * of the session is left unchanged.
+     *
+     * @param session the session to register the transport with.
+     */
+    public static void registerProvider(Session session) {
+        session.addProvider(PROVIDER);
+    }
+
+    @Override
+    public synchronized void sendMessage(Message message, Address[] addresses) throws MessagingException {
+        currentMessage = message;
+        currentAddresses = addresses;
+
+        try {
+            super.sendMessage(message, addresses);
+        } finally {
+            currentMessage = null;
+            currentAddresses = null;
+            pipelineEnvelope = false;
+            bdatStream = null;
+            discardPipelinedReplies();
+        }
+    }
+
+    @Override
+    protected void mailFrom() throws MessagingException {
+        pipelineEnvelope = currentAddresses != null && isPipeliningEnabled();
+        super.mailFrom();
+    }
+
+    @Override
+    protected void sendCommand(String command) throws MessagingException {
+        if (pipelineEnvelope && command.startsWith("MAIL FROM:")) {
+            pipelineEnvelope = false;
+
+            List<String> rcptCommands = buildRcptCommands();
+            StringBuilder batch = new StringBuilder(command);
+            for (String rcptCommand : rcptCommands) {
+                batch.append("\r\n").append(rcptCommand);
+            }
+
+            super.sendCommand(batch.toString());
+            pipelinedCommands.addAll(rcptCommands);
+            return;
+        }
+
+        if (!pipelinedCommands.isEmpty()) {
+            if (command.equals(pipelinedCommands.peekFirst())) {
+                // already written to the server, the caller reads its reply next
+                pipelinedCommands.pollFirst();
+                return;
+            }
+
+            // the caller deviates from the pipelined sequence (e.g. RSET after an error)
+            readPipelinedReplies();
+        }
+
+        super.sendCommand(command);
+    }
+
+    @Override
+    protected OutputStream data() throws MessagingException {
+        OutputStream serverOutput = isChunkingEnabled() ? getServerOutput() : null;
+        if (serverOutput == null) {
+            return super.data();
+        }
+
+        int chunkSize = PropUtil.getIntSessionProperty(session, PROPERTY_MAIL_SMTP_CHUNKING_SIZE, DEFAULT_CHUNK_SIZE);
+        bdatStream = new BdatOutputStream(serverOutput, Math.max(chunkSize, 1), isPipeliningEnabled());
+        return bdatStream;
+    }
+
+    @Override
+    protected void finishData() throws IOException, MessagingException {
+        if (bdatStream == null) {
+            super.finishData();
+            return;
+        }
+
+        BdatOutputStream stream = bdatStream;
+        bdatStream = null;
+        stream.finish();
+    }
+
+    private boolean isPipeliningEnabled() {
+        return PropUtil.getBooleanSessionProperty(session, PROPERTY_MAIL_SMTP_PIPELINING_ENABLE, true) &&
+               supportsExtension("PIPELINING");
+    }
+
+    private boolean isChunkingEnabled() {
+        return SERVER_OUTPUT_FIELD != null &&
+               PropUtil.getBooleanSessionProperty(session, PROPERTY_MAIL_SMTP_CHUNKING_ENABLE, true) &&
+               supportsExtension("CHUNKING");
+    }
+
+    /*
+     * Builds the RCPT TO commands the same way SMTPTransport#rcptTo does. If they differ,
+     * the pipelined replies are drained and the commands are sent again one by one.
+     */
+    private List<String> buildRcptCommands() {
+        String notify = null;
+        if (supportsExtension("DSN")) {
+            if (currentMessage instanceof SMTPMessage) {
+                // per-message DSN options are not visible from here, do not pipeline
+                return new ArrayList<>();
+            }
+            notify = session.getProperty("mail." + PROTOCOL + ".dsn.notify");
+        }
+
+        List<String> commands = new ArrayList<>(currentAddresses.length);
+        for (Address address : currentAddresses) {
+            if (!(address instanceof InternetAddress) || ((InternetAddress) address).isGroup()) {
+                // group addresses are expanded by SMTPTransport, do not guess the resulting commands
+                return new ArrayList<>();
+            }
+
+            String command = "RCPT TO:" + normalizeAddress(((InternetAddress) address).getAddress());
+            if (notify != null) {
+                command += " NOTIFY=" + notify;
+            }
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    private static String normalizeAddress(String address) {
+        if (!address.startsWith("<") && !address.endsWith(">")) {
+            return "<" + address + ">";
+        }
+        return address;
+    }
+
+    private void readPipelinedReplies() throws MessagingException {
+        while (!pipelinedCommands.isEmpty()) {
+            pipelinedCommands.pollFirst();
+            readServerResponse();
+        }
+    }
+
+    private void discardPipelinedReplies() {
+        if (pipelinedCommands.isEmpty()) {
+            return;
+        }
+
+        try {
+            readPipelinedReplies();
+        } catch (MessagingException e) {
+            pipelinedCommands.clear();
+            try {
+                // the connection is out of sync with the server and cannot be reused
+                close();
+            } catch (MessagingException ignored) {
+                // nothing more can be done
+            }
+        }
+    }
+
+    private OutputStream getServerOutput() {
+        try {
+            return (OutputStream) SERVER_OUTPUT_FIELD.get(this);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Field findServerOutputField() {
+        try {
+            Field field = SMTPTransport.class.getDeclaredField("serverOutput");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException | RuntimeException e) {
+            // unexpected javax.mail implementation, CHUNKING is not used
+            return null;
+        }
+    }
+
+    /**
+     * Writes the message as BDAT chunks. Line endings are canonicalized to CRLF, as done for DATA,
+     * but no dot-stuffing is needed.
+     */
+    private final class BdatOutputStream extends CRLFOutputStream {
+
+        private BdatOutputStream(OutputStream serverOutput, int chunkSize, boolean pipelining) {
+            super(new ChunkOutputStream(serverOutput, chunkSize, pipelining));
+        }
+
+        private void finish() throws IOException, MessagingException {
+            if (!atBOL) {
+                writeln();
+            }
+            ((ChunkOutputStream) out).finish();
+        }
+
+    }
+
+    private final class ChunkOutputStream extends OutputStream {
+
+        private final OutputStream serverOutput;
+
+        private final byte[] buffer;
+
+        private final boolean pipelining;
+
+        private int count;
+
+        private int pendingReplies;
+
+        private int failedReturnCode;
+
+        private String failedResponse;
+
+        private ChunkOutputStream(OutputStream serverOutput, int chunkSize, boolean pipelining) {
+            this.serverOutput = serverOutput;
+            this.buffer = new byte[chunkSize];
+            this.pipelining = pipelining;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                sendChunk(false);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) {
+                    sendChunk(false);
+                }
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void flush() {
+            // chunks are sent when full or when the message is complete
+        }
+
+        private void finish() throws IOException, MessagingException {
+            sendChunk(true);
+            readReplies();
+
+            if (failedResponse != null) {
+                try {
+                    issueCommand("RSET", -1);
+                } catch (MessagingException ignored) {
+                    // the original failure is more relevant
+                }
+                throw new SMTPSendFailedException("BDAT",
+                                                  failedReturnCode,
+                                                  failedResponse,
+                                                  null,
+                                                  null,
+                                                  currentAddresses,
+                                                  null);
+            }
+        }
+
+        private void sendChunk(boolean last) throws IOException {
+            String command = "BDAT " + count + (last ? " LAST" : "") + "\r\n";
+            serverOutput.write(command.getBytes(StandardCharsets.US_ASCII));
+            serverOutput.write(buffer, 0, count);
+            serverOutput.flush();
+            count = 0;
+            pendingReplies++;
+
+            if (!pipelining && !last) {
+                try {
+                    readReplies();
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
+                if (failedResponse != null) {
+                    throw new IOException("BDAT rejected: " + failedResponse);
+                }
+            }
+        }
+
+        private void readReplies() throws MessagingException {
+            while (pendingReplies > 0) {
+                pendingReplies--;
+                int returnCode = readServerResponse();
+                if (returnCode != 250 && failedResponse == null) {
+                    failedReturnCode = returnCode;
+                    failedResponse = getLastServerResponse();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+
+import org.ow2.proactive.addons.email.converters.IntegerConverter;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+
+
+/**
+ * Sends a message to many recipients in several transactions over the same connection, since
+ * servers limit the number of RCPT commands per transaction (RFC 5321 only requires 100).
+ * <p>
+ * Recipients rejected by the server do not prevent the message from being delivered to the
+ * others: the transaction is sent again without them and they are listed in the returned
+ * {@link RecipientReport}. Recipients rejected with 452 (too many recipients) are sent again
+ * once in the next transaction, as recommended by RFC 5321, which is then made smaller. If a
+ * transaction fails after others have been accepted, the recipients of the message that have not
+ * been sent it are listed by a {@link PartialDeliveryException}.
+ *
+ * @author ActiveEon Team
+ */
+public final class RecipientChunker {
+
+    public static final String PROPERTY_MAIL_SMTP_MAX_RECIPIENTS = "mail.smtp.maxrecipients";
+
+    public static final int DEFAULT_MAX_RECIPIENTS = 100;
+
+    private static final int TOO_MANY_RECIPIENTS = 452;
+
+    private RecipientChunker() {
+
+    }
+
+    /**
+     * @param properties the SMTP configuration.
+     * @return the number of recipients per transaction configured by {@link #PROPERTY_MAIL_SMTP_MAX_RECIPIENTS}.
+     */
+    public static int getMaxRecipients(Properties properties) {
+        Object value = properties.get(PROPERTY_MAIL_SMTP_MAX_RECIPIENTS);
+        if (value == null) {
+            return DEFAULT_MAX_RECIPIENTS;
+        }
+
+        int maxRecipients = IntegerConverter.getInstance().convert(PROPERTY_MAIL_SMTP_MAX_RECIPIENTS,
+                                                                   String.valueOf(value));
+        return maxRecipients > 0 ? maxRecipients : DEFAULT_MAX_RECIPIENTS;
+    }
+
+    /**
+     * Sends the message to the specified recipients, at most {@code maxRecipients} at a time.
+     *
+     * @param transport a connected transport.
+     * @param message the message to send.
+     * @param recipients the envelope recipients.
+     * @param maxRecipients the maximum number of recipients per transaction.
+     * @return the recipients that have been accepted and rejected.
+     * @throws SendFailedException if every recipient has been rejected.
+     * @throws PartialDeliveryException if a transaction fails after earlier ones have been accepted.
+     * @throws MessagingException if a transaction fails for another reason than rejected recipients.
+     */
+    public static RecipientReport send(Transport transport, Message message, Address[] recipients,
+            int maxRecipients) throws MessagingException {
+        List<String> accepted = new ArrayList<>(recipients.length);
+        Map<String, String> rejected = new LinkedHashMap<>();
+
+        Deque<Address> pending = new ArrayDeque<>(Arrays.asList(recipients));
+        Set<Address> deferred = new HashSet<>();
+        int chunkSize = Math.max(maxRecipients, 1);
+        SendFailedException lastFailure = null;
+
+        while (!pending.isEmpty()) {
+            Address[] chunk = new Address[Math.min(chunkSize, pending.size())];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = pending.pollFirst();
+            }
+
+            try {
+                transport.sendMessage(message, chunk);
+                addAll(accepted, chunk);
+            } catch (SendFailedException e) {
+                Map<Address, SMTPAddressFailedException> failures = getAddressFailures(e);
+                if (failures.isEmpty()) {
+                    // the whole transaction has been refused, e.g. the sender or the content
+                    throw interrupted(e, accepted, rejected, chunk, pending);
+                }
+                lastFailure = e;
+
+                addAll(accepted, e.getValidSentAddresses());
+
+                List<Address> retried = new ArrayList<>();
+                int tooMany = 0;
+                for (Map.Entry<Address, SMTPAddressFailedException> failure : failures.entrySet()) {
+                    if (failure.getValue().getReturnCode() == TOO_MANY_RECIPIENTS && deferred.add(failure.getKey())) {
+                        retried.add(failure.getKey());
+                        tooMany++;
+                    } else {
+                        rejected.put(failure.getKey().toString(), failure.getValue().getMessage().trim());
+                    }
+                }
+
+                // without mail.smtp.sendpartial, the transaction has been aborted for the valid recipients too
+                Address[] validUnsent = e.getValidUnsentAddresses();
+                if (validUnsent != null) {
+                    for (Address address : validUnsent) {
+                        if (!failures.containsKey(address)) {
+                            retried.add(address);
+                        }
+                    }
+                }
+
+                if (tooMany > 0) {
+                    chunkSize = Math.max(chunk.length - tooMany, 1);
+                }
+                for (int i = retried.size() - 1; i >= 0; i--) {
+                    pending.addFirst(retried.get(i));
+                }
+            } catch (MessagingException e) {
+                throw interrupted(e, accepted, rejected, chunk, pending);
+            }
+        }
+
+        if (accepted.isEmpty() && lastFailure != null) {
+            throw lastFailure;
+        }
+
+        return new RecipientReport(accepted, rejected);
+    }
+
+    /**
+     * Returns the failure to report when a transaction fails, which lists the recipients that must
+     * not be sent the message again if earlier transactions have been accepted.
+     */
+    private static MessagingException interrupted(MessagingException failure, List<String> accepted,
+            Map<String, String> rejected, Address[] chunk, Deque<Address> pending) {
+        if (accepted.isEmpty()) {
+            return failure;
+        }
+
+        List<Address> unsent = new ArrayList<>(chunk.length + pending.size());
+        unsent.addAll(Arrays.asList(chunk));
+        unsent.addAll(pending);
+        return new PartialDeliveryException(new RecipientReport(accepted, rejected),
+                                            unsent.toArray(new Address[unsent.size()]),
+                                            failure);
+    }
+
+    private static Map<Address, SMTPAddressFailedException> getAddressFailures(SendFailedException e) {
+        Map<Address, SMTPAddressFailedException> failures = new LinkedHashMap<>();
+
+        Exception next = e.getNextException();
+        while (next instanceof MessagingException) {
+            if (next instanceof SMTPAddressFailedException) {
+                SMTPAddressFailedException failure = (SMTPAddressFailedException) next;
+                failures.put(failure.getAddress(), failure);
+            }
+            next = ((MessagingException) next).getNextException();
+        }
+
+        return failures;
+    }
+
+    private static void addAll(List<String> accepted, Address[] addresses) {
+        if (addresses != null) {
+            for (Address address : addresses) {
+                accepted.add(address.toString());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * The recipients of a message that have been accepted by the SMTP server and the ones
+ * that have been rejected, with the reply of the server for each of them.
+ *
+ * @author ActiveEon Team
+ */
+public final class RecipientReport {
+
+    private final List<String> acceptedRecipients;
+
+    private final Map<String, String> rejectedRecipients;
+
+    public RecipientReport(List<String> acceptedRecipients, Map<String, String> rejectedRecipients) {
+        this.acceptedRecipients = ImmutableList.copyOf(acceptedRecipients);
+        this.rejectedRecipients = ImmutableMap.copyOf(rejectedRecipients);
+    }
+
+    /**
+     * @return the addresses the message has been delivered to, in the order they were sent.
+     */
+    public List<String> getAcceptedRecipients() {
+        return acceptedRecipients;
+    }
+
+    /**
+     * @return the addresses the message has not been delivered to, associated to the reply of the server.
+     */
+    public Map<String, String> getRejectedRecipients() {
+        return rejectedRecipients;
+    }
+
+    /**
+     * Returns the outcome of a message sent in several attempts, this report being the outcome of the first ones.
+     *
+     * @param next the outcome of the following attempt.
+     * @return the recipients accepted and rejected by any of the attempts.
+     */
+    public RecipientReport merge(RecipientReport next) {
+        List<String> accepted = new ArrayList<>(acceptedRecipients);
+        accepted.addAll(next.acceptedRecipients);
+        Map<String, String> rejected = new LinkedHashMap<>(rejectedRecipients);
+        rejected.putAll(next.rejectedRecipients);
+        return new RecipientReport(accepted, rejected);
+    }
+
+    /**
+     * @return true if no recipient has been rejected.
+     */
+    public boolean isComplete() {
+        return rejectedRecipients.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "RecipientReport{" + "accepted=" + acceptedRecipients.size() + ", rejected=" + rejectedRecipients + '}';
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.mail.smtp.SMTPTransport;
+
+
+/**
+ * The time left to send a message, shared by all the attempts, relays and SMTP phases of the send.
+ * <p>
+ * A deadline is bound to the thread that started it. Connections opened by this thread while the
+ * deadline is bound do not wait longer than the remaining time to connect, and their sockets are
+ * closed when the deadline expires, which aborts the greeting, authentication and DATA phases
+ * whatever the read and write timeouts. Pooled connections are closed the same way while they are
+ * used under a deadline with {@link #guard(SmtpTransportPool.TransportCallback)}.
+ *
+ * @author ActiveEon Team
+ */
+public final class SendDeadline implements AutoCloseable {
+
+    private static final ThreadLocal<SendDeadline> CURRENT = new ThreadLocal<>();
+
+    private static final Field SERVER_SOCKET_FIELD = findServerSocketField();
+
+    private static final class LazyHolder {
+
+        private static final ScheduledThreadPoolExecutor WATCHDOG = newWatchdog();
+
+    }
+
+    private final Duration timeout;
+
+    private final Ticker ticker;
+
+    private final long expiresAt;
+
+    // sockets closed when the deadline expires, guarded by this
+    private final Set<Socket> sockets = new HashSet<>();
+
+    private boolean aborted;
+
+    private SendDeadline previous;
+
+    private ScheduledFuture<?> watchdog;
+
+    @VisibleForTesting
+    SendDeadline(Duration timeout, Ticker ticker) {
+        this.timeout = timeout;
+        this.ticker = ticker;
+        this.expiresAt = ticker.read() + timeout.toNanos();
+    }
+
+    /**
+     * Starts a deadline and binds it to the current thread until it is closed.
+     *
+     * @param timeout the time the send is allowed to take.
+     * @return the deadline, to close once the send is over.
+     */
+    public static SendDeadline start(Duration timeout) {
+        SendDeadline deadline = new SendDeadline(timeout, Ticker.systemTicker());
+        deadline.previous = CURRENT.get();
+        CURRENT.set(deadline);
+        deadline.watchdog = LazyHolder.WATCHDOG.schedule(deadline::abort, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        return deadline;
+    }
+
+    /**
+     * Returns the deadline bound to the current thread.
+     *
+     * @return the deadline, or null if the current thread sends without deadline.
+     */
+    public static SendDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the specified deadline to the current thread, so that a send started by another thread
+     * can be carried on by this one.
+     *
+     * @param deadline the deadline to bind, may be null.
+     * @return the binding, to close to restore the deadline previously bound to the current thread.
+     */
+    public static Binding bind(SendDeadline deadline) {
+        SendDeadline previous = CURRENT.get();
+        CURRENT.set(deadline);
+        return () -> restore(previous);
+    }
+
+    /**
+     * Wraps the specified callback so that the connection it uses is closed if the deadline bound
+     * to the current thread expires meanwhile. The callback is not run if the deadline has already
+     * expired.
+     *
+     * @param callback the callback to guard.
+     * @return the guarded callback, or the callback itself if no deadline is bound to the current thread.
+     */
+    public static <T> SmtpTransportPool.TransportCallback<T> guard(SmtpTransportPool.TransportCallback<T> callback) {
+        SendDeadline deadline = current();
+        if (deadline == null) {
+            return callback;
+        }
+
+        return transport -> {
+            deadline.check();
+            Socket socket = getSocket(transport);
+            if (socket == null) {
+                return callback.doWithTransport(transport);
+            }
+
+            deadline.attach(socket);
+            try {
+                return callback.doWithTransport(transport);
+            } finally {
+                deadline.detach(socket);
+            }
+        };
+    }
+
+    /**
+     * Converts the specified failure into the exception raised by a send. When the deadline bound
+     * to the current thread has expired, the failure has most likely been caused by the closing of
+     * the connection and a {@link DeadlineExceededException} is returned.
+     *
+     * @param failure the failure of the send.
+     * @return the exception to raise.
+     */
+    public static EmailException failure(MessagingException failure) {
+        SendDeadline deadline = current();
+        if (deadline != null && deadline.isExpired()) {
+            return new DeadlineExceededException(deadline.timeout, failure);
+        }
+        return new EmailException(failure);
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the time left before the deadline, in milliseconds, zero once it has expired.
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - ticker.read()));
+    }
+
+    public synchronized boolean isExpired() {
+        return aborted || ticker.read() - expiresAt >= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline has expired.
+     */
+    public void check() {
+        if (isExpired()) {
+            throw new DeadlineExceededException(timeout);
+        }
+    }
+
+    /**
+     * Returns the connect timeout to use so that connecting does not outlast the deadline.
+     *
+     * @param connectTimeoutMillis the configured connect timeout, zero meaning none.
+     * @return the connect timeout in milliseconds, at least 1.
+     */
+    int getConnectTimeout(int connectTimeoutMillis) {
+        int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, getRemainingMillis()));
+        return connectTimeoutMillis <= 0 ? remaining : Math.min(connectTimeoutMillis, remaining);
+    }
+
+    /**
+     * Closes the specified socket when the deadline expires, immediately if it has already expired.
+     */
+    synchronized void attach(Socket socket) {
+        if (aborted) {
+            closeQuietly(socket);
+        } else {
+            sockets.add(socket);
+        }
+    }
+
+    synchronized void detach(Socket socket) {
+        sockets.remove(socket);
+    }
+
+    @VisibleForTesting
+    synchronized void abort() {
+        aborted = true;
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        sockets.clear();
+    }
+
+    /**
+     * Stops watching the connections of the send and unbinds the deadline from the current thread.
+     */
+    @Override
+    public void close() {
+        if (watchdog != null) {
+            watchdog.cancel(false);
+        }
+        synchronized (this) {
+            sockets.clear();
+        }
+        if (CURRENT.get() == this) {
+            restore(previous);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SendDeadline{timeout=" + timeout + ", remainingMillis=" + getRemainingMillis() + '}';
+    }
+
+    private static void restore(SendDeadline deadline) {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    private static Socket getSocket(Transport transport) {
+        if (SERVER_SOCKET_FIELD == null || !(transport instanceof SMTPTransport)) {
+            return null;
+        }
+
+        try {
+            return (Socket) SERVER_SOCKET_FIELD.get(transport);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Field findServerSocketField() {
+        try {
+            Field field = SMTPTransport.class.getDeclaredField("serverSocket");
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException | RuntimeException e) {
+            // unexpected javax.mail implementation, reused connections are bounded by the read timeout only
+            return null;
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newWatchdog() {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                .setNameFormat("smtp-deadline-watchdog-%d")
+                                                                .build();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        // most deadlines are cancelled long before they expire
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // the send fails anyway
+        }
+    }
+
+    /**
+     * The binding of a deadline to a thread.
+     */
+    @FunctionalInterface
+    public interface Binding extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+}
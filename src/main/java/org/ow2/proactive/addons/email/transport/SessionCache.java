@@ -0,0 +1,183 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import javax.mail.Authenticator;
+import javax.mail.Session;
+
+import org.ow2.proactive.addons.email.config.SmtpConfiguration;
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+
+/**
+ * A bounded cache of javax.mail {@link Session}s keyed by a fingerprint of their configuration.
+ * <p>
+ * Senders that share the same {@code mail.*} properties and credentials share the same session,
+ * while senders with a different configuration never get a session created for another one, as
+ * happens with {@link Session#getDefaultInstance(Properties, Authenticator)}. When the cache is
+ * full, the least recently used session is evicted.
+ *
+ * @author ActiveEon Team
+ */
+public class SessionCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 64;
+
+    private static final String SMTP_PROPERTY_PREFIX = "mail.";
+
+    private static final String PROPERTY_MAIL_SMTP_SOCKET_FACTORY = "mail.smtp.socketFactory";
+
+    private static final String PROPERTY_MAIL_SMTP_SSL_ENABLE = "mail.smtp.ssl.enable";
+
+    private static final class LazyHolder {
+
+        private static final SessionCache INSTANCE = new SessionCache(DEFAULT_MAXIMUM_SIZE);
+
+    }
+
+    private final Cache<String, Session> sessions;
+
+    public SessionCache(int maximumSize) {
+        this.sessions = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Returns the JVM-wide cache.
+     *
+     * @return the JVM-wide cache.
+     */
+    public static SessionCache getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    /**
+     * Returns the session associated to the specified configuration, creating it if needed.
+     *
+     * @param properties the SMTP configuration, including credentials.
+     * @param authenticator supplies the authenticator of the session when it has to be created.
+     * @return the session associated to the configuration.
+     */
+    public Session getSession(Properties properties, Supplier<Authenticator> authenticator) {
+        return getSession(fingerprint(properties), properties, authenticator);
+    }
+
+    /**
+     * Returns the session associated to the specified configuration, creating it if needed.
+     * The fingerprint computed when the configuration was created is reused.
+     *
+     * @param configuration the SMTP configuration, including credentials.
+     * @param authenticator supplies the authenticator of the session when it has to be created.
+     * @return the session associated to the configuration.
+     */
+    public Session getSession(SmtpConfiguration configuration, Supplier<Authenticator> authenticator) {
+        return getSession(configuration.getFingerprint(), configuration.getProperties(), authenticator);
+    }
+
+    private Session getSession(String fingerprint, Properties properties, Supplier<Authenticator> authenticator) {
+        Session session = sessions.getIfPresent(fingerprint);
+        if (session != null) {
+            return session;
+        }
+
+        try {
+            return sessions.get(fingerprint, () -> newSession(properties, authenticator.get()));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new EmailException("Unable to create mail session", e.getCause());
+        }
+    }
+
+    public long size() {
+        return sessions.size();
+    }
+
+    public void invalidateAll() {
+        sessions.invalidateAll();
+    }
+
+    /**
+     * Computes a digest of the {@code mail.*} entries of the specified properties that does not
+     * depend on the iteration order of the entries.
+     */
+    public static String fingerprint(Properties properties) {
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            if (key.startsWith(SMTP_PROPERTY_PREFIX)) {
+                sorted.put(key, String.valueOf(entry.getValue()));
+            }
+        }
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8)
+                  .putByte((byte) 0)
+                  .putString(entry.getValue(), StandardCharsets.UTF_8)
+                  .putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    private static Session newSession(Properties properties, Authenticator authenticator) {
+        Session session = Session.getInstance(withDeadlineSocketFactory(copyOf(properties)), authenticator);
+        PipeliningSmtpTransport.registerProvider(session);
+        return session;
+    }
+
+    /*
+     * Plain connections honour the deadline of the send they are opened for, unless the
+     * configuration defines its own socket factory or connects with SSL directly.
+     */
+    private static Properties withDeadlineSocketFactory(Properties properties) {
+        if (!properties.containsKey(PROPERTY_MAIL_SMTP_SOCKET_FACTORY) &&
+            !properties.containsKey(PROPERTY_MAIL_SMTP_SOCKET_FACTORY + ".class") &&
+            !Boolean.parseBoolean(String.valueOf(properties.get(PROPERTY_MAIL_SMTP_SSL_ENABLE)))) {
+            properties.put(PROPERTY_MAIL_SMTP_SOCKET_FACTORY, DeadlineSocketFactory.getInstance());
+            // a connection failing because of the deadline must not be retried without it
+            properties.put(PROPERTY_MAIL_SMTP_SOCKET_FACTORY + ".fallback", "false");
+        }
+        return properties;
+    }
+
+    private static Properties copyOf(Properties properties) {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+
+}
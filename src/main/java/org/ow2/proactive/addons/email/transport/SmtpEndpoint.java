@@ -0,0 +1,197 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.util.Objects;
+import java.util.Properties;
+
+import org.ow2.proactive.addons.email.EmailSender;
+
+
+/**
+ * Identifies the SMTP server and the settings used to open and authenticate a connection,
+ * including the transport class and the socket timeouts the connection is opened with.
+ * Two transports can be shared only if they have been opened for equal endpoints.
+ *
+ * @author ActiveEon Team
+ */
+public final class SmtpEndpoint {
+
+    private static final String PROPERTY_MAIL_SMTP_SSL_ENABLE = "mail.smtp.ssl.enable";
+
+    private final String host;
+
+    private final int port;
+
+    private final String username;
+
+    private final String password;
+
+    private final boolean auth;
+
+    private final boolean startTls;
+
+    private final boolean ssl;
+
+    private final String trustSsl;
+
+    private final String transportClass;
+
+    private final String connectionTimeout;
+
+    private final String timeout;
+
+    private final String writeTimeout;
+
+    public SmtpEndpoint(String host, int port, String username, String password, boolean auth, boolean startTls,
+            boolean ssl, String trustSsl) {
+        this(host, port, username, password, auth, startTls, ssl, trustSsl, null, null, null, null);
+    }
+
+    public SmtpEndpoint(String host, int port, String username, String password, boolean auth, boolean startTls,
+            boolean ssl, String trustSsl, String transportClass, String connectionTimeout, String timeout,
+            String writeTimeout) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.auth = auth;
+        this.startTls = startTls;
+        this.ssl = ssl;
+        this.trustSsl = trustSsl;
+        this.transportClass = transportClass;
+        this.connectionTimeout = connectionTimeout;
+        this.timeout = timeout;
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * Creates the endpoint described by the specified SMTP configuration.
+     *
+     * @param properties the configuration, as returned by {@code EmailSender#buildSmtpConfiguration()}.
+     * @return the endpoint described by the configuration.
+     */
+    public static SmtpEndpoint from(Properties properties) {
+        return new SmtpEndpoint(getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_HOST),
+                                getAsInt(properties, EmailSender.PROPERTY_MAIL_SMTP_PORT, 25),
+                                getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_USERNAME),
+                                getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_PASSWORD),
+                                getAsBoolean(properties, EmailSender.PROPERTY_MAIL_SMTP_AUTH),
+                                getAsBoolean(properties, EmailSender.PROPERTY_MAIL_SMTP_STARTTLS_ENABLE),
+                                getAsBoolean(properties, PROPERTY_MAIL_SMTP_SSL_ENABLE),
+                                getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_SSL_TRUST),
+                                getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_CLASS),
+                                getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT),
+                                getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_TIMEOUT),
+                                getAsString(properties, EmailSender.PROPERTY_MAIL_SMTP_WRITE_TIMEOUT));
+    }
+
+    private static String getAsString(Properties properties, String key) {
+        Object value = properties.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    private static int getAsInt(Properties properties, String key, int defaultValue) {
+        String value = getAsString(properties, key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static boolean getAsBoolean(Properties properties, String key) {
+        return Boolean.parseBoolean(getAsString(properties, key));
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isAuth() {
+        return auth;
+    }
+
+    public boolean isStartTls() {
+        return startTls;
+    }
+
+    public boolean isSsl() {
+        return ssl;
+    }
+
+    public String getTrustSsl() {
+        return trustSsl;
+    }
+
+    public String getTransportClass() {
+        return transportClass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SmtpEndpoint that = (SmtpEndpoint) o;
+        return port == that.port && auth == that.auth && startTls == that.startTls && ssl == that.ssl &&
+               Objects.equals(host, that.host) && Objects.equals(username, that.username) &&
+               Objects.equals(password, that.password) && Objects.equals(trustSsl, that.trustSsl) &&
+               Objects.equals(transportClass, that.transportClass) &&
+               Objects.equals(connectionTimeout, that.connectionTimeout) && Objects.equals(timeout, that.timeout) &&
+               Objects.equals(writeTimeout, that.writeTimeout);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host,
+                            port,
+                            username,
+                            password,
+                            auth,
+                            startTls,
+                            ssl,
+                            trustSsl,
+                            transportClass,
+                            connectionTimeout,
+                            timeout,
+                            writeTimeout);
+    }
+
+    @Override
+    public String toString() {
+        return "SmtpEndpoint{" + "host='" + host + '\'' + ", port=" + port + ", username='" + username + '\'' +
+               ", auth=" + auth + ", startTls=" + startTls + ", ssl=" + ssl + '}';
+    }
+
+}
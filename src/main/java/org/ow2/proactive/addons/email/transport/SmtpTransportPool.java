@@ -0,0 +1,527 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * A bounded pool of connected and authenticated SMTP transports, keyed by {@link SmtpEndpoint}.
+ * <p>
+ * Opening an SMTP connection requires a TCP handshake, EHLO, possibly STARTTLS and AUTH. Keeping
+ * connections open between sends avoids paying this price for each message. Idle connections
+ * are closed once they exceed the configured idle time, connections are recycled once they exceed
+ * the configured maximum age, and connections that have been idle for a while are checked with
+ * a NOOP command before being handed out again.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpTransportPool implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 4;
+
+    public static final long DEFAULT_MAX_IDLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    public static final long DEFAULT_VALIDATE_AFTER_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final class LazyHolder {
+
+        private static final SmtpTransportPool INSTANCE = new SmtpTransportPool(DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT,
+                                                                                DEFAULT_MAX_IDLE_TIME_MILLIS,
+                                                                                DEFAULT_MAX_AGE_MILLIS,
+                                                                                DEFAULT_VALIDATE_AFTER_IDLE_MILLIS,
+                                                                                DEFAULT_BORROW_TIMEOUT_MILLIS);
+
+    }
+
+    /**
+     * Creates a new transport for an endpoint. The transport is connected by the pool.
+     */
+    @FunctionalInterface
+    public interface TransportFactory {
+
+        Transport create() throws MessagingException;
+
+    }
+
+    /**
+     * An operation to perform with a connected transport borrowed from the pool.
+     */
+    @FunctionalInterface
+    public interface TransportCallback<T> {
+
+        T doWithTransport(Transport transport) throws MessagingException;
+
+    }
+
+    private final ConcurrentMap<SmtpEndpoint, Partition> partitions = new ConcurrentHashMap<>();
+
+    private final int maxConnectionsPerEndpoint;
+
+    private final long maxIdleTimeNanos;
+
+    private final long maxAgeNanos;
+
+    private final long validateAfterIdleNanos;
+
+    private final long borrowTimeoutMillis;
+
+    private final Ticker ticker;
+
+    private final LongAdder createdCount = new LongAdder();
+
+    private final LongAdder reusedCount = new LongAdder();
+
+    private volatile ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    public SmtpTransportPool(int maxConnectionsPerEndpoint, long maxIdleTimeMillis, long maxAgeMillis,
+            long validateAfterIdleMillis, long borrowTimeoutMillis) {
+        this(maxConnectionsPerEndpoint,
+             maxIdleTimeMillis,
+             maxAgeMillis,
+             validateAfterIdleMillis,
+             borrowTimeoutMillis,
+             Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    SmtpTransportPool(int maxConnectionsPerEndpoint, long maxIdleTimeMillis, long maxAgeMillis,
+            long validateAfterIdleMillis, long borrowTimeoutMillis, Ticker ticker) {
+        if (maxConnectionsPerEndpoint <= 0) {
+            throw new IllegalArgumentException("maxConnectionsPerEndpoint must be positive: " +
+                                               maxConnectionsPerEndpoint);
+        }
+
+        this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+        this.maxIdleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleTimeMillis);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.validateAfterIdleNanos = TimeUnit.MILLISECONDS.toNanos(validateAfterIdleMillis);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Returns the JVM-wide pool, configured with default settings.
+     *
+     * @return the JVM-wide pool.
+     */
+    public static SmtpTransportPool getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    /**
+     * Runs the specified callback with a connected transport for the given endpoint. The transport
+     * is returned to the pool once the callback completes normally or fails because the message
+     * has been rejected. It is discarded otherwise.
+     * <p>
+     * If a reused transport fails because the server closed the connection in the meantime, the
+     * callback is run one more time with a freshly opened transport.
+     *
+     * @param endpoint the endpoint to connect to.
+     * @param factory the factory used to create a transport when none is available.
+     * @param callback the operation to perform.
+     * @return the value returned by the callback.
+     * @throws MessagingException if the transport cannot be opened or the callback fails.
+     */
+    public <T> T execute(SmtpEndpoint endpoint, TransportFactory factory, TransportCallback<T> callback)
+            throws MessagingException {
+        return execute(endpoint, factory, callback, durationNanos -> {
+        });
+    }
+
+    /**
+     * Runs the specified callback like {@link #execute(SmtpEndpoint, TransportFactory, TransportCallback)},
+     * reporting the time taken to open each new connection, for instance to the metrics of the sender.
+     *
+     * @param endpoint the endpoint to connect to.
+     * @param factory the factory used to create a transport when none is available.
+     * @param callback the operation to perform.
+     * @param connectListener notified of the time, in nanoseconds, taken to connect each new transport.
+     * @return the value returned by the callback.
+     * @throws MessagingException if the transport cannot be opened or the callback fails.
+     */
+    public <T> T execute(SmtpEndpoint endpoint, TransportFactory factory, TransportCallback<T> callback,
+            LongConsumer connectListener) throws MessagingException {
+        Partition partition = getPartition(endpoint);
+
+        PooledTransport pooled = partition.borrow(factory, connectListener);
+        try {
+            T result = callback.doWithTransport(pooled.transport);
+            partition.release(pooled);
+            return result;
+        } catch (MessagingException e) {
+            if (e instanceof SendFailedException) {
+                partition.release(pooled);
+                throw e;
+            }
+
+            partition.invalidate(pooled);
+
+            // running the callback again would send the message twice to the recipients that have accepted it
+            if (!pooled.reused || e instanceof PartialDeliveryException) {
+                throw e;
+            }
+        } catch (RuntimeException | Error e) {
+            partition.invalidate(pooled);
+            throw e;
+        }
+
+        // the connection has probably been dropped by the server while idle, retry once with a new one
+        pooled = partition.borrowNew(factory, connectListener);
+        try {
+            T result = callback.doWithTransport(pooled.transport);
+            partition.release(pooled);
+            return result;
+        } catch (SendFailedException e) {
+            partition.release(pooled);
+            throw e;
+        } catch (MessagingException | RuntimeException | Error e) {
+            partition.invalidate(pooled);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes idle transports that exceed the maximum idle time or the maximum age.
+     */
+    public void evictExpired() {
+        for (Partition partition : partitions.values()) {
+            partition.evictExpired();
+        }
+    }
+
+    /**
+     * Returns the number of transports that are currently idle in the pool for the given endpoint.
+     *
+     * @param endpoint the endpoint to consider.
+     * @return the number of idle transports.
+     */
+    public int getIdleCount(SmtpEndpoint endpoint) {
+        Partition partition = partitions.get(endpoint);
+        return partition == null ? 0 : partition.idleCount();
+    }
+
+    /**
+     * Returns the number of transports that are currently borrowed for the given endpoint.
+     *
+     * @param endpoint the endpoint to consider.
+     * @return the number of borrowed transports.
+     */
+    public int getActiveCount(SmtpEndpoint endpoint) {
+        Partition partition = partitions.get(endpoint);
+        return partition == null ? 0 : maxConnectionsPerEndpoint - partition.permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of transports that are currently idle in the pool, for all endpoints.
+     *
+     * @return the number of idle transports.
+     */
+    public int getIdleCount() {
+        int count = 0;
+        for (Partition partition : partitions.values()) {
+            count += partition.idleCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of transports that are currently borrowed, for all endpoints.
+     *
+     * @return the number of borrowed transports.
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for (Partition partition : partitions.values()) {
+            count += maxConnectionsPerEndpoint - partition.permits.availablePermits();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of transports opened by the pool since it was created.
+     *
+     * @return the number of connections opened.
+     */
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    /**
+     * Returns the number of times an idle transport has been reused instead of opening a new connection.
+     *
+     * @return the number of connections reused.
+     */
+    public long getReusedCount() {
+        return reusedCount.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        ScheduledExecutorService executor = evictor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+
+        for (Partition partition : partitions.values()) {
+            partition.closeIdle();
+        }
+    }
+
+    private Partition getPartition(SmtpEndpoint endpoint) {
+        if (closed) {
+            throw new EmailException("The SMTP transport pool is closed");
+        }
+
+        Partition partition = partitions.get(endpoint);
+        if (partition == null) {
+            partition = partitions.computeIfAbsent(endpoint, key -> new Partition());
+            startEvictorIfNeeded();
+        }
+        return partition;
+    }
+
+    private void startEvictorIfNeeded() {
+        if (evictor == null && maxIdleTimeNanos > 0) {
+            synchronized (this) {
+                if (evictor == null && !closed) {
+                    ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                            .setNameFormat("smtp-pool-evictor-%d")
+                                                                            .build();
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+                    long period = Math.max(TimeUnit.NANOSECONDS.toMillis(maxIdleTimeNanos) / 2, 1);
+                    executor.scheduleWithFixedDelay(this::evictExpired, period, period, TimeUnit.MILLISECONDS);
+                    evictor = executor;
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException | RuntimeException e) {
+            // the connection is discarded anyway
+        }
+    }
+
+    private static final class PooledTransport {
+
+        private final Transport transport;
+
+        private final long createdAt;
+
+        private long lastUsedAt;
+
+        private boolean reused;
+
+        private PooledTransport(Transport transport, long now) {
+            this.transport = transport;
+            this.createdAt = now;
+            this.lastUsedAt = now;
+        }
+
+    }
+
+    private final class Partition {
+
+        private final Deque<PooledTransport> idle = new ArrayDeque<>();
+
+        private final Semaphore permits = new Semaphore(maxConnectionsPerEndpoint, true);
+
+        private PooledTransport borrow(TransportFactory factory, LongConsumer connectListener)
+                throws MessagingException {
+            acquirePermit();
+
+            try {
+                PooledTransport pooled;
+                while ((pooled = pollIdle()) != null) {
+                    if (isValid(pooled)) {
+                        pooled.reused = true;
+                        reusedCount.increment();
+                        return pooled;
+                    }
+                    closeQuietly(pooled.transport);
+                }
+
+                return open(factory, connectListener);
+            } catch (MessagingException | RuntimeException | Error e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private PooledTransport borrowNew(TransportFactory factory, LongConsumer connectListener)
+                throws MessagingException {
+            acquirePermit();
+
+            try {
+                return open(factory, connectListener);
+            } catch (MessagingException | RuntimeException | Error e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void release(PooledTransport pooled) {
+            long now = ticker.read();
+            pooled.lastUsedAt = now;
+
+            boolean keep = !closed && !isExpired(pooled, now);
+            if (keep) {
+                synchronized (this) {
+                    idle.addFirst(pooled);
+                }
+            }
+            permits.release();
+
+            if (!keep) {
+                closeQuietly(pooled.transport);
+            }
+        }
+
+        private void invalidate(PooledTransport pooled) {
+            permits.release();
+            closeQuietly(pooled.transport);
+        }
+
+        private void evictExpired() {
+            long now = ticker.read();
+            List<PooledTransport> evicted = new ArrayList<>();
+
+            synchronized (this) {
+                Iterator<PooledTransport> iterator = idle.iterator();
+                while (iterator.hasNext()) {
+                    PooledTransport pooled = iterator.next();
+                    if (isExpired(pooled, now) || isIdleTooLong(pooled, now)) {
+                        iterator.remove();
+                        evicted.add(pooled);
+                    }
+                }
+            }
+
+            evicted.forEach(pooled -> closeQuietly(pooled.transport));
+        }
+
+        private void closeIdle() {
+            List<PooledTransport> evicted;
+            synchronized (this) {
+                evicted = new ArrayList<>(idle);
+                idle.clear();
+            }
+
+            evicted.forEach(pooled -> closeQuietly(pooled.transport));
+        }
+
+        private synchronized int idleCount() {
+            return idle.size();
+        }
+
+        private synchronized PooledTransport pollIdle() {
+            return idle.pollFirst();
+        }
+
+        private void acquirePermit() {
+            try {
+                if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new EmailException("Timeout waiting for an SMTP connection after " + borrowTimeoutMillis +
+                                             " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EmailException("Interrupted while waiting for an SMTP connection", e);
+            }
+        }
+
+        private PooledTransport open(TransportFactory factory, LongConsumer connectListener)
+                throws MessagingException {
+            Transport transport = factory.create();
+            long connectStart = System.nanoTime();
+            try {
+                transport.connect();
+            } catch (MessagingException | RuntimeException e) {
+                // the socket may have been opened before STARTTLS or AUTH failed
+                closeQuietly(transport);
+                throw e;
+            }
+            connectListener.accept(System.nanoTime() - connectStart);
+            createdCount.increment();
+            return new PooledTransport(transport, ticker.read());
+        }
+
+        private boolean isValid(PooledTransport pooled) {
+            long now = ticker.read();
+
+            if (isExpired(pooled, now) || isIdleTooLong(pooled, now)) {
+                return false;
+            }
+
+            // isConnected() issues a NOOP command on SMTP transports
+            return now - pooled.lastUsedAt < validateAfterIdleNanos || pooled.transport.isConnected();
+        }
+
+        private boolean isExpired(PooledTransport pooled, long now) {
+            return maxAgeNanos > 0 && now - pooled.createdAt >= maxAgeNanos;
+        }
+
+        private boolean isIdleTooLong(PooledTransport pooled, long now) {
+            return maxIdleTimeNanos > 0 && now - pooled.lastUsedAt >= maxIdleTimeNanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.testing.FakeSmtpServer;
+import org.ow2.proactive.addons.email.testing.ReceivedMessage;
+
+
+/**
+ * Unit tests related to {@link DigestAggregator}.
+ *
+ * @author ActiveEon Team
+ */
+public class DigestAggregatorTest {
+
+    private FakeSmtpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testMessagesAreMergedOnceTheWindowHasElapsed() throws InterruptedException {
+        List<DeliveryOutcome> outcomes = new CopyOnWriteArrayList<>();
+        // the notifications of the different tasks share a digest
+        DigestAggregator.Builder builder = new DigestAggregator.Builder();
+        builder.setWindow(Duration.ofMillis(200))
+               .setSubjectKey(subject -> subject.replaceAll("\\d+", "#"))
+               .setListener(outcomes::add);
+        try (DigestAggregator aggregator = builder.build()) {
+            for (int i = 1; i <= 3; i++) {
+                aggregator.add(createSender("to@company.com", "Task " + i + " finished", "Result " + i));
+            }
+            assertThat(aggregator.getPendingCount()).isEqualTo(3);
+
+            assertThat(server.awaitMessages(1, 10, TimeUnit.SECONDS)).isTrue();
+            assertThat(aggregator.getPendingCount()).isEqualTo(0);
+            assertThat(aggregator.getReceivedCount()).isEqualTo(3);
+        }
+
+        assertThat(server.getMessageCount()).isEqualTo(1);
+        assertThat(outcomes).hasSize(1);
+        assertThat(outcomes.get(0).isSuccess()).isTrue();
+
+        String content = server.getReceivedMessages().get(0).getContentAsString();
+        assertThat(content).contains("Subject: Task 1 finished (+2 more)");
+        assertThat(content).contains("3 notifications have been grouped into this message.");
+        for (int i = 1; i <= 3; i++) {
+            assertThat(content).contains("--- Task " + i + " finished");
+            assertThat(content).contains("Result " + i);
+        }
+    }
+
+    @Test
+    public void testMessagesToOtherRecipientsAreNotMerged() {
+        try (DigestAggregator aggregator = new DigestAggregator.Builder().build()) {
+            aggregator.add(createSender("a@company.com", "Job finished", "1"));
+            aggregator.add(createSender("b@company.com", "Job finished", "2"));
+            aggregator.add(createSender("A@company.com", "Job finished", "3"));
+            aggregator.add(createSender("a@company.com", "Job failed", "4"));
+
+            List<DeliveryOutcome> outcomes = aggregator.flush();
+
+            assertThat(outcomes).hasSize(3);
+            assertThat(aggregator.getSentCount()).isEqualTo(3);
+        }
+
+        List<ReceivedMessage> messages = server.getReceivedMessages();
+        assertThat(messages).hasSize(3);
+        assertThat(messages.get(0).getContentAsString()).contains("Subject: Job finished (+1 more)");
+        // a single message is sent unchanged
+        assertThat(messages.get(1).getContentAsString()).contains("Subject: Job finished\r\n");
+        assertThat(messages.get(2).getContentAsString()).contains("Subject: Job failed\r\n");
+    }
+
+    @Test
+    public void testFullDigestIsSentWithoutWaitingForTheWindow() throws InterruptedException {
+        try (DigestAggregator aggregator = new DigestAggregator.Builder().setWindow(Duration.ofHours(1))
+                                                                         .setMaxMessagesPerDigest(2)
+                                                                         .build()) {
+            aggregator.add(createSender("to@company.com", "Job finished", "1"));
+            aggregator.add(createSender("to@company.com", "Job finished", "2"));
+            aggregator.add(createSender("to@company.com", "Job finished", "3"));
+
+            assertThat(server.awaitMessages(1, 10, TimeUnit.SECONDS)).isTrue();
+            assertThat(aggregator.getPendingCount()).isEqualTo(1);
+        }
+
+        // the last message is sent on close
+        assertThat(server.getMessageCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testOldestGroupIsSentWhenTooManyMessagesArePending() throws InterruptedException {
+        try (DigestAggregator aggregator = new DigestAggregator.Builder().setWindow(Duration.ofHours(1))
+                                                                         .setMaxPendingMessages(2)
+                                                                         .build()) {
+            aggregator.add(createSender("a@company.com", "Job finished", "1"));
+            aggregator.add(createSender("b@company.com", "Job finished", "2"));
+            aggregator.add(createSender("c@company.com", "Job finished", "3"));
+
+            assertThat(aggregator.getPendingCount()).isEqualTo(2);
+            assertThat(server.awaitMessages(1, 10, TimeUnit.SECONDS)).isTrue();
+            assertThat(server.getReceivedMessages().get(0).getRecipients()).containsExactly("a@company.com");
+        }
+    }
+
+    @Test
+    public void testMessagesWaitingForTheFlusherAreBounded() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> senderThreads = new CopyOnWriteArrayList<>();
+        DigestAggregator.Builder builder = new DigestAggregator.Builder();
+        builder.setWindow(Duration.ofHours(1))
+               .setMaxMessagesPerDigest(1)
+               .setMaxPendingMessages(2)
+               .setListener(outcome -> {
+                   senderThreads.add(Thread.currentThread().getName());
+                   // the flusher is kept busy with the first message
+                   if (Thread.currentThread().getName().startsWith("email-digest-flusher")) {
+                       awaitQuietly(release);
+                   }
+               });
+
+        try (DigestAggregator aggregator = builder.build()) {
+            aggregator.add(createSender("a@company.com", "Job finished", "1"));
+            assertThat(server.awaitMessages(1, 10, TimeUnit.SECONDS)).isTrue();
+            aggregator.add(createSender("b@company.com", "Job finished", "2"));
+            aggregator.add(createSender("c@company.com", "Job finished", "3"));
+
+            // the flusher is blocked with a message still queued, the last message is sent by the caller
+            assertThat(server.getMessageCount()).isEqualTo(2);
+            assertThat(server.getReceivedMessages().get(1).getRecipients()).containsExactly("c@company.com");
+            assertThat(senderThreads).contains(Thread.currentThread().getName());
+
+            release.countDown();
+        }
+
+        assertThat(server.getMessageCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testFailingListenerDoesNotPreventOtherGroupsFromBeingSent() {
+        DigestAggregator.Builder builder = new DigestAggregator.Builder();
+        builder.setListener(outcome -> {
+            throw new IllegalStateException("listener failure");
+        });
+
+        try (DigestAggregator aggregator = builder.build()) {
+            aggregator.add(createSender("a@company.com", "Job finished", "1"));
+            aggregator.add(createSender("b@company.com", "Job finished", "2"));
+
+            assertThat(aggregator.flush()).hasSize(2);
+        }
+
+        assertThat(server.getMessageCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testPendingMessagesAreSentOnClose() {
+        DigestAggregator aggregator = new DigestAggregator.Builder().setWindow(Duration.ofHours(1)).build();
+        aggregator.add(createSender("to@company.com", "Job finished", "1"));
+        aggregator.add(createSender("to@company.com", "Job finished", "2"));
+
+        aggregator.close();
+
+        assertThat(server.getMessageCount()).isEqualTo(1);
+        try {
+            aggregator.add(createSender("to@company.com", "Job finished", "3"));
+            throw new AssertionError("The aggregator should be closed");
+        } catch (EmailException e) {
+            assertThat(e.getMessage()).contains("closed");
+        }
+    }
+
+    @Test
+    public void testFailuresAreReported() throws IOException {
+        server.close();
+
+        try (DigestAggregator aggregator = new DigestAggregator.Builder().build()) {
+            aggregator.add(createSender("to@company.com", "Job finished", "1"));
+
+            List<DeliveryOutcome> outcomes = aggregator.flush();
+
+            assertThat(outcomes.get(0).isSuccess()).isFalse();
+            assertThat(aggregator.getFailedCount()).isEqualTo(1);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private EmailSender createSender(String recipient, String subject, String body) {
+        return new EmailSender.Builder().setHost("localhost")
+                                        .setPort(server.getPort())
+                                        .setAuth(false)
+                                        .setFrom("scheduler@company.com")
+                                        .addRecipient(recipient)
+                                        .setSubject(subject)
+                                        .setBody(body)
+                                        .build();
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.metrics.SmtpMetrics;
+import org.ow2.proactive.addons.email.mx.MxRecord;
+import org.ow2.proactive.addons.email.mx.StaticMxResolver;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.retry.RetryPolicy;
+import org.ow2.proactive.addons.email.testing.FakeSmtpServer;
+import org.ow2.proactive.addons.email.testing.ReceivedMessage;
+import org.ow2.proactive.addons.email.transport.PartialDeliveryException;
+import org.ow2.proactive.addons.email.transport.RecipientReport;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
+
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Unit tests related to {@link DirectDelivery}.
+ *
+ * @author ActiveEon Team
+ */
+public class DirectDeliveryTest {
+
+    private static final Pattern MESSAGE_ID = Pattern.compile("Message-ID: (\\S+)", Pattern.CASE_INSENSITIVE);
+
+    private FakeSmtpServer companyServer;
+
+    private FakeSmtpServer partnerServer;
+
+    private SmtpTransportPool pool;
+
+    private StaticMxResolver resolver;
+
+    @Before
+    public void setUp() throws IOException {
+        companyServer = new FakeSmtpServer.Builder().build();
+        partnerServer = new FakeSmtpServer.Builder().build();
+        pool = new SmtpTransportPool(2,
+                                     SmtpTransportPool.DEFAULT_MAX_IDLE_TIME_MILLIS,
+                                     SmtpTransportPool.DEFAULT_MAX_AGE_MILLIS,
+                                     SmtpTransportPool.DEFAULT_VALIDATE_AFTER_IDLE_MILLIS,
+                                     SmtpTransportPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+        resolver = new StaticMxResolver().add("company.com", new MxRecord("localhost", companyServer.getPort(), 10))
+                                         .add("partner.org", new MxRecord("localhost", partnerServer.getPort(), 10));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.close();
+        companyServer.close();
+        partnerServer.close();
+    }
+
+    @Test
+    public void testRecipientsAreGroupedByDomain() {
+        SendResult result = createBuilder().addRecipient("to@company.com")
+                                           .addCc("cc@Partner.org")
+                                           .addBcc("bcc@company.com")
+                                           .build()
+                                           .sendPlainTextEmailAsync()
+                                           .join();
+
+        assertThat(result.getRecipientReport().isComplete()).isTrue();
+        assertThat(result.getRecipientReport().getAcceptedRecipients()).containsExactly("to@company.com",
+                                                                                        "bcc@company.com",
+                                                                                        "cc@Partner.org");
+
+        assertThat(companyServer.getMessageCount()).isEqualTo(1);
+        assertThat(partnerServer.getMessageCount()).isEqualTo(1);
+        ReceivedMessage companyMessage = companyServer.getReceivedMessages().get(0);
+        ReceivedMessage partnerMessage = partnerServer.getReceivedMessages().get(0);
+        assertThat(companyMessage.getRecipients()).containsExactly("to@company.com", "bcc@company.com").inOrder();
+        assertThat(partnerMessage.getRecipients()).containsExactly("cc@Partner.org");
+
+        // both domains receive the same message, without the BCC recipients
+        assertThat(messageId(companyMessage)).isEqualTo(result.getMessageId());
+        assertThat(messageId(partnerMessage)).isEqualTo(result.getMessageId());
+        assertThat(partnerMessage.getContentAsString()).contains("Cc: cc@Partner.org");
+        assertThat(partnerMessage.getContentAsString()).doesNotContain("bcc@company.com");
+        assertThat(partnerMessage.getContentAsString()).contains("The job has finished.");
+    }
+
+    @Test
+    public void testConnectionsArePooledPerExchanger() {
+        EmailSender emailSender = createBuilder().addRecipient("to@company.com").addCc("cc@partner.org").build();
+
+        emailSender.sendPlainTextEmail();
+        emailSender.sendPlainTextEmail();
+
+        assertThat(companyServer.getMessageCount()).isEqualTo(2);
+        assertThat(companyServer.getConnectionCount()).isEqualTo(1);
+        assertThat(partnerServer.getConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDomainsDoNotWaitForTheThreadOfTheSend() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SendResult result = createBuilder().addRecipient("to@company.com")
+                                               .addCc("cc@partner.org")
+                                               .setExecutor(executor)
+                                               .build()
+                                               .sendPlainTextEmailAsync()
+                                               .get(10, TimeUnit.SECONDS);
+
+            assertThat(result.getRecipientReport().getAcceptedRecipients()).containsExactly("to@company.com",
+                                                                                            "cc@partner.org");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConnectTimeIsRecordedPerExchanger() {
+        SmtpMetrics metrics = new SmtpMetrics();
+        EmailSender emailSender = createBuilder().addRecipient("to@company.com")
+                                                 .addCc("cc@partner.org")
+                                                 .setMetrics(metrics)
+                                                 .build();
+
+        emailSender.sendPlainTextEmail();
+        emailSender.sendPlainTextEmail();
+
+        assertThat(metrics.getConnectTime().getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRateLimitAppliesToEachExchanger() {
+        // each domain is served by an exchanger of its own
+        StaticMxResolver distinctExchangers = new StaticMxResolver()
+                .add("company.com", new MxRecord("localhost", companyServer.getPort(), 10))
+                .add("partner.org", new MxRecord("127.0.0.1", partnerServer.getPort(), 10));
+        ImmutableMap<String, String> options = ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_HOST,
+                                                               "relay.invalid",
+                                                               SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT,
+                                                               "0");
+        // a sender of its own, so that the permits of the other tests are not shared
+        EmailSender.Builder builder = new EmailSender.Builder(options).setAuth(false)
+                                                                      .setConnectionPool(pool)
+                                                                      .setMxResolver(distinctExchangers)
+                                                                      .setFrom("rate-limited@company.com")
+                                                                      .setSenderRateLimit(1)
+                                                                      .setSubject("Workflow finished");
+
+        builder.addRecipient("to@company.com").build().sendPlainTextEmail();
+        builder.setRecipients(Collections.singletonList("to@partner.org")).build().sendPlainTextEmail();
+        try {
+            builder.build().sendPlainTextEmail();
+            fail("The third message should exceed the rate limit of the exchanger");
+        } catch (EmailException e) {
+            assertThat(e.getMessage()).contains("127.0.0.1");
+        }
+
+        assertThat(companyServer.getMessageCount()).isEqualTo(1);
+        assertThat(partnerServer.getMessageCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testLessPreferredExchangerIsUsedWhenTheFirstIsUnreachable() throws IOException {
+        resolver.add("backup.net", new MxRecord("localhost", partnerServer.getPort(), 20))
+                .add("backup.net", new MxRecord("localhost", getUnusedPort(), 10));
+
+        createBuilder().addRecipient("to@backup.net").build().sendPlainTextEmail();
+
+        assertThat(partnerServer.getReceivedMessages().get(0).getRecipients()).containsExactly("to@backup.net");
+    }
+
+    @Test
+    public void testUnreachableDomainIsReportedAsRejected() {
+        resolver.addNullMx("nomail.net");
+
+        RecipientReport report = createBuilder().addRecipient("to@company.com")
+                                                .addCc("cc@unknown.net")
+                                                .addCc("cc@nomail.net")
+                                                .build()
+                                                .sendPlainTextEmailAsync()
+                                                .join()
+                                                .getRecipientReport();
+
+        assertThat(report.getAcceptedRecipients()).containsExactly("to@company.com");
+        assertThat(report.getRejectedRecipients().get("cc@unknown.net")).isEqualTo("Unknown domain: unknown.net");
+        assertThat(report.getRejectedRecipients().get("cc@nomail.net")).contains("does not accept mail");
+    }
+
+    @Test
+    public void testRejectedRecipientsOfADomain() {
+        partnerServer.injectReply("RCPT", "550 5.1.1 No such user", 1);
+
+        RecipientReport report = createBuilder().addRecipient("to@company.com")
+                                                .addCc("cc@partner.org")
+                                                .build()
+                                                .sendPlainTextEmailAsync()
+                                                .join()
+                                                .getRecipientReport();
+
+        assertThat(report.getAcceptedRecipients()).containsExactly("to@company.com");
+        assertThat(report.getRejectedRecipients().get("cc@partner.org")).contains("550");
+    }
+
+    @Test
+    public void testTransientFailureOfADomainIsReported() {
+        partnerServer.injectReply(FakeSmtpServer.END_OF_DATA, "451 4.3.0 Try again later", 1);
+
+        try {
+            createBuilder().addRecipient("to@company.com").addCc("cc@partner.org").build().sendPlainTextEmail();
+            fail("The message has not been delivered to partner.org");
+        } catch (EmailException e) {
+            PartialDeliveryException partial = PartialDeliveryException.find(e);
+            assertThat(partial).isNotNull();
+            assertThat(partial.getReport().getAcceptedRecipients()).containsExactly("to@company.com");
+            assertThat(partial.getUnsentAddresses()).hasLength(1);
+            assertThat(partial.getUnsentAddresses()[0].toString()).isEqualTo("cc@partner.org");
+        }
+    }
+
+    @Test
+    public void testOnlyTheDomainThatFailedIsRetried() {
+        partnerServer.injectReply(FakeSmtpServer.END_OF_DATA, "451 4.3.0 Try again later", 1);
+        RetryPolicy retryPolicy = new RetryPolicy.Builder().setMaxAttempts(2)
+                                                           .setBackoff(Duration.ofMillis(1), Duration.ofMillis(1))
+                                                           .build();
+
+        RecipientReport report = createBuilder().addRecipient("to@company.com")
+                                                .addCc("cc@partner.org")
+                                                .setRetryPolicy(retryPolicy)
+                                                .build()
+                                                .sendPlainTextEmailAsync()
+                                                .join()
+                                                .getRecipientReport();
+
+        assertThat(report.getAcceptedRecipients()).containsExactly("to@company.com", "cc@partner.org").inOrder();
+        assertThat(companyServer.getMessageCount()).isEqualTo(1);
+        assertThat(partnerServer.getMessageCount()).isEqualTo(1);
+    }
+
+    @Test(expected = EmailException.class)
+    public void testNoDomainReachable() {
+        createBuilder().addRecipient("to@unknown.net").build().sendPlainTextEmail();
+    }
+
+    private EmailSender.Builder createBuilder() {
+        return new EmailSender.Builder().setHost("relay.invalid")
+                                        .setAuth(false)
+                                        .setConnectionPool(pool)
+                                        .setMxResolver(resolver)
+                                        .setFrom("from@company.com")
+                                        .setSubject("Workflow finished")
+                                        .setBody("The job has finished.");
+    }
+
+    private static String messageId(ReceivedMessage message) {
+        Matcher matcher = MESSAGE_ID.matcher(message.getContentAsString());
+        assertThat(matcher.find()).isTrue();
+        return matcher.group(1);
+    }
+
+    private static int getUnusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.metrics.SmtpMetrics;
+import org.ow2.proactive.addons.email.outbox.Outbox;
+
+import com.google.common.collect.ImmutableList;
+
+
+/**
+ * Unit tests related to {@link EmailBatch}.
+ *
+ * @author ActiveEon Team
+ */
+public class EmailBatchTest {
+
+    private List<Transport> transports;
+
+    @Before
+    public void setUp() {
+        transports = new ArrayList<>();
+    }
+
+    @Test
+    public void testMessagesToSameServerShareConnection() throws MessagingException {
+        List<DeliveryOutcome> outcomes = newBatch(10).sendAll(ImmutableList.of(newSender("host1", "a@company.com"),
+                                                                                newSender("host2", "b@company.com"),
+                                                                                newSender("host1", "c@company.com")));
+
+        assertThat(transports).hasSize(2);
+        verify(transports.get(0), times(2)).sendMessage(any(Message.class), any(Address[].class));
+        verify(transports.get(1), times(1)).sendMessage(any(Message.class), any(Address[].class));
+        verify(transports.get(0)).close();
+        verify(transports.get(1)).close();
+
+        assertThat(outcomes).hasSize(3);
+        for (DeliveryOutcome outcome : outcomes) {
+            assertThat(outcome.isSuccess()).isTrue();
+            assertThat(outcome.getResult().getMessageId()).isNotNull();
+        }
+    }
+
+    @Test
+    public void testOutcomesFollowInputOrder() {
+        EmailSender first = newSender("host1", "a@company.com");
+        EmailSender second = newSender("host2", "b@company.com");
+        EmailSender third = newSender("host1", "c@company.com");
+
+        List<DeliveryOutcome> outcomes = newBatch(10).sendAll(ImmutableList.of(first, second, third));
+
+        assertThat(outcomes.get(0).getSender()).isSameAs(first);
+        assertThat(outcomes.get(1).getSender()).isSameAs(second);
+        assertThat(outcomes.get(2).getSender()).isSameAs(third);
+    }
+
+    @Test
+    public void testConnectionIsReopenedAfterMaxMessages() {
+        newBatch(2).sendAll(ImmutableList.of(newSender("host", "a@company.com"),
+                                             newSender("host", "b@company.com"),
+                                             newSender("host", "c@company.com")));
+
+        assertThat(transports).hasSize(2);
+    }
+
+    @Test
+    public void testConnectTimeIsRecorded() {
+        SmtpMetrics metrics = new SmtpMetrics();
+        List<EmailSender> senders = ImmutableList.of(newSender("host1", "a@company.com"),
+                                                     newSender("host2", "b@company.com"),
+                                                     newSender("host1", "c@company.com"));
+        senders.forEach(sender -> sender.metrics = metrics);
+
+        newBatch(10).sendAll(senders);
+
+        assertThat(metrics.getConnectTime().getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testConnectionIsReopenedWhenDropped() throws MessagingException {
+        EmailBatch batch = new EmailBatch(10) {
+            @Override
+            protected Transport newTransport(Session session) throws MessagingException {
+                Transport transport = EmailBatchTest.this.newTransport();
+                if (transports.size() == 1) {
+                    doThrow(new MessagingException("connection reset")).when(transport)
+                                                                       .sendMessage(any(Message.class),
+                                                                                    any(Address[].class));
+                }
+                return transport;
+            }
+        };
+
+        List<DeliveryOutcome> outcomes = batch.sendAll(ImmutableList.of(newSender("host", "a@company.com"),
+                                                                        newSender("host", "b@company.com")));
+
+        assertThat(transports).hasSize(2);
+        assertThat(outcomes.get(0).isSuccess()).isTrue();
+        assertThat(outcomes.get(1).isSuccess()).isTrue();
+        verify(transports.get(0)).close();
+        verify(transports.get(1), times(2)).sendMessage(any(Message.class), any(Address[].class));
+    }
+
+    @Test
+    public void testConnectionIsReopenedWhenResetFails() {
+        EmailBatch batch = new EmailBatch(10) {
+            @Override
+            protected Transport newTransport(Session session) throws MessagingException {
+                Transport transport = EmailBatchTest.this.newTransport();
+                when(transport.isConnected()).thenReturn(transports.size() > 1);
+                return transport;
+            }
+        };
+
+        batch.sendAll(ImmutableList.of(newSender("host", "a@company.com"),
+                                       newSender("host", "b@company.com"),
+                                       newSender("host", "c@company.com")));
+
+        assertThat(transports).hasSize(2);
+    }
+
+    @Test
+    public void testRejectedMessageDoesNotStopBatch() throws MessagingException {
+        EmailBatch batch = new EmailBatch(10) {
+            @Override
+            protected Transport newTransport(Session session) throws MessagingException {
+                Transport transport = EmailBatchTest.this.newTransport();
+                doThrow(new SendFailedException("rejected")).doNothing()
+                                                             .when(transport)
+                                                             .sendMessage(any(Message.class), any(Address[].class));
+                return transport;
+            }
+        };
+
+        List<DeliveryOutcome> outcomes = batch.sendAll(ImmutableList.of(newSender("host", "a@company.com"),
+                                                                        newSender("host", "b@company.com")));
+
+        assertThat(transports).hasSize(1);
+        assertThat(outcomes.get(0).isSuccess()).isFalse();
+        assertThat(outcomes.get(0).getError().getCause()).isInstanceOf(SendFailedException.class);
+        assertThat(outcomes.get(1).isSuccess()).isTrue();
+    }
+
+    @Test
+    public void testConnectFailureIsReported() throws MessagingException {
+        EmailBatch batch = new EmailBatch(10) {
+            @Override
+            protected Transport newTransport(Session session) throws MessagingException {
+                Transport transport = EmailBatchTest.this.newTransport();
+                doThrow(new MessagingException("unreachable")).when(transport).connect();
+                return transport;
+            }
+        };
+
+        List<DeliveryOutcome> outcomes = batch.sendAll(ImmutableList.of(newSender("host", "a@company.com")));
+
+        assertThat(outcomes.get(0).isSuccess()).isFalse();
+        verify(transports.get(0), never()).sendMessage(any(Message.class), any(Address[].class));
+    }
+
+    @Test
+    public void testSendersUsingRelaysAreRejected() {
+        Properties properties = new Properties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_RELAYS, "smtp1.company.com,smtp2.company.com");
+        EmailSender relayed = new EmailSender(properties,
+                                              ImmutableList.of(),
+                                              ImmutableList.of(),
+                                              ImmutableList.of("b@company.com"),
+                                              "body",
+                                              "from@company.com",
+                                              "subject",
+                                              null,
+                                              "file_name");
+
+        try {
+            newBatch(10).sendAll(ImmutableList.of(newSender("host", "a@company.com"), relayed));
+            fail("The relayed message should have been rejected");
+        } catch (InvalidArgumentException e) {
+            assertThat(transports).isEmpty();
+        }
+    }
+
+    @Test
+    public void testSendersUsingAnOutboxAreRejected() {
+        EmailSender sender = newSender("host", "a@company.com");
+        sender.fallbackOutbox = mock(Outbox.class);
+
+        try {
+            newBatch(10).sendAll(ImmutableList.of(sender));
+            fail("The message should have been rejected");
+        } catch (InvalidArgumentException e) {
+            assertThat(transports).isEmpty();
+        }
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMaxMessagesPerConnectionMustBePositive() {
+        new EmailBatch(0);
+    }
+
+    private EmailBatch newBatch(int maxMessagesPerConnection) {
+        return new EmailBatch(maxMessagesPerConnection) {
+            @Override
+            protected Transport newTransport(Session session) {
+                return EmailBatchTest.this.newTransport();
+            }
+        };
+    }
+
+    private Transport newTransport() {
+        Transport transport = mock(Transport.class);
+        when(transport.isConnected()).thenReturn(true);
+        transports.add(transport);
+        return transport;
+    }
+
+    private static EmailSender newSender(String host, String recipient) {
+        Properties properties = new Properties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, host);
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, 25);
+
+        return new EmailSender(properties,
+                               ImmutableList.of(),
+                               ImmutableList.of(),
+                               ImmutableList.of(recipient),
+                               "body",
+                               "from@company.com",
+                               "subject",
+                               null,
+                               "file_name");
+    }
+
+}
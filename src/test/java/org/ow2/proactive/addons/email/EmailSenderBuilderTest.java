@@ -32,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URI;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -39,6 +40,15 @@ import java.util.Properties;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.ow2.proactive.addons.email.circuit.CircuitBreakerRegistry;
+import org.ow2.proactive.addons.email.dedup.DuplicateFilter;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.mx.StaticMxResolver;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.relay.Relay;
+import org.ow2.proactive.addons.email.relay.RelaySelection;
+import org.ow2.proactive.addons.email.transport.PipeliningSmtpTransport;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
 
 import com.google.common.collect.ImmutableMap;
 
@@ -83,6 +93,12 @@ public class EmailSenderBuilderTest {
         assertThat(builder.getTrustSsl()).isEqualTo("*");
         assertThat(builder.getFileToAttach()).isNull();
         assertThat(builder.getFileName()).isEqualTo("attachment.txt");
+        assertThat(builder.isConnectionPoolingEnabled()).isFalse();
+        assertThat(builder.getExecutor()).isNull();
+        assertThat(builder.isUseVirtualThreads()).isFalse();
+        assertThat(builder.getRetryPolicy()).isNull();
+        assertThat(builder.getAttachments()).isEmpty();
+        assertThat(builder.isParallelEncodingEnabled()).isFalse();
     }
 
     @Test
@@ -129,6 +145,15 @@ public class EmailSenderBuilderTest {
         assertThat(builder.getFileName()).isEqualTo("file_name");
     }
 
+    @Test(expected = InvalidArgumentException.class)
+    public void testBuildWithMalformedAddress() {
+        new EmailSender.Builder().setFrom("from@company.com")
+                                 .addRecipient("to@company.com")
+                                 .addCc("cc@@company.com>")
+                                 .setSubject("subject")
+                                 .build();
+    }
+
     @Test
     public void testConstructorProperties() {
 
@@ -191,7 +216,7 @@ public class EmailSenderBuilderTest {
         assertThat(builder.getTrustSsl()).isEqualTo("all");
         assertThat(builder.getFileToAttach()).isEqualTo("file_path");
         assertThat(builder.getFileName()).isEqualTo("file_name");
-        assertThat(builder.getProperties().size()).isEqualTo(8);
+        assertThat(builder.getProperties().size()).isEqualTo(11);
     }
 
     @Test
@@ -219,7 +244,7 @@ public class EmailSenderBuilderTest {
         config.put(EXTRA_PROPERTY_MAIL_SMTP_CONNECTIONTIMEOUT, "120000");
 
         EmailSender.Builder builder = new EmailSender.Builder(config.build());
-        assertThat(builder.getProperties().size()).isEqualTo(9);
+        assertThat(builder.getProperties().size()).isEqualTo(11);
         assertThat(builder.getProperties().get(EXTRA_PROPERTY_MAIL_SMTP_CONNECTIONTIMEOUT)).isNotNull();
 
         ImmutableMap.Builder<String, Serializable> extraProps = ImmutableMap.builder();
@@ -227,8 +252,141 @@ public class EmailSenderBuilderTest {
         extraProps.put(EXTRA_PROPERTY_MAIL_SMTP_CONNECTIONTIMEOUT, "120000");
         builder.withProperties(extraProps.build());
 
-        assertThat(builder.getProperties()).hasSize(10);
+        assertThat(builder.getProperties()).hasSize(12);
         assertThat(builder.getProperties()).containsEntry(EXTRA_PROPERTY_MAIL_SMTP_SSL_ENABLE, "true");
         assertThat(builder.getProperties()).containsEntry(EXTRA_PROPERTY_MAIL_SMTP_CONNECTIONTIMEOUT, "120000");
     }
+
+    @Test
+    public void testConnectionPooling() {
+        EmailSender.Builder builder = new EmailSender.Builder(ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_HOST,
+                                                                              "smtp.host.com",
+                                                                              EmailSender.PROPERTY_MAIL_SMTP_POOL_ENABLE,
+                                                                              "true"));
+        assertThat(builder.isConnectionPoolingEnabled()).isTrue();
+
+        builder.setConnectionPooling(false);
+        assertThat(builder.isConnectionPoolingEnabled()).isFalse();
+
+        SmtpTransportPool pool = new SmtpTransportPool(1, 0, 0, 0, 0);
+        builder.setConnectionPool(pool);
+        assertThat(builder.isConnectionPoolingEnabled()).isTrue();
+        assertThat(builder.getConnectionPool()).isSameAs(pool);
+    }
+
+    @Test
+    public void testDirectDelivery() {
+        EmailSender.Builder builder = new EmailSender.Builder();
+        assertThat(builder.isDirectDeliveryEnabled()).isFalse();
+
+        builder.setDirectDelivery(true);
+        assertThat(builder.isDirectDeliveryEnabled()).isTrue();
+
+        builder.setDirectDelivery(false);
+        StaticMxResolver resolver = new StaticMxResolver();
+        builder.setMxResolver(resolver);
+        assertThat(builder.isDirectDeliveryEnabled()).isTrue();
+        assertThat(builder.getMxResolver()).isSameAs(resolver);
+    }
+
+    @Test
+    public void testRelays() {
+        EmailSender.Builder builder = new EmailSender.Builder(ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_RELAYS,
+                                                                              "smtp1.host.com:25/2"));
+        builder.addRelay("smtp2.host.com", 587, 1).setRelaySelection(RelaySelection.LATENCY);
+
+        assertThat(builder.getRelays()).containsExactly(new Relay("smtp1.host.com", 25, 2),
+                                                        new Relay("smtp2.host.com", 587, 1))
+                                       .inOrder();
+        assertThat(builder.getProperties()).containsEntry(EmailSender.PROPERTY_MAIL_SMTP_RELAYS_SELECTION, "latency");
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        EmailSender.Builder builder = new EmailSender.Builder();
+        assertThat(builder.isCircuitBreakerEnabled()).isFalse();
+
+        builder.setCircuitBreaker(75, 40, Duration.ofSeconds(5));
+        assertThat(builder.isCircuitBreakerEnabled()).isTrue();
+        String openTime = CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_OPEN_TIME;
+        assertThat(builder.getProperties().get(openTime)).isEqualTo(5000L);
+    }
+
+    @Test
+    public void testTimeouts() {
+        EmailSender.Builder builder = new EmailSender.Builder();
+        assertThat(builder.getConnectionTimeout()).isEqualTo(Duration.ofSeconds(30));
+        assertThat(builder.getReadTimeout()).isEqualTo(Duration.ofSeconds(60));
+        assertThat(builder.getWriteTimeout()).isEqualTo(Duration.ofSeconds(60));
+        assertThat(builder.getSendTimeout()).isEqualTo(Duration.ZERO);
+
+        builder.setConnectionTimeout(Duration.ofSeconds(5))
+               .setReadTimeout(Duration.ofSeconds(10))
+               .setWriteTimeout(Duration.ofSeconds(15))
+               .setSendTimeout(Duration.ofMinutes(2));
+        assertThat(builder.getProperties()).containsEntry(EmailSender.PROPERTY_MAIL_SMTP_CONNECTION_TIMEOUT, 5000);
+        assertThat(builder.getProperties()).containsEntry(EmailSender.PROPERTY_MAIL_SMTP_TIMEOUT, 10000);
+        assertThat(builder.getProperties()).containsEntry(EmailSender.PROPERTY_MAIL_SMTP_WRITE_TIMEOUT, 15000);
+        assertThat(builder.getSendTimeout()).isEqualTo(Duration.ofMinutes(2));
+    }
+
+    @Test
+    public void testTimeoutsFromProperties() {
+        Map<String, String> config = ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_HOST,
+                                                     "smtp.host.com",
+                                                     EmailSender.PROPERTY_MAIL_SMTP_TIMEOUT,
+                                                     "2000",
+                                                     EmailSender.PROPERTY_MAIL_SMTP_SEND_TIMEOUT,
+                                                     "90000");
+        EmailSender.Builder builder = new EmailSender.Builder(config);
+        assertThat(builder.getConnectionTimeout()).isEqualTo(Duration.ofSeconds(30));
+        assertThat(builder.getReadTimeout()).isEqualTo(Duration.ofSeconds(2));
+        assertThat(builder.getSendTimeout()).isEqualTo(Duration.ofSeconds(90));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeTimeoutIsRejected() {
+        new EmailSender.Builder().setReadTimeout(Duration.ofSeconds(-1));
+    }
+
+    @Test
+    public void testDuplicateSuppression() {
+        EmailSender.Builder builder = new EmailSender.Builder();
+        assertThat(builder.isDuplicateSuppressionEnabled()).isFalse();
+
+        builder.setDuplicateSuppression(Duration.ofHours(2)).setIdempotencyKey("job-1");
+        assertThat(builder.isDuplicateSuppressionEnabled()).isTrue();
+        assertThat(builder.getProperties()).containsEntry(EmailSender.PROPERTY_MAIL_SMTP_DEDUP_TTL, 7200000);
+        assertThat(builder.getIdempotencyKey()).isEqualTo("job-1");
+
+        DuplicateFilter filter = new DuplicateFilter(10);
+        builder.setDuplicateFilter(filter);
+        assertThat(builder.getDuplicateFilter()).isSameAs(filter);
+    }
+
+    @Test
+    public void testPipelining() {
+        EmailSender.Builder builder = new EmailSender.Builder();
+        assertThat(builder.isPipeliningEnabled()).isFalse();
+
+        builder.setPipelining(true);
+        assertThat(builder.isPipeliningEnabled()).isTrue();
+        assertThat(builder.getProperties()).containsEntry(EmailSender.PROPERTY_MAIL_SMTP_CLASS,
+                                                          PipeliningSmtpTransport.class.getName());
+
+        builder.setPipelining(false);
+        assertThat(builder.isPipeliningEnabled()).isFalse();
+    }
+
+    @Test
+    public void testRateLimits() {
+        EmailSender.Builder builder = new EmailSender.Builder();
+        assertThat(builder.getHostRateLimit()).isEqualTo(0);
+        assertThat(builder.getSenderRateLimit()).isEqualTo(0);
+
+        builder.setHostRateLimit(120).setSenderRateLimit(30).setRateLimitBurst(5);
+        assertThat(builder.getHostRateLimit()).isEqualTo(120);
+        assertThat(builder.getSenderRateLimit()).isEqualTo(30);
+        assertThat(builder.getProperties()).containsEntry(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_BURST, 5);
+    }
 }
@@ -0,0 +1,786 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.attachment.Attachment;
+import org.ow2.proactive.addons.email.circuit.CircuitBreaker;
+import org.ow2.proactive.addons.email.circuit.CircuitBreakerRegistry;
+import org.ow2.proactive.addons.email.dedup.DuplicateFilter;
+import org.ow2.proactive.addons.email.exception.CircuitOpenException;
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.metrics.SmtpMetrics;
+import org.ow2.proactive.addons.email.outbox.Outbox;
+import org.ow2.proactive.addons.email.ratelimit.SmtpRateLimiter;
+import org.ow2.proactive.addons.email.relay.Relay;
+import org.ow2.proactive.addons.email.relay.RelayGroup;
+import org.ow2.proactive.addons.email.relay.RelaySelection;
+import org.ow2.proactive.addons.email.relay.RelayStatus;
+import org.ow2.proactive.addons.email.retry.RetryPolicy;
+import org.ow2.proactive.addons.email.testing.FakeSmtpServer;
+import org.ow2.proactive.addons.email.testing.ReceivedMessage;
+import org.ow2.proactive.addons.email.transport.RecipientReport;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+
+
+/**
+ * Sends real messages to an embedded SMTP server.
+ *
+ * @author ActiveEon Team
+ */
+public class EmailSenderSmtpTest {
+
+    private FakeSmtpServer server;
+
+    @After
+    public void tearDown() throws IOException {
+        // the breakers opened by a test must not fail the next ones fast
+        CircuitBreakerRegistry.getInstance().clear();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testSendPlainTextEmail() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+
+        createBuilder().build().sendPlainTextEmail();
+
+        assertThat(server.getMessageCount()).isEqualTo(1);
+        ReceivedMessage message = server.getReceivedMessages().get(0);
+        assertThat(message.getFrom()).isEqualTo("from@company.com");
+        assertThat(message.getRecipients()).containsExactly("to@company.com", "cc@company.com").inOrder();
+        assertThat(message.getContentAsString()).contains("Subject: Workflow finished");
+        assertThat(message.getContentAsString()).contains("The job has finished.");
+    }
+
+    @Test
+    public void testSendWithAttachment() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+
+        createBuilder().addAttachment(Attachment.fromBytes("report.txt",
+                                                           "line 1\r\n.line 2".getBytes(StandardCharsets.US_ASCII),
+                                                           "text/plain"))
+                       .build()
+                       .sendPlainTextEmail();
+
+        String content = server.getReceivedMessages().get(0).getContentAsString();
+        assertThat(content).contains("filename=report.txt");
+        // the line starting with a dot has been unstuffed by the server
+        assertThat(content).contains("\r\n.line 2");
+    }
+
+    @Test
+    public void testSendToEachRecipient() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        byte[] report = new byte[64 * 1024];
+        new Random(42).nextBytes(report);
+
+        List<DeliveryOutcome> outcomes = createBuilder().addBcc("bcc@company.com")
+                                                        .addAttachment(Attachment.fromBytes("report.bin",
+                                                                                            report,
+                                                                                            "application/octet-stream"))
+                                                        .build()
+                                                        .sendPlainTextEmailToEachRecipient();
+
+        assertThat(outcomes).hasSize(3);
+        for (DeliveryOutcome outcome : outcomes) {
+            assertThat(outcome.isSuccess()).isTrue();
+        }
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+
+        List<ReceivedMessage> messages = server.getReceivedMessages();
+        assertThat(messages.get(0).getRecipients()).containsExactly("to@company.com");
+        assertThat(messages.get(1).getRecipients()).containsExactly("cc@company.com");
+        assertThat(messages.get(2).getRecipients()).containsExactly("bcc@company.com");
+        for (ReceivedMessage message : messages) {
+            String content = message.getContentAsString();
+            assertThat(content).contains("Subject: Workflow finished");
+            assertThat(content).contains("filename=report.bin");
+            assertThat(content).contains(BaseEncoding.base64().encode(report, 0, 57));
+            assertThat(content).doesNotContain("Cc:");
+        }
+        assertThat(messages.get(2).getContentAsString()).contains("To: bcc@company.com");
+        // only the headers differ between the copies
+        assertThat(body(messages.get(0))).isEqualTo(body(messages.get(2)));
+        assertThat(body(messages.get(0))).contains("The job has finished.");
+    }
+
+    @Test
+    public void testSendToEachRecipientThroughRelays() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        // no mail.smtp.host: the copies must go through the relay rather than to localhost:25
+        EmailSender.Builder builder = new EmailSender.Builder(ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_RELAYS,
+                                                                              "localhost:" + server.getPort(),
+                                                                              EmailSender.PROPERTY_MAIL_SMTP_AUTH,
+                                                                              "false"));
+
+        List<DeliveryOutcome> outcomes = builder.setFrom("from@company.com")
+                                                .addRecipient("to@company.com")
+                                                .addCc("cc@company.com")
+                                                .setSubject("Workflow finished")
+                                                .setBody("The job has finished.")
+                                                .build()
+                                                .sendPlainTextEmailToEachRecipient();
+
+        for (DeliveryOutcome outcome : outcomes) {
+            assertThat(outcome.isSuccess()).isTrue();
+        }
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+        List<ReceivedMessage> messages = server.getReceivedMessages();
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0).getRecipients()).containsExactly("to@company.com");
+        assertThat(messages.get(1).getRecipients()).containsExactly("cc@company.com");
+    }
+
+    @Test
+    public void testSendAllThroughRelays() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        // no mail.smtp.host: the messages must go through the relay rather than to localhost:25
+        ImmutableMap<String, String> options = ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_RELAYS,
+                                                               "localhost:" + server.getPort(),
+                                                               EmailSender.PROPERTY_MAIL_SMTP_AUTH,
+                                                               "false");
+        List<EmailSender> senders = new ArrayList<>();
+        for (String recipient : Arrays.asList("first@company.com", "second@company.com")) {
+            senders.add(new EmailSender.Builder(options).setFrom("from@company.com")
+                                                        .addRecipient(recipient)
+                                                        .setSubject("Workflow finished")
+                                                        .build());
+        }
+
+        for (DeliveryOutcome outcome : EmailSender.sendAll(senders)) {
+            assertThat(outcome.isSuccess()).isTrue();
+        }
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+        assertThat(server.getReceivedMessages()).hasSize(2);
+    }
+
+    @Test
+    public void testSendAllDoesNotInstallItsPoolOnTheSenders() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        List<EmailSender> senders = Arrays.asList(createBuilder().build(), createBuilder().build());
+        List<SmtpTransportPool> poolsDuringSend = new ArrayList<>();
+        for (EmailSender sender : senders) {
+            sender.metrics = new SmtpMetrics() {
+                @Override
+                public void recordTransaction(long durationNanos) {
+                    poolsDuringSend.add(sender.transportPool);
+                }
+            };
+        }
+
+        for (DeliveryOutcome outcome : EmailSender.sendAll(senders)) {
+            assertThat(outcome.isSuccess()).isTrue();
+        }
+        // the messages share a connection without the senders being modified
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+        assertThat(poolsDuringSend).containsExactly(null, null);
+    }
+
+    @Test
+    public void testRateLimitAppliesToTheSelectedRelay() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        // no mail.smtp.host: the permits must be taken from the bucket of the relay
+        ImmutableMap<String, String> options = ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_RELAYS,
+                                                               "127.0.0.1:" + server.getPort(),
+                                                               EmailSender.PROPERTY_MAIL_SMTP_AUTH,
+                                                               "false",
+                                                               SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT,
+                                                               "0");
+        EmailSender sender = new EmailSender.Builder(options).setHostRateLimit(1)
+                                                             .setFrom("from@company.com")
+                                                             .addRecipient("to@company.com")
+                                                             .setSubject("Workflow finished")
+                                                             .build();
+
+        sender.sendPlainTextEmail();
+        try {
+            sender.sendPlainTextEmail();
+            fail("The second message should exceed the rate limit of the relay");
+        } catch (EmailException e) {
+            assertThat(e.getMessage()).contains("127.0.0.1");
+        }
+
+        assertThat(server.getReceivedMessages()).hasSize(1);
+    }
+
+    @Test
+    public void testSendWithAuthentication() throws IOException {
+        server = new FakeSmtpServer.Builder().setCredentials("user", "secret").setAuthRequired(true).build();
+
+        createBuilder().setAuth(true).setUsername("user").setPassword("secret").build().sendPlainTextEmail();
+
+        assertThat(server.getReceivedMessages().get(0).getUsername()).isEqualTo("user");
+    }
+
+    @Test(expected = EmailException.class)
+    public void testSendWithInvalidCredentials() throws IOException {
+        server = new FakeSmtpServer.Builder().setCredentials("user", "secret").setAuthRequired(true).build();
+
+        createBuilder().setAuth(true).setUsername("user").setPassword("wrong").build().sendPlainTextEmail();
+    }
+
+    @Test
+    public void testSendWithStartTls() throws IOException {
+        server = new FakeSmtpServer.Builder().setStartTls(true)
+                                             .setCredentials("user", "secret")
+                                             .setAuthRequired(true)
+                                             .build();
+
+        EmailSender.Builder builder = createBuilder().setEnableStartTls(true)
+                                                     .setTrustSsl("*")
+                                                     .setAuth(true)
+                                                     .setUsername("user")
+                                                     .setPassword("secret");
+        // JavaMail only enables TLSv1 for STARTTLS by default, which recent JDKs disable
+        builder.withProperties(Collections.singletonMap("mail.smtp.ssl.protocols", "TLSv1.2"));
+        builder.build().sendPlainTextEmail();
+
+        assertThat(server.getReceivedMessages().get(0).getUsername()).isEqualTo("user");
+    }
+
+    @Test
+    public void testSendPooledAndPipelined() throws IOException, InterruptedException {
+        server = new FakeSmtpServer.Builder().setLatency(Duration.ofMillis(1)).build();
+
+        try (SmtpTransportPool pool = createPool()) {
+            EmailSender emailSender = createBuilder().setConnectionPool(pool).setPipelining(true).build();
+            for (int i = 0; i < 10; i++) {
+                emailSender.sendPlainTextEmail();
+            }
+        }
+
+        assertThat(server.awaitMessages(10, 10, TimeUnit.SECONDS)).isTrue();
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSendToManyRecipientsInChunks() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        server.injectReply("RCPT", "550 5.1.1 No such user", 1);
+
+        EmailSender.Builder builder = createBuilder().setMaxRecipientsPerTransaction(4);
+        for (int i = 0; i < 9; i++) {
+            builder.addBcc("bcc" + i + "@company.com");
+        }
+        SendResult result = builder.build().sendPlainTextEmailAsync().join();
+
+        // the first transaction is aborted and its valid recipients are sent with the next ones
+        RecipientReport report = result.getRecipientReport();
+        assertThat(report.getRejectedRecipients()).containsKey("to@company.com");
+        assertThat(report.getRejectedRecipients().get("to@company.com")).startsWith("550");
+        assertThat(report.getAcceptedRecipients()).hasSize(10);
+        assertThat(report.isComplete()).isFalse();
+
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+        List<ReceivedMessage> messages = server.getReceivedMessages();
+        assertThat(messages).hasSize(3);
+        assertThat(messages.get(0).getRecipients()).hasSize(4);
+        assertThat(messages.get(1).getRecipients()).hasSize(4);
+        assertThat(messages.get(2).getRecipients()).hasSize(2);
+    }
+
+    @Test
+    public void testRecipientsRejectedWithTooManyRecipientsAreSentAgain() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        server.injectReply("RCPT", "452 4.5.3 Too many recipients", 1);
+
+        SendResult result = createBuilder().addBcc("bcc0@company.com")
+                                           .addBcc("bcc1@company.com")
+                                           .build()
+                                           .sendPlainTextEmailAsync()
+                                           .join();
+
+        // the next transactions have one recipient less than the one that has been refused
+        assertThat(result.getRecipientReport().isComplete()).isTrue();
+        assertThat(result.getRecipientReport().getAcceptedRecipients()).hasSize(4);
+        List<ReceivedMessage> messages = server.getReceivedMessages();
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0).getRecipients()).containsExactly("to@company.com",
+                                                                    "cc@company.com",
+                                                                    "bcc0@company.com")
+                                                   .inOrder();
+        assertThat(messages.get(1).getRecipients()).containsExactly("bcc1@company.com");
+    }
+
+    @Test
+    public void testFailoverToNextRelay() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        // the dead relay has the highest weight and is selected first until it is ejected
+        Relay deadRelay = new Relay("localhost", getUnusedPort(), 2);
+        RelayGroup relays = new RelayGroup(Arrays.asList(deadRelay, new Relay("localhost", server.getPort(), 1)),
+                                           RelaySelection.LEAST_OUTSTANDING,
+                                           2,
+                                           RelayGroup.DEFAULT_EJECTION_TIME_MILLIS,
+                                           RelayGroup.DEFAULT_MAX_EJECTION_TIME_MILLIS);
+
+        for (int i = 0; i < 6; i++) {
+            createBuilder().setRelayGroup(relays).build().sendPlainTextEmail();
+        }
+
+        assertThat(server.getMessageCount()).isEqualTo(6);
+        // the dead relay is not tried again once ejected
+        RelayStatus deadRelayStatus = relays.getStatus().get(0);
+        assertThat(deadRelayStatus.getRelay()).isEqualTo(deadRelay);
+        assertThat(deadRelayStatus.isEjected()).isTrue();
+        assertThat(deadRelayStatus.getConsecutiveFailures()).isEqualTo(2);
+        assertThat(deadRelayStatus.getOutstandingRequests()).isEqualTo(0);
+    }
+
+    @Test
+    public void testNoFailoverOnPermanentFailure() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        server.injectReply("MAIL", "550 5.7.1 Sender rejected", 1);
+        RelayGroup relays = new RelayGroup(Arrays.asList(new Relay("localhost", server.getPort(), 1),
+                                                         new Relay("127.0.0.1", server.getPort(), 1)),
+                                           RelaySelection.LATENCY);
+
+        try {
+            createBuilder().setRelayGroup(relays).build().sendPlainTextEmail();
+            throw new AssertionError("The message should have been rejected");
+        } catch (EmailException e) {
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+            assertThat(relays.getStatus().get(0).getConsecutiveFailures()).isEqualTo(0);
+            assertThat(relays.getStatus().get(1).getConsecutiveFailures()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerFailsFast() throws IOException {
+        EmailSender emailSender = createBuilder(getUnusedPort()).setCircuitBreaker(100, 4, Duration.ofMinutes(1))
+                                                                .build();
+
+        // the failure rate is computed once half of the window has been recorded
+        for (int i = 0; i < 2; i++) {
+            try {
+                emailSender.sendPlainTextEmail();
+                throw new AssertionError("The server should not have been reached");
+            } catch (EmailException e) {
+                assertThat(e).isNotInstanceOf(CircuitOpenException.class);
+            }
+        }
+
+        try {
+            emailSender.sendPlainTextEmail();
+            throw new AssertionError("The circuit breaker should be open");
+        } catch (CircuitOpenException e) {
+            assertThat(CircuitBreakerRegistry.getInstance().getStates()).containsEntry(e.getName(),
+                                                                                      CircuitBreaker.State.OPEN);
+        }
+    }
+
+    @Test
+    public void testOpenCircuitIsNotRetried() throws IOException {
+        RetryPolicy retryPolicy = new RetryPolicy.Builder().setMaxAttempts(5)
+                                                           .setBackoff(Duration.ofSeconds(2), Duration.ofSeconds(2))
+                                                           .build();
+        int port = getUnusedPort();
+        try {
+            createBuilder(port).setCircuitBreaker(100, 1, Duration.ofMinutes(1)).build().sendPlainTextEmail();
+            throw new AssertionError("The server should not have been reached");
+        } catch (EmailException e) {
+            assertThat(e).isNotInstanceOf(CircuitOpenException.class);
+        }
+
+        long start = System.nanoTime();
+        try {
+            createBuilder(port).setCircuitBreaker(100, 1, Duration.ofMinutes(1))
+                               .setRetryPolicy(retryPolicy)
+                               .build()
+                               .sendPlainTextEmail();
+            throw new AssertionError("The circuit breaker should be open");
+        } catch (CircuitOpenException e) {
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    @Test
+    public void testMessageIsWrittenToTheFallbackOutboxWhileTheCircuitIsOpen() throws IOException {
+        Outbox outbox = mock(Outbox.class);
+        EmailSender emailSender = createBuilder(getUnusedPort()).setCircuitBreaker(100, 1, Duration.ofMinutes(1))
+                                                                .setFallbackOutbox(outbox)
+                                                                .build();
+        try {
+            emailSender.sendPlainTextEmail();
+            throw new AssertionError("The server should not have been reached");
+        } catch (EmailException e) {
+            verify(outbox, never()).enqueue(any(MimeMessage.class));
+        }
+
+        SendResult result = emailSender.sendPlainTextEmailAsync().join();
+
+        verify(outbox).enqueue(any(MimeMessage.class));
+        assertThat(result.getMessageId()).isNotNull();
+    }
+
+    @Test
+    public void testSendTimeoutAbortsASlowServer() throws IOException {
+        server = new FakeSmtpServer.Builder().setLatency(Duration.ofSeconds(5)).build();
+
+        long start = System.nanoTime();
+        try {
+            createBuilder().setSendTimeout(Duration.ofMillis(300))
+                           .setRetryPolicy(new RetryPolicy.Builder().setMaxAttempts(3).build())
+                           .build()
+                           .sendPlainTextEmail();
+            throw new AssertionError("The send should have timed out");
+        } catch (DeadlineExceededException e) {
+            assertThat(e.getTimeout()).isEqualTo(Duration.ofMillis(300));
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+            // the send is not retried once its deadline has expired
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testSendTimeoutBoundsTheRetryBackoff() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        server.injectReply(FakeSmtpServer.END_OF_DATA, "451 4.3.0 Try again later", 1);
+
+        long start = System.nanoTime();
+        try {
+            createBuilder().setSendTimeout(Duration.ofMillis(500))
+                           .setRetryPolicy(new RetryPolicy.Builder().setMaxAttempts(3)
+                                                                    .setBackoff(Duration.ofSeconds(10),
+                                                                                Duration.ofSeconds(10))
+                                                                    .build())
+                           .build()
+                           .sendPlainTextEmail();
+            throw new AssertionError("The retry should not fit in the send timeout");
+        } catch (DeadlineExceededException e) {
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testSendTimeoutBoundsTheRateLimitWait() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        // the default maximum wait lets the second message wait for its slot for a minute
+        EmailSender sender = createBuilder().setHostRateLimit(1).setSendTimeout(Duration.ofMillis(500)).build();
+        sender.sendPlainTextEmail();
+
+        long start = System.nanoTime();
+        try {
+            sender.sendPlainTextEmail();
+            throw new AssertionError("The rate limit wait should not fit in the send timeout");
+        } catch (DeadlineExceededException e) {
+            assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+            assertThat(server.getMessageCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testSendTimeoutAbortsAPooledConnection() throws IOException {
+        server = new FakeSmtpServer.Builder().setLatency(Duration.ofMillis(200)).build();
+
+        try (SmtpTransportPool pool = createPool()) {
+            createBuilder().setConnectionPool(pool).build().sendPlainTextEmail();
+
+            // the reused connection needs a round trip per command
+            long start = System.nanoTime();
+            try {
+                createBuilder().setConnectionPool(pool)
+                               .setSendTimeout(Duration.ofMillis(300))
+                               .build()
+                               .sendPlainTextEmail();
+                throw new AssertionError("The send should have timed out");
+            } catch (DeadlineExceededException e) {
+                assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+                // no new connection is opened once the deadline has expired
+                assertThat(server.getConnectionCount()).isEqualTo(1);
+            }
+
+            // the aborted connection has been discarded
+            createBuilder().setConnectionPool(pool).build().sendPlainTextEmail();
+            assertThat(server.getMessageCount()).isEqualTo(2);
+            assertThat(server.getConnectionCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testDuplicateIsSuppressed() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        DuplicateFilter filter = new DuplicateFilter(10);
+
+        SendResult first = createBuilder().setDuplicateFilter(filter).build().sendPlainTextEmailAsync().join();
+        SendResult second = createBuilder().setDuplicateFilter(filter).build().sendPlainTextEmailAsync().join();
+        createBuilder().setDuplicateFilter(filter).setBody("Another body").build().sendPlainTextEmail();
+
+        assertThat(first.isDuplicate()).isFalse();
+        assertThat(second.isDuplicate()).isTrue();
+        assertThat(second.getMessageId()).isNull();
+        assertThat(server.getMessageCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testMessagesWithTheSameIdempotencyKeyAreSuppressed() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        DuplicateFilter filter = new DuplicateFilter(10);
+
+        createBuilder().setDuplicateFilter(filter).setIdempotencyKey("job-1/task-2").build().sendPlainTextEmail();
+        createBuilder().setDuplicateFilter(filter)
+                       .setIdempotencyKey("job-1/task-2")
+                       .setBody("Another body")
+                       .build()
+                       .sendPlainTextEmail();
+
+        assertThat(server.getMessageCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMessagesWithStreamAttachmentsAreOnlySuppressedByIdempotencyKey() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        DuplicateFilter filter = new DuplicateFilter(10);
+
+        for (String content : Arrays.asList("first report", "second report")) {
+            createBuilder().setDuplicateFilter(filter)
+                           .addAttachment(Attachment.fromStream("report.txt", stream(content), null))
+                           .build()
+                           .sendPlainTextEmail();
+        }
+        assertThat(server.getMessageCount()).isEqualTo(2);
+
+        for (String content : Arrays.asList("first report", "second report")) {
+            createBuilder().setDuplicateFilter(filter)
+                           .setIdempotencyKey("job-1/task-2")
+                           .addAttachment(Attachment.fromStream("report.txt", stream(content), null))
+                           .build()
+                           .sendPlainTextEmail();
+        }
+        assertThat(server.getMessageCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testMessagesSentToEachRecipientAreSuppressedOneByOne() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        DuplicateFilter filter = new DuplicateFilter(10);
+
+        createBuilder().setDuplicateFilter(filter).build().sendPlainTextEmailToEachRecipient();
+        List<DeliveryOutcome> outcomes = createBuilder().setDuplicateFilter(filter)
+                                                        .addRecipient("other@company.com")
+                                                        .build()
+                                                        .sendPlainTextEmailToEachRecipient();
+
+        assertThat(outcomes).hasSize(3);
+        assertThat(outcomes.get(0).getResult().isDuplicate()).isTrue();
+        assertThat(outcomes.get(1).getResult().isDuplicate()).isFalse();
+        assertThat(outcomes.get(2).getResult().isDuplicate()).isTrue();
+        assertThat(server.getMessageCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testFailedMessageIsNotSuppressed() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        server.injectReply("MAIL", "550 5.7.1 Sender rejected", 1);
+        DuplicateFilter filter = new DuplicateFilter(10);
+
+        try {
+            createBuilder().setDuplicateFilter(filter).build().sendPlainTextEmail();
+            throw new AssertionError("The message should have been rejected");
+        } catch (EmailException e) {
+            assertThat(filter.size()).isEqualTo(0L);
+        }
+
+        createBuilder().setDuplicateFilter(filter).build().sendPlainTextEmail();
+        assertThat(server.getMessageCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRetryOnTransientFailure() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        server.injectReply(FakeSmtpServer.END_OF_DATA, "451 4.3.0 Try again later", 2);
+
+        createBuilder().setRetryPolicy(new RetryPolicy.Builder().setMaxAttempts(3)
+                                                                .setBackoff(Duration.ofMillis(1),
+                                                                            Duration.ofMillis(1))
+                                                                .build())
+                       .build()
+                       .sendPlainTextEmail();
+
+        assertThat(server.getMessageCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRetryIsOnlySentToTheRecipientsNotReached() throws Exception {
+        // slow replies leave the time to drop the connection once the first transaction has been accepted
+        server = new FakeSmtpServer.Builder().setLatency(Duration.ofMillis(100)).build();
+
+        RetryPolicy retryPolicy = new RetryPolicy.Builder().setMaxAttempts(3)
+                                                           .setBackoff(Duration.ofMillis(1), Duration.ofMillis(1))
+                                                           .build();
+        CompletableFuture<SendResult> future = createBuilder().addBcc("bcc@company.com")
+                                                              .setMaxRecipientsPerTransaction(1)
+                                                              .setRetryPolicy(retryPolicy)
+                                                              .build()
+                                                              .sendPlainTextEmailAsync();
+        assertThat(server.awaitMessages(1, 10, TimeUnit.SECONDS)).isTrue();
+        server.injectDisconnect("MAIL", 1);
+
+        RecipientReport report = future.join().getRecipientReport();
+        assertThat(report.getAcceptedRecipients()).containsExactly("to@company.com",
+                                                                   "cc@company.com",
+                                                                   "bcc@company.com")
+                                                  .inOrder();
+        // each recipient has received the message once
+        List<ReceivedMessage> messages = server.getReceivedMessages();
+        assertThat(messages).hasSize(3);
+        assertThat(messages.get(0).getRecipients()).containsExactly("to@company.com");
+        assertThat(messages.get(1).getRecipients()).containsExactly("cc@company.com");
+        assertThat(messages.get(2).getRecipients()).containsExactly("bcc@company.com");
+        assertThat(server.getConnectionCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testNoRetryOnPermanentFailure() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        // rejects both the recipient and the CC recipient
+        server.injectReply("RCPT", "550 5.1.1 No such user", 2);
+
+        try {
+            createBuilder().setRetryPolicy(new RetryPolicy.Builder().setMaxAttempts(3).build())
+                           .build()
+                           .sendPlainTextEmail();
+            throw new AssertionError("The message should have been rejected");
+        } catch (EmailException e) {
+            assertThat(server.getMessageCount()).isEqualTo(0);
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        SmtpMetrics metrics = new SmtpMetrics();
+
+        createBuilder().setMetrics(metrics).build().sendPlainTextEmail();
+
+        server.injectReply("MAIL", "550 5.7.1 Sender rejected", 1);
+        try {
+            createBuilder().setMetrics(metrics).build().sendPlainTextEmail();
+            throw new AssertionError("The message should have been rejected");
+        } catch (EmailException e) {
+            // expected
+        }
+
+        assertThat(metrics.getSuccessCount()).isEqualTo(1);
+        assertThat(metrics.getFailureCount()).isEqualTo(1);
+        assertThat(metrics.getReplyCodeCounts()).containsEntry(250, 1L);
+        assertThat(metrics.getReplyCodeCounts()).containsEntry(550, 1L);
+        assertThat(metrics.getConnectTime().getCount()).isEqualTo(2);
+        assertThat(metrics.getTransactionTime().getCount()).isEqualTo(1);
+        assertThat(metrics.getRecipientCount().getMax()).isEqualTo(2);
+        // the server also receives the line break that SMTP adds before the end of data
+        int receivedSize = server.getReceivedMessages().get(0).getContent().length;
+        assertThat(metrics.getMessageSize().getMax()).isAtLeast(receivedSize - 2L);
+        assertThat(metrics.getMessageSize().getMax()).isAtMost((long) receivedSize);
+    }
+
+    @Test
+    public void testConnectTimeOfPooledConnectionsIsRecorded() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+        SmtpMetrics metrics = new SmtpMetrics();
+
+        try (SmtpTransportPool pool = createPool()) {
+            EmailSender emailSender = createBuilder().setConnectionPool(pool).setMetrics(metrics).build();
+            emailSender.sendPlainTextEmail();
+            emailSender.sendPlainTextEmail();
+        }
+
+        // the second message reuses the connection
+        assertThat(metrics.getConnectTime().getCount()).isEqualTo(1);
+        assertThat(metrics.getTransactionTime().getCount()).isEqualTo(2);
+    }
+
+    private static String body(ReceivedMessage message) {
+        String content = message.getContentAsString();
+        return content.substring(content.indexOf("\r\n\r\n"));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private EmailSender.Builder createBuilder() {
+        return createBuilder(server.getPort());
+    }
+
+    private static EmailSender.Builder createBuilder(int port) {
+        return new EmailSender.Builder().setHost("localhost")
+                                        .setPort(port)
+                                        .setAuth(false)
+                                        .setFrom("from@company.com")
+                                        .addRecipient("to@company.com")
+                                        .addCc("cc@company.com")
+                                        .setSubject("Workflow finished")
+                                        .setBody("The job has finished.");
+    }
+
+    private static int getUnusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static SmtpTransportPool createPool() {
+        return new SmtpTransportPool(1,
+                                     SmtpTransportPool.DEFAULT_MAX_IDLE_TIME_MILLIS,
+                                     SmtpTransportPool.DEFAULT_MAX_AGE_MILLIS,
+                                     SmtpTransportPool.DEFAULT_VALIDATE_AFTER_IDLE_MILLIS,
+                                     SmtpTransportPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+    }
+
+}
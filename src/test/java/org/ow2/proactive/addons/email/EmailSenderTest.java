@@ -26,29 +26,45 @@
 package org.ow2.proactive.addons.email;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.mail.Address;
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.Session;
 import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.ow2.proactive.addons.email.attachment.Attachment;
+import org.ow2.proactive.addons.email.exception.EmailException;
 import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
 import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+import org.ow2.proactive.addons.email.mx.CachingMxResolver;
+import org.ow2.proactive.addons.email.retry.RetryPolicy;
+import org.ow2.proactive.addons.email.transport.SmtpTransportPool;
 
 import com.google.common.collect.ImmutableList;
+import com.sun.mail.smtp.SMTPSendFailedException;
 
 
 /**
@@ -126,6 +142,19 @@ public class EmailSenderTest {
                         "file_name");
     }
 
+    @Test(expected = InvalidArgumentException.class)
+    public void testNullRecipient() {
+        new EmailSender(properties,
+                        ImmutableList.of("cc@company.com"),
+                        ImmutableList.of("bcc@company.com"),
+                        Collections.singletonList(null),
+                        "body",
+                        "from@company.com",
+                        "subject",
+                        "file_path",
+                        "file_name");
+    }
+
     @Test(expected = MissingArgumentException.class)
     public void testNullSubject() {
         new EmailSender(properties,
@@ -185,17 +214,18 @@ public class EmailSenderTest {
 
         emailSender.configurePlainTextMessage(mimeMessageMock);
 
-        InOrder inOrder = Mockito.inOrder(mimeMessageMock);
-        inOrder.verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.CC), eq("cc1@company.com"));
-        inOrder.verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.CC), eq("cc2@company.com"));
-        inOrder.verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.CC), eq("cc3@company.com"));
+        // the addresses are parsed once, in order, and added all at once
+        verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.CC),
+                                              eq(new Address[] { new InternetAddress("cc1@company.com"),
+                                                                 new InternetAddress("cc2@company.com"),
+                                                                 new InternetAddress("cc3@company.com") }));
 
-        inOrder = Mockito.inOrder(mimeMessageMock);
-        inOrder.verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.BCC), eq("bcc1@company.com"));
-        inOrder.verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.BCC), eq("bcc2@company.com"));
+        verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.BCC),
+                                              eq(new Address[] { new InternetAddress("bcc1@company.com"),
+                                                                 new InternetAddress("bcc2@company.com") }));
 
-        verify(mimeMessageMock).addRecipient(eq(Message.RecipientType.TO),
-                                             eq(new InternetAddress("recipient@company.com")));
+        verify(mimeMessageMock).addRecipients(eq(Message.RecipientType.TO),
+                                              eq(new Address[] { new InternetAddress("recipient@company.com") }));
 
         verify(mimeMessageMock).addFrom(eq(new Address[] { new InternetAddress("from@company.com") }));
 
@@ -226,4 +256,229 @@ public class EmailSenderTest {
         verify(transportMock).connect();
         inOrder.verify(transportMock).sendMessage(mimeMessageMock, mimeMessageMock.getAllRecipients());
     }
+
+    @Test
+    public void testSendPlainTextEmailAsync() throws Exception {
+        AtomicReference<String> threadName = new AtomicReference<>();
+
+        EmailSender emailSender = new EmailSender(properties,
+                                                  ImmutableList.of("cc@company.com"),
+                                                  ImmutableList.of("bcc@company.com"),
+                                                  ImmutableList.of("recipients@company.com"),
+                                                  "body",
+                                                  "from@company.com",
+                                                  "subject",
+                                                  "file_path",
+                                                  "file_name") {
+            @Override
+            protected void connectAndSendMessage(MimeMessage message, Transport transport) throws MessagingException {
+                message.saveChanges();
+                threadName.set(Thread.currentThread().getName());
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "async-test"));
+        try {
+            emailSender.executor = executor;
+
+            SendResult result = emailSender.sendPlainTextEmailAsync().get(10, TimeUnit.SECONDS);
+
+            assertThat(threadName.get()).isEqualTo("async-test");
+            assertThat(result.getMessageId()).isNotNull();
+            assertThat(result.getDuration()).isNotNull();
+            assertThat(result.getStartTime()).isNotNull();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSendPlainTextEmailAsyncFailure() throws Exception {
+        EmailSender emailSender = new EmailSender(properties,
+                                                  ImmutableList.of("cc@company.com"),
+                                                  ImmutableList.of("bcc@company.com"),
+                                                  ImmutableList.of("recipients@company.com"),
+                                                  "body",
+                                                  "from@company.com",
+                                                  "subject",
+                                                  "file_path",
+                                                  "file_name") {
+            @Override
+            protected void connectAndSendMessage(MimeMessage message, Transport transport) throws MessagingException {
+                throw new MessagingException("relay unavailable");
+            }
+        };
+
+        try {
+            emailSender.sendPlainTextEmailAsync().get(10, TimeUnit.SECONDS);
+            fail("The future should have been completed exceptionally");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(EmailException.class);
+            assertThat(e.getCause().getCause()).hasMessage("relay unavailable");
+        }
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        EmailSender emailSender = new EmailSender(properties,
+                                                  ImmutableList.of("cc@company.com"),
+                                                  ImmutableList.of("bcc@company.com"),
+                                                  ImmutableList.of("recipients@company.com"),
+                                                  "body",
+                                                  "from@company.com",
+                                                  "subject",
+                                                  "file_path",
+                                                  "file_name") {
+            @Override
+            protected void connectAndSendMessage(MimeMessage message, Transport transport) throws MessagingException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new SMTPSendFailedException("DATA", 451, "451 Try again later", null, null, null, null);
+                }
+            }
+        };
+        emailSender.retryPolicy = new RetryPolicy.Builder().setBackoff(Duration.ofMillis(1), Duration.ofMillis(5))
+                                                           .build();
+
+        emailSender.sendPlainTextEmail();
+
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testPermanentFailureIsNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        EmailSender emailSender = new EmailSender(properties,
+                                                  ImmutableList.of("cc@company.com"),
+                                                  ImmutableList.of("bcc@company.com"),
+                                                  ImmutableList.of("recipients@company.com"),
+                                                  "body",
+                                                  "from@company.com",
+                                                  "subject",
+                                                  "file_path",
+                                                  "file_name") {
+            @Override
+            protected void connectAndSendMessage(MimeMessage message, Transport transport) throws MessagingException {
+                attempts.incrementAndGet();
+                throw new SMTPSendFailedException("DATA", 554, "554 Transaction failed", null, null, null, null);
+            }
+        };
+        emailSender.retryPolicy = new RetryPolicy.Builder().setBackoff(Duration.ofMillis(1), Duration.ofMillis(5))
+                                                           .build();
+
+        try {
+            emailSender.sendPlainTextEmail();
+            fail("The permanent failure should have been rethrown");
+        } catch (EmailException e) {
+            assertThat(attempts.get()).isEqualTo(1);
+            assertThat(e.getCause()).isInstanceOf(SMTPSendFailedException.class);
+        }
+    }
+
+    @Test
+    public void testRetryPolicyFromProperties() {
+        EmailSender emailSender = new EmailSender.Builder().setHost("host")
+                                                           .setFrom("from@company.com")
+                                                           .addRecipient("recipients@company.com")
+                                                           .setSubject("subject")
+                                                           .build();
+
+        assertThat(emailSender.getRetryPolicy()).isSameAs(RetryPolicy.none());
+
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_RETRY_MAX_ATTEMPTS, "3");
+        emailSender = new EmailSender(properties,
+                                      null,
+                                      null,
+                                      ImmutableList.of("recipients@company.com"),
+                                      "body",
+                                      "from@company.com",
+                                      "subject",
+                                      null,
+                                      null);
+
+        assertThat(emailSender.getRetryPolicy().getMaxAttempts()).isEqualTo(3);
+
+        // the policy is resolved when the sender is created
+        emailSender.properties.put(EmailSender.PROPERTY_MAIL_SMTP_RETRY_MAX_ATTEMPTS, "5");
+
+        assertThat(emailSender.getRetryPolicy().getMaxAttempts()).isEqualTo(3);
+    }
+
+    @Test
+    public void testPoolingAndDirectDeliveryFromProperties() {
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_POOL_ENABLE, "true");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_DIRECT_ENABLE, "TRUE");
+        EmailSender emailSender = new EmailSender(properties,
+                                                  null,
+                                                  null,
+                                                  ImmutableList.of("recipients@company.com"),
+                                                  "body",
+                                                  "from@company.com",
+                                                  "subject",
+                                                  null,
+                                                  null);
+
+        assertThat(emailSender.getTransportPool()).isSameAs(SmtpTransportPool.getInstance());
+        assertThat(emailSender.getMxResolver()).isSameAs(CachingMxResolver.getInstance());
+
+        // the settings are resolved when the sender is created
+        emailSender.properties.put(EmailSender.PROPERTY_MAIL_SMTP_POOL_ENABLE, "false");
+        emailSender.properties.put(EmailSender.PROPERTY_MAIL_SMTP_DIRECT_ENABLE, "false");
+
+        assertThat(emailSender.getTransportPool()).isNotNull();
+        assertThat(emailSender.getMxResolver()).isNotNull();
+    }
+
+    @Test
+    public void testCreateMessageWithAttachments() throws Exception {
+        EmailSender emailSender = new EmailSender.Builder().setHost("host")
+                                                           .setFrom("from@company.com")
+                                                           .addRecipient("recipients@company.com")
+                                                           .setSubject("subject")
+                                                           .setBody("body")
+                                                           .addAttachment(Attachment.fromBytes("first.bin",
+                                                                                               new byte[] { 1, 2 },
+                                                                                               null))
+                                                           .addAttachment(Attachment.fromBytes("second.txt",
+                                                                                               "text".getBytes(),
+                                                                                               null))
+                                                           .setParallelEncoding(true)
+                                                           .build();
+
+        MimeMessage message = emailSender.createMessage(Session.getInstance(new Properties()), false);
+
+        MimeMultipart multipart = (MimeMultipart) message.getContent();
+        assertThat(multipart.getCount()).isEqualTo(3);
+        assertThat(multipart.getBodyPart(0).getContent()).isEqualTo("body");
+        assertThat(multipart.getBodyPart(1).getFileName()).isEqualTo("first.bin");
+        assertThat(multipart.getBodyPart(2).getFileName()).isEqualTo("second.txt");
+        assertThat(multipart.getBodyPart(2).getContent()).isEqualTo("text");
+    }
+
+    @Test
+    public void testMessageKeyDependsOnContent() {
+        EmailSender.Builder builder = new EmailSender.Builder().setHost("host")
+                                                               .setFrom("from@company.com")
+                                                               .addRecipient("to@company.com")
+                                                               .setSubject("subject")
+                                                               .setBody("body");
+        String key = builder.build().getMessageKey(false);
+
+        assertThat(builder.build().getMessageKey(false)).isEqualTo(key);
+        assertThat(builder.setBody("other body").build().getMessageKey(false)).isNotEqualTo(key);
+
+        builder.setBody("body");
+        String withAttachment = builder.addAttachment(Attachment.fromBytes("a.txt", new byte[] { 1 }, null))
+                                       .build()
+                                       .getMessageKey(false);
+        assertThat(withAttachment).isNotEqualTo(key);
+        builder.setAttachments(ImmutableList.of(Attachment.fromBytes("a.txt", new byte[] { 2 }, null)));
+        assertThat(builder.build().getMessageKey(false)).isNotEqualTo(withAttachment);
+
+        // a caller-supplied key replaces the content
+        String idempotencyKey = builder.setIdempotencyKey("job-1").build().getMessageKey(false);
+        assertThat(builder.setBody("other body").build().getMessageKey(false)).isEqualTo(idempotencyKey);
+    }
 }
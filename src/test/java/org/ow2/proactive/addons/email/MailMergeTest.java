@@ -0,0 +1,157 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+import org.ow2.proactive.addons.email.template.MessageTemplate;
+import org.ow2.proactive.addons.email.testing.FakeSmtpServer;
+import org.ow2.proactive.addons.email.testing.ReceivedMessage;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Unit tests related to {@link MailMerge}.
+ *
+ * @author ActiveEon Team
+ */
+public class MailMergeTest {
+
+    private static final MessageTemplate TEMPLATE = MessageTemplate.compile("Job ${job} finished",
+                                                                            "Dear ${name}, job ${job} has finished.");
+
+    private FakeSmtpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeSmtpServer.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testSendOverOneConnection() {
+        List<DeliveryOutcome> outcomes = createMailMerge().send(ImmutableList.of(recipient("alice", 1),
+                                                                                 recipient("bob", 2),
+                                                                                 recipient("carol", 3)));
+
+        assertThat(outcomes).hasSize(3);
+        for (DeliveryOutcome outcome : outcomes) {
+            assertThat(outcome.isSuccess()).isTrue();
+        }
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+
+        List<ReceivedMessage> messages = server.getReceivedMessages();
+        assertThat(messages).hasSize(3);
+        assertThat(messages.get(1).getFrom()).isEqualTo("from@company.com");
+        assertThat(messages.get(1).getRecipients()).containsExactly("bob@company.com", "cc@company.com").inOrder();
+        assertThat(messages.get(1).getContentAsString()).contains("Subject: Job 2 finished");
+        assertThat(messages.get(1).getContentAsString()).contains("Dear bob, job 2 has finished.");
+    }
+
+    @Test
+    public void testMessageThatCannotBeRenderedDoesNotStopTheOthers() {
+        // the job variable is missing
+        MailMerge.Recipient bob = MailMerge.Recipient.of("bob@company.com", ImmutableMap.of("name", "bob"));
+
+        List<DeliveryOutcome> outcomes = createMailMerge().send(ImmutableList.of(recipient("alice", 1),
+                                                                                 bob,
+                                                                                 recipient("carol", 3)));
+
+        assertThat(outcomes.get(0).isSuccess()).isTrue();
+        assertThat(outcomes.get(1).isSuccess()).isFalse();
+        assertThat(outcomes.get(1).getSender()).isNull();
+        assertThat(outcomes.get(1).getError()).isInstanceOf(MissingArgumentException.class);
+        assertThat(outcomes.get(2).isSuccess()).isTrue();
+        assertThat(outcomes.get(2).getSender().recipients).containsExactly("carol@company.com");
+        assertThat(server.getMessageCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSendThroughRelays() {
+        // no mail.smtp.host: the messages must go through the relay rather than to localhost:25
+        MailMerge mailMerge = new EmailSender.Builder(ImmutableMap.of(EmailSender.PROPERTY_MAIL_SMTP_RELAYS,
+                                                                      "localhost:" + server.getPort(),
+                                                                      EmailSender.PROPERTY_MAIL_SMTP_AUTH,
+                                                                      "false")).setFrom("from@company.com")
+                                                                               .buildMailMerge(TEMPLATE);
+
+        List<DeliveryOutcome> outcomes = mailMerge.send(ImmutableList.of(recipient("alice", 1), recipient("bob", 2)));
+
+        assertThat(outcomes.get(0).isSuccess()).isTrue();
+        assertThat(outcomes.get(1).isSuccess()).isTrue();
+        assertThat(server.getConnectionCount()).isEqualTo(1);
+        assertThat(server.getReceivedMessages().get(1).getRecipients()).containsExactly("bob@company.com");
+    }
+
+    @Test
+    public void testRenderSharesConfiguration() {
+        EmailSender.Builder builder = createBuilder();
+        MailMerge mailMerge = builder.buildMailMerge(TEMPLATE);
+
+        EmailSender first = mailMerge.render(recipient("alice", 1));
+        EmailSender second = mailMerge.render(recipient("bob", 2));
+
+        assertThat(first.subject).isEqualTo("Job 1 finished");
+        assertThat(second.body).isEqualTo("Dear bob, job 2 has finished.");
+        assertThat(second.cc).containsExactly("cc@company.com");
+        assertThat(first.getSmtpConfiguration()).isSameAs(second.getSmtpConfiguration());
+    }
+
+    @Test(expected = MissingArgumentException.class)
+    public void testBuildMailMergeWithoutFrom() {
+        new EmailSender.Builder().setHost("localhost").buildMailMerge(TEMPLATE);
+    }
+
+    private MailMerge createMailMerge() {
+        return createBuilder().buildMailMerge(TEMPLATE);
+    }
+
+    private EmailSender.Builder createBuilder() {
+        return new EmailSender.Builder().setHost("localhost")
+                                        .setPort(server.getPort())
+                                        .setAuth(false)
+                                        .setFrom("from@company.com")
+                                        .addCc("cc@company.com");
+    }
+
+    private static MailMerge.Recipient recipient(String name, int job) {
+        return MailMerge.Recipient.of(name + "@company.com", ImmutableMap.of("name", name, "job", job));
+    }
+
+}
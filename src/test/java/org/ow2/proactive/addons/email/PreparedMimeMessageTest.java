@@ -0,0 +1,119 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.attachment.Attachment;
+
+
+/**
+ * Unit tests related to {@link PreparedMimeMessage}.
+ *
+ * @author ActiveEon Team
+ */
+public class PreparedMimeMessageTest {
+
+    private Session session;
+
+    private SerializedBody body;
+
+    @Before
+    public void setUp() throws MessagingException {
+        session = Session.getInstance(new Properties());
+
+        Attachment attachment = Attachment.fromBytes("report.txt",
+                                                     "42".getBytes(StandardCharsets.US_ASCII),
+                                                     "text/plain");
+        EmailSender sender = new EmailSender.Builder().setFrom("from@company.com")
+                                                      .addRecipient("to@company.com")
+                                                      .setSubject("Report")
+                                                      .setBody("See attached.")
+                                                      .addAttachment(attachment)
+                                                      .build();
+        body = SerializedBody.of(sender.createMessage(session, false));
+    }
+
+    @After
+    public void tearDown() {
+        body.close();
+    }
+
+    @Test
+    public void testWriteToCopiesSerializedContent() throws IOException, MessagingException {
+        MimeMessage message = createMessage("first@company.com");
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        message.writeTo(content);
+        String written = content.toString("US-ASCII");
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        body.writeTo(serialized);
+
+        assertThat(written).contains("To: first@company.com\r\n");
+        assertThat(written).contains("Content-Type: " + body.getContentType() + "\r\n");
+        assertThat(written).contains("Message-ID: ");
+        assertThat(written).endsWith("\r\n\r\n" + serialized.toString("US-ASCII"));
+    }
+
+    @Test
+    public void testContentIsReadable() throws IOException, MessagingException {
+        MimeMessage message = createMessage("second@company.com");
+
+        Object content = message.getContent();
+
+        assertThat(content).isInstanceOf(Multipart.class);
+        Multipart multipart = (Multipart) content;
+        assertThat(multipart.getCount()).isEqualTo(2);
+        assertThat(multipart.getBodyPart(0).getContent()).isEqualTo("See attached.");
+        assertThat(multipart.getBodyPart(1).getFileName()).isEqualTo("report.txt");
+    }
+
+    private MimeMessage createMessage(String recipient) throws MessagingException {
+        MimeMessage message = new PreparedMimeMessage(session, body);
+        message.setFrom(new InternetAddress("from@company.com"));
+        message.addRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+        message.setSubject("Report");
+        message.saveChanges();
+        return message;
+    }
+
+}
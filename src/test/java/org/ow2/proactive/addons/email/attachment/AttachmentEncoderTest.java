@@ -0,0 +1,190 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.attachment;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Unit tests related to {@link AttachmentEncoder}.
+ *
+ * @author ActiveEon Team
+ */
+public class AttachmentEncoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @After
+    public void shutdownPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testPartsAreEncodedWhenWrittenByDefault() throws Exception {
+        Path file = folder.newFile("result.bin").toPath();
+        Files.write(file, randomBytes(1000));
+
+        Attachment stream = Attachment.fromStream("log.txt", new ByteArrayInputStream(new byte[10]), null);
+
+        List<MimeBodyPart> parts = new AttachmentEncoder().createBodyParts(Arrays.asList(Attachment.fromFile(file),
+                                                                                         stream));
+
+        assertThat(parts.get(0)).isInstanceOf(StreamingFileBodyPart.class);
+        // a stream can be read only once
+        assertThat(parts.get(1)).isInstanceOf(EncodedBodyPart.class);
+    }
+
+    @Test
+    public void testParallelEncodingRoundTrip() throws Exception {
+        byte[] binary = randomBytes(200000);
+        String text = "line with accents: \u00e9\u00e8\u00e0\r\nanother line\r\n";
+        byte[] fileContent = randomBytes(50000);
+        byte[] streamContent = randomBytes(3000);
+        Path file = folder.newFile("result.bin").toPath();
+        Files.write(file, fileContent);
+
+        List<Attachment> attachments = Arrays.asList(Attachment.fromBytes("data.bin", binary, null),
+                                                     Attachment.fromBytes("notes.txt",
+                                                                          text.getBytes(StandardCharsets.UTF_8),
+                                                                          "text/plain; charset=UTF-8"),
+                                                     Attachment.fromFile(file),
+                                                     Attachment.fromStream("stream.bin",
+                                                                           new ByteArrayInputStream(streamContent),
+                                                                           "application/octet-stream"));
+
+        // a low threshold spools the larger parts to temporary files
+        List<MimeBodyPart> parts = new AttachmentEncoder(pool, 4096).createBodyParts(attachments);
+        assertThat(parts).hasSize(4);
+        for (MimeBodyPart part : parts) {
+            assertThat(part).isInstanceOf(EncodedBodyPart.class);
+        }
+
+        MimeMessage parsed = roundTrip(parts);
+        MimeMultipart multipart = (MimeMultipart) parsed.getContent();
+
+        assertThat(multipart.getCount()).isEqualTo(4);
+        assertThat(content(multipart, 0)).isEqualTo(binary);
+        assertThat(((MimeBodyPart) multipart.getBodyPart(1)).getEncoding()).isEqualTo("quoted-printable");
+        assertThat(new String(content(multipart, 1), StandardCharsets.UTF_8)).isEqualTo(text);
+        assertThat(content(multipart, 2)).isEqualTo(fileContent);
+        assertThat(content(multipart, 3)).isEqualTo(streamContent);
+        assertThat(multipart.getBodyPart(3).getFileName()).isEqualTo("stream.bin");
+    }
+
+    @Test
+    public void testEncodedContentCanBeReadBeforeSending() throws Exception {
+        byte[] binary = randomBytes(10000);
+
+        Attachment attachment = Attachment.fromBytes("data.bin", binary, null);
+
+        List<MimeBodyPart> parts = new AttachmentEncoder(pool, 1024).createBodyParts(Arrays.asList(attachment));
+
+        try (InputStream in = parts.get(0).getInputStream()) {
+            assertThat(ByteStreams.toByteArray(in)).isEqualTo(binary);
+        }
+    }
+
+    @Test(expected = MessagingException.class)
+    public void testMissingFileFailsInParallel() throws Exception {
+        Path missing = folder.getRoot().toPath().resolve("missing.bin");
+
+        new AttachmentEncoder(pool).createBodyParts(Arrays.asList(Attachment.fromBytes("data.bin", new byte[10], null),
+                                                                  Attachment.fromFile(missing)));
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        Attachment attachment = Attachment.fromBytes("data.bin", randomBytes(1000), null);
+
+        List<MimeBodyPart> parts = new AttachmentEncoder(pool, 16).createBodyParts(Arrays.asList(attachment));
+        MimeMessage message = newMessage(parts);
+
+        AttachmentEncoder.release(message);
+
+        try (InputStream in = parts.get(0).getInputStream()) {
+            assertThat(ByteStreams.toByteArray(in)).isEmpty();
+        }
+    }
+
+    private static MimeMessage roundTrip(List<MimeBodyPart> parts) throws Exception {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        newMessage(parts).writeTo(serialized);
+        return new MimeMessage(Session.getInstance(new Properties()),
+                               new ByteArrayInputStream(serialized.toByteArray()));
+    }
+
+    private static MimeMessage newMessage(List<MimeBodyPart> parts) throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        MimeMultipart multipart = new MimeMultipart();
+        for (MimeBodyPart part : parts) {
+            multipart.addBodyPart(part);
+        }
+        message.setContent(multipart);
+        message.saveChanges();
+        return message;
+    }
+
+    private static byte[] content(MimeMultipart multipart, int index) throws Exception {
+        try (InputStream in = multipart.getBodyPart(index).getInputStream()) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.attachment;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.Random;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.ByteStreams;
+
+
+/**
+ * Unit tests related to {@link StreamingFileBodyPart}.
+ *
+ * @author ActiveEon Team
+ */
+public class StreamingFileBodyPartTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEncodingMatchesMimeBase64() throws Exception {
+        for (int size : new int[] { 0, 1, 56, 57, 58, 570, 571, 1140, 10000 }) {
+            byte[] content = randomBytes(size);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+            StreamingFileBodyPart.encodeBase64(Channels.newChannel(new ByteArrayInputStream(content)), encoded, 570);
+
+            String expected = Base64.getMimeEncoder().encodeToString(content);
+            if (size > 0) {
+                expected += "\r\n";
+            }
+            assertThat(new String(encoded.toByteArray(), StandardCharsets.US_ASCII)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testAttachmentRoundTrip() throws Exception {
+        byte[] content = randomBytes(300001);
+        Path file = folder.newFile("result.bin").toPath();
+        Files.write(file, content);
+
+        Session session = Session.getInstance(new Properties());
+        MimeMessage message = new MimeMessage(session);
+        MimeMultipart multipart = new MimeMultipart();
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText("body");
+        multipart.addBodyPart(text);
+        multipart.addBodyPart(new StreamingFileBodyPart(file, "result.bin", 1000));
+        message.setContent(multipart);
+        message.saveChanges();
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        message.writeTo(serialized);
+
+        for (String line : new String(serialized.toByteArray(), StandardCharsets.US_ASCII).split("\r\n")) {
+            assertThat(line.length()).isAtMost(998);
+        }
+
+        MimeMessage parsed = new MimeMessage(session, new ByteArrayInputStream(serialized.toByteArray()));
+        MimeBodyPart attachment = (MimeBodyPart) ((MimeMultipart) parsed.getContent()).getBodyPart(1);
+
+        assertThat(attachment.getFileName()).isEqualTo("result.bin");
+        assertThat(attachment.getEncoding()).isEqualTo("base64");
+        try (InputStream in = attachment.getInputStream()) {
+            assertThat(ByteStreams.toByteArray(in)).isEqualTo(content);
+        }
+    }
+
+    @Test
+    public void testTextFileIsNotScannedForEncoding() throws Exception {
+        Path file = folder.newFile("report.txt").toPath();
+        Files.write(file, "report".getBytes(StandardCharsets.US_ASCII));
+
+        StreamingFileBodyPart part = new StreamingFileBodyPart(file, "report.txt");
+        MimeMultipart multipart = new MimeMultipart();
+        multipart.addBodyPart(part);
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setContent(multipart);
+        message.saveChanges();
+
+        assertThat(part.getEncoding()).isEqualTo("base64");
+        assertThat(part.getContentType()).startsWith("text/plain");
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.circuit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.config.SmtpConfiguration;
+
+
+/**
+ * Unit tests related to {@link CircuitBreakerRegistry}.
+ *
+ * @author ActiveEon Team
+ */
+public class CircuitBreakerRegistryTest {
+
+    private final CircuitBreakerRegistry registry = CircuitBreakerRegistry.getInstance();
+
+    @Before
+    public void setUp() {
+        // the registry is shared with the other tests of the JVM
+        registry.clear();
+    }
+
+    @After
+    public void tearDown() {
+        registry.clear();
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertThat(registry.get(SmtpConfiguration.of(createProperties("smtp.company.com")))).isNull();
+    }
+
+    @Test
+    public void testOneBreakerPerServer() {
+        Properties properties = createProperties("smtp.company.com");
+        properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE, "true");
+        Properties otherServer = createProperties("smtp2.company.com");
+        otherServer.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE, "true");
+
+        CircuitBreaker breaker = registry.get(SmtpConfiguration.of(properties));
+
+        assertThat(breaker.getName()).isEqualTo("smtp.company.com:25");
+        assertThat(registry.get(SmtpConfiguration.of(properties))).isSameAs(breaker);
+        assertThat(registry.get(SmtpConfiguration.of(otherServer))).isNotSameAs(breaker);
+        assertThat(registry.getStates()).containsExactly("smtp.company.com:25",
+                                                         CircuitBreaker.State.CLOSED,
+                                                         "smtp2.company.com:25",
+                                                         CircuitBreaker.State.CLOSED)
+                                        .inOrder();
+    }
+
+    @Test
+    public void testSettingsAreReadFromTheProperties() {
+        Properties properties = createProperties("smtp.company.com");
+        properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_ENABLE, "true");
+        properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_FAILURE_RATE, "100");
+        properties.put(CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_WINDOW, "2");
+
+        CircuitBreaker breaker = registry.get(SmtpConfiguration.of(properties));
+        breaker.acquirePermission();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private static Properties createProperties(String host) {
+        Properties properties = new Properties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, host);
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, "25");
+        return properties;
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.circuit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.circuit.CircuitBreaker.State;
+import org.ow2.proactive.addons.email.exception.CircuitOpenException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * Unit tests related to {@link CircuitBreaker}.
+ *
+ * @author ActiveEon Team
+ */
+public class CircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(10);
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final CircuitBreaker breaker = createBreaker();
+
+    @Test
+    public void testBreakerOpensOnceTheFailureRateIsReached() {
+        call(true);
+        assertThat(breaker.getFailureRate()).isWithin(0.001f).of(-1f);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+
+        call(false);
+        call(false);
+        call(true);
+        assertThat(breaker.getFailureRate()).isWithin(0.001f).of(50f);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getOpenedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testOldCallsLeaveTheWindow() {
+        call(true);
+        for (int i = 0; i < 4; i++) {
+            call(false);
+        }
+        call(true);
+
+        // the first failure is out of the window of the last four calls
+        assertThat(breaker.getFailureRate()).isWithin(0.001f).of(25f);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    }
+
+    @Test
+    public void testOpenBreakerRefusesCalls() {
+        open();
+
+        try {
+            breaker.acquirePermission();
+            throw new AssertionError("The call should have been refused");
+        } catch (CircuitOpenException e) {
+            assertThat(e.getName()).isEqualTo("smtp.company.com:25");
+            assertThat(e.getRemainingOpenTime()).isEqualTo(OPEN_DURATION);
+        }
+        assertThat(breaker.getNotPermittedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHalfOpenBreakerClosesAfterSuccessfulTrialCalls() {
+        open();
+        ticker.advance(OPEN_DURATION.toNanos());
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+
+        breaker.acquirePermission();
+        breaker.acquirePermission();
+        try {
+            breaker.acquirePermission();
+            throw new AssertionError("Only two trial calls are allowed");
+        } catch (CircuitOpenException e) {
+            assertThat(e.getRemainingOpenTime()).isEqualTo(Duration.ZERO);
+        }
+
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getFailureRate()).isWithin(0.001f).of(-1f);
+    }
+
+    @Test
+    public void testHalfOpenBreakerOpensAgainOnFailure() {
+        open();
+        ticker.advance(OPEN_DURATION.toNanos());
+
+        call(false);
+        call(true);
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.getOpenedCount()).isEqualTo(2);
+        ticker.advance(TimeUnit.SECONDS.toNanos(1));
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    public void testOutcomesOfCallsStartedBeforeOpeningAreIgnored() {
+        breaker.acquirePermission();
+        open();
+
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidFailureRateThreshold() {
+        new CircuitBreaker.Builder("smtp.company.com:25").setFailureRateThreshold(0).build();
+    }
+
+    private CircuitBreaker createBreaker() {
+        return new CircuitBreaker.Builder("smtp.company.com:25").setWindow(4, 2)
+                                                                .setOpenDuration(OPEN_DURATION)
+                                                                .setHalfOpenCalls(2)
+                                                                .setTicker(ticker)
+                                                                .build();
+    }
+
+    private void open() {
+        call(true);
+        call(true);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    private void call(boolean failed) {
+        breaker.acquirePermission();
+        if (failed) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private volatile long nanos = 1;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long delta) {
+            nanos += delta;
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.config;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.circuit.CircuitBreakerRegistry;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+import org.ow2.proactive.addons.email.transport.SessionCache;
+
+
+/**
+ * Unit tests related to {@link SmtpConfiguration}.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpConfigurationTest {
+
+    private Properties properties;
+
+    @Before
+    public void setUp() {
+        properties = new Properties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, "smtp.company.com");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, "587");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_AUTH, "TRUE");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_USERNAME, "user");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD, "123456");
+        properties.put("mail.smtp.connectiontimeout", 30000);
+        properties.put("not.a.mail.property", "ignored");
+    }
+
+    @Test
+    public void testDeclaredPropertiesAreTyped() {
+        SmtpConfiguration configuration = SmtpConfiguration.of(properties);
+
+        assertThat(configuration.get(EmailSender.PROPERTY_MAIL_SMTP_PORT)).isEqualTo(587);
+        assertThat(configuration.get(EmailSender.PROPERTY_MAIL_SMTP_AUTH)).isEqualTo(true);
+        assertThat(configuration.get("mail.smtp.connectiontimeout")).isEqualTo(30000);
+        // a numeric password stays a string
+        assertThat(configuration.get(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD)).isEqualTo("123456");
+        assertThat(configuration.getProperties()).doesNotContainKey("not.a.mail.property");
+    }
+
+    @Test
+    public void testUndeclaredPropertiesAreGuessed() {
+        properties.put("mail.smtp.custom.flag", "false");
+        properties.put("mail.smtp.custom.count", "12");
+        properties.put("mail.smtp.custom.name", "value");
+
+        SmtpConfiguration configuration = SmtpConfiguration.of(properties);
+
+        assertThat(configuration.get("mail.smtp.custom.flag")).isEqualTo(false);
+        assertThat(configuration.get("mail.smtp.custom.count")).isEqualTo(12);
+        assertThat(configuration.get("mail.smtp.custom.name")).isEqualTo("value");
+    }
+
+    @Test
+    public void testOpenTimeAcceptsLongValues() {
+        String openTime = CircuitBreakerRegistry.PROPERTY_MAIL_SMTP_CIRCUIT_BREAKER_OPEN_TIME;
+        properties.put(openTime, 3000000000L);
+
+        assertThat(SmtpConfiguration.of(properties).get(openTime)).isEqualTo(3000000000L);
+    }
+
+    @Test(expected = ConversionException.class)
+    public void testInvalidDeclaredProperty() {
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, "smtp");
+
+        SmtpConfiguration.of(properties);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPropertiesAreUnmodifiable() {
+        SmtpConfiguration.of(properties).getProperties().put(EmailSender.PROPERTY_MAIL_SMTP_PORT, 25);
+    }
+
+    @Test
+    public void testToPropertiesReturnsModifiableCopy() {
+        SmtpConfiguration configuration = SmtpConfiguration.of(properties);
+
+        Properties copy = configuration.toProperties();
+        copy.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, 25);
+
+        assertThat(configuration.get(EmailSender.PROPERTY_MAIL_SMTP_PORT)).isEqualTo(587);
+    }
+
+    @Test
+    public void testDerivedValues() {
+        SmtpConfiguration configuration = SmtpConfiguration.of(properties);
+
+        assertThat(configuration.getEndpoint().getHost()).isEqualTo("smtp.company.com");
+        assertThat(configuration.getEndpoint().getPort()).isEqualTo(587);
+        assertThat(configuration.getFingerprint()).isEqualTo(SessionCache.fingerprint(configuration.getProperties()));
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.collect.ImmutableList;
+
+
+/**
+ * Unit tests associated to {@link AddressParser}.
+ *
+ * @author ActiveEon Team
+ */
+public class AddressParserTest {
+
+    private final AddressParser parser = new AddressParser(2);
+
+    @Test
+    public void testParseSingleAddress() {
+        List<InternetAddress> addresses = parser.parse("john@company.com");
+
+        assertThat(addresses).hasSize(1);
+        assertThat(addresses.get(0).getAddress()).isEqualTo("john@company.com");
+    }
+
+    @Test
+    public void testParseList() {
+        List<InternetAddress> addresses = parser.parse("\"Doe, Jane\" <jane@company.com>, john@company.com");
+
+        assertThat(addresses).hasSize(2);
+        assertThat(addresses.get(0).getPersonal()).isEqualTo("Doe, Jane");
+        assertThat(addresses.get(0).getAddress()).isEqualTo("jane@company.com");
+        assertThat(addresses.get(1).getAddress()).isEqualTo("john@company.com");
+    }
+
+    @Test
+    public void testParseFallsBackToJavaMail() {
+        // local addresses were accepted by javax.mail, they still are
+        assertThat(parser.parse("root").get(0).getAddress()).isEqualTo("root");
+        assertThat(parser.parse("\"john doe\"@company.com").get(0).getAddress()).isEqualTo("\"john doe\"@company.com");
+    }
+
+    @Test
+    public void testParseIsCached() {
+        List<InternetAddress> first = parser.parse("john@company.com");
+
+        assertThat(parser.parse("john@company.com")).isSameAs(first);
+        assertThat(parser.size()).isEqualTo(1);
+
+        parser.parse("a@company.com");
+        parser.parse("b@company.com");
+        assertThat(parser.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testParseInvalidAddress() {
+        try {
+            parser.parse("john@company.com, jane@@company..com>");
+            fail("The address should have been rejected");
+        } catch (InvalidArgumentException e) {
+            assertThat(e.getMessage()).contains("'jane@@company..com>'");
+        }
+        assertThat(parser.size()).isEqualTo(0);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testParseEmptyEntry() {
+        parser.parse(" , ");
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testParseNullEntry() {
+        parser.parseAll(Arrays.asList("a@company.com", null));
+    }
+
+    @Test
+    public void testParseAll() {
+        InternetAddress[] addresses = parser.parseAll(ImmutableList.of("a@company.com, b@company.com",
+                                                                       "c@company.com"));
+
+        assertThat(addresses).hasLength(3);
+        assertThat(addresses[2].getAddress()).isEqualTo("c@company.com");
+        assertThat(parser.parseAll(null)).isEmpty();
+    }
+
+    @Test
+    public void testSplit() {
+        assertThat(AddressParser.split("f, g,h,  i,")).containsExactly("f", "g", "h", "i").inOrder();
+        assertThat(AddressParser.split("\"Doe, Jane\" <jane@company.com>,john@company.com"))
+                  .containsExactly("\"Doe, Jane\" <jane@company.com>", "john@company.com")
+                  .inOrder();
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testSplitUnclosedQuote() {
+        AddressParser.split("\"Doe, Jane <jane@company.com>");
+    }
+
+}
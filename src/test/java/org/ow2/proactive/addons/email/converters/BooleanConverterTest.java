@@ -67,6 +67,14 @@ public class BooleanConverterTest extends ConverterTest<Boolean> {
         testConvert("param", "");
     }
 
+    @Test
+    public void testTryConvert() {
+        assertThat(testTryConvert("TRUE")).isTrue();
+        assertThat(testTryConvert("false")).isFalse();
+        assertThat(testTryConvert("yes")).isNull();
+        assertThat(testTryConvert(null)).isNull();
+    }
+
     @Test(expected = ConversionException.class)
     public void testTrueTrailingSpace() throws ConversionException {
         testConvert("param", "True ");
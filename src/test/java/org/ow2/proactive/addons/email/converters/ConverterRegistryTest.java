@@ -0,0 +1,81 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * Unit tests associated to {@link ConverterRegistry}.
+ *
+ * @author ActiveEon Team
+ */
+public class ConverterRegistryTest {
+
+    @Test
+    public void testDefaultConverters() {
+        ConverterRegistry registry = ConverterRegistry.getInstance();
+
+        assertThat(registry.tryConvert(Integer.class, "25")).isEqualTo(25);
+        assertThat(registry.tryConvert(Long.class, "25")).isEqualTo(25L);
+        assertThat(registry.tryConvert(Boolean.class, "true")).isTrue();
+        assertThat(registry.tryConvert(Duration.class, "25s")).isEqualTo(Duration.ofSeconds(25));
+        assertThat(registry.tryConvert(InetSocketAddress.class, "localhost:25").getPort()).isEqualTo(25);
+        assertThat(registry.tryConvert(ConverterRegistry.ADDRESS_LIST, "a@company.com, b@company.com")).hasSize(2);
+    }
+
+    @Test
+    public void testTryConvertInvalidValue() {
+        assertThat(ConverterRegistry.getInstance().tryConvert(Integer.class, "smtp")).isNull();
+    }
+
+    @Test(expected = ConversionException.class)
+    public void testConvertInvalidValue() {
+        ConverterRegistry.getInstance().convert(Boolean.class, "param", "smtp");
+    }
+
+    @Test
+    public void testRegister() {
+        ConverterRegistry registry = new ConverterRegistry();
+        registry.register(BigDecimal.class, (name, value) -> new BigDecimal(value));
+
+        assertThat(registry.tryConvert(BigDecimal.class, "1.5")).isEqualTo(new BigDecimal("1.5"));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testUnknownType() {
+        new ConverterRegistry().getConverter(BigDecimal.class);
+    }
+
+}
@@ -55,6 +55,14 @@ public abstract class ConverterTest<T> {
         }
     }
 
+    public T testTryConvert(String parameterValue) {
+        try {
+            return getConverter().tryConvert(parameterValue);
+        } catch (IllegalAccessException | InstantiationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private Converter<T> getConverter() throws InstantiationException, IllegalAccessException {
         return converterClass.newInstance();
     }
@@ -0,0 +1,81 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Unit tests associated to {@link DurationConverter}.
+ *
+ * @author ActiveEon Team
+ */
+public class DurationConverterTest extends ConverterTest<Duration> {
+
+    public DurationConverterTest() {
+        super(DurationConverter.class);
+    }
+
+    @Test
+    public void testConvertMilliseconds() throws ConversionException {
+        assertThat(testConvert("param", "30000")).isEqualTo(Duration.ofSeconds(30));
+        assertThat(testConvert("param", "250ms")).isEqualTo(Duration.ofMillis(250));
+    }
+
+    @Test
+    public void testConvertUnits() throws ConversionException {
+        assertThat(testConvert("param", "30s")).isEqualTo(Duration.ofSeconds(30));
+        assertThat(testConvert("param", "5m")).isEqualTo(Duration.ofMinutes(5));
+        assertThat(testConvert("param", "2h")).isEqualTo(Duration.ofHours(2));
+        assertThat(testConvert("param", "1d")).isEqualTo(Duration.ofDays(1));
+    }
+
+    @Test
+    public void testConvertIsoFormat() throws ConversionException {
+        assertThat(testConvert("param", "PT1M30S")).isEqualTo(Duration.ofSeconds(90));
+    }
+
+    @Test(expected = ConversionException.class)
+    public void testConvertUnknownUnit() throws ConversionException {
+        testConvert("param", "3w");
+    }
+
+    @Test
+    public void testTryConvert() {
+        assertThat(testTryConvert(" 10s ")).isEqualTo(Duration.ofSeconds(10));
+        assertThat(testTryConvert("PTXS")).isNull();
+        assertThat(testTryConvert("s")).isNull();
+        assertThat(testTryConvert("ten seconds")).isNull();
+        assertThat(testTryConvert("9223372036854775807d")).isNull();
+        assertThat(testTryConvert(null)).isNull();
+    }
+
+}
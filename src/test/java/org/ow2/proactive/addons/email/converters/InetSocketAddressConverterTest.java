@@ -0,0 +1,79 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Unit tests associated to {@link InetSocketAddressConverter}.
+ *
+ * @author ActiveEon Team
+ */
+public class InetSocketAddressConverterTest extends ConverterTest<InetSocketAddress> {
+
+    public InetSocketAddressConverterTest() {
+        super(InetSocketAddressConverter.class);
+    }
+
+    @Test
+    public void testConvertHostAndPort() throws ConversionException {
+        InetSocketAddress address = testConvert("param", "smtp.company.com:587");
+
+        assertThat(address.getHostString()).isEqualTo("smtp.company.com");
+        assertThat(address.getPort()).isEqualTo(587);
+        assertThat(address.isUnresolved()).isTrue();
+    }
+
+    @Test
+    public void testConvertIpv6() throws ConversionException {
+        InetSocketAddress address = testConvert("param", "[::1]:25");
+
+        assertThat(address.getHostString()).isEqualTo("::1");
+        assertThat(address.getPort()).isEqualTo(25);
+    }
+
+    @Test(expected = ConversionException.class)
+    public void testConvertMissingPort() throws ConversionException {
+        testConvert("param", "smtp.company.com");
+    }
+
+    @Test
+    public void testTryConvert() {
+        assertThat(testTryConvert("smtp.company.com:65536")).isNull();
+        assertThat(testTryConvert("smtp.company.com:-1")).isNull();
+        assertThat(testTryConvert(":25")).isNull();
+        assertThat(testTryConvert("::1:25")).isNull();
+        assertThat(testTryConvert("[]:25")).isNull();
+        assertThat(testTryConvert(null)).isNull();
+    }
+
+}
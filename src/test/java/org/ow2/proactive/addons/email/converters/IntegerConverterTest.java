@@ -62,6 +62,28 @@ public class IntegerConverterTest extends ConverterTest<Integer> {
         assertThat(testConvert("param", Integer.toString(Integer.MIN_VALUE))).isEqualTo(Integer.MIN_VALUE);
     }
 
+    @Test
+    public void testConvertSigned() throws ConversionException {
+        assertThat(testConvert("param", "+25")).isEqualTo(25);
+        assertThat(testConvert("param", "-25")).isEqualTo(-25);
+    }
+
+    @Test(expected = ConversionException.class)
+    public void testConvertOverflow() throws ConversionException {
+        testConvert("param", "2147483648");
+    }
+
+    @Test
+    public void testTryConvert() {
+        assertThat(testTryConvert("587")).isEqualTo(587);
+        assertThat(testTryConvert("-2147483648")).isEqualTo(Integer.MIN_VALUE);
+        assertThat(testTryConvert("-2147483649")).isNull();
+        assertThat(testTryConvert("smtp.company.com")).isNull();
+        assertThat(testTryConvert("-")).isNull();
+        assertThat(testTryConvert("")).isNull();
+        assertThat(testTryConvert(null)).isNull();
+    }
+
     @Test(expected = ConversionException.class)
     public void testConvertDouble() throws ConversionException {
         assertThat(testConvert("param", "3.1415"));
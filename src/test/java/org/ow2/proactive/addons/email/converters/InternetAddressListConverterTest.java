@@ -0,0 +1,78 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Unit tests associated to {@link InternetAddressListConverter}.
+ *
+ * @author ActiveEon Team
+ */
+public class InternetAddressListConverterTest extends ConverterTest<List<InternetAddress>> {
+
+    public InternetAddressListConverterTest() {
+        super(InternetAddressListConverter.class);
+    }
+
+    @Test
+    public void testConvertList() throws ConversionException {
+        List<InternetAddress> addresses = testConvert("param",
+                                                      "john@company.com, \"Doe, Jane\" <jane@company.com>,, " +
+                                                               "Bob <bob@company.com>");
+
+        assertThat(addresses).hasSize(3);
+        assertThat(addresses.get(0).getAddress()).isEqualTo("john@company.com");
+        assertThat(addresses.get(1).getAddress()).isEqualTo("jane@company.com");
+        assertThat(addresses.get(1).getPersonal()).isEqualTo("Doe, Jane");
+        assertThat(addresses.get(2).getPersonal()).isEqualTo("Bob");
+    }
+
+    @Test(expected = ConversionException.class)
+    public void testConvertInvalidAddress() throws ConversionException {
+        testConvert("param", "john@company.com, jane");
+    }
+
+    @Test
+    public void testTryConvert() {
+        assertThat(testTryConvert("john@company.com")).hasSize(1);
+        assertThat(testTryConvert("john doe@company.com")).isNull();
+        assertThat(testTryConvert("john@")).isNull();
+        assertThat(testTryConvert("Jane <jane@company.com")).isNull();
+        assertThat(testTryConvert("\"Jane <jane@company.com>")).isNull();
+        assertThat(testTryConvert(" , ")).isNull();
+        assertThat(testTryConvert(null)).isNull();
+    }
+
+}
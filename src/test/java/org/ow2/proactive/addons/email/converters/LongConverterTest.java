@@ -0,0 +1,63 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.converters;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.ConversionException;
+
+
+/**
+ * Unit tests associated to {@link LongConverter}.
+ *
+ * @author ActiveEon Team
+ */
+public class LongConverterTest extends ConverterTest<Long> {
+
+    public LongConverterTest() {
+        super(LongConverter.class);
+    }
+
+    @Test
+    public void testConvertBounds() throws ConversionException {
+        assertThat(testConvert("param", Long.toString(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+        assertThat(testConvert("param", Long.toString(Long.MIN_VALUE))).isEqualTo(Long.MIN_VALUE);
+    }
+
+    @Test(expected = ConversionException.class)
+    public void testConvertOverflow() throws ConversionException {
+        testConvert("param", "9223372036854775808");
+    }
+
+    @Test
+    public void testTryConvert() {
+        assertThat(testTryConvert("30000")).isEqualTo(30000L);
+        assertThat(testTryConvert("-9223372036854775809")).isNull();
+        assertThat(testTryConvert("12a")).isNull();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.dedup;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * Unit tests related to {@link DuplicateFilter}.
+ *
+ * @author ActiveEon Team
+ */
+public class DuplicateFilterTest {
+
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(1000);
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.getRoot().toPath().resolve("sent-messages");
+    }
+
+    @Test
+    public void testDuplicateIsRejectedWithinTtl() {
+        DuplicateFilter filter = new DuplicateFilter(10, null, clock::get);
+
+        assertThat(filter.tryAcquire("key", TTL)).isTrue();
+        assertThat(filter.tryAcquire("key", TTL)).isFalse();
+        assertThat(filter.contains("key")).isTrue();
+        assertThat(filter.tryAcquire("other", TTL)).isTrue();
+
+        clock.addAndGet(TTL.toMillis());
+        assertThat(filter.contains("key")).isFalse();
+        assertThat(filter.tryAcquire("key", TTL)).isTrue();
+    }
+
+    @Test
+    public void testReleasedKeyCanBeAcquiredAgain() {
+        DuplicateFilter filter = new DuplicateFilter(10, null, clock::get);
+
+        assertThat(filter.tryAcquire("key", TTL)).isTrue();
+        filter.release("key");
+
+        assertThat(filter.contains("key")).isFalse();
+        assertThat(filter.tryAcquire("key", TTL)).isTrue();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedKeyIsForgottenWhenFull() {
+        DuplicateFilter filter = new DuplicateFilter(2, null, clock::get);
+
+        filter.tryAcquire("a", TTL);
+        filter.tryAcquire("b", TTL);
+        filter.tryAcquire("c", TTL);
+
+        assertThat(filter.size()).isEqualTo(2L);
+        assertThat(filter.contains("a")).isFalse();
+        assertThat(filter.contains("c")).isTrue();
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testKeyWithWhitespaceIsRejected() {
+        new DuplicateFilter(10).tryAcquire("job 1", TTL);
+    }
+
+    @Test
+    public void testKeysSurviveRestart() {
+        try (DuplicateFilter filter = DuplicateFilter.open(new FileDedupStore(file), 10, clock::get)) {
+            filter.tryAcquire("sent", TTL);
+            filter.tryAcquire("expired", Duration.ofSeconds(1));
+            filter.tryAcquire("failed", TTL);
+            filter.release("failed");
+        }
+
+        clock.addAndGet(TimeUnit.MINUTES.toMillis(1));
+        try (DuplicateFilter filter = DuplicateFilter.open(new FileDedupStore(file), 10, clock::get)) {
+            assertThat(filter.size()).isEqualTo(1L);
+            assertThat(filter.tryAcquire("sent", TTL)).isFalse();
+            assertThat(filter.tryAcquire("expired", TTL)).isTrue();
+            assertThat(filter.tryAcquire("failed", TTL)).isTrue();
+        }
+    }
+
+    @Test
+    public void testFileIsCompactedWhenItGrows() throws IOException {
+        FileDedupStore store = new FileDedupStore(file);
+        try (DuplicateFilter filter = DuplicateFilter.open(store, 10, clock::get)) {
+            for (int i = 0; i < 2000; i++) {
+                filter.tryAcquire("key" + i, TTL);
+            }
+
+            // only the last keys are remembered by the filter, hence kept in the file
+            assertThat(store.getRecordCount()).isLessThan(1100);
+            assertThat(Files.readAllLines(file, StandardCharsets.UTF_8).size()).isEqualTo(store.getRecordCount());
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.dedup;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Unit tests related to {@link FileDedupStore}.
+ *
+ * @author ActiveEon Team
+ */
+public class FileDedupStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadSkipsExpiredRemovedAndTruncatedRecords() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("sent-messages");
+        Files.write(file,
+                    Arrays.asList("+live 5000", "+expired 500", "+removed 5000", "-removed", "+truncated"),
+                    StandardCharsets.UTF_8);
+
+        try (FileDedupStore store = new FileDedupStore(file)) {
+            Map<String, Long> entries = store.load(1000);
+
+            assertThat(entries).containsExactly("live", 5000L);
+            // the file is compacted
+            assertThat(store.getRecordCount()).isEqualTo(1);
+            assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).containsExactly("+live 5000");
+        }
+    }
+
+    @Test
+    public void testRecordsAreAppended() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("sent-messages");
+
+        try (FileDedupStore store = new FileDedupStore(file)) {
+            assertThat(store.load(0)).isEmpty();
+            store.put("a", 100);
+            store.put("b", 200);
+            store.remove("a");
+            assertThat(store.getRecordCount()).isEqualTo(3);
+        }
+
+        try (FileDedupStore store = new FileDedupStore(file)) {
+            assertThat(store.load(0)).containsExactly("b", 200L);
+
+            store.rewrite(ImmutableMap.of("c", 300L));
+            assertThat(store.load(0)).containsExactly("c", 300L);
+        }
+    }
+
+}
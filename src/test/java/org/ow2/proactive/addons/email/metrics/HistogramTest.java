@@ -0,0 +1,111 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests related to {@link Histogram}.
+ *
+ * @author ActiveEon Team
+ */
+public class HistogramTest {
+
+    @Test
+    public void testEmptySnapshot() {
+        HistogramSnapshot snapshot = new Histogram().snapshot();
+
+        assertThat(snapshot.getCount()).isEqualTo(0);
+        assertThat(snapshot.getMax()).isEqualTo(0);
+        assertThat(snapshot.getMedian()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int value = 1; value <= 10; value++) {
+            histogram.record(value);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(10);
+        assertThat(snapshot.getMin()).isEqualTo(1);
+        assertThat(snapshot.getMax()).isEqualTo(10);
+        assertThat(snapshot.getMean()).isWithin(0.001).of(5.5);
+        assertThat(snapshot.getMedian()).isEqualTo(5);
+        assertThat(snapshot.getPercentile90()).isEqualTo(9);
+        assertThat(snapshot.getValueAtPercentile(100)).isEqualTo(10);
+    }
+
+    @Test
+    public void testPercentilesOfLargeValuesAreWithinRelativeError() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertThat((double) snapshot.getMedian()).isWithin(50000000 * 0.032).of(50000000);
+        assertThat((double) snapshot.getPercentile99()).isWithin(99000000 * 0.032).of(99000000);
+        assertThat(snapshot.getValueAtPercentile(100)).isEqualTo(100000000);
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        long[] values = { 0, 31, 32, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE };
+        for (long value : values) {
+            int index = Histogram.bucketIndex(value);
+            assertThat(Histogram.highestValue(index)).isAtLeast(value);
+            if (index > 0) {
+                assertThat(Histogram.highestValue(index - 1)).isLessThan(value);
+            }
+        }
+    }
+
+    @Test
+    public void testNegativeValuesAreRecordedAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertThat(histogram.snapshot().getMin()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(42);
+        histogram.reset();
+        histogram.record(7);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1);
+        assertThat(snapshot.getMax()).isEqualTo(7);
+    }
+
+}
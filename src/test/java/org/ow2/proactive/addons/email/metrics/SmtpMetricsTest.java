@@ -0,0 +1,132 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests related to {@link SmtpMetrics}.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpMetricsTest {
+
+    @Test
+    public void testRecord() {
+        SmtpMetrics metrics = new SmtpMetrics();
+        metrics.recordConnect(1000);
+        metrics.recordTransaction(2000);
+        metrics.recordSuccess(512, 3, 250);
+        metrics.recordSuccess(-1, 1, 250);
+        metrics.recordFailure(550);
+        metrics.recordFailure(-1);
+
+        assertThat(metrics.getSuccessCount()).isEqualTo(2);
+        assertThat(metrics.getFailureCount()).isEqualTo(2);
+        assertThat(metrics.getConnectTime().getMax()).isEqualTo(1000);
+        assertThat(metrics.getTransactionTime().getCount()).isEqualTo(1);
+        assertThat(metrics.getMessageSize().getCount()).isEqualTo(1);
+        assertThat(metrics.getRecipientCount().getMax()).isEqualTo(3);
+
+        Map<Integer, Long> replyCodes = metrics.getReplyCodeCounts();
+        assertThat(replyCodes).containsEntry(250, 2L);
+        assertThat(replyCodes).containsEntry(550, 1L);
+        assertThat(replyCodes).containsEntry(-1, 1L);
+
+        metrics.reset();
+        assertThat(metrics.getSuccessCount()).isEqualTo(0);
+        assertThat(metrics.getReplyCodeCounts()).isEmpty();
+    }
+
+    @Test
+    public void testNoopIsDisabled() {
+        assertThat(EmailMetrics.noop().isEnabled()).isFalse();
+        assertThat(new SmtpMetrics().isEnabled()).isTrue();
+    }
+
+    @Test
+    public void testExport() {
+        SmtpMetrics metrics = new SmtpMetrics();
+        metrics.recordSuccess(100, 1, 250);
+        metrics.recordFailure(451);
+
+        Map<String, Object> exported = new HashMap<>();
+        metrics.exportTo(new MetricsExporter() {
+            @Override
+            public void counter(String name, Map<String, String> tags, long count) {
+                exported.put(name + tags, count);
+            }
+
+            @Override
+            public void gauge(String name, Map<String, String> tags, double value) {
+                exported.put(name + tags, value);
+            }
+
+            @Override
+            public void histogram(String name, Map<String, String> tags, HistogramSnapshot snapshot) {
+                exported.put(name + tags, snapshot.getCount());
+            }
+        });
+
+        assertThat(exported).containsEntry("email.send.success{}", 1L);
+        assertThat(exported).containsEntry("email.send.failure{}", 1L);
+        assertThat(exported).containsEntry("email.send.replies{code=451}", 1L);
+        assertThat(exported).containsEntry("email.message.size{}", 1L);
+        // no pool is monitored
+        assertThat(exported).doesNotContainKey("email.pool.idle{}");
+    }
+
+    @Test
+    public void testRegisterMBean() throws Exception {
+        SmtpMetrics metrics = new SmtpMetrics();
+        metrics.recordSuccess(100, 2, 250);
+
+        ObjectName name = metrics.register("SmtpMetricsTest");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertThat(server.getAttribute(name, "SuccessCount")).isEqualTo(1L);
+
+            CompositeData recipients = (CompositeData) server.getAttribute(name, "RecipientCount");
+            assertThat(recipients.get("max")).isEqualTo(2L);
+        } finally {
+            metrics.unregister();
+        }
+
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name)).isFalse();
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.mx;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * Unit tests related to {@link CachingMxResolver}.
+ *
+ * @author ActiveEon Team
+ */
+public class CachingMxResolverTest {
+
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final CountingResolver delegate = new CountingResolver();
+
+    private final CachingMxResolver resolver = new CachingMxResolver(delegate, TTL_MILLIS, 10, ticker);
+
+    @Test
+    public void testRecordsAreCachedUntilTheirTimeToLiveExpires() {
+        List<MxRecord> records = resolver.resolve("company.com");
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(TTL_MILLIS - 1));
+        assertThat(resolver.resolve("company.com")).isSameAs(records);
+        assertThat(delegate.lookups.get()).isEqualTo(1);
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(resolver.resolve("company.com")).isEqualTo(records);
+        assertThat(delegate.lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDomainsAreCachedSeparately() {
+        resolver.resolve("company.com");
+        resolver.resolve("partner.org");
+
+        assertThat(resolver.size()).isEqualTo(2);
+        assertThat(delegate.lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        try {
+            resolver.resolve("unknown.net");
+            throw new AssertionError("The domain should not have been resolved");
+        } catch (EmailException e) {
+            assertThat(e.getMessage()).isEqualTo("Unknown domain: unknown.net");
+        }
+
+        try {
+            resolver.resolve("unknown.net");
+            throw new AssertionError("The domain should not have been resolved");
+        } catch (EmailException e) {
+            assertThat(delegate.lookups.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        resolver.resolve("company.com");
+        resolver.invalidateAll();
+        resolver.resolve("company.com");
+
+        assertThat(delegate.lookups.get()).isEqualTo(2);
+    }
+
+    private static final class CountingResolver implements MxResolver {
+
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public List<MxRecord> resolve(String domain) {
+            lookups.incrementAndGet();
+            if (domain.startsWith("unknown")) {
+                throw new EmailException("Unknown domain: " + domain);
+            }
+            return Collections.singletonList(new MxRecord("mx." + domain, 10));
+        }
+
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private volatile long nanos = 1;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long delta) {
+            nanos += delta;
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.mx;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+
+/**
+ * Unit tests related to {@link DnsMxResolver}.
+ *
+ * @author ActiveEon Team
+ */
+public class DnsMxResolverTest {
+
+    @Test
+    public void testParseRecords() {
+        List<MxRecord> records = DnsMxResolver.parseRecords(Arrays.asList("20 mx2.company.com.",
+                                                                          "10 mx1.company.com."));
+
+        assertThat(records).containsExactly(new MxRecord("mx1.company.com", 10), new MxRecord("mx2.company.com", 20))
+                           .inOrder();
+        assertThat(records.get(0).getPort()).isEqualTo(MxRecord.DEFAULT_PORT);
+    }
+
+    @Test
+    public void testRecordsWithEqualPreferenceAreKept() {
+        List<MxRecord> records = DnsMxResolver.parseRecords(Arrays.asList("10 b.company.com.",
+                                                                          "10 a.company.com.",
+                                                                          "5 c.company.com."));
+
+        assertThat(records.get(0).getHost()).isEqualTo("c.company.com");
+        assertThat(records.subList(1, 3)).containsExactly(new MxRecord("a.company.com", 10),
+                                                          new MxRecord("b.company.com", 10));
+    }
+
+    @Test
+    public void testNullMxRecordIsIgnored() {
+        assertThat(DnsMxResolver.parseRecords(Arrays.asList("0 ."))).isEmpty();
+    }
+
+    @Test(expected = EmailException.class)
+    public void testMalformedRecord() {
+        DnsMxResolver.parseRecords(Arrays.asList("mx.company.com."));
+    }
+
+    @Test(expected = EmailException.class)
+    public void testMalformedPreference() {
+        DnsMxResolver.parseRecords(Arrays.asList("high mx.company.com."));
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.mx;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * Unit tests related to {@link StaticMxResolver}.
+ *
+ * @author ActiveEon Team
+ */
+public class StaticMxResolverTest {
+
+    @Test
+    public void testRecordsAreOrderedByPreference() {
+        StaticMxResolver resolver = new StaticMxResolver().add("Company.com", new MxRecord("mx2.company.com", 20))
+                                                          .add("company.com", new MxRecord("mx1.company.com", 10));
+
+        assertThat(resolver.resolve("COMPANY.COM")).containsExactly(new MxRecord("mx1.company.com", 10),
+                                                                    new MxRecord("mx2.company.com", 20))
+                                                   .inOrder();
+    }
+
+    @Test
+    public void testNullMx() {
+        assertThat(new StaticMxResolver().addNullMx("company.com").resolve("company.com")).isEmpty();
+    }
+
+    @Test(expected = EmailException.class)
+    public void testUnknownDomain() {
+        new StaticMxResolver().resolve("company.com");
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidPort() {
+        new MxRecord("mx.company.com", 0, 10);
+    }
+
+}
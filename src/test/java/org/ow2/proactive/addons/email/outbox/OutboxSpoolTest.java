@@ -0,0 +1,259 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.outbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.outbox.OutboxSpool.SpoolRecord;
+
+
+/**
+ * Unit tests related to {@link OutboxSpool}.
+ *
+ * @author ActiveEon Team
+ */
+public class OutboxSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndRead() throws IOException {
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            assertThat(spool.recover()).isEmpty();
+
+            SpoolRecord first = spool.append(bytes("first"));
+            SpoolRecord second = spool.append(bytes("second"));
+
+            assertThat(string(spool.read(first))).isEqualTo("first");
+            assertThat(string(spool.read(second))).isEqualTo("second");
+            assertThat(second.getId()).isGreaterThan(first.getId());
+        }
+    }
+
+    @Test
+    public void testUnacknowledgedRecordsAreRecovered() throws IOException {
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            spool.recover();
+            spool.append(bytes("first"));
+            SpoolRecord second = spool.append(bytes("second"));
+            spool.append(bytes("third"));
+            spool.acknowledge(second);
+        }
+
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            assertThat(contents(spool, spool.recover())).containsExactly("first", "third").inOrder();
+        }
+    }
+
+    @Test
+    public void testIdentifiersAreNotReusedAfterRecovery() throws IOException {
+        long lastId;
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            spool.recover();
+            lastId = spool.append(bytes("first")).getId();
+        }
+
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            spool.recover();
+            assertThat(spool.append(bytes("second")).getId()).isGreaterThan(lastId);
+        }
+    }
+
+    @Test
+    public void testIdentifiersAreNotReusedAfterDrainedRecovery() throws IOException {
+        long lastId;
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            spool.recover();
+            spool.acknowledge(spool.append(bytes("first")));
+            SpoolRecord second = spool.append(bytes("second"));
+            lastId = second.getId();
+            spool.acknowledge(second);
+        }
+
+        // the acknowledgment log is rewritten by each recovery
+        for (int i = 0; i < 2; i++) {
+            try (OutboxSpool spool = openSpool(1024, 4096)) {
+                assertThat(spool.recover()).isEmpty();
+                SpoolRecord next = spool.append(bytes("next"));
+                assertThat(next.getId()).isGreaterThan(lastId);
+                lastId = next.getId();
+                spool.acknowledge(next);
+            }
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            spool.recover();
+            spool.append(bytes("complete"));
+        }
+
+        Path segment = segments().get(0);
+        Files.write(segment, new byte[] { 0x4F, 0x42, 0x58, 0x4D, 0, 0, 0 }, StandardOpenOption.APPEND);
+
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            assertThat(contents(spool, spool.recover())).containsExactly("complete");
+            spool.append(bytes("next"));
+        }
+
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            assertThat(contents(spool, spool.recover())).containsExactly("complete", "next").inOrder();
+        }
+    }
+
+    @Test
+    public void testCorruptedRecordIsDiscarded() throws IOException {
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            spool.recover();
+            spool.append(bytes("first"));
+            spool.append(bytes("second"));
+        }
+
+        Path segment = segments().get(0);
+        byte[] content = Files.readAllBytes(segment);
+        content[content.length - 1] ^= 0xFF;
+        Files.write(segment, content);
+
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            assertThat(contents(spool, spool.recover())).containsExactly("first");
+        }
+    }
+
+    @Test
+    public void testFullyAcknowledgedSegmentsAreDeleted() throws IOException {
+        try (OutboxSpool spool = openSpool(64, 4096)) {
+            spool.recover();
+            SpoolRecord first = spool.append(new byte[40]);
+            SpoolRecord second = spool.append(new byte[40]);
+            assertThat(segments()).hasSize(2);
+
+            spool.acknowledge(first);
+            assertThat(segments()).hasSize(1);
+            assertThat(spool.getSize()).isEqualTo(60L);
+
+            spool.acknowledge(second);
+        }
+
+        try (OutboxSpool spool = openSpool(64, 4096)) {
+            assertThat(spool.recover()).isEmpty();
+            assertThat(spool.getSize()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void testDrainedActiveSegmentIsReclaimed() throws IOException {
+        try (OutboxSpool spool = openSpool(1024, 4096)) {
+            spool.recover();
+            SpoolRecord first = spool.append(bytes("first"));
+            SpoolRecord second = spool.append(bytes("second"));
+
+            spool.acknowledge(first);
+            spool.acknowledge(second);
+            assertThat(segments()).isEmpty();
+            assertThat(spool.getSize()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void testAcknowledgmentLogIsCompactedWhenSegmentsAreDeleted() throws IOException {
+        try (OutboxSpool spool = openSpool(100, 4096)) {
+            spool.recover();
+            spool.append(bytes("pending"));
+            spool.acknowledge(spool.append(bytes("delivered")));
+
+            for (int i = 0; i < 100; i++) {
+                spool.acknowledge(spool.append(new byte[60]));
+            }
+            assertThat(Files.size(folder.getRoot().toPath().resolve("acks.log"))).isAtMost(4 * 8L);
+        }
+
+        // the acknowledgment of a record whose segment is still live has been kept
+        try (OutboxSpool spool = openSpool(100, 4096)) {
+            assertThat(contents(spool, spool.recover())).containsExactly("pending");
+        }
+    }
+
+    @Test
+    public void testSpoolIsBounded() throws IOException {
+        try (OutboxSpool spool = openSpool(1024, 100)) {
+            spool.recover();
+            SpoolRecord first = spool.append(new byte[60]);
+
+            try {
+                spool.append(new byte[60]);
+                throw new AssertionError("The spool should be full");
+            } catch (EmailException e) {
+                assertThat(e.getMessage()).contains("full");
+            }
+
+            spool.acknowledge(first);
+            spool.append(new byte[60]);
+        }
+    }
+
+    private OutboxSpool openSpool(long segmentSize, long maxBytes) {
+        return new OutboxSpool(folder.getRoot().toPath(), segmentSize, maxBytes);
+    }
+
+    private List<Path> segments() throws IOException {
+        return Files.list(folder.getRoot().toPath())
+                    .filter(path -> path.getFileName().toString().startsWith("segment-"))
+                    .sorted()
+                    .filter(path -> path.toFile().length() > 0)
+                    .collect(Collectors.toList());
+    }
+
+    private static List<String> contents(OutboxSpool spool, List<SpoolRecord> records) throws IOException {
+        List<String> contents = new java.util.ArrayList<>();
+        for (SpoolRecord record : records) {
+            contents.add(string(spool.read(record)));
+        }
+        return contents;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.outbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+import org.ow2.proactive.addons.email.transport.PartialDeliveryException;
+import org.ow2.proactive.addons.email.transport.RecipientReport;
+
+import com.google.common.collect.ImmutableList;
+
+
+/**
+ * Unit tests related to {@link Outbox}.
+ *
+ * @author ActiveEon Team
+ */
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEnqueuedMessageIsDelivered() throws Exception {
+        List<String> subjects = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(1);
+
+        try (Outbox outbox = newBuilder().setDeliverer(message -> {
+            subjects.add(message.getSubject());
+            delivered.countDown();
+        }).build()) {
+            outbox.enqueue(createMessage("hello"));
+
+            assertThat(delivered.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(subjects).containsExactly("hello");
+            waitFor(() -> outbox.getDeliveredCount() == 1);
+            assertThat(outbox.getPendingCount()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (Outbox outbox = newBuilder().setDeliverer(message -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new MessagingException("Connection reset");
+            }
+        }).build()) {
+            outbox.enqueue(createMessage("retry"));
+
+            waitFor(() -> outbox.getDeliveredCount() == 1);
+            assertThat(attempts.get()).isEqualTo(3);
+            assertThat(outbox.getDeadLetterCount()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void testMessageIsDeadLetteredAfterMaxAttempts() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (Outbox outbox = newBuilder().setMaxAttempts(2).setDeliverer(message -> {
+            attempts.incrementAndGet();
+            throw new MessagingException("Connection reset");
+        }).build()) {
+            long id = outbox.enqueue(createMessage("dead"));
+
+            waitFor(() -> outbox.getDeadLetterCount() == 1);
+            assertThat(attempts.get()).isEqualTo(2);
+            assertThat(Files.exists(deadLetter(id))).isTrue();
+        }
+    }
+
+    @Test
+    public void testRejectedMessageIsNotRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (Outbox outbox = newBuilder().setDeliverer(message -> {
+            attempts.incrementAndGet();
+            throw new SendFailedException("550 Mailbox unavailable");
+        }).build()) {
+            long id = outbox.enqueue(createMessage("rejected"));
+
+            waitFor(() -> outbox.getDeadLetterCount() == 1);
+            assertThat(attempts.get()).isEqualTo(1);
+            assertThat(Files.exists(deadLetter(id))).isTrue();
+        }
+    }
+
+    @Test
+    public void testUnreadableMessageIsNotDropped() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try (Outbox outbox = newBuilder().setMaxAttempts(2).setDeliverer(message -> {
+            attempts.incrementAndGet();
+            // the next attempt cannot read the message back from the spool
+            try (DirectoryStream<Path> segments = Files.newDirectoryStream(folder.getRoot().toPath(), "segment-*")) {
+                for (Path segment : segments) {
+                    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                        channel.truncate(0);
+                    }
+                }
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            throw new MessagingException("Connection reset");
+        }).build()) {
+            long id = outbox.enqueue(createMessage("unreadable"));
+
+            waitFor(() -> attempts.get() == 1 && outbox.getPendingCount() == 0);
+            // leaves the time to give up reading the message
+            Thread.sleep(200);
+
+            assertThat(attempts.get()).isEqualTo(1);
+            assertThat(outbox.getDeadLetterCount()).isEqualTo(0L);
+            assertThat(Files.exists(deadLetter(id))).isFalse();
+            assertThat(outbox.getSpoolSize()).isGreaterThan(0L);
+        }
+    }
+
+    @Test
+    public void testPartialDeliveryIsOnlyRetriedForTheRemainingRecipients() throws Exception {
+        List<String> envelopes = new CopyOnWriteArrayList<>();
+        MessageDeliverer deliverer = new MessageDeliverer() {
+            @Override
+            public void deliver(MimeMessage message) throws MessagingException {
+                RecipientReport report = new RecipientReport(ImmutableList.of("first@example.org"),
+                                                             Collections.emptyMap());
+                throw new PartialDeliveryException(report,
+                                                   new Address[] { new InternetAddress("second@example.org") },
+                                                   new MessagingException("Connection reset"));
+            }
+
+            @Override
+            public void deliver(MimeMessage message, Address[] recipients) throws MessagingException {
+                assertThat(message.getHeader(Outbox.ENVELOPE_HEADER)).isNull();
+                envelopes.add(InternetAddress.toString(recipients));
+            }
+        };
+
+        try (Outbox outbox = newBuilder().setDeliverer(deliverer).build()) {
+            MimeMessage message = createMessage("partial");
+            message.setRecipients(MimeMessage.RecipientType.TO, "first@example.org, second@example.org");
+            outbox.enqueue(message);
+
+            waitFor(() -> outbox.getDeliveredCount() == 1);
+            assertThat(envelopes).containsExactly("second@example.org");
+            waitFor(() -> outbox.getSpoolSize() == 0);
+        }
+    }
+
+    @Test
+    public void testPendingMessagesAreDeliveredAfterRestart() throws Exception {
+        try (Outbox outbox = newBuilder().setBackoff(60000, 60000).setDeliverer(message -> {
+            throw new MessagingException("Connection refused");
+        }).build()) {
+            outbox.enqueue(createMessage("first"));
+            outbox.enqueue(createMessage("second"));
+        }
+
+        List<String> subjects = new CopyOnWriteArrayList<>();
+        try (Outbox outbox = newBuilder().setWorkers(1).setDeliverer(message -> subjects.add(message.getSubject()))
+                                         .build()) {
+            waitFor(() -> outbox.getDeliveredCount() == 2);
+            assertThat(subjects).containsExactly("first", "second");
+            waitFor(() -> outbox.getSpoolSize() == 0);
+        }
+    }
+
+    @Test(expected = MissingArgumentException.class)
+    public void testDelivererIsRequired() {
+        new Outbox.Builder(folder.getRoot().toPath()).build();
+    }
+
+    private Outbox.Builder newBuilder() {
+        return new Outbox.Builder(folder.getRoot().toPath()).setBackoff(10, 50).setSyncInterval(10);
+    }
+
+    private Path deadLetter(long id) {
+        return folder.getRoot().toPath().resolve("dead").resolve(id + ".eml");
+    }
+
+    private static MimeMessage createMessage(String subject) throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setFrom(new InternetAddress("sender@example.org"));
+        message.setRecipients(MimeMessage.RecipientType.TO, "recipient@example.org");
+        message.setSubject(subject);
+        message.setText("content");
+        return message;
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.isSatisfied()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Condition not satisfied within 5 seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean isSatisfied();
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.ratelimit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * Unit tests related to {@link SmtpRateLimiter}.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private final SmtpRateLimiter limiter = new SmtpRateLimiter(ticker);
+
+    @Test
+    public void testMessagesAreSpacedByTheInterval() {
+        RateLimit limit = RateLimit.perMinute(60);
+
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(0L);
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(SECOND);
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(2 * SECOND);
+
+        ticker.advance(10 * SECOND);
+
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testBurst() {
+        RateLimit limit = RateLimit.perMinute(60).withBurst(3);
+
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(0L);
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(0L);
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(0L);
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(SECOND);
+
+        ticker.advance(2 * SECOND);
+
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testKeysAreIndependent() {
+        RateLimit limit = RateLimit.perMinute(60);
+
+        assertThat(limiter.reserve("first", limit, Long.MAX_VALUE)).isEqualTo(0L);
+        assertThat(limiter.reserve("second", limit, Long.MAX_VALUE)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testReservationBeyondMaxWaitIsRejected() {
+        RateLimit limit = RateLimit.perMinute(60);
+
+        limiter.reserve("host", limit, Long.MAX_VALUE);
+        limiter.reserve("host", limit, Long.MAX_VALUE);
+
+        assertThat(limiter.reserve("host", limit, SECOND)).isEqualTo(-1L);
+        // the rejected reservation did not consume a slot
+        assertThat(limiter.reserve("host", limit, 2 * SECOND)).isEqualTo(2 * SECOND);
+    }
+
+    @Test
+    public void testAcquireWithoutLimitReturnsImmediately() {
+        limiter.acquire(properties(), "from@company.com");
+    }
+
+    @Test
+    public void testAcquireFailsWhenWaitIsTooLong() {
+        Properties properties = properties();
+        properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_SENDER, 1);
+        properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT, 1000);
+
+        limiter.acquire(properties, "from@company.com");
+        // another sender is not limited by the first one
+        limiter.acquire(properties, "other@company.com");
+
+        try {
+            limiter.acquire(properties, "FROM@company.com");
+            fail("The rate limit should have been exceeded");
+        } catch (EmailException e) {
+            assertThat(e.getMessage()).contains("host|from@company.com");
+        }
+    }
+
+    @Test
+    public void testRejectedSenderDoesNotConsumeHostSlot() {
+        Properties properties = properties();
+        properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_HOST, 60);
+        properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_SENDER, 1);
+        properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_BURST, 2);
+        properties.put(SmtpRateLimiter.PROPERTY_MAIL_SMTP_RATE_LIMIT_MAX_WAIT, 0);
+
+        limiter.acquire(properties, "from@company.com");
+        limiter.acquire(properties, "from@company.com");
+
+        try {
+            limiter.acquire(properties, "from@company.com");
+            fail("The rate limit should have been exceeded");
+        } catch (EmailException e) {
+            assertThat(limiter.reserve("host", RateLimit.perMinute(60).withBurst(2), 0)).isEqualTo(-1L);
+        }
+    }
+
+    @Test
+    public void testConcurrentReservationsGetDistinctSlots() throws Exception {
+        RateLimit limit = RateLimit.perMinute(60);
+        int threads = 8;
+        int reservations = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < reservations; j++) {
+                        limiter.reserve("host", limit, Long.MAX_VALUE);
+                    }
+                    done.countDown();
+                });
+            }
+            assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(limiter.reserve("host", limit, Long.MAX_VALUE)).isEqualTo(threads * reservations * SECOND);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidRateLimit() {
+        new RateLimit(0, Duration.ofMinutes(1), 1);
+    }
+
+    private static Properties properties() {
+        Properties properties = new Properties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, "host");
+        return properties;
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private volatile long nanos = 1;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long delta) {
+            nanos += delta;
+        }
+
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.relay;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * Unit tests related to {@link RelayGroup}.
+ *
+ * @author ActiveEon Team
+ */
+public class RelayGroupTest {
+
+    private static final long EJECTION_TIME_MILLIS = 1000;
+
+    private final Relay primary = new Relay("smtp1.company.com", 25, 1);
+
+    private final Relay secondary = new Relay("smtp2.company.com", 25, 1);
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    public void testLeastOutstandingRelayIsSelected() {
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, secondary);
+
+        Relay first = group.acquire(Collections.emptySet());
+        Relay second = group.acquire(Collections.emptySet());
+        assertThat(second).isNotEqualTo(first);
+
+        group.release(first, 1, false);
+        assertThat(group.acquire(Collections.emptySet())).isEqualTo(first);
+    }
+
+    @Test
+    public void testOutstandingRequestsAreWeighted() {
+        Relay heavy = new Relay("smtp3.company.com", 25, 3);
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, heavy);
+
+        Map<Relay, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            counts.merge(group.acquire(Collections.emptySet()), 1, Integer::sum);
+        }
+
+        assertThat(counts).containsEntry(heavy, 6);
+        assertThat(counts).containsEntry(primary, 2);
+    }
+
+    @Test
+    public void testSequentialSendsAreSpreadByWeight() {
+        Relay heavy = new Relay("smtp3.company.com", 25, 2);
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, heavy);
+
+        List<Relay> selected = new ArrayList<>();
+        Map<Relay, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            Relay relay = group.acquire(Collections.emptySet());
+            group.release(relay, 1, false);
+            selected.add(relay);
+            counts.merge(relay, 1, Integer::sum);
+        }
+
+        assertThat(counts).containsEntry(heavy, 20);
+        assertThat(counts).containsEntry(primary, 10);
+        // the heavier relay is not selected twice in a row more than necessary
+        assertThat(selected.subList(0, 3)).containsExactly(heavy, primary, heavy).inOrder();
+    }
+
+    @Test
+    public void testFasterRelayIsSelected() {
+        RelayGroup group = createGroup(RelaySelection.LATENCY, primary, secondary);
+        group.release(group.acquire(Collections.singleton(secondary)), TimeUnit.MILLISECONDS.toNanos(500), false);
+        group.release(group.acquire(Collections.singleton(primary)), TimeUnit.MILLISECONDS.toNanos(20), false);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(group.acquire(Collections.emptySet())).isEqualTo(secondary);
+        }
+    }
+
+    @Test
+    public void testExcludedRelaysAreNotSelected() {
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, secondary);
+
+        assertThat(group.acquire(Collections.singleton(primary))).isEqualTo(secondary);
+        assertThat(group.acquire(Arrays.asList(primary, secondary))).isNull();
+    }
+
+    @Test
+    public void testRelayIsEjectedAfterRepeatedFailures() {
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, secondary);
+
+        fail(group, primary, 2);
+        assertThat(group.getStatus().get(0).isEjected()).isFalse();
+        assertThat(group.getStatus().get(0).getConsecutiveFailures()).isEqualTo(2);
+
+        fail(group, primary, 1);
+        assertThat(group.getStatus().get(0).isEjected()).isTrue();
+        for (int i = 0; i < 5; i++) {
+            group.release(group.acquire(Collections.emptySet()), 1, false);
+        }
+        assertThat(group.getStatus().get(0).getOutstandingRequests()).isEqualTo(0);
+        assertThat(group.getStatus().get(1).getOutstandingRequests()).isEqualTo(0);
+        assertThat(group.acquire(Collections.singleton(secondary))).isEqualTo(primary);
+    }
+
+    @Test
+    public void testEjectedRelayIsProbedOnceItsEjectionTimeHasElapsed() {
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, secondary);
+        fail(group, primary, 3);
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(EJECTION_TIME_MILLIS));
+        // the secondary relay is busy, so the probe goes to the primary relay
+        group.acquire(Collections.singleton(primary));
+        group.acquire(Collections.singleton(primary));
+        Relay probed = group.acquire(Collections.emptySet());
+        assertThat(probed).isEqualTo(primary);
+        assertThat(group.acquire(Collections.emptySet())).isEqualTo(secondary);
+
+        group.release(probed, 1, false);
+        assertThat(group.getStatus().get(0).isEjected()).isFalse();
+        assertThat(group.getStatus().get(0).getConsecutiveFailures()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFailedProbeDoublesTheEjectionTime() {
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, secondary);
+        fail(group, primary, 3);
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(EJECTION_TIME_MILLIS));
+        fail(group, primary, 1);
+        assertThat(group.getStatus().get(0).isEjected()).isTrue();
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(EJECTION_TIME_MILLIS));
+        assertThat(group.getStatus().get(0).isEjected()).isTrue();
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(EJECTION_TIME_MILLIS));
+        assertThat(group.getStatus().get(0).isEjected()).isFalse();
+    }
+
+    @Test
+    public void testRelayBackFirstIsTriedWhenAllRelaysAreEjected() {
+        RelayGroup group = createGroup(RelaySelection.LEAST_OUTSTANDING, primary, secondary);
+        fail(group, primary, 3);
+        ticker.advance(1);
+        fail(group, secondary, 3);
+
+        assertThat(group.acquire(Collections.emptySet())).isEqualTo(primary);
+    }
+
+    @Test
+    public void testSharedGroups() {
+        RelayGroup group = RelayGroup.shared(Arrays.asList(primary, secondary), RelaySelection.LATENCY);
+
+        assertThat(RelayGroup.shared(Arrays.asList(primary, secondary), RelaySelection.LATENCY)).isSameAs(group);
+        assertThat(RelayGroup.shared(Arrays.asList(primary, secondary),
+                                     RelaySelection.LEAST_OUTSTANDING)).isNotSameAs(group);
+    }
+
+    private RelayGroup createGroup(RelaySelection selection, Relay... relays) {
+        return new RelayGroup(Arrays.asList(relays), selection, 3, EJECTION_TIME_MILLIS, 10_000, ticker);
+    }
+
+    private static void fail(RelayGroup group, Relay relay, int times) {
+        List<Relay> others = new ArrayList<>(group.getRelays());
+        others.remove(relay);
+
+        for (int i = 0; i < times; i++) {
+            assertThat(group.acquire(others)).isEqualTo(relay);
+            group.release(relay, 1, true);
+        }
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private volatile long nanos = 1;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long delta) {
+            nanos += delta;
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.relay;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+
+/**
+ * Unit tests related to {@link Relay}.
+ *
+ * @author ActiveEon Team
+ */
+public class RelayTest {
+
+    @Test
+    public void testParse() {
+        assertThat(Relay.parse("smtp1.company.com:25/3")).isEqualTo(new Relay("smtp1.company.com", 25, 3));
+        assertThat(Relay.parse(" smtp1.company.com:2525 ")).isEqualTo(new Relay("smtp1.company.com", 2525, 1));
+        assertThat(Relay.parse("smtp1.company.com/2")).isEqualTo(new Relay("smtp1.company.com",
+                                                                           Relay.DEFAULT_PORT,
+                                                                           2));
+    }
+
+    @Test
+    public void testParseList() {
+        List<Relay> relays = Relay.parseList("smtp1.company.com:25/3, smtp2.company.com:25,");
+
+        assertThat(relays).containsExactly(new Relay("smtp1.company.com", 25, 3),
+                                           new Relay("smtp2.company.com", 25, 1))
+                          .inOrder();
+    }
+
+    @Test
+    public void testToStringCanBeParsed() {
+        Relay relay = new Relay("smtp1.company.com", 25, 3);
+
+        assertThat(Relay.parse(relay.toString())).isEqualTo(relay);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidPort() {
+        Relay.parse("smtp1.company.com:smtp");
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidWeight() {
+        Relay.parse("smtp1.company.com:25/0");
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMissingHost() {
+        Relay.parse(":25");
+    }
+
+}
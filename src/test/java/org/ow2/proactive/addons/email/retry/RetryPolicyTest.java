@@ -0,0 +1,185 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.retry;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.EmailException;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Range;
+
+
+/**
+ * Unit tests related to {@link RetryPolicy}.
+ *
+ * @author ActiveEon Team
+ */
+public class RetryPolicyTest {
+
+    private final FakeClock clock = new FakeClock();
+
+    @Test
+    public void testSuccessAfterTransientFailures() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = newBuilder().build().execute(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new EmailException("transient");
+            }
+            return "sent";
+        });
+
+        assertThat(result).isEqualTo("sent");
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(clock.sleeps).hasSize(2);
+    }
+
+    @Test
+    public void testPermanentFailureIsRethrownImmediately() {
+        AtomicInteger attempts = new AtomicInteger();
+        EmailException error = new EmailException("permanent");
+
+        try {
+            newBuilder().setClassifier(e -> false).build().execute(() -> {
+                attempts.incrementAndGet();
+                throw error;
+            });
+            fail("The error should have been rethrown");
+        } catch (EmailException e) {
+            assertThat(e).isSameAs(error);
+        }
+
+        assertThat(attempts.get()).isEqualTo(1);
+        assertThat(clock.sleeps).isEmpty();
+    }
+
+    @Test
+    public void testMaxAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            newBuilder().setMaxAttempts(4).build().execute(() -> {
+                attempts.incrementAndGet();
+                throw new EmailException("transient");
+            });
+            fail("The error should have been rethrown");
+        } catch (EmailException e) {
+            assertThat(attempts.get()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void testDeadline() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            newBuilder().setMaxAttempts(100)
+                        .setBackoff(Duration.ofSeconds(10), Duration.ofSeconds(10))
+                        .setMaxDuration(Duration.ofSeconds(25))
+                        .build()
+                        .execute(() -> {
+                            attempts.incrementAndGet();
+                            throw new EmailException("transient");
+                        });
+            fail("The error should have been rethrown");
+        } catch (EmailException e) {
+            // jittered delays are between 5 and 10 seconds, no attempt may start after 25 seconds
+            assertThat(attempts.get()).isAtLeast(3);
+            assertThat(attempts.get()).isAtMost(6);
+            assertThat(clock.nanos).isAtMost(TimeUnit.SECONDS.toNanos(25));
+        }
+    }
+
+    @Test
+    public void testBackoffGrowsExponentiallyWithJitter() {
+        RetryPolicy policy = newBuilder().setBackoff(Duration.ofMillis(100), Duration.ofMillis(1000)).build();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.getBackoffMillis(1)).isIn(Range.closed(50L, 100L));
+            assertThat(policy.getBackoffMillis(3)).isIn(Range.closed(200L, 400L));
+            assertThat(policy.getBackoffMillis(10)).isIn(Range.closed(500L, 1000L));
+        }
+    }
+
+    @Test
+    public void testNoneNeverRetries() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            RetryPolicy.none().execute(() -> {
+                attempts.incrementAndGet();
+                throw new EmailException("transient");
+            });
+            fail("The error should have been rethrown");
+        } catch (EmailException e) {
+            assertThat(attempts.get()).isEqualTo(1);
+        }
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidMaxAttempts() {
+        new RetryPolicy.Builder().setMaxAttempts(0).build();
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidBackoff() {
+        new RetryPolicy.Builder().setBackoff(Duration.ofSeconds(2), Duration.ofSeconds(1)).build();
+    }
+
+    private RetryPolicy.Builder newBuilder() {
+        return new RetryPolicy.Builder().setClassifier(e -> true).setClock(clock, clock);
+    }
+
+    private static final class FakeClock extends Ticker implements RetryPolicy.Sleeper {
+
+        private final List<Long> sleeps = new ArrayList<>();
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        @Override
+        public void sleep(long millis) {
+            sleeps.add(millis);
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.retry;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.CircuitOpenException;
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+
+/**
+ * Unit tests related to {@link SmtpErrorClassifier}.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpErrorClassifierTest {
+
+    private final SmtpErrorClassifier classifier = SmtpErrorClassifier.getInstance();
+
+    @Test
+    public void testReplyCodes() {
+        assertThat(classifier.isTransient(sendFailed(421))).isTrue();
+        assertThat(classifier.isTransient(sendFailed(451))).isTrue();
+        assertThat(classifier.isTransient(sendFailed(550))).isFalse();
+        assertThat(classifier.isTransient(sendFailed(554))).isFalse();
+    }
+
+    @Test
+    public void testGetReplyCode() throws Exception {
+        assertThat(classifier.getReplyCode(new EmailException(sendFailed(451)))).isEqualTo(451);
+
+        SendFailedException rejected = new SendFailedException("Invalid Addresses");
+        rejected.setNextException(addressFailed("a@company.com", 550));
+        assertThat(classifier.getReplyCode(rejected)).isEqualTo(550);
+
+        MessagingException badGreeting = new MessagingException("Got bad greeting from SMTP host: localhost, port: 25, " +
+                                                                 "response: 421 busy");
+        assertThat(classifier.getReplyCode(badGreeting)).isEqualTo(421);
+        assertThat(classifier.getReplyCode(new MessagingException("Could not connect to SMTP host"))).isEqualTo(-1);
+    }
+
+    @Test
+    public void testRejectedRecipients() throws Exception {
+        SendFailedException deferred = new SendFailedException("Invalid Addresses");
+        deferred.setNextException(addressFailed("a@company.com", 452));
+        assertThat(classifier.isTransient(deferred)).isTrue();
+
+        SendFailedException mixed = new SendFailedException("Invalid Addresses");
+        SMTPAddressFailedException first = addressFailed("a@company.com", 452);
+        first.setNextException(addressFailed("b@company.com", 550));
+        mixed.setNextException(first);
+        assertThat(classifier.isTransient(mixed)).isFalse();
+
+        assertThat(classifier.isTransient(new SendFailedException("Invalid Addresses"))).isFalse();
+    }
+
+    @Test
+    public void testConnectionErrors() {
+        assertThat(classifier.isTransient(new MessagingException("Exception reading response",
+                                                                 new SocketTimeoutException("Read timed out")))).isTrue();
+        assertThat(classifier.isTransient(new MessagingException("Can't send command to SMTP host",
+                                                                 new SocketException("Connection reset")))).isTrue();
+        assertThat(classifier.isTransient(new MessagingException("Got bad greeting from SMTP host: host, port: 25, " +
+                                                                 "response: 421 Service not available"))).isTrue();
+        assertThat(classifier.isTransient(new MessagingException("530 5.7.0 Must issue a STARTTLS command first"))).isFalse();
+    }
+
+    @Test
+    public void testConnectionClosedByServer() {
+        SMTPSendFailedException closed = new SMTPSendFailedException("MAIL FROM:<from@company.com>", -1, "[EOF]",
+                                                                     null, null, null, null);
+        assertThat(classifier.isTransient(closed)).isTrue();
+        assertThat(classifier.isTransient(new EmailException(new MessagingException("Interrupted", closed)))).isTrue();
+    }
+
+    @Test
+    public void testWrappedErrors() {
+        assertThat(classifier.isTransient(new EmailException(sendFailed(421)))).isTrue();
+        assertThat(classifier.isTransient(new EmailException(sendFailed(550)))).isFalse();
+        assertThat(classifier.isTransient(new EmailException("The outbox is full"))).isFalse();
+    }
+
+    @Test
+    public void testExceededDeadlineIsNotRetried() {
+        SocketException closed = new SocketException("Socket closed");
+        assertThat(classifier.isTransient(new DeadlineExceededException(Duration.ofSeconds(1), closed))).isFalse();
+    }
+
+    @Test
+    public void testOpenCircuitIsNotRetried() {
+        assertThat(classifier.isTransient(new CircuitOpenException("localhost:25", Duration.ofSeconds(30)))).isFalse();
+    }
+
+    @Test
+    public void testAuthenticationFailureIsPermanent() {
+        assertThat(classifier.isTransient(new AuthenticationFailedException("535 Authentication failed"))).isFalse();
+    }
+
+    private static SMTPSendFailedException sendFailed(int code) {
+        return new SMTPSendFailedException("DATA", code, code + " failure", null, null, null, null);
+    }
+
+    private static SMTPAddressFailedException addressFailed(String address, int code) throws Exception {
+        return new SMTPAddressFailedException(new InternetAddress(address), "RCPT TO", code, code + " failure");
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.template;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Unit tests related to {@link MessageTemplate}.
+ *
+ * @author ActiveEon Team
+ */
+public class MessageTemplateTest {
+
+    private final MessageTemplate template = MessageTemplate.compile("Job ${job} ${status}",
+                                                                     "Dear ${name},\n\nJob ${job} has ${status}.");
+
+    @Test
+    public void testRenderReusesBuffer() {
+        StringBuilder buffer = new StringBuilder();
+        ImmutableMap<String, Object> values = ImmutableMap.of("job", 7, "status", "failed", "name", "Alice");
+
+        assertThat(template.renderSubject(values, buffer)).isEqualTo("Job 7 failed");
+        assertThat(template.renderBody(values, buffer)).isEqualTo("Dear Alice,\n\nJob 7 has failed.");
+        assertThat(template.renderSubject(values)).isEqualTo("Job 7 failed");
+    }
+
+    @Test
+    public void testGetVariableNames() {
+        assertThat(template.getVariableNames()).containsExactly("job", "status", "name").inOrder();
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testSubjectValueWithLineBreakIsRejected() {
+        template.renderSubject(ImmutableMap.of("job", "7\r\nBcc: victim@company.com", "status", "failed"));
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.template;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.InvalidArgumentException;
+import org.ow2.proactive.addons.email.exception.MissingArgumentException;
+
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Unit tests related to {@link TextTemplate}.
+ *
+ * @author ActiveEon Team
+ */
+public class TextTemplateTest {
+
+    @Test
+    public void testRender() {
+        TextTemplate template = TextTemplate.compile("Hello ${name}, job ${ job } is ${status}.");
+
+        assertThat(template.render(ImmutableMap.of("name", "Alice", "job", 42, "status", "finished")))
+                  .isEqualTo("Hello Alice, job 42 is finished.");
+        assertThat(template.getVariableNames()).containsExactly("name", "job", "status").inOrder();
+        assertThat(template.getLiteralLength()).isEqualTo("Hello , job  is .".length());
+    }
+
+    @Test
+    public void testRenderWithoutPlaceholder() {
+        TextTemplate template = TextTemplate.compile("No variable, $5 only");
+
+        assertThat(template.render(Collections.emptyMap())).isEqualTo("No variable, $5 only");
+        assertThat(template.getVariableNames()).isEmpty();
+    }
+
+    @Test
+    public void testRenderAdjacentAndRepeatedPlaceholders() {
+        TextTemplate template = TextTemplate.compile("${a}${b}${a}");
+
+        assertThat(template.render(ImmutableMap.of("a", "x", "b", "y"))).isEqualTo("xyx");
+        assertThat(template.getVariableNames()).containsExactly("a", "b").inOrder();
+    }
+
+    @Test
+    public void testEscapedPlaceholder() {
+        TextTemplate template = TextTemplate.compile("$${name} is ${name}");
+
+        assertThat(template.render(ImmutableMap.of("name", "Bob"))).isEqualTo("${name} is Bob");
+    }
+
+    @Test
+    public void testRenderToAppends() {
+        StringBuilder buffer = new StringBuilder("> ");
+
+        TextTemplate.compile("${greeting}!").renderTo(ImmutableMap.of("greeting", "Hi"), buffer);
+
+        assertThat(buffer.toString()).isEqualTo("> Hi!");
+    }
+
+    @Test(expected = MissingArgumentException.class)
+    public void testRenderWithMissingVariable() {
+        TextTemplate.compile("Hello ${name}").render(Collections.emptyMap());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testCompileUnclosedPlaceholder() {
+        TextTemplate.compile("Hello ${name");
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testCompileEmptyPlaceholder() {
+        TextTemplate.compile("Hello ${ }");
+    }
+
+}
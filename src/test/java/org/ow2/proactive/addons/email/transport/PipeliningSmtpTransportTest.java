@@ -0,0 +1,307 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.EmailSender;
+
+
+/**
+ * Unit tests related to {@link PipeliningSmtpTransport}.
+ *
+ * @author ActiveEon Team
+ */
+public class PipeliningSmtpTransportTest {
+
+    private ScriptedSmtpServer server;
+
+    @After
+    public void stopServer() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testEnvelopeIsPipelinedAndContentIsChunked() throws Exception {
+        server = new ScriptedSmtpServer("PIPELINING", "CHUNKING");
+        Transport transport = connect(new Properties());
+
+        transport.sendMessage(newMessage(transport, "body"),
+                              InternetAddress.parse("a@company.com, b@company.com, c@company.com"));
+        transport.close();
+
+        assertThat(transport).isInstanceOf(PipeliningSmtpTransport.class);
+        assertThat(server.pipelinedCommands).containsExactly("RCPT TO:<a@company.com>",
+                                                             "RCPT TO:<b@company.com>",
+                                                             "RCPT TO:<c@company.com>");
+        assertThat(server.commands).contains("BDAT " + server.lastContent.length + " LAST");
+        assertThat(server.commands).doesNotContain("DATA");
+        assertThat(new String(server.lastContent, StandardCharsets.US_ASCII)).contains("\r\n\r\nbody\r\n");
+    }
+
+    @Test
+    public void testContentIsSplitIntoChunks() throws Exception {
+        server = new ScriptedSmtpServer("PIPELINING", "CHUNKING");
+        Properties properties = new Properties();
+        properties.put(PipeliningSmtpTransport.PROPERTY_MAIL_SMTP_CHUNKING_SIZE, "64");
+        Transport transport = connect(properties);
+
+        String body = String.join("\n", Collections.nCopies(20, "a line of text that is sent in several chunks"));
+        transport.sendMessage(newMessage(transport, body), InternetAddress.parse("a@company.com"));
+        transport.close();
+
+        long chunks = server.commands.stream().filter(command -> command.startsWith("BDAT 64")).count();
+        assertThat(chunks).isGreaterThan(1L);
+        assertThat(new String(server.lastContent, StandardCharsets.US_ASCII)).contains(body.replace("\n", "\r\n"));
+    }
+
+    @Test
+    public void testClassicBehaviorWithoutExtensions() throws Exception {
+        server = new ScriptedSmtpServer();
+        Transport transport = connect(new Properties());
+
+        transport.sendMessage(newMessage(transport, "body"), InternetAddress.parse("a@company.com, b@company.com"));
+        transport.close();
+
+        assertThat(server.pipelinedCommands).isEmpty();
+        assertThat(server.commands).contains("DATA");
+        assertThat(new String(server.lastContent, StandardCharsets.US_ASCII)).contains("body");
+    }
+
+    @Test
+    public void testChunkingCanBeDisabled() throws Exception {
+        server = new ScriptedSmtpServer("PIPELINING", "CHUNKING");
+        Properties properties = new Properties();
+        properties.put(PipeliningSmtpTransport.PROPERTY_MAIL_SMTP_CHUNKING_ENABLE, "false");
+        Transport transport = connect(properties);
+
+        transport.sendMessage(newMessage(transport, "body"), InternetAddress.parse("a@company.com"));
+        transport.close();
+
+        assertThat(server.pipelinedCommands).hasSize(1);
+        assertThat(server.commands).contains("DATA");
+    }
+
+    @Test
+    public void testRejectedRecipientKeepsConnectionInSync() throws Exception {
+        server = new ScriptedSmtpServer("PIPELINING", "CHUNKING");
+        Transport transport = connect(new Properties());
+
+        try {
+            transport.sendMessage(newMessage(transport, "body"),
+                                  InternetAddress.parse("a@company.com, unknown@company.com"));
+            fail("The unknown recipient should have been rejected");
+        } catch (SendFailedException e) {
+            Address[] invalid = e.getInvalidAddresses();
+            assertThat(invalid).asList().containsExactly(new InternetAddress("unknown@company.com"));
+        }
+
+        transport.sendMessage(newMessage(transport, "second"), InternetAddress.parse("b@company.com"));
+        transport.close();
+
+        assertThat(new String(server.lastContent, StandardCharsets.US_ASCII)).contains("second");
+    }
+
+    private Transport connect(Properties properties) throws MessagingException {
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, "localhost");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, String.valueOf(server.getPort()));
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_CLASS, PipeliningSmtpTransport.class.getName());
+
+        Session session = Session.getInstance(properties);
+        PipeliningSmtpTransport.registerProvider(session);
+
+        Transport transport = session.getTransport("smtp");
+        transport.connect();
+        return transport;
+    }
+
+    private static MimeMessage newMessage(Transport transport, String body) throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setFrom(new InternetAddress("from@company.com"));
+        message.setRecipients(Message.RecipientType.TO, "to@company.com");
+        message.setSubject("subject");
+        message.setText(body);
+        return message;
+    }
+
+    /**
+     * A minimal SMTP server that serves one connection and records the commands it receives.
+     * Commands that are received before the reply to MAIL FROM is sent are considered as pipelined.
+     */
+    private static final class ScriptedSmtpServer implements Runnable {
+
+        private final ServerSocket serverSocket;
+
+        private final String[] extensions;
+
+        private final Thread thread;
+
+        private final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+
+        private final List<String> pipelinedCommands = Collections.synchronizedList(new ArrayList<>());
+
+        private volatile byte[] lastContent;
+
+        private ScriptedSmtpServer(String... extensions) throws IOException {
+            this.serverSocket = new ServerSocket(0);
+            this.extensions = extensions;
+            this.thread = new Thread(this, "scripted-smtp-server");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = serverSocket.accept()) {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+                reply(out, "220 localhost ESMTP");
+
+                String line;
+                while ((line = readLine(in)) != null) {
+                    commands.add(line);
+
+                    if (line.startsWith("EHLO")) {
+                        StringBuilder reply = new StringBuilder("250-localhost");
+                        for (String extension : extensions) {
+                            reply.append("\r\n250-").append(extension);
+                        }
+                        reply(out, reply.append("\r\n250 8BITMIME").toString());
+                    } else if (line.startsWith("MAIL FROM:")) {
+                        content.reset();
+                        List<String> replies = new ArrayList<>();
+                        replies.add("250 OK");
+                        Thread.sleep(200);
+                        while (in.available() > 0) {
+                            String pipelined = readLine(in);
+                            commands.add(pipelined);
+                            pipelinedCommands.add(pipelined);
+                            replies.add(rcptReply(pipelined));
+                        }
+                        reply(out, String.join("\r\n", replies));
+                    } else if (line.startsWith("RCPT TO:")) {
+                        reply(out, rcptReply(line));
+                    } else if (line.equals("DATA")) {
+                        reply(out, "354 go ahead");
+                        String dataLine;
+                        while (!(dataLine = readLine(in)).equals(".")) {
+                            content.write(dataLine.getBytes(StandardCharsets.US_ASCII));
+                            content.write('\r');
+                            content.write('\n');
+                        }
+                        lastContent = content.toByteArray();
+                        reply(out, "250 OK queued");
+                    } else if (line.startsWith("BDAT ")) {
+                        String[] parts = line.split(" ");
+                        byte[] chunk = new byte[Integer.parseInt(parts[1])];
+                        int offset = 0;
+                        while (offset < chunk.length) {
+                            offset += in.read(chunk, offset, chunk.length - offset);
+                        }
+                        content.write(chunk);
+                        if (parts.length > 2) {
+                            lastContent = content.toByteArray();
+                            reply(out, "250 OK queued");
+                        } else {
+                            reply(out, "250 chunk received");
+                        }
+                    } else if (line.equals("QUIT")) {
+                        reply(out, "221 bye");
+                        return;
+                    } else {
+                        reply(out, "250 OK");
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // the test has ended
+            }
+        }
+
+        private static String rcptReply(String command) {
+            return command.contains("unknown") ? "550 no such user" : "250 OK";
+        }
+
+        private static void reply(OutputStream out, String reply) throws IOException {
+            out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') {
+                        line.setLength(length - 1);
+                    }
+                    return line.toString();
+                }
+                line.append((char) b);
+            }
+            return line.length() == 0 ? null : line.toString();
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+
+/**
+ * Unit tests related to {@link RecipientChunker}.
+ *
+ * @author ActiveEon Team
+ */
+public class RecipientChunkerTest {
+
+    private final Transport transport = mock(Transport.class);
+
+    private final Message message = mock(Message.class);
+
+    @Test
+    public void testRecipientsAreSplitIntoChunks() throws MessagingException {
+        RecipientReport report = RecipientChunker.send(transport, message, addresses(250), 100);
+
+        ArgumentCaptor<Address[]> chunks = ArgumentCaptor.forClass(Address[].class);
+        verify(transport, times(3)).sendMessage(eq(message), chunks.capture());
+        assertThat(chunks.getAllValues().get(0)).hasLength(100);
+        assertThat(chunks.getAllValues().get(1)).hasLength(100);
+        assertThat(chunks.getAllValues().get(2)).hasLength(50);
+
+        assertThat(report.getAcceptedRecipients()).hasSize(250);
+        assertThat(report.isComplete()).isTrue();
+    }
+
+    @Test
+    public void testPartialSendReportsRejectedRecipients() throws MessagingException {
+        Address[] recipients = addresses(3);
+        SMTPAddressFailedException rejection = new SMTPAddressFailedException((InternetAddress) recipients[1],
+                                                                               "RCPT",
+                                                                               550,
+                                                                               "550 5.1.1 No such user\n");
+        // as thrown with mail.smtp.sendpartial once the message has been sent to the valid recipients
+        failWith(new SMTPSendFailedException("DATA",
+                                             250,
+                                             "250 Ok",
+                                             rejection,
+                                             new Address[] { recipients[0], recipients[2] },
+                                             null,
+                                             new Address[] { recipients[1] }));
+
+        RecipientReport report = RecipientChunker.send(transport, message, recipients, 100);
+
+        verify(transport, times(1)).sendMessage(any(Message.class), any(Address[].class));
+        assertThat(report.getAcceptedRecipients()).containsExactly("user0@company.com", "user2@company.com");
+        assertThat(report.getRejectedRecipients()).containsExactly("user1@company.com", "550 5.1.1 No such user");
+    }
+
+    @Test(expected = SendFailedException.class)
+    public void testAllRecipientsRejected() throws MessagingException {
+        Address[] recipients = addresses(1);
+        SMTPAddressFailedException rejection = new SMTPAddressFailedException((InternetAddress) recipients[0],
+                                                                               "RCPT",
+                                                                               550,
+                                                                               "550 5.1.1 No such user");
+        failWith(new SendFailedException("Invalid Addresses", rejection, null, null, recipients));
+
+        RecipientChunker.send(transport, message, recipients, 100);
+    }
+
+    @Test(expected = SMTPSendFailedException.class)
+    public void testTransactionFailureIsRethrown() throws MessagingException {
+        failWith(new SMTPSendFailedException("DATA", 554, "554 Transaction failed", null, null, null, null));
+
+        RecipientChunker.send(transport, message, addresses(2), 100);
+    }
+
+    @Test
+    public void testInterruptedSendListsUnsentRecipients() throws MessagingException {
+        Address[] recipients = addresses(3);
+        MessagingException disconnection = new MessagingException("421 4.4.2 Connection dropped");
+        doNothing().doThrow(disconnection).when(transport).sendMessage(any(Message.class), any(Address[].class));
+
+        try {
+            RecipientChunker.send(transport, message, recipients, 1);
+            fail("The interrupted send should have been reported");
+        } catch (PartialDeliveryException e) {
+            assertThat(e.getReport().getAcceptedRecipients()).containsExactly("user0@company.com");
+            assertThat(e.getUnsentAddresses()).asList().containsExactly(recipients[1], recipients[2]).inOrder();
+            assertThat(e.getNextException()).isSameAs(disconnection);
+        }
+    }
+
+    @Test(expected = MessagingException.class)
+    public void testFirstTransactionFailureIsRethrown() throws MessagingException {
+        failWith(new MessagingException("421 4.4.2 Connection dropped"));
+
+        try {
+            RecipientChunker.send(transport, message, addresses(2), 1);
+        } catch (PartialDeliveryException e) {
+            fail("No recipient has been sent the message");
+        }
+    }
+
+    @Test
+    public void testGetMaxRecipients() {
+        Properties properties = new Properties();
+        assertThat(RecipientChunker.getMaxRecipients(properties)).isEqualTo(RecipientChunker.DEFAULT_MAX_RECIPIENTS);
+
+        properties.put(RecipientChunker.PROPERTY_MAIL_SMTP_MAX_RECIPIENTS, "500");
+        assertThat(RecipientChunker.getMaxRecipients(properties)).isEqualTo(500);
+    }
+
+    private void failWith(MessagingException failure) throws MessagingException {
+        doThrow(failure).when(transport).sendMessage(any(Message.class), any(Address[].class));
+    }
+
+    private static Address[] addresses(int count) throws AddressException {
+        Address[] addresses = new Address[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = new InternetAddress("user" + i + "@company.com");
+        }
+        return addresses;
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+
+import org.junit.Test;
+import org.ow2.proactive.addons.email.exception.DeadlineExceededException;
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.base.Ticker;
+
+
+/**
+ * Unit tests related to {@link SendDeadline}.
+ *
+ * @author ActiveEon Team
+ */
+public class SendDeadlineTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    public void testExpiresAfterTimeout() {
+        SendDeadline deadline = new SendDeadline(Duration.ofSeconds(10), ticker);
+        assertThat(deadline.isExpired()).isFalse();
+        assertThat(deadline.getRemainingMillis()).isEqualTo(10000L);
+        deadline.check();
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(4));
+        assertThat(deadline.getRemainingMillis()).isEqualTo(6000L);
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(6));
+        assertThat(deadline.isExpired()).isTrue();
+        assertThat(deadline.getRemainingMillis()).isEqualTo(0L);
+        try {
+            deadline.check();
+            throw new AssertionError("The deadline should have expired");
+        } catch (DeadlineExceededException e) {
+            assertThat(e.getTimeout()).isEqualTo(Duration.ofSeconds(10));
+        }
+    }
+
+    @Test
+    public void testConnectTimeoutIsCappedByTheRemainingTime() {
+        SendDeadline deadline = new SendDeadline(Duration.ofSeconds(10), ticker);
+
+        assertThat(deadline.getConnectTimeout(0)).isEqualTo(10000);
+        assertThat(deadline.getConnectTimeout(3000)).isEqualTo(3000);
+        assertThat(deadline.getConnectTimeout(30000)).isEqualTo(10000);
+
+        ticker.advance(TimeUnit.SECONDS.toNanos(20));
+        assertThat(deadline.getConnectTimeout(30000)).isEqualTo(1);
+    }
+
+    @Test
+    public void testAbortClosesAttachedSockets() {
+        SendDeadline deadline = new SendDeadline(Duration.ofSeconds(10), ticker);
+        Socket attached = new Socket();
+        Socket detached = new Socket();
+        deadline.attach(attached);
+        deadline.attach(detached);
+        deadline.detach(detached);
+
+        deadline.abort();
+
+        assertThat(deadline.isExpired()).isTrue();
+        assertThat(attached.isClosed()).isTrue();
+        assertThat(detached.isClosed()).isFalse();
+
+        // the sockets opened afterwards are closed right away
+        Socket late = new Socket();
+        deadline.attach(late);
+        assertThat(late.isClosed()).isTrue();
+    }
+
+    @Test
+    public void testStartBindsTheDeadlineToTheCurrentThread() {
+        assertThat(SendDeadline.current()).isNull();
+
+        try (SendDeadline outer = SendDeadline.start(Duration.ofMinutes(1))) {
+            assertThat(SendDeadline.current()).isSameAs(outer);
+
+            try (SendDeadline inner = SendDeadline.start(Duration.ofMinutes(1))) {
+                assertThat(SendDeadline.current()).isSameAs(inner);
+            }
+            assertThat(SendDeadline.current()).isSameAs(outer);
+
+            SendDeadline.Binding binding = SendDeadline.bind(null);
+            try {
+                assertThat(SendDeadline.current()).isNull();
+            } finally {
+                binding.close();
+            }
+            assertThat(SendDeadline.current()).isSameAs(outer);
+        }
+
+        assertThat(SendDeadline.current()).isNull();
+    }
+
+    @Test
+    public void testWatchdogClosesTheConnectionOnExpiry() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                SendDeadline deadline = SendDeadline.start(Duration.ofMillis(100))) {
+            assertThat(SendDeadline.current()).isSameAs(deadline);
+            Socket socket = DeadlineSocketFactory.getInstance().createSocket();
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+
+            // the server never answers
+            long start = System.nanoTime();
+            try (InputStream in = socket.getInputStream()) {
+                in.read();
+                throw new AssertionError("The read should have been aborted");
+            } catch (IOException e) {
+                assertThat(socket.isClosed()).isTrue();
+                assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(10));
+            }
+
+            try {
+                DeadlineSocketFactory.getInstance().createSocket("localhost", server.getLocalPort());
+                throw new AssertionError("The connection should not have been opened");
+            } catch (SocketTimeoutException e) {
+                assertThat(e.getMessage()).contains("PT0.1S");
+            }
+        }
+    }
+
+    @Test
+    public void testFailureIsReportedAsDeadlineExceededOnceExpired() {
+        MessagingException failure = new MessagingException("Connection closed");
+        assertThat(SendDeadline.failure(failure)).isNotInstanceOf(DeadlineExceededException.class);
+
+        try (SendDeadline deadline = SendDeadline.start(Duration.ofMinutes(1))) {
+            assertThat(SendDeadline.failure(failure)).isNotInstanceOf(DeadlineExceededException.class);
+
+            deadline.abort();
+            EmailException exception = SendDeadline.failure(failure);
+            assertThat(exception).isInstanceOf(DeadlineExceededException.class);
+            assertThat(exception.getCause()).isSameAs(failure);
+        }
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos = 1;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advance(long delta) {
+            nanos += delta;
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Authenticator;
+import javax.mail.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.EmailSender;
+
+
+/**
+ * Unit tests related to {@link SessionCache}.
+ *
+ * @author ActiveEon Team
+ */
+public class SessionCacheTest {
+
+    private Properties properties;
+
+    private AtomicInteger authenticatorsCreated;
+
+    @Before
+    public void initProps() {
+        properties = new Properties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, "host");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, 25);
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_AUTH, true);
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_USERNAME, "username");
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD, "password");
+
+        authenticatorsCreated = new AtomicInteger();
+    }
+
+    @Test
+    public void testSameConfigurationSharesSession() {
+        SessionCache cache = new SessionCache(4);
+
+        Session first = cache.getSession(properties, this::newAuthenticator);
+        Session second = cache.getSession((Properties) properties.clone(), this::newAuthenticator);
+
+        assertThat(second).isSameAs(first);
+        assertThat(authenticatorsCreated.get()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDifferentCredentialsDoNotShareSession() {
+        SessionCache cache = new SessionCache(4);
+
+        Session first = cache.getSession(properties, this::newAuthenticator);
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD, "other");
+        Session second = cache.getSession(properties, this::newAuthenticator);
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getProperties().get(EmailSender.PROPERTY_MAIL_SMTP_PASSWORD)).isEqualTo("other");
+    }
+
+    @Test
+    public void testSessionIsNotAffectedByLaterChanges() {
+        SessionCache cache = new SessionCache(4);
+
+        Session session = cache.getSession(properties, this::newAuthenticator);
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, "other");
+
+        assertThat(session.getProperties().get(EmailSender.PROPERTY_MAIL_SMTP_HOST)).isEqualTo("host");
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        SessionCache cache = new SessionCache(2);
+
+        for (int i = 0; i < 10; i++) {
+            properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, i);
+            cache.getSession(properties, this::newAuthenticator);
+        }
+
+        assertThat(cache.size()).isAtMost(2L);
+    }
+
+    @Test
+    public void testFingerprintIgnoresNonMailProperties() {
+        String fingerprint = SessionCache.fingerprint(properties);
+        properties.put("other.property", "value");
+
+        assertThat(SessionCache.fingerprint(properties)).isEqualTo(fingerprint);
+    }
+
+    @Test
+    public void testFingerprintDependsOnValues() {
+        String fingerprint = SessionCache.fingerprint(properties);
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, 587);
+
+        assertThat(SessionCache.fingerprint(properties)).isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    public void testFingerprintDoesNotDependOnValueTypes() {
+        Properties typed = new Properties();
+        typed.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, 25);
+        typed.put(EmailSender.PROPERTY_MAIL_SMTP_AUTH, true);
+
+        Properties strings = new Properties();
+        strings.put(EmailSender.PROPERTY_MAIL_SMTP_AUTH, "true");
+        strings.put(EmailSender.PROPERTY_MAIL_SMTP_PORT, "25");
+
+        assertThat(SessionCache.fingerprint(strings)).isEqualTo(SessionCache.fingerprint(typed));
+    }
+
+    @Test
+    public void testPipeliningTransportIsAvailable() throws Exception {
+        SessionCache cache = new SessionCache(4);
+
+        Session session = cache.getSession(properties, this::newAuthenticator);
+        assertThat(session.getTransport("smtp")).isNotInstanceOf(PipeliningSmtpTransport.class);
+
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_CLASS, PipeliningSmtpTransport.class.getName());
+        session = cache.getSession(properties, this::newAuthenticator);
+        assertThat(session.getTransport("smtp")).isInstanceOf(PipeliningSmtpTransport.class);
+    }
+
+    @Test
+    public void testPlainConnectionsHonourTheSendDeadline() {
+        SessionCache cache = new SessionCache(4);
+
+        Session session = cache.getSession(properties, this::newAuthenticator);
+        assertThat(session.getProperties().get("mail.smtp.socketFactory")).isInstanceOf(DeadlineSocketFactory.class);
+        assertThat(session.getProperty("mail.smtp.socketFactory.fallback")).isEqualTo("false");
+
+        properties.put("mail.smtp.ssl.enable", "true");
+        session = cache.getSession(properties, this::newAuthenticator);
+        assertThat(session.getProperties().get("mail.smtp.socketFactory")).isNull();
+        // the configuration of the senders is left untouched
+        assertThat(properties.get("mail.smtp.socketFactory")).isNull();
+    }
+
+    private Authenticator newAuthenticator() {
+        authenticatorsCreated.incrementAndGet();
+        return new Authenticator() {
+        };
+    }
+
+}
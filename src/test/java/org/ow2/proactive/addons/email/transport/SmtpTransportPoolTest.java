@@ -0,0 +1,319 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.transport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.proactive.addons.email.EmailSender;
+import org.ow2.proactive.addons.email.exception.EmailException;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Unit tests related to {@link SmtpTransportPool}.
+ *
+ * @author ActiveEon Team
+ */
+public class SmtpTransportPoolTest {
+
+    private static final SmtpEndpoint ENDPOINT = new SmtpEndpoint("host",
+                                                                  25,
+                                                                  "username",
+                                                                  "password",
+                                                                  true,
+                                                                  false,
+                                                                  false,
+                                                                  "*");
+
+    private FakeTicker ticker;
+
+    private List<Transport> created;
+
+    private SmtpTransportPool pool;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        created = new ArrayList<>();
+        pool = new SmtpTransportPool(2, 30000, 300000, 2000, 100, ticker);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testTransportIsReused() throws MessagingException {
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+
+        assertThat(created).hasSize(1);
+        verify(created.get(0)).connect();
+        verify(created.get(0), never()).close();
+        assertThat(pool.getIdleCount(ENDPOINT)).isEqualTo(1);
+        assertThat(pool.getActiveCount(ENDPOINT)).isEqualTo(0);
+    }
+
+    @Test
+    public void testEndpointsAreNotShared() throws MessagingException {
+        SmtpEndpoint other = new SmtpEndpoint("host", 25, "other", "password", true, false, false, "*");
+
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+        pool.execute(other, this::newTransport, transport -> null);
+
+        assertThat(created).hasSize(2);
+    }
+
+    @Test
+    public void testTransportClassAndTimeoutsAreNotShared() throws MessagingException {
+        Properties properties = new Properties();
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_HOST, "host");
+        SmtpEndpoint plain = SmtpEndpoint.from(properties);
+
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_CLASS, PipeliningSmtpTransport.class.getName());
+        SmtpEndpoint pipelining = SmtpEndpoint.from(properties);
+
+        properties.put(EmailSender.PROPERTY_MAIL_SMTP_TIMEOUT, 1000);
+        SmtpEndpoint shortTimeout = SmtpEndpoint.from(properties);
+
+        pool.execute(plain, this::newTransport, transport -> null);
+        pool.execute(pipelining, this::newTransport, transport -> null);
+        pool.execute(shortTimeout, this::newTransport, transport -> null);
+
+        assertThat(created).hasSize(3);
+    }
+
+    @Test
+    public void testIdleTransportIsCheckedBeforeReuse() throws MessagingException {
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+        ticker.advance(5, TimeUnit.SECONDS);
+        when(created.get(0).isConnected()).thenReturn(false);
+
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+
+        assertThat(created).hasSize(2);
+        verify(created.get(0)).isConnected();
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void testRecentlyUsedTransportIsNotChecked() throws MessagingException {
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+        ticker.advance(1, TimeUnit.SECONDS);
+
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+
+        assertThat(created).hasSize(1);
+        verify(created.get(0), never()).isConnected();
+    }
+
+    @Test
+    public void testIdleTransportsAreEvicted() throws MessagingException {
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+        ticker.advance(31, TimeUnit.SECONDS);
+
+        pool.evictExpired();
+
+        assertThat(pool.getIdleCount(ENDPOINT)).isEqualTo(0);
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void testTransportIsRecycledAfterMaxAge() throws MessagingException {
+        for (int i = 0; i < 12; i++) {
+            pool.execute(ENDPOINT, this::newTransport, transport -> null);
+            ticker.advance(29, TimeUnit.SECONDS);
+        }
+
+        assertThat(created).hasSize(2);
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void testReusedTransportIsReopenedOnFailure() throws MessagingException {
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+
+        List<Transport> used = new ArrayList<>();
+        pool.execute(ENDPOINT, this::newTransport, transport -> {
+            used.add(transport);
+            if (used.size() == 1) {
+                throw new MessagingException("connection reset");
+            }
+            return null;
+        });
+
+        assertThat(created).hasSize(2);
+        assertThat(used).containsExactlyElementsIn(created).inOrder();
+        verify(created.get(0)).close();
+        assertThat(pool.getIdleCount(ENDPOINT)).isEqualTo(1);
+    }
+
+    @Test
+    public void testReusedTransportIsNotReopenedAfterPartialDelivery() throws MessagingException {
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+
+        RecipientReport report = new RecipientReport(ImmutableList.of("user0@company.com"), ImmutableMap.of());
+        try {
+            pool.execute(ENDPOINT, this::newTransport, transport -> {
+                throw new PartialDeliveryException(report,
+                                                   new Address[] { new InternetAddress("user1@company.com") },
+                                                   new MessagingException("connection reset"));
+            });
+        } catch (PartialDeliveryException e) {
+            assertThat(e.getReport()).isSameAs(report);
+        }
+
+        // the message would be sent twice to the recipients that have accepted it
+        assertThat(created).hasSize(1);
+        verify(created.get(0)).close();
+    }
+
+    @Test
+    public void testNewTransportIsNotReopenedOnFailure() throws MessagingException {
+        try {
+            pool.execute(ENDPOINT, this::newTransport, transport -> {
+                throw new MessagingException("connection reset");
+            });
+        } catch (MessagingException e) {
+            assertThat(e).hasMessage("connection reset");
+        }
+
+        assertThat(created).hasSize(1);
+        assertThat(pool.getIdleCount(ENDPOINT)).isEqualTo(0);
+        assertThat(pool.getActiveCount(ENDPOINT)).isEqualTo(0);
+    }
+
+    @Test
+    public void testTransportIsKeptWhenMessageIsRejected() throws MessagingException {
+        try {
+            pool.execute(ENDPOINT, this::newTransport, transport -> {
+                throw new SendFailedException("rejected");
+            });
+        } catch (SendFailedException e) {
+            assertThat(e).hasMessage("rejected");
+        }
+
+        assertThat(pool.getIdleCount(ENDPOINT)).isEqualTo(1);
+        verify(created.get(0), never()).close();
+    }
+
+    @Test
+    public void testConnectFailureReleasesPermit() throws MessagingException {
+        Transport failing = mock(Transport.class);
+        doThrow(new MessagingException("unreachable")).when(failing).connect();
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                pool.execute(ENDPOINT, () -> failing, transport -> null);
+            } catch (MessagingException e) {
+                assertThat(e).hasMessage("unreachable");
+            }
+        }
+
+        assertThat(pool.getActiveCount(ENDPOINT)).isEqualTo(0);
+    }
+
+    @Test
+    public void testTransportIsClosedWhenConnectFails() throws MessagingException {
+        Transport failing = mock(Transport.class);
+        doThrow(new MessagingException("authentication failed")).when(failing).connect();
+
+        try {
+            pool.execute(ENDPOINT, () -> failing, transport -> null);
+            fail("The connection should have failed");
+        } catch (MessagingException e) {
+            assertThat(e).hasMessage("authentication failed");
+        }
+
+        verify(failing).close();
+    }
+
+    @Test(expected = EmailException.class)
+    public void testBorrowTimesOutWhenPoolIsExhausted() throws MessagingException {
+        pool.execute(ENDPOINT,
+                     this::newTransport,
+                     outer -> pool.execute(ENDPOINT,
+                                           this::newTransport,
+                                           inner -> pool.execute(ENDPOINT, this::newTransport, transport -> null)));
+    }
+
+    @Test
+    public void testCloseClosesIdleTransports() throws MessagingException {
+        pool.execute(ENDPOINT, this::newTransport, transport -> null);
+
+        pool.close();
+
+        verify(created.get(0), times(1)).close();
+    }
+
+    private Transport newTransport() {
+        Transport transport = mock(Transport.class);
+        when(transport.isConnected()).thenReturn(true);
+        created.add(transport);
+        return transport;
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+
+    }
+
+}
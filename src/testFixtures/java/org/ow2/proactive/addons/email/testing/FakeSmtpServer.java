@@ -0,0 +1,1096 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+
+/**
+ * An embeddable SMTP server for integration and load tests.
+ * <p>
+ * The server runs a single selector thread that serves all connections with non-blocking I/O,
+ * so that it can sustain many concurrent clients. It supports EHLO, PIPELINING, CHUNKING (BDAT),
+ * STARTTLS with a self-signed certificate, AUTH PLAIN and AUTH LOGIN. Replies can be delayed
+ * to simulate a remote relay, and faults can be injected for any command to test error handling.
+ * <p>
+ * Accepted messages are counted and, unless disabled, kept in memory for inspection.
+ *
+ * @author ActiveEon Team
+ */
+public class FakeSmtpServer implements AutoCloseable {
+
+    /**
+     * The pseudo command used to inject a fault at the end of the content of a message,
+     * after DATA or the last BDAT chunk.
+     */
+    public static final String END_OF_DATA = "<CRLF>.<CRLF>";
+
+    private static final String KEYSTORE_RESOURCE = "fake-smtp-server.p12";
+
+    private static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final String hostName;
+
+    private final String username;
+
+    private final String password;
+
+    private final boolean authRequired;
+
+    private final boolean pipelining;
+
+    private final boolean chunking;
+
+    private final boolean retainMessages;
+
+    private final long latencyNanos;
+
+    private final SSLContext sslContext;
+
+    private final Selector selector;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final Thread selectorThread;
+
+    private final ScheduledExecutorService delayer;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentMap<String, Fault> faults = new ConcurrentHashMap<>();
+
+    private final Queue<ReceivedMessage> receivedMessages = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong messageCount = new AtomicLong();
+
+    private final AtomicLong connectionCount = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private FakeSmtpServer(Builder builder) throws IOException {
+        this.hostName = builder.hostName;
+        this.username = builder.username;
+        this.password = builder.password;
+        this.authRequired = builder.authRequired;
+        this.pipelining = builder.pipelining;
+        this.chunking = builder.chunking;
+        this.retainMessages = builder.retainMessages;
+        this.latencyNanos = builder.latency.toNanos();
+        this.sslContext = builder.startTls ? createSslContext() : null;
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(builder.address, builder.port), 128);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        delayer = latencyNanos > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fake-smtp-server-delayer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        selectorThread = new Thread(this::selectLoop, "fake-smtp-server-" + getPort());
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public String getHost() {
+        return serverChannel.socket().getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Returns the number of messages accepted since the server started or was last cleared.
+     */
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * Returns the number of connections accepted since the server started.
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Returns the accepted messages, in order of acceptance. Always empty if messages are not retained.
+     */
+    public List<ReceivedMessage> getReceivedMessages() {
+        return new ArrayList<>(receivedMessages);
+    }
+
+    /**
+     * Waits until the server has accepted the specified number of messages.
+     *
+     * @return true if the messages have been accepted before the timeout.
+     */
+    public boolean awaitMessages(long count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (messageCount.get() < count) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the accepted messages and the injected faults.
+     */
+    public void clear() {
+        receivedMessages.clear();
+        messageCount.set(0);
+        faults.clear();
+    }
+
+    /**
+     * Replies to the next occurrences of a command with the specified reply instead of processing it.
+     *
+     * @param command the command verb, such as {@code RCPT}, or {@link #END_OF_DATA}.
+     * @param reply the reply to send, such as {@code 451 4.3.0 Try again later}.
+     * @param times the number of commands affected.
+     */
+    public void injectReply(String command, String reply, int times) {
+        faults.put(command.toUpperCase(Locale.ROOT), new Fault(reply, times));
+    }
+
+    /**
+     * Closes the connection abruptly when the next occurrences of a command are received.
+     *
+     * @param command the command verb, such as {@code MAIL}, or {@link #END_OF_DATA}.
+     * @param times the number of commands affected.
+     */
+    public void injectDisconnect(String command, int times) {
+        faults.put(command.toUpperCase(Locale.ROOT), new Fault(null, times));
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (delayer != null) {
+            delayer.shutdownNow();
+        }
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException e) {
+            // the selector is unusable, stop serving
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignored on shutdown
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                connection.onReadable();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(key);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Connection connection = new Connection(channel, key);
+            key.attach(connection);
+            connectionCount.incrementAndGet();
+            connection.reply("220 " + hostName + " ESMTP fake server ready");
+        }
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private static SSLContext createSslContext() throws IOException {
+        try (InputStream keystore = FakeSmtpServer.class.getResourceAsStream(KEYSTORE_RESOURCE)) {
+            if (keystore == null) {
+                throw new IOException("Keystore not found: " + KEYSTORE_RESOURCE);
+            }
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(keystore, KEYSTORE_PASSWORD);
+
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagerFactory.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to load the server certificate", e);
+        }
+    }
+
+    private static final class Fault {
+
+        private final String reply;
+
+        private final AtomicInteger remaining;
+
+        private Fault(String reply, int times) {
+            this.reply = reply;
+            this.remaining = new AtomicInteger(times);
+        }
+
+        private boolean consume() {
+            return remaining.getAndUpdate(value -> Math.max(0, value - 1)) > 0;
+        }
+
+    }
+
+    private enum State {
+        COMMAND,
+        DATA,
+        BDAT,
+        AUTH_PLAIN,
+        AUTH_LOGIN_USERNAME,
+        AUTH_LOGIN_PASSWORD
+    }
+
+    /**
+     * The state of one client connection, only accessed by the selector thread.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        // outgoing encoded bytes, and actions to run once the bytes queued before them are written
+        private final Deque<Object> outbound = new ArrayDeque<>();
+
+        private ByteBuffer appIn = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private ByteBuffer netIn;
+
+        private SSLEngine engine;
+
+        private State state = State.COMMAND;
+
+        private String from;
+
+        private final List<String> recipients = new ArrayList<>();
+
+        private ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private long bdatRemaining;
+
+        private boolean bdatLast;
+
+        private String authenticatedUser;
+
+        private String pendingUsername;
+
+        private boolean closing;
+
+        private boolean processing;
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void onReadable() throws IOException {
+            if (engine == null) {
+                ensureCapacity();
+                if (channel.read(appIn) < 0) {
+                    closeQuietly(key);
+                    return;
+                }
+            } else {
+                if (!netIn.hasRemaining()) {
+                    netIn = grow(netIn);
+                }
+                if (channel.read(netIn) < 0) {
+                    closeQuietly(key);
+                    return;
+                }
+                unwrap();
+            }
+
+            process();
+        }
+
+        private void ensureCapacity() {
+            if (!appIn.hasRemaining()) {
+                appIn = grow(appIn);
+            }
+        }
+
+        private void process() throws IOException {
+            SSLEngine initialEngine = engine;
+            processing = true;
+            appIn.flip();
+            try {
+                while (appIn.hasRemaining() && !closing && key.isValid() && engine == initialEngine) {
+                    if (state == State.BDAT) {
+                        int length = (int) Math.min(bdatRemaining, appIn.remaining());
+                        content.write(appIn.array(), appIn.arrayOffset() + appIn.position(), length);
+                        appIn.position(appIn.position() + length);
+                        bdatRemaining -= length;
+                        if (bdatRemaining == 0) {
+                            state = State.COMMAND;
+                            endOfChunk();
+                        }
+                        continue;
+                    }
+
+                    int end = indexOf(appIn, (byte) '\n');
+                    if (end < 0) {
+                        break;
+                    }
+
+                    int start = appIn.position();
+                    int length = end - start + 1;
+                    appIn.position(end + 1);
+
+                    if (state == State.DATA) {
+                        dataLine(appIn.array(), appIn.arrayOffset() + start, length);
+                    } else {
+                        command(new String(appIn.array(),
+                                           appIn.arrayOffset() + start,
+                                           trimLineEnd(appIn.array(), appIn.arrayOffset() + start, length),
+                                           StandardCharsets.ISO_8859_1));
+                    }
+                }
+            } finally {
+                processing = false;
+                if (engine == initialEngine) {
+                    appIn.compact();
+                } else {
+                    // commands pipelined after STARTTLS are discarded, as required by RFC 3207
+                    appIn.clear();
+                }
+            }
+        }
+
+        private void dataLine(byte[] bytes, int offset, int length) throws IOException {
+            int lineLength = trimLineEnd(bytes, offset, length);
+            if (lineLength == 1 && bytes[offset] == '.') {
+                state = State.COMMAND;
+                endOfMessage();
+                return;
+            }
+
+            // removes the dot added by the client to lines starting with a dot
+            if (bytes[offset] == '.') {
+                content.write(bytes, offset + 1, length - 1);
+            } else {
+                content.write(bytes, offset, length);
+            }
+        }
+
+        private void command(String line) throws IOException {
+            switch (state) {
+                case AUTH_PLAIN:
+                    state = State.COMMAND;
+                    authPlain(line);
+                    return;
+                case AUTH_LOGIN_USERNAME:
+                    pendingUsername = decode(line);
+                    state = State.AUTH_LOGIN_PASSWORD;
+                    reply("334 UGFzc3dvcmQ6");
+                    return;
+                case AUTH_LOGIN_PASSWORD:
+                    state = State.COMMAND;
+                    authenticate(pendingUsername, decode(line));
+                    return;
+                default:
+                    break;
+            }
+
+            int space = line.indexOf(' ');
+            String verb = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+            String argument = space < 0 ? "" : line.substring(space + 1).trim();
+
+            Fault fault = faults.get(verb);
+            if (fault != null && fault.consume()) {
+                if (fault.reply == null) {
+                    closeQuietly(key);
+                    return;
+                }
+                if ("BDAT".equals(verb)) {
+                    // the chunk is sent anyway and must be skipped
+                    bdatRemaining = parseChunkSize(argument);
+                    bdatLast = false;
+                    content = null;
+                    state = bdatRemaining > 0 ? State.BDAT : State.COMMAND;
+                }
+                reply(fault.reply);
+                return;
+            }
+
+            switch (verb) {
+                case "EHLO":
+                    resetTransaction();
+                    ehlo();
+                    break;
+                case "HELO":
+                    resetTransaction();
+                    reply("250 " + hostName);
+                    break;
+                case "STARTTLS":
+                    if (sslContext == null || engine != null) {
+                        reply("502 5.5.1 STARTTLS not available");
+                    } else {
+                        // the bytes received after the command are part of the TLS handshake
+                        reply("220 2.0.0 Ready to start TLS", this::startTls);
+                    }
+                    break;
+                case "AUTH":
+                    auth(argument);
+                    break;
+                case "MAIL":
+                    if (authRequired && authenticatedUser == null) {
+                        reply("530 5.7.0 Authentication required");
+                    } else {
+                        resetTransaction();
+                        from = extractPath(argument);
+                        reply("250 2.1.0 OK");
+                    }
+                    break;
+                case "RCPT":
+                    if (from == null) {
+                        reply("503 5.5.1 Need MAIL command");
+                    } else {
+                        recipients.add(extractPath(argument));
+                        reply("250 2.1.5 OK");
+                    }
+                    break;
+                case "DATA":
+                    if (recipients.isEmpty()) {
+                        reply("554 5.5.1 No valid recipients");
+                    } else {
+                        state = State.DATA;
+                        reply("354 End data with <CR><LF>.<CR><LF>");
+                    }
+                    break;
+                case "BDAT":
+                    bdat(argument);
+                    break;
+                case "RSET":
+                    resetTransaction();
+                    reply("250 2.0.0 OK");
+                    break;
+                case "NOOP":
+                    reply("250 2.0.0 OK");
+                    break;
+                case "VRFY":
+                    reply("252 2.5.2 Cannot verify");
+                    break;
+                case "QUIT":
+                    reply("221 2.0.0 Bye", () -> closeQuietly(key));
+                    closing = true;
+                    break;
+                default:
+                    reply("500 5.5.2 Command not recognized");
+                    break;
+            }
+        }
+
+        private void ehlo() throws IOException {
+            List<String> extensions = new ArrayList<>();
+            extensions.add(hostName);
+            if (pipelining) {
+                extensions.add("PIPELINING");
+            }
+            if (chunking) {
+                extensions.add("CHUNKING");
+            }
+            extensions.add("8BITMIME");
+            if (sslContext != null && engine == null) {
+                extensions.add("STARTTLS");
+            }
+            extensions.add("AUTH PLAIN LOGIN");
+
+            StringBuilder reply = new StringBuilder();
+            for (int i = 0; i < extensions.size(); i++) {
+                if (i > 0) {
+                    reply.append("\r\n");
+                }
+                reply.append(i == extensions.size() - 1 ? "250 " : "250-").append(extensions.get(i));
+            }
+            reply(reply.toString());
+        }
+
+        private void auth(String argument) throws IOException {
+            String[] arguments = argument.split(" ", 2);
+            String mechanism = arguments[0].toUpperCase(Locale.ROOT);
+
+            if (authenticatedUser != null) {
+                reply("503 5.5.1 Already authenticated");
+            } else if ("PLAIN".equals(mechanism)) {
+                if (arguments.length > 1) {
+                    authPlain(arguments[1]);
+                } else {
+                    state = State.AUTH_PLAIN;
+                    reply("334 ");
+                }
+            } else if ("LOGIN".equals(mechanism)) {
+                if (arguments.length > 1) {
+                    pendingUsername = decode(arguments[1]);
+                    state = State.AUTH_LOGIN_PASSWORD;
+                    reply("334 UGFzc3dvcmQ6");
+                } else {
+                    state = State.AUTH_LOGIN_USERNAME;
+                    reply("334 VXNlcm5hbWU6");
+                }
+            } else {
+                reply("504 5.5.4 Unrecognized authentication type");
+            }
+        }
+
+        private void authPlain(String response) throws IOException {
+            // authorization identity, authentication identity and password separated by NUL
+            String[] fields = decode(response).split("\0", -1);
+            if (fields.length != 3) {
+                reply("501 5.5.2 Invalid AUTH PLAIN response");
+                return;
+            }
+            authenticate(fields[1], fields[2]);
+        }
+
+        private void authenticate(String user, String secret) throws IOException {
+            boolean valid = user != null && (username == null || username.equals(user)) &&
+                            (password == null || password.equals(secret));
+            if (valid) {
+                authenticatedUser = user;
+                reply("235 2.7.0 Authentication successful");
+            } else {
+                reply("535 5.7.8 Authentication credentials invalid");
+            }
+        }
+
+        private void bdat(String argument) throws IOException {
+            String[] arguments = argument.split(" ");
+            long size = parseChunkSize(arguments[0]);
+            if (size < 0) {
+                reply("501 5.5.4 Invalid chunk size");
+                return;
+            }
+
+            boolean last = arguments.length > 1 && "LAST".equalsIgnoreCase(arguments[1]);
+            if (recipients.isEmpty()) {
+                // the chunk has been sent anyway and is discarded
+                bdatRemaining = size;
+                bdatLast = false;
+                content = null;
+                state = size > 0 ? State.BDAT : State.COMMAND;
+                reply("554 5.5.1 No valid recipients");
+                return;
+            }
+
+            bdatRemaining = size;
+            bdatLast = last;
+            state = State.BDAT;
+            if (size == 0) {
+                state = State.COMMAND;
+                endOfChunk();
+            }
+        }
+
+        private void endOfChunk() throws IOException {
+            if (content == null) {
+                // the chunk of a rejected transaction
+                content = new ByteArrayOutputStream();
+                return;
+            }
+            if (bdatLast) {
+                endOfMessage();
+            } else {
+                reply("250 2.0.0 Chunk accepted");
+            }
+        }
+
+        private void endOfMessage() throws IOException {
+            Fault fault = faults.get(END_OF_DATA);
+            if (fault != null && fault.consume()) {
+                resetTransaction();
+                if (fault.reply == null) {
+                    closeQuietly(key);
+                } else {
+                    reply(fault.reply);
+                }
+                return;
+            }
+
+            if (retainMessages) {
+                receivedMessages.add(new ReceivedMessage(from,
+                                                         new ArrayList<>(recipients),
+                                                         content.toByteArray(),
+                                                         authenticatedUser));
+            }
+            messageCount.incrementAndGet();
+            resetTransaction();
+            reply("250 2.0.0 OK: queued");
+        }
+
+        private void resetTransaction() {
+            from = null;
+            recipients.clear();
+            content = new ByteArrayOutputStream();
+            bdatRemaining = 0;
+            bdatLast = false;
+        }
+
+        private void reply(String reply) throws IOException {
+            reply(reply, null);
+        }
+
+        private void reply(String reply, Runnable afterWrite) throws IOException {
+            byte[] bytes = (reply + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+            if (latencyNanos <= 0) {
+                send(bytes, afterWrite);
+                return;
+            }
+
+            delayer.schedule(() -> execute(() -> {
+                try {
+                    send(bytes, afterWrite);
+                } catch (IOException | RuntimeException e) {
+                    closeQuietly(key);
+                }
+            }), latencyNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void send(byte[] bytes, Runnable afterWrite) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+
+            if (engine == null) {
+                outbound.add(ByteBuffer.wrap(bytes));
+            } else {
+                wrap(ByteBuffer.wrap(bytes));
+            }
+            if (afterWrite != null) {
+                outbound.add(afterWrite);
+            }
+            flush();
+        }
+
+        private void flush() throws IOException {
+            while (!outbound.isEmpty() && key.isValid()) {
+                Object head = outbound.peek();
+                if (head instanceof Runnable) {
+                    outbound.poll();
+                    ((Runnable) head).run();
+                    continue;
+                }
+
+                ByteBuffer buffer = (ByteBuffer) head;
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbound.poll();
+            }
+
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void startTls() {
+            engine = sslContext.createSSLEngine();
+            engine.setUseClientMode(false);
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            if (!processing) {
+                appIn.clear();
+            }
+            resetTransaction();
+            authenticatedUser = null;
+            try {
+                engine.beginHandshake();
+            } catch (SSLException e) {
+                closeQuietly(key);
+            }
+        }
+
+        private void unwrap() throws IOException {
+            while (true) {
+                netIn.flip();
+                SSLEngineResult result;
+                try {
+                    result = engine.unwrap(netIn, appIn);
+                } finally {
+                    netIn.compact();
+                }
+
+                switch (result.getStatus()) {
+                    case BUFFER_OVERFLOW:
+                        appIn = grow(appIn);
+                        continue;
+                    case BUFFER_UNDERFLOW:
+                        return;
+                    case CLOSED:
+                        closeQuietly(key);
+                        return;
+                    default:
+                        break;
+                }
+
+                if (!handshake(result.getHandshakeStatus()) && result.bytesConsumed() == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Advances the handshake as far as possible without reading.
+         *
+         * @return true if the caller should unwrap again.
+         */
+        private boolean handshake(SSLEngineResult.HandshakeStatus status) throws IOException {
+            SSLEngineResult.HandshakeStatus current = status;
+            while (true) {
+                switch (current) {
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        current = engine.getHandshakeStatus();
+                        break;
+                    case NEED_WRAP:
+                        wrap(ByteBuffer.allocate(0));
+                        flush();
+                        current = engine.getHandshakeStatus();
+                        break;
+                    case NEED_UNWRAP:
+                        return netIn.position() > 0;
+                    default:
+                        return netIn.position() > 0;
+                }
+            }
+        }
+
+        private void wrap(ByteBuffer source) throws IOException {
+            do {
+                ByteBuffer packet = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                SSLEngineResult result = engine.wrap(source, packet);
+                packet.flip();
+                if (packet.hasRemaining()) {
+                    outbound.add(packet);
+                }
+
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    return;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0 &&
+                    engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    return;
+                }
+            } while (source.hasRemaining() || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP);
+        }
+
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value) {
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset();
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (array[offset + i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int trimLineEnd(byte[] bytes, int offset, int length) {
+        int end = length;
+        if (end > 0 && bytes[offset + end - 1] == '\n') {
+            end--;
+        }
+        if (end > 0 && bytes[offset + end - 1] == '\r') {
+            end--;
+        }
+        return end;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static String extractPath(String argument) {
+        int start = argument.indexOf('<');
+        int end = argument.indexOf('>', start + 1);
+        if (start >= 0 && end > start) {
+            return argument.substring(start + 1, end);
+        }
+        int colon = argument.indexOf(':');
+        return colon >= 0 ? argument.substring(colon + 1).trim() : argument;
+    }
+
+    private static long parseChunkSize(String argument) {
+        try {
+            return Long.parseLong(argument.split(" ")[0]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String decode(String base64) {
+        try {
+            return new String(Base64.getDecoder().decode(base64.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Utility class for creating an instance of {@link FakeSmtpServer}.
+     */
+    public static class Builder {
+
+        private InetAddress address = InetAddress.getLoopbackAddress();
+
+        private int port;
+
+        private String hostName = "localhost";
+
+        private boolean startTls;
+
+        private String username;
+
+        private String password;
+
+        private boolean authRequired;
+
+        private boolean pipelining = true;
+
+        private boolean chunking = true;
+
+        private boolean retainMessages = true;
+
+        private Duration latency = Duration.ZERO;
+
+        /**
+         * @param port the port to listen on. Defaults to 0, a free port chosen by the system.
+         * @return the builder instance.
+         */
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder setAddress(InetAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * @param hostName the name announced in the greeting and EHLO replies. Defaults to localhost.
+         * @return the builder instance.
+         */
+        public Builder setHostName(String hostName) {
+            this.hostName = hostName;
+            return this;
+        }
+
+        /**
+         * @param startTls if true, STARTTLS is offered with a self-signed certificate issued for localhost.
+         * Defaults to false.
+         * @return the builder instance.
+         */
+        public Builder setStartTls(boolean startTls) {
+            this.startTls = startTls;
+            return this;
+        }
+
+        /**
+         * Accept only the specified credentials. Any credentials are accepted by default.
+         *
+         * @param username the expected user name.
+         * @param password the expected password.
+         * @return the builder instance.
+         */
+        public Builder setCredentials(String username, String password) {
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * @param authRequired if true, MAIL is rejected until the client authenticates. Defaults to false.
+         * @return the builder instance.
+         */
+        public Builder setAuthRequired(boolean authRequired) {
+            this.authRequired = authRequired;
+            return this;
+        }
+
+        public Builder setPipelining(boolean pipelining) {
+            this.pipelining = pipelining;
+            return this;
+        }
+
+        public Builder setChunking(boolean chunking) {
+            this.chunking = chunking;
+            return this;
+        }
+
+        /**
+         * @param retainMessages if false, accepted messages are only counted, which keeps memory
+         * usage constant during load tests. Defaults to true.
+         * @return the builder instance.
+         */
+        public Builder setRetainMessages(boolean retainMessages) {
+            this.retainMessages = retainMessages;
+            return this;
+        }
+
+        /**
+         * @param latency the delay applied to every reply, to simulate a remote relay. Defaults to none.
+         * @return the builder instance.
+         */
+        public Builder setLatency(Duration latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Creates the server and starts listening.
+         *
+         * @throws IOException if the server cannot listen on the specified port.
+         */
+        public FakeSmtpServer build() throws IOException {
+            return new FakeSmtpServer(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * ProActive Parallel Suite(TM):
+ * The Open Source library for parallel and distributed
+ * Workflows & Scheduling, Orchestration, Cloud Automation
+ * and Big Data Analysis on Enterprise Grids & Clouds.
+ *
+ * Copyright (c) 2007 - 2017 ActiveEon
+ * Contact: contact@activeeon.com
+ *
+ * This library is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation: version 3 of
+ * the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * If needed, contact us to obtain a release under GPL Version 2 or 3
+ * or a different license than the AGPL.
+ */
+package org.ow2.proactive.addons.email.testing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A message accepted by a {@link FakeSmtpServer}.
+ *
+ * @author ActiveEon Team
+ */
+public final class ReceivedMessage {
+
+    private final String from;
+
+    private final List<String> recipients;
+
+    private final byte[] content;
+
+    private final String username;
+
+    ReceivedMessage(String from, List<String> recipients, byte[] content, String username) {
+        this.from = from;
+        this.recipients = Collections.unmodifiableList(recipients);
+        this.content = content;
+        this.username = username;
+    }
+
+    /**
+     * Returns the reverse path given in the MAIL FROM command.
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * Returns the forward paths given in the RCPT TO commands.
+     */
+    public List<String> getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * Returns the content of the message, headers included, with dot-stuffing removed.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getContentAsString() {
+        return new String(content, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the user that has sent the message, or {@code null} if the client did not authenticate.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String toString() {
+        return "ReceivedMessage{" + "from='" + from + '\'' + ", recipients=" + recipients + ", size=" +
+               content.length + '}';
+    }
+
+}